@@ -43,11 +43,21 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
     // TODO: Should we limit the size ?
     private final Queue<Response> responses = new LinkedBlockingQueue<Response>();
     private volatile boolean isAsync = false;
+    private Runnable writtenTask;
     
     /**
      * @see org.apache.james.protocols.api.ProtocolTransport#writeResponse(org.apache.james.protocols.api.Response, org.apache.james.protocols.api.ProtocolSession)
      */
     public final void writeResponse(Response response, final ProtocolSession session) {
+        // replace a delayed response with one which gets ready after the delay. This way it is handled like every other 
+        // FutureResponse and no response can overtake it
+        if (response instanceof DelayedResponse) {
+            long delay = ((DelayedResponse) response).getDelay();
+            if (delay > 0) {
+                response = delayResponse(response, delay);
+            }
+        }
+        
         // if we already in asynchrnous mode we simply enqueue the response
         // we do this synchronously because we may have a dequeuer thread working on
         // isAsync and responses.
@@ -61,12 +71,19 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         
         // if we didn't enqueue then we check if the response is writable or we have to 
         // set us "asynchrnous" and wait for response to be ready.
+        //
+        // isAsync must be set before the listener is added, as the listener may be called directly if the response 
+        // got ready in the meantime. Otherwise we would stay asynchronous forever.
         if (!enqueued) {
             if (isResponseWritable(response)) {
-                writeResponseToClient(response, session);
+                Response pending = writeResponseChain(response, session);
+                if (pending != null) {
+                    isAsync = true;
+                    addDequeuerListener(pending, session);
+                }
             } else {
-                addDequeuerListener(response, session);
                 isAsync = true;
+                addDequeuerListener(response, session);
             }
         }
     }
@@ -88,18 +105,30 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
             
             // synchrnously we check responses and if it is empty we move back to non asynch
             // behaviour
+            Runnable task = null;
             synchronized(this) {
                 queuedResponse = responses.poll();
                 if (queuedResponse == null) {
                     isAsync = false;
-                    break;
+                    task = writtenTask;
+                    writtenTask = null;
                 }
             }
+            if (queuedResponse == null) {
+                if (task != null) {
+                    task.run();
+                }
+                break;
+            }
 
             // if we have something in the queue we continue writing until we
             // find something asynchronous.
             if (isResponseWritable(queuedResponse)) {
-                writeResponseToClient(queuedResponse, session);
+                Response pending = writeResponseChain(queuedResponse, session);
+                if (pending != null) {
+                    addDequeuerListener(pending, session);
+                    break;
+                }
             } else {
                 addDequeuerListener(queuedResponse, session);
                 // no changes to isAsync here, because in this method we are always already async.
@@ -108,6 +137,26 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         }
     }
     
+    /**
+     * Run the given task once all {@link Response}'s which were passed to {@link #writeResponse(Response, ProtocolSession)}
+     * were written. If no {@link FutureResponse} is pending the task is run directly, otherwise by the thread which completes
+     * the last one. 
+     * 
+     * This can be used to find out when no timer, executor or asynchronous handler uses the {@link ProtocolSession} anymore,
+     * as they complete a {@link FutureResponse} as last step. Only one task is supported.
+     * 
+     * @param task
+     */
+    public void runWhenResponsesWritten(Runnable task) {
+        synchronized (this) {
+            if (isAsync) {
+                writtenTask = task;
+                return;
+            }
+        }
+        task.run();
+    }
+
     private boolean isResponseWritable(Response response) {
         return !(response instanceof FutureResponse) || ((FutureResponse) response).isReady();
     }
@@ -116,12 +165,68 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         ((FutureResponse) response).addListener(new ResponseListener() {
                 
             public void onResponse(FutureResponse response) {
-                writeResponseToClient(response, session);
-                writeQueuedResponses(session);
+                Response pending = writeResponseChain(response, session);
+                if (pending != null) {
+                    // the chain needs to get written before any queued response
+                    addDequeuerListener(pending, session);
+                } else {
+                    writeQueuedResponses(session);
+                }
             }
         });
     }
     
+    /**
+     * Write the given {@link Response} and all the {@link Response}'s which are chained to it via {@link ChainedResponse}, 
+     * as long as they are writable. 
+     * 
+     * @param response
+     * @param session
+     * @return pending the first chained {@link Response} which is not writable yet or <code>null</code> if the whole chain was written
+     */
+    private Response writeResponseChain(Response response, ProtocolSession session) {
+        while (true) {
+            writeResponseToClient(response, session);
+            if (!(response instanceof ChainedResponse)) {
+                return null;
+            }
+            Response next = ((ChainedResponse) response).getNextResponse();
+            if (next == null) {
+                return null;
+            } else if (!isResponseWritable(next)) {
+                return next;
+            }
+            response = next;
+        }
+    }
+    
+    /**
+     * Delay the given {@link Response} for the given milliseconds without blocking any thread. The returned {@link Response} is 
+     * written in place of the given one, so implementations should return a {@link FutureResponse} which gets ready once the
+     * delay is over.
+     * 
+     * This implementation does not support delays and so just return the given {@link Response}. Sub-classes should override
+     * this if they have some timer at hand.
+     * 
+     * @param response the {@link Response} to delay
+     * @param delay    the delay in milliseconds
+     * @return delayed
+     */
+    protected Response delayResponse(Response response, long delay) {
+        return response;
+    }
+    
+    /**
+     * Return <code>true</code> if a {@link StartTlsResponse} will start TLS after it was written. A {@link StartTlsResponse} is 
+     * only built once the handler decided to start TLS via {@link #isStartTLSSupported()}, so this must not change its mind 
+     * if {@link #isStartTLSSupported()} depends on the load. The default is to return {@link #isStartTLSSupported()}
+     * 
+     * @return canStartTLS
+     */
+    protected boolean canStartTLS() {
+        return isStartTLSSupported();
+    }
+    
     /**
      * Write the {@link Response} to the client
      * 
@@ -132,13 +237,19 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         if (response != null) {
             boolean startTLS = false;
             if (response instanceof StartTlsResponse) {
-                if (isStartTLSSupported()) {
+                if (canStartTLS()) {
                     startTLS = true;
                 }
             }
             
             
-            if (response instanceof StreamResponse) {
+            if (response instanceof FileRegionResponse) {
+                writeToClient(toBytes(response), session, false);
+                writeToClient((FileRegionResponse) response, session, startTLS);
+            } else if (response instanceof ChunkedResponse && ((ChunkedResponse) response).getChunkedSource() != null) {
+                writeToClient(toBytes(response), session, false);
+                writeToClient(((ChunkedResponse) response).getChunkedSource(), session, startTLS);
+            } else if (response instanceof StreamResponse && ((StreamResponse) response).getStream() != null) {
                 writeToClient(toBytes(response), session, false);
                 writeToClient(((StreamResponse) response).getStream(), session, startTLS);
             } else {
@@ -198,7 +309,35 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
      */
     protected abstract void writeToClient(InputStream in, ProtocolSession session, boolean startTLS);
 
+    /**
+     * Write the content of the given {@link FileRegionResponse} to the remote peer. The headline of the {@link Response} was 
+     * already written at this point.
+     * 
+     * This implementation just writes the {@link FileRegionResponse#getStream()}, sub-classes should override this if they are
+     * able to transfer the region without copying it through the heap.
+     * 
+     * @param response the {@link FileRegionResponse} which content should be written back to the client
+     * @param session  the {@link ProtocolSession} for the write request
+     * @param startTLS true if startTLS should be started after the region was written to the client
+     */
+    protected void writeToClient(FileRegionResponse response, ProtocolSession session, boolean startTLS) {
+        writeToClient(response.getStream(), session, startTLS);
+    }
     
+    /**
+     * Write the given {@link ChunkedSource} to the remote peer. The headline of the {@link Response} was already written at this point.
+     * 
+     * This implementation reads the {@link ChunkedSource} via a blocking {@link ChunkedSourceInputStream}, sub-classes should override 
+     * this if they are able to write the chunks once they get available.
+     * 
+     * @param source   the {@link ChunkedSource} which should be written back to the client
+     * @param session  the {@link ProtocolSession} for the write request
+     * @param startTLS true if startTLS should be started after the {@link ChunkedSource} was written to the client
+     */
+    protected void writeToClient(ChunkedSource source, ProtocolSession session, boolean startTLS) {
+        writeToClient(new ChunkedSourceInputStream(source), session, startTLS);
+    }
+
     /**
      * Close the Transport
      */
@@ -112,20 +112,38 @@ public abstract class AbstractResponse implements Response{
      * @return immutable
      */
     public Response immutable() {
-        return new Response() {
-            
-            public boolean isEndSession() {
-                return AbstractResponse.this.isEndSession();
-            }
-            
-            public String getRetCode() {
-                return AbstractResponse.this.getRetCode();
-            }
-            
-            public List<CharSequence> getLines() {
-                return AbstractResponse.this.getLines();
-            }
-        };
+        if (this instanceof StartTlsResponse) {
+            // keep the marker, as TLS must be started after the response was written
+            return new ImmutableStartTlsResponse(this);
+        }
+        return new ImmutableResponse(this);
+    }
+
+    private static class ImmutableResponse implements Response {
+        private final Response response;
+        
+        public ImmutableResponse(Response response) {
+            this.response = response;
+        }
+        
+        public boolean isEndSession() {
+            return response.isEndSession();
+        }
+        
+        public String getRetCode() {
+            return response.getRetCode();
+        }
+        
+        public List<CharSequence> getLines() {
+            return response.getLines();
+        }
+    }
+    
+    private final static class ImmutableStartTlsResponse extends ImmutableResponse implements StartTlsResponse {
+        
+        public ImmutableStartTlsResponse(Response response) {
+            super(response);
+        }
     }
 
 }
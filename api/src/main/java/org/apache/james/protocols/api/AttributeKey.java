@@ -0,0 +1,125 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.Collection;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+
+/**
+ * Typed key which can be used to store attachments in a {@link ProtocolSession}. 
+ * 
+ * Every key gets its own index per {@link State} once it is created, so the {@link ProtocolSession} can store the value in an
+ * array slot. Keys should be created once and stored in a <code>static final</code> field.
+ * 
+ * The name of the key is used by {@link ProtocolSession#getAttachment(String, State)} and 
+ * {@link ProtocolSession#setAttachment(String, Object, State)}, so code which still uses the {@link String} based API
+ * accesses the same value.
+ * 
+ * @param <T> the type of the value
+ */
+public final class AttributeKey<T> {
+
+    private final String name;
+    private final State state;
+    private final int index;
+
+    AttributeKey(String name, State state, int index) {
+        this.name = name;
+        this.state = state;
+        this.index = index;
+    }
+
+    /**
+     * Return the {@link AttributeKey} for the given name and {@link State}. If one was created before for the same name and
+     * {@link State} it is returned, so both share the same slot
+     * 
+     * @param name
+     * @param state
+     * @return key
+     */
+    public static <T> AttributeKey<T> create(String name, State state) {
+        return KeyRegistry.get(state).createAttributeKey(name, state);
+    }
+
+    /**
+     * Return the {@link AttributeKey} which was created for the given name and {@link State} or <code>null</code> if none
+     * exists
+     * 
+     * @param name
+     * @param state
+     * @return key
+     */
+    public static AttributeKey<?> get(String name, State state) {
+        return KeyRegistry.get(state).getAttributeKey(name);
+    }
+
+    /**
+     * Return all {@link AttributeKey}'s which were created for the given {@link State}
+     * 
+     * @param state
+     * @return keys
+     */
+    static Collection<AttributeKey<?>> keys(State state) {
+        return KeyRegistry.get(state).attributeKeys();
+    }
+
+    /**
+     * Return the count of {@link AttributeKey}'s which were created for the given {@link State}
+     * 
+     * @param state
+     * @return count
+     */
+    public static int count(State state) {
+        return KeyRegistry.get(state).attributeCount();
+    }
+
+    /**
+     * Return the name of the key
+     * 
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the {@link State} to which the value belongs
+     * 
+     * @return state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Return the index of the slot which is used to store the value
+     * 
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + state + ")";
+    }
+}
@@ -0,0 +1,40 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+/**
+ * A {@link Response} which is followed by another {@link Response}. The
+ * {@link ProtocolTransport} writes the next {@link Response} directly after
+ * this one and before any other {@link Response}. If the next {@link Response}
+ * is a {@link FutureResponse} the transport waits for it without blocking.
+ * 
+ * This allows to write a reply which consists of many parts in the order of
+ * the parts, as soon as each of them is ready.
+ */
+public interface ChainedResponse extends Response {
+
+    /**
+     * Return the {@link Response} which needs to get written after this one
+     * or <code>null</code> if this is the last {@link Response} of the chain
+     * 
+     * @return next
+     */
+    Response getNextResponse();
+}
@@ -0,0 +1,37 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+/**
+ * Special {@link StreamResponse} which allows to read its content via a
+ * non-blocking {@link ChunkedSource}. {@link #getStream()} MUST return the
+ * same content, it is used by transports which can not make use of the
+ * {@link ChunkedSource}
+ */
+public interface ChunkedResponse extends StreamResponse {
+
+    /**
+     * Return the {@link ChunkedSource} which holds the content or
+     * <code>null</code> if the content should be read via {@link #getStream()}
+     * 
+     * @return source
+     */
+    ChunkedSource getChunkedSource();
+}
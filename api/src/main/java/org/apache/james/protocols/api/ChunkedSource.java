@@ -0,0 +1,78 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.io.IOException;
+
+/**
+ * A source of data which can be read in chunks without blocking. If no chunk is
+ * available at the moment {@link #nextChunk()} returns <code>null</code> and
+ * the registered {@link ChunkListener} will get notified once more data is
+ * available or the end of the input was reached.
+ */
+public interface ChunkedSource {
+
+    /**
+     * Return the next chunk or <code>null</code> if no data is available at the
+     * moment or the end of the input was reached. This method MUST NOT block.
+     * 
+     * @return chunk
+     * @throws IOException
+     */
+    byte[] nextChunk() throws IOException;
+
+    /**
+     * Return <code>true</code> if the end of the input was reached and all
+     * chunks were returned by {@link #nextChunk()}
+     * 
+     * @return endOfInput
+     */
+    boolean isEndOfInput();
+
+    /**
+     * Set the {@link ChunkListener} which will get notified if new data is
+     * available or the end of the input was reached after
+     * {@link #nextChunk()} returned <code>null</code>
+     * 
+     * @param listener
+     */
+    void setListener(ChunkListener listener);
+
+    /**
+     * Close the {@link ChunkedSource} and release all resources
+     * 
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * Listener which will get notified once a {@link ChunkedSource} can be
+     * read again
+     */
+    public interface ChunkListener {
+
+        /**
+         * New data is available or the end of input was reached
+         * 
+         * @param source
+         */
+        public void onChunkAvailable(ChunkedSource source);
+    }
+}
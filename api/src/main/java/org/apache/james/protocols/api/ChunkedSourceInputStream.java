@@ -0,0 +1,106 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.james.protocols.api.ChunkedSource.ChunkListener;
+
+/**
+ * {@link InputStream} which reads from a {@link ChunkedSource} and blocks until
+ * the next chunk is available
+ */
+public class ChunkedSourceInputStream extends InputStream implements ChunkListener {
+
+    private final ChunkedSource source;
+    private byte[] chunk;
+    private int pos;
+
+    public ChunkedSourceInputStream(ChunkedSource source) {
+        this.source = source;
+        source.setListener(this);
+    }
+
+    /**
+     * Make sure a chunk is available. Returns false if the end of the input was reached
+     */
+    private synchronized boolean fill() throws IOException {
+        while (chunk == null || pos == chunk.length) {
+            chunk = source.nextChunk();
+            pos = 0;
+            if (chunk == null) {
+                if (source.isEndOfInput()) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the next chunk");
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource.ChunkListener#onChunkAvailable(org.apache.james.protocols.api.ChunkedSource)
+     */
+    public synchronized void onChunkAvailable(ChunkedSource source) {
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (fill() == false) {
+            return -1;
+        }
+        return chunk[pos++] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (fill() == false) {
+            return -1;
+        }
+        int r = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, r);
+        pos += r;
+        return r;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,124 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.Collection;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+
+/**
+ * Key for a counter which is stored as primitive <code>long</code> in a {@link ProtocolSession}, so updating it does not 
+ * allocate. Like {@link AttributeKey} every key gets its own index per {@link State} once it is created.
+ * 
+ * Counters of the {@link State#Transaction} are set to <code>0</code> on {@link ProtocolSession#resetState()}.
+ * 
+ * The name of the key is used by {@link ProtocolSession#getAttachment(String, State)} and 
+ * {@link ProtocolSession#setAttachment(String, Object, State)}, which expose the counter as {@link Long}. A counter which 
+ * was not set or added to since the start of its {@link State} is not exposed there, like a missing entry of a 
+ * {@link java.util.Map}. Once it was set its value is exposed, also if this is <code>0</code>.
+ */
+public final class CounterKey {
+
+    private final String name;
+    private final State state;
+    private final int index;
+
+    CounterKey(String name, State state, int index) {
+        this.name = name;
+        this.state = state;
+        this.index = index;
+    }
+
+    /**
+     * Return the {@link CounterKey} for the given name and {@link State}. If one was created before for the same name and
+     * {@link State} it is returned, so both share the same slot
+     * 
+     * @param name
+     * @param state
+     * @return key
+     */
+    public static CounterKey create(String name, State state) {
+        return KeyRegistry.get(state).createCounterKey(name, state);
+    }
+
+    /**
+     * Return the {@link CounterKey} which was created for the given name and {@link State} or <code>null</code> if none
+     * exists
+     * 
+     * @param name
+     * @param state
+     * @return key
+     */
+    public static CounterKey get(String name, State state) {
+        return KeyRegistry.get(state).getCounterKey(name);
+    }
+
+    /**
+     * Return all {@link CounterKey}'s which were created for the given {@link State}
+     * 
+     * @param state
+     * @return keys
+     */
+    static Collection<CounterKey> keys(State state) {
+        return KeyRegistry.get(state).counterKeys();
+    }
+
+    /**
+     * Return the count of {@link CounterKey}'s which were created for the given {@link State}
+     * 
+     * @param state
+     * @return count
+     */
+    public static int count(State state) {
+        return KeyRegistry.get(state).counterCount();
+    }
+
+    /**
+     * Return the name of the counter
+     * 
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the {@link State} to which the counter belongs
+     * 
+     * @return state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Return the index of the slot which is used to store the counter
+     * 
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + state + ")";
+    }
+}
@@ -0,0 +1,39 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+/**
+ * A special sub-type of {@link Response} which should only be written to the client after the given delay. This can be used to 
+ * slow down abusive clients (tarpitting).
+ * 
+ * The delay must not block any thread, so it is up to the {@link ProtocolTransport} how it is implemented. Responses which
+ * are written after this {@link DelayedResponse} will only be written after it.
+ *
+ */
+public interface DelayedResponse extends Response {
+
+    /**
+     * Return the delay in milliseconds after which the {@link Response} should be written to the client. A value <= 0 means
+     * the {@link Response} is written without delay
+     * 
+     * @return delay
+     */
+    long getDelay();
+}
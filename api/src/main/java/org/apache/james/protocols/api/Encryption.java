@@ -20,9 +20,15 @@
 package org.apache.james.protocols.api;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 
 /**
  * This class should be used to setup encrypted protocol handling
+ * 
+ * The TLS sessions are cached by the server session context of the {@link SSLContext}, so clients which reconnect can resume
+ * their session without a full handshake. Use the same {@link Encryption} (or at least the same {@link SSLContext}) for all 
+ * servers, so a session can be resumed on every server.
  *
  */
 public final class Encryption {
@@ -37,6 +43,15 @@ public final class Encryption {
         this.enabledCipherSuites = enabledCipherSuites;
     }
 
+    private Encryption(SSLContext context, boolean starttls, String[] enabledCipherSuites, int sessionCacheSize, int sessionTimeout) {
+        this(context, starttls, enabledCipherSuites);
+        SSLSessionContext sessionContext = context.getServerSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+    }
+
     
     /**
      * 
@@ -56,6 +71,20 @@ public final class Encryption {
     public static Encryption createTls(SSLContext context, String[] enabledCipherSuites) {
         return new Encryption(context, false, enabledCipherSuites);
     }
+    
+    /**
+     * Create a new {@link Encryption} which is TLS based, only allows the given Ciphersuites and caches the TLS sessions,
+     * so they can be resumed
+     * 
+     * @param context
+     * @param enabledCipherSuites or <code>null</code> if all Ciphersuites should be allowed
+     * @param sessionCacheSize the maximal count of cached sessions or <code>0</code> for no limit
+     * @param sessionTimeout the time in seconds after which a cached session can not be resumed anymore or <code>0</code> for no limit
+     * @return enc
+     */
+    public static Encryption createTls(SSLContext context, String[] enabledCipherSuites, int sessionCacheSize, int sessionTimeout) {
+        return new Encryption(context, false, enabledCipherSuites, sessionCacheSize, sessionTimeout);
+    }
 
     /**
      * 
@@ -73,7 +102,21 @@ public final class Encryption {
      * @return enc
      */
     public static Encryption createStartTls(SSLContext context, String[] enabledCipherSuites) {
-        return new Encryption(context, true, null);
+        return new Encryption(context, true, enabledCipherSuites);
+    }
+    
+    /**
+     * Create a new {@link Encryption} which uses STARTTLS, only allows the given Ciphersuites and caches the TLS sessions,
+     * so they can be resumed
+     * 
+     * @param context
+     * @param enabledCipherSuites or <code>null</code> if all Ciphersuites should be allowed
+     * @param sessionCacheSize the maximal count of cached sessions or <code>0</code> for no limit
+     * @param sessionTimeout the time in seconds after which a cached session can not be resumed anymore or <code>0</code> for no limit
+     * @return enc
+     */
+    public static Encryption createStartTls(SSLContext context, String[] enabledCipherSuites, int sessionCacheSize, int sessionTimeout) {
+        return new Encryption(context, true, enabledCipherSuites, sessionCacheSize, sessionTimeout);
     }
     
     /**
@@ -102,4 +145,19 @@ public final class Encryption {
     public String[] getEnabledCipherSuites() {
         return enabledCipherSuites;
     }
+    
+    /**
+     * Create a new {@link SSLEngine} in server mode which only allows the enabled Ciphersuites. Creating an {@link SSLEngine}
+     * is expensive, so this should only be done once it is needed
+     * 
+     * @return engine
+     */
+    public SSLEngine createSSLEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
+            engine.setEnabledCipherSuites(enabledCipherSuites);
+        }
+        return engine;
+    }
 }
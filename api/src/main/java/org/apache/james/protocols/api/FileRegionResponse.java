@@ -0,0 +1,63 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Special {@link StreamResponse} sub-type which is backed by a region of a {@link FileChannel}. 
+ * 
+ * Transports which are able to do so should transfer the region directly to the remote peer (for example 
+ * via {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}) and write the 
+ * {@link #getTrailer()} after it. All other transports can just use {@link #getStream()} which MUST return
+ * the same content, including the trailer.
+ * 
+ * The {@link FileChannel} will get closed once the region was written.
+ */
+public interface FileRegionResponse extends StreamResponse {
+
+    /**
+     * Return the {@link FileChannel} which holds the content to write
+     * 
+     * @return channel
+     */
+    FileChannel getFileChannel();
+
+    /**
+     * Return the position in the {@link FileChannel} at which the region starts
+     * 
+     * @return position
+     */
+    long getPosition();
+
+    /**
+     * Return the count of bytes which should get transfered, starting at {@link #getPosition()}
+     * 
+     * @return count
+     */
+    long getCount();
+
+    /**
+     * Return the bytes which need to get written after the region or <code>null</code> if nothing should be written
+     * 
+     * @return trailer
+     */
+    byte[] getTrailer();
+}
@@ -0,0 +1,51 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+/**
+ * {@link FutureResponseImpl} which is followed by the {@link Response} given
+ * in the constructor. A chain of them can be used to write a reply which
+ * consists of many parts, each part is written as soon as it and all parts
+ * before it are ready
+ */
+public class FutureChainedResponseImpl extends FutureResponseImpl implements ChainedResponse {
+
+    private final Response next;
+
+    /**
+     * 
+     * @param logger
+     * @param next
+     *            the {@link Response} which follows this one or
+     *            <code>null</code> if this is the last one
+     */
+    public FutureChainedResponseImpl(Logger logger, Response next) {
+        super(logger);
+        this.next = next;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChainedResponse#getNextResponse()
+     */
+    public Response getNextResponse() {
+        return next;
+    }
+}
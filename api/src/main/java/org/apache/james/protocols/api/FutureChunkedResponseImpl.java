@@ -0,0 +1,46 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+/**
+ * {@link FutureStreamResponseImpl} which exposes the {@link ChunkedSource} of
+ * the wrapped {@link ChunkedResponse}
+ */
+public class FutureChunkedResponseImpl extends FutureStreamResponseImpl implements ChunkedResponse {
+
+    public FutureChunkedResponseImpl() {
+        super();
+    }
+
+    public FutureChunkedResponseImpl(Logger logger) {
+        super(logger);
+    }
+
+    /**
+     * Return the {@link ChunkedSource} of the wrapped {@link Response} or <code>null</code> if it is not a {@link ChunkedResponse}
+     */
+    public ChunkedSource getChunkedSource() {
+        checkReady();
+        if (response instanceof ChunkedResponse) {
+            return ((ChunkedResponse) response).getChunkedSource();
+        }
+        return null;
+    }
+}
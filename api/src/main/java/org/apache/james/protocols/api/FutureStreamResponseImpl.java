@@ -21,19 +21,18 @@ package org.apache.james.protocols.api;
 
 import java.io.InputStream;
 
+/**
+ * {@link FutureResponse} for a {@link StreamResponse}. If a non {@link StreamResponse} is set, like for example an error
+ * {@link Response}, {@link #getStream()} will return <code>null</code>
+ */
 public class FutureStreamResponseImpl extends FutureResponseImpl implements StreamResponse{
 
-    /**
-     * Set the {@link StreamResponse} to wrap. If a non {@link StreamResponse} is set this implementation will throw an {@link IllegalArgumentException}
-     * 
-     */
-    @Override
-    public void setResponse(Response response) {
-        if (response instanceof StreamResponse) {
-            super.setResponse(response);
-        } else {
-            throw new IllegalArgumentException("Response MUST be of type " + StreamResponse.class.getName());
-        }
+    public FutureStreamResponseImpl() {
+        super();
+    }
+
+    public FutureStreamResponseImpl(Logger logger) {
+        super(logger);
     }
 
     /*
@@ -42,7 +41,10 @@ public class FutureStreamResponseImpl extends FutureResponseImpl implements Stre
      */
     public InputStream getStream() {
         checkReady();
-        return ((StreamResponse) response).getStream();
-        
+        if (response instanceof StreamResponse) {
+            return ((StreamResponse) response).getStream();
+        }
+        // no content to stream, this is the case if an error response was set
+        return null;
     }
 }
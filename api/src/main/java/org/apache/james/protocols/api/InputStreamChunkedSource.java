@@ -0,0 +1,164 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link ChunkedSource} which reads a blocking {@link InputStream} via an
+ * {@link Executor}. The next chunk is always read ahead, so the thread which
+ * consumes the {@link ChunkedSource} never blocks on the {@link InputStream}
+ */
+public class InputStreamChunkedSource implements ChunkedSource {
+
+    private final static int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final InputStream in;
+    private final Executor executor;
+    private final int chunkSize;
+
+    private byte[] chunk;
+    private boolean reading = false;
+    private boolean endOfStream = false;
+    private boolean closed = false;
+    private IOException exception;
+    private ChunkListener listener;
+
+    public InputStreamChunkedSource(InputStream in, Executor executor) {
+        this(in, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public InputStreamChunkedSource(InputStream in, Executor executor, int chunkSize) {
+        this.in = in;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        readAhead();
+    }
+
+    /**
+     * Read the next chunk via the {@link Executor} if none is read at the moment
+     */
+    private synchronized void readAhead() {
+        if (reading || chunk != null || endOfStream || closed || exception != null) {
+            return;
+        }
+        reading = true;
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    read();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reading = false;
+            exception = new IOException("Unable to read the next chunk");
+            exception.initCause(e);
+        }
+    }
+
+    private void read() {
+        byte[] buf = new byte[chunkSize];
+        int r = 0;
+        IOException e = null;
+        try {
+            while ((r = in.read(buf)) == 0) {
+                // read till we get at least one byte or the end of the stream
+            }
+        } catch (IOException ioe) {
+            e = ioe;
+        }
+        ChunkListener l;
+        synchronized (this) {
+            reading = false;
+            if (e != null) {
+                exception = e;
+            } else if (r == -1) {
+                endOfStream = true;
+            } else if (r == buf.length) {
+                chunk = buf;
+            } else {
+                chunk = new byte[r];
+                System.arraycopy(buf, 0, chunk, 0, r);
+            }
+            l = listener;
+        }
+        if (l != null) {
+            l.onChunkAvailable(this);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#nextChunk()
+     */
+    public byte[] nextChunk() throws IOException {
+        byte[] c;
+        synchronized (this) {
+            if (exception != null) {
+                throw exception;
+            }
+            c = chunk;
+            chunk = null;
+        }
+        readAhead();
+        if (c == null) {
+            synchronized (this) {
+                // the executor may have rejected to read the next chunk
+                if (exception != null) {
+                    throw exception;
+                }
+            }
+        }
+        return c;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#isEndOfInput()
+     */
+    public synchronized boolean isEndOfInput() {
+        return endOfStream && chunk == null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#setListener(org.apache.james.protocols.api.ChunkedSource.ChunkListener)
+     */
+    public synchronized void setListener(ChunkListener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#close()
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            chunk = null;
+        }
+        in.close();
+    }
+
+}
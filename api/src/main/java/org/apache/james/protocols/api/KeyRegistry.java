@@ -0,0 +1,133 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+
+/**
+ * Registry of the {@link AttributeKey}'s and {@link CounterKey}'s which were created for one {@link State}. 
+ * 
+ * The registry is global and not bound to a protocol or handler chain. The keys are <code>static final</code> fields of the
+ * handlers, so their index must be known when the handler class is loaded and the same handler class may be used in more
+ * then one chain (like SMTP and LMTP). An index per chain would need a lookup of the chain on every access, which is the
+ * hashing the slots are meant to avoid. The slot arrays of a session only grow up to the highest index which is used by it.
+ */
+final class KeyRegistry {
+
+    private final static KeyRegistry CONNECTION = new KeyRegistry();
+    private final static KeyRegistry TRANSACTION = new KeyRegistry();
+
+    private final ConcurrentMap<String, AttributeKey<?>> attributeKeys = new ConcurrentHashMap<String, AttributeKey<?>>();
+    private final ConcurrentMap<String, CounterKey> counterKeys = new ConcurrentHashMap<String, CounterKey>();
+
+    // the AttributeKey or CounterKey for a name, so the String based access needs only one lookup. The AttributeKey wins if
+    // both exist
+    private final ConcurrentMap<String, Object> keys = new ConcurrentHashMap<String, Object>();
+
+    private volatile int attributeCount = 0;
+    private volatile int counterCount = 0;
+
+    private KeyRegistry() {
+    }
+
+    /**
+     * Return the {@link KeyRegistry} for the given {@link State}
+     * 
+     * @param state
+     * @return registry
+     */
+    static KeyRegistry get(State state) {
+        if (state == State.Connection) {
+            return CONNECTION;
+        }
+        return TRANSACTION;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <T> AttributeKey<T> createAttributeKey(String name, State state) {
+        AttributeKey<?> key = attributeKeys.get(name);
+        if (key == null) {
+            key = new AttributeKey<T>(name, state, attributeCount);
+            attributeKeys.put(name, key);
+            keys.put(name, key);
+            attributeCount++;
+        }
+        return (AttributeKey<T>) key;
+    }
+
+    synchronized CounterKey createCounterKey(String name, State state) {
+        CounterKey key = counterKeys.get(name);
+        if (key == null) {
+            key = new CounterKey(name, state, counterCount);
+            counterKeys.put(name, key);
+            keys.putIfAbsent(name, key);
+            counterCount++;
+        }
+        return key;
+    }
+
+    AttributeKey<?> getAttributeKey(String name) {
+        return attributeKeys.get(name);
+    }
+
+    CounterKey getCounterKey(String name) {
+        return counterKeys.get(name);
+    }
+
+    /**
+     * Return the {@link AttributeKey} for the given name, or the {@link CounterKey} if there is no {@link AttributeKey}, or 
+     * <code>null</code> if there is none of both
+     * 
+     * @param name
+     * @return key
+     */
+    Object getKey(String name) {
+        return keys.get(name);
+    }
+
+    Collection<AttributeKey<?>> attributeKeys() {
+        return attributeKeys.values();
+    }
+
+    Collection<CounterKey> counterKeys() {
+        return counterKeys.values();
+    }
+
+    int attributeCount() {
+        return attributeCount;
+    }
+
+    int counterCount() {
+        return counterCount;
+    }
+
+    /**
+     * Return the count of all keys. This only grows, so it can be used to detect that keys were created
+     * 
+     * @return count
+     */
+    int size() {
+        return attributeCount + counterCount;
+    }
+}
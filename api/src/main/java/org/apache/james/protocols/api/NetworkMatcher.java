@@ -0,0 +1,329 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Immutable matcher for IPv4 and IPv6 networks. The networks are compiled once into a binary radix trie per address family,
+ * so checking an address takes at most one step per bit of the longest prefix, no matter how many networks are configured.
+ * 
+ * The following formats are supported:
+ * <ul>
+ * <li>single address: <code>127.0.0.1</code>, <code>::1</code></li>
+ * <li>CIDR notation: <code>192.168.0.0/16</code>, <code>2001:db8::/32</code></li>
+ * <li>netmask: <code>192.168.0.0/255.255.0.0</code></li>
+ * <li>wildcard: <code>192.168.*</code></li>
+ * </ul>
+ * 
+ * Only address literals are accepted, so compiling a {@link NetworkMatcher} never triggers a DNS lookup.
+ */
+public final class NetworkMatcher {
+
+    private final static int IPV4_BITS = 32;
+    private final static int IPV6_BITS = 128;
+    
+    private final Trie ipv4 = new Trie();
+    private final Trie ipv6 = new Trie();
+    private final Collection<String> networks;
+    
+    /**
+     * Compile the given networks
+     * 
+     * @param networks
+     * @throws IllegalArgumentException if one of the networks is not valid
+     */
+    public NetworkMatcher(Collection<String> networks) {
+        for (String network: networks) {
+            add(network);
+        }
+        ipv4.trim();
+        ipv6.trim();
+        this.networks = Collections.unmodifiableCollection(Arrays.asList(networks.toArray(new String[networks.size()])));
+    }
+    
+    /**
+     * Compile the given networks
+     * 
+     * @param networks
+     * @throws IllegalArgumentException if one of the networks is not valid
+     */
+    public NetworkMatcher(String... networks) {
+        this(Arrays.asList(networks));
+    }
+
+    /**
+     * Return <code>true</code> if the given {@link InetAddress} is part of one of the networks
+     * 
+     * @param address
+     * @return matches
+     */
+    public boolean matches(InetAddress address) {
+        return matches(address.getAddress());
+    }
+    
+    /**
+     * Return <code>true</code> if the given raw address (4 bytes for IPv4, 16 bytes for IPv6) is part of one of the 
+     * networks. This does not allocate any memory.
+     * 
+     * @param address
+     * @return matches
+     */
+    public boolean matches(byte[] address) {
+        if (address.length == IPV4_BITS / 8) {
+            return ipv4.matches(address);
+        } else if (address.length == IPV6_BITS / 8) {
+            return ipv6.matches(address);
+        }
+        return false;
+    }
+    
+    /**
+     * Return <code>true</code> if the given address literal is part of one of the networks. If the given {@link String} is no
+     * address literal <code>false</code> is returned.
+     * 
+     * @param address
+     * @return matches
+     */
+    public boolean matches(String address) {
+        byte[] raw = parseLiteral(address);
+        return raw != null && matches(raw);
+    }
+    
+    /**
+     * Return <code>true</code> if no network was given
+     * 
+     * @return empty
+     */
+    public boolean isEmpty() {
+        return networks.isEmpty();
+    }
+    
+    /**
+     * Return the networks this {@link NetworkMatcher} was compiled from
+     * 
+     * @return networks
+     */
+    public Collection<String> getNetworks() {
+        return networks;
+    }
+    
+    @Override
+    public String toString() {
+        return networks.toString();
+    }
+    
+    private void add(String network) {
+        String spec = network.trim();
+        String addressPart = spec;
+        String maskPart = null;
+        int slash = spec.indexOf('/');
+        if (slash != -1) {
+            addressPart = spec.substring(0, slash);
+            maskPart = spec.substring(slash + 1);
+        }
+        
+        int prefixLength = -1;
+        
+        // 192.168.* is the same as 192.168.0.0/16
+        if (addressPart.endsWith("*") && maskPart == null) {
+            String[] octets = addressPart.split("\\.");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    sb.append('.');
+                }
+                if (i < octets.length - 1) {
+                    sb.append(octets[i]);
+                } else {
+                    sb.append('0');
+                }
+            }
+            if (octets.length > 4 || !"*".equals(octets[octets.length - 1])) {
+                throw new IllegalArgumentException("Invalid network " + network);
+            }
+            prefixLength = (octets.length - 1) * 8;
+            addressPart = sb.toString();
+        }
+        
+        byte[] address = parseLiteral(addressPart);
+        if (address == null) {
+            throw new IllegalArgumentException("Invalid network " + network);
+        }
+        int bits = address.length * 8;
+        
+        if (maskPart != null) {
+            try {
+                if (maskPart.indexOf('.') != -1) {
+                    prefixLength = toPrefixLength(parseLiteral(maskPart));
+                } else {
+                    prefixLength = Integer.parseInt(maskPart);
+                    // IPv4 mapped IPv6 addresses are returned as IPv4 address 
+                    if (bits == IPV4_BITS && addressPart.indexOf(':') != -1) {
+                        prefixLength -= IPV6_BITS - IPV4_BITS;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                prefixLength = -1;
+            }
+            if (prefixLength < 0 || prefixLength > bits) {
+                throw new IllegalArgumentException("Invalid network " + network);
+            }
+        } else if (prefixLength == -1) {
+            prefixLength = bits;
+        }
+        
+        if (bits == IPV4_BITS) {
+            ipv4.add(address, prefixLength);
+        } else {
+            ipv6.add(address, prefixLength);
+        }
+    }
+    
+    /**
+     * Return the prefix length of the given netmask or -1 if it is not a valid netmask
+     */
+    private static int toPrefixLength(byte[] mask) {
+        if (mask == null || mask.length != IPV4_BITS / 8) {
+            return -1;
+        }
+        int prefixLength = 0;
+        boolean end = false;
+        for (int i = 0; i < mask.length * 8; i++) {
+            boolean set = isSet(mask, i);
+            if (set && end) {
+                // not contiguous
+                return -1;
+            } else if (set) {
+                prefixLength++;
+            } else {
+                end = true;
+            }
+        }
+        return prefixLength;
+    }
+    
+    /**
+     * Parse the given address literal without doing any DNS lookup
+     * 
+     * @param address
+     * @return raw address or <code>null</code> if the given {@link String} is no address literal
+     */
+    private static byte[] parseLiteral(String address) {
+        if (address.length() == 0) {
+            return null;
+        }
+        if (address.indexOf(':') == -1) {
+            // only accept the dotted decimal form, as everything else would be resolved via DNS
+            int dots = 0;
+            for (int i = 0; i < address.length(); i++) {
+                char c = address.charAt(i);
+                if (c == '.') {
+                    dots++;
+                } else if (c < '0' || c > '9') {
+                    return null;
+                }
+            }
+            if (dots != 3) {
+                return null;
+            }
+        }
+        try {
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+    
+    private static boolean isSet(byte[] address, int bit) {
+        return (address[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+    }
+    
+    /**
+     * Binary radix trie which is stored in arrays. The children of node <code>n</code> are stored at <code>2n</code> and
+     * <code>2n + 1</code>, a child index of <code>0</code> means there is none as the root (<code>0</code>) is never a child.
+     */
+    private final static class Trie {
+        private int[] children = new int[32];
+        private boolean[] terminal = new boolean[16];
+        private int size = 1;
+        
+        public void add(byte[] address, int prefixLength) {
+            int node = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                if (terminal[node]) {
+                    // a shorter prefix already covers this network
+                    return;
+                }
+                int slot = 2 * node + (isSet(address, i) ? 1 : 0);
+                int child = children[slot];
+                if (child == 0) {
+                    child = newNode();
+                    children[slot] = child;
+                }
+                node = child;
+            }
+            terminal[node] = true;
+            // everything below is covered now
+            children[2 * node] = 0;
+            children[2 * node + 1] = 0;
+        }
+        
+        private int newNode() {
+            if (size == terminal.length) {
+                int[] newChildren = new int[children.length * 2];
+                System.arraycopy(children, 0, newChildren, 0, children.length);
+                children = newChildren;
+                boolean[] newTerminal = new boolean[terminal.length * 2];
+                System.arraycopy(terminal, 0, newTerminal, 0, terminal.length);
+                terminal = newTerminal;
+            }
+            return size++;
+        }
+        
+        public void trim() {
+            int[] newChildren = new int[size * 2];
+            System.arraycopy(children, 0, newChildren, 0, newChildren.length);
+            children = newChildren;
+            boolean[] newTerminal = new boolean[size];
+            System.arraycopy(terminal, 0, newTerminal, 0, newTerminal.length);
+            terminal = newTerminal;
+        }
+        
+        public boolean matches(byte[] address) {
+            int node = 0;
+            int bits = address.length * 8;
+            for (int i = 0; i < bits; i++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                node = children[2 * node + (isSet(address, i) ? 1 : 0)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
+    }
+}
@@ -58,6 +58,48 @@ public interface ProtocolSession {
      * @return value the stored value for the key
      */
     Object getAttachment(String key, State state);
+
+    /**
+     * Return the value which is stored for the given {@link AttributeKey} or <code>null</code> if non was stored before.
+     * 
+     * @param key the key under which the value should be searched
+     * @return value the stored value for the key
+     */
+    <T> T getAttachment(AttributeKey<T> key);
+
+    /**
+     * Store the given value with the given {@link AttributeKey}. If you want to remove a value you need to use <code>null</code> as value
+     * 
+     * @param key the key under which the value should get stored
+     * @param value the value which will get stored under the given key or <code>null</code> if you want to remove any value which is stored under the key
+     * @return oldValue the value which was stored before for this key or <code>null</code> if non was stored before.
+     */
+    <T> T setAttachment(AttributeKey<T> key, T value);
+
+    /**
+     * Return the value of the counter for the given {@link CounterKey}. If it was never set <code>0</code> is returned
+     * 
+     * @param key
+     * @return value
+     */
+    long getCounter(CounterKey key);
+
+    /**
+     * Add the given delta to the counter for the given {@link CounterKey} and return the new value
+     * 
+     * @param key
+     * @param delta
+     * @return value
+     */
+    long addToCounter(CounterKey key, long delta);
+
+    /**
+     * Set the counter for the given {@link CounterKey} to the given value
+     * 
+     * @param key
+     * @param value
+     */
+    void setCounter(CounterKey key, long value);
     
     
     /**
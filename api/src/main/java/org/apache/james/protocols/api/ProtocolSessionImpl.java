@@ -20,8 +20,15 @@
 package org.apache.james.protocols.api;
 
 import java.net.InetSocketAddress;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 import org.apache.james.protocols.api.ProtocolTransport;
@@ -29,17 +36,37 @@ import org.apache.james.protocols.api.ProtocolTransport;
 /**
  * Basic implementation of {@link ProtocolSession}
  * 
+ * Values which are stored with an {@link AttributeKey} and counters are hold in arrays which are indexed by the key, so
+ * no hashing is needed to access them. Values which are stored via the {@link String} based methods use the 
+ * {@link AttributeKey} or {@link CounterKey} slot if a key with the same name was created and a {@link Map} otherwise. 
+ * The deprecated {@link #getState()} and {@link #getConnectionState()} are views which use the {@link String} based
+ * methods too, so they see and update the values of the keys by their name.
  * 
  */
 public class ProtocolSessionImpl implements ProtocolSession {
 
     private final ProtocolSessionLogger pLog;
-    private final ProtocolTransport transport;
+    private ProtocolTransport transport;
     private final Map<String, Object> connectionState;
     private final Map<String, Object> sessionState;
+    private final Map<String, Object> connectionStateView = new StateMap(State.Connection);
+    private final Map<String, Object> sessionStateView = new StateMap(State.Transaction);
     private String user;
     protected final ProtocolConfiguration config;
 
+    private Object[] connectionSlots = new Object[0];
+    private Object[] sessionSlots = new Object[0];
+    private long[] connectionCounters = new long[0];
+    private long[] sessionCounters = new long[0];
+
+    // if the counter was set since the start of its State, as only these are exposed via the String based methods
+    private boolean[] connectionCountersSet = new boolean[0];
+    private boolean[] sessionCountersSet = new boolean[0];
+
+    // the count of AttributeKeys and CounterKeys for which the Map entries were moved to the slots already
+    private int connectionKeyCount = 0;
+    private int sessionKeyCount = 0;
+
     public ProtocolSessionImpl(Logger logger, ProtocolTransport transport, ProtocolConfiguration config) {
         this.transport = transport;
         this.pLog = new ProtocolSessionLogger(transport.getId(), logger);
@@ -123,14 +150,14 @@ public class ProtocolSessionImpl implements ProtocolSession {
      * @see org.apache.james.protocols.api.ProtocolSession#getConnectionState()
      */
     public Map<String, Object> getConnectionState() {
-        return connectionState;
+        return connectionStateView;
     }
 
     /**
      * @see org.apache.james.protocols.api.ProtocolSession#getState()
      */
     public Map<String, Object> getState() {
-        return sessionState;
+        return sessionStateView;
     }
 
     /**
@@ -155,6 +182,31 @@ public class ProtocolSessionImpl implements ProtocolSession {
      */
     public void resetState() {
         sessionState.clear();
+        Arrays.fill(sessionSlots, null);
+        Arrays.fill(sessionCounters, 0);
+        Arrays.fill(sessionCountersSet, false);
+    }
+
+    /**
+     * Prepare this {@link ProtocolSession} to get reused for a new connection which uses the given {@link ProtocolTransport}. 
+     * All the state of the old connection is dropped.
+     * 
+     * Sub-classes which hold state of the connection in their own fields must overwrite this and call the super method.
+     * 
+     * @param transport
+     */
+    protected void recycle(ProtocolTransport transport) {
+        this.transport = transport;
+        this.pLog.setId(transport.getId());
+        this.user = null;
+        connectionState.clear();
+        sessionState.clear();
+        Arrays.fill(connectionSlots, null);
+        Arrays.fill(sessionSlots, null);
+        Arrays.fill(connectionCounters, 0);
+        Arrays.fill(sessionCounters, 0);
+        Arrays.fill(connectionCountersSet, false);
+        Arrays.fill(sessionCountersSet, false);
     }
 
     /**
@@ -169,18 +221,26 @@ public class ProtocolSessionImpl implements ProtocolSession {
      * @see org.apache.james.protocols.api.ProtocolSession#setAttachment(java.lang.String, java.lang.Object, org.apache.james.protocols.api.ProtocolSession.State)
      */
     public Object setAttachment(String key, Object value, State state) {
-        if (state == State.Connection) {
+        Map<String, Object> map = getMap(state);
+        KeyRegistry registry = KeyRegistry.get(state);
+        moveToSlots(state, map, registry);
+        Object slotKey = registry.getKey(key);
+        if (slotKey instanceof AttributeKey<?>) {
+            return setSlot((AttributeKey<?>) slotKey, value);
+        } else if (slotKey != null) {
+            CounterKey counterKey = (CounterKey) slotKey;
+            Long old = getCounterValue(counterKey);
             if (value == null) {
-                return connectionState.remove(key);
+                clearCounter(counterKey);
             } else {
-                return connectionState.put(key, value);
+                ensureCounter(counterKey)[counterKey.getIndex()] = ((Number) value).longValue();
             }
+            return old;
+        }
+        if (value == null) {
+            return map.remove(key);
         } else {
-            if (value == null) {
-                return sessionState.remove(key);
-            } else {
-                return sessionState.put(key, value);
-            }
+            return map.put(key, value);
         }
     }
 
@@ -189,10 +249,364 @@ public class ProtocolSessionImpl implements ProtocolSession {
      * @see org.apache.james.protocols.api.ProtocolSession#getAttachment(java.lang.String, org.apache.james.protocols.api.ProtocolSession.State)
      */
     public Object getAttachment(String key, State state) {
+        Map<String, Object> map = getMap(state);
+        KeyRegistry registry = KeyRegistry.get(state);
+        moveToSlots(state, map, registry);
+        Object slotKey = registry.getKey(key);
+        if (slotKey == null) {
+            return map.get(key);
+        } else if (slotKey instanceof AttributeKey<?>) {
+            return getSlot((AttributeKey<?>) slotKey);
+        } else {
+            return getCounterValue((CounterKey) slotKey);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#getAttachment(org.apache.james.protocols.api.AttributeKey)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment(AttributeKey<T> key) {
+        moveToSlots(key.getState());
+        return (T) getSlot(key);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#setAttachment(org.apache.james.protocols.api.AttributeKey, java.lang.Object)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T setAttachment(AttributeKey<T> key, T value) {
+        moveToSlots(key.getState());
+        return (T) setSlot(key, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#getCounter(org.apache.james.protocols.api.CounterKey)
+     */
+    public long getCounter(CounterKey key) {
+        moveToSlots(key.getState());
+        long[] counters = getCounters(key.getState());
+        if (key.getIndex() < counters.length) {
+            return counters[key.getIndex()];
+        }
+        return 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#addToCounter(org.apache.james.protocols.api.CounterKey, long)
+     */
+    public long addToCounter(CounterKey key, long delta) {
+        moveToSlots(key.getState());
+        long[] counters = ensureCounter(key);
+        counters[key.getIndex()] += delta;
+        return counters[key.getIndex()];
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#setCounter(org.apache.james.protocols.api.CounterKey, long)
+     */
+    public void setCounter(CounterKey key, long value) {
+        moveToSlots(key.getState());
+        ensureCounter(key)[key.getIndex()] = value;
+    }
+
+    private void moveToSlots(State state) {
+        moveToSlots(state, getMap(state), KeyRegistry.get(state));
+    }
+
+    private Map<String, Object> getMap(State state) {
+        if (state == State.Connection) {
+            return connectionState;
+        } else {
+            return sessionState;
+        }
+    }
+
+    private Object getSlot(AttributeKey<?> key) {
+        Object[] slots = key.getState() == State.Connection ? connectionSlots : sessionSlots;
+        if (key.getIndex() < slots.length) {
+            return slots[key.getIndex()];
+        }
+        return null;
+    }
+
+    private Object setSlot(AttributeKey<?> key, Object value) {
+        Object[] slots = key.getState() == State.Connection ? connectionSlots : sessionSlots;
+        int index = key.getIndex();
+        if (index >= slots.length) {
+            if (value == null) {
+                return null;
+            }
+            Object[] newSlots = new Object[Math.max(index + 1, AttributeKey.count(key.getState()))];
+            System.arraycopy(slots, 0, newSlots, 0, slots.length);
+            slots = newSlots;
+            if (key.getState() == State.Connection) {
+                connectionSlots = slots;
+            } else {
+                sessionSlots = slots;
+            }
+        }
+        Object old = slots[index];
+        slots[index] = value;
+        return old;
+    }
+
+    private long[] getCounters(State state) {
+        if (state == State.Connection) {
+            return connectionCounters;
+        } else {
+            return sessionCounters;
+        }
+    }
+
+    private boolean[] getCountersSet(State state) {
+        if (state == State.Connection) {
+            return connectionCountersSet;
+        } else {
+            return sessionCountersSet;
+        }
+    }
+
+    /**
+     * Return the counters of the {@link State} of the given {@link CounterKey}, after they were grown to hold it. The
+     * counter is marked as set.
+     */
+    private long[] ensureCounter(CounterKey key) {
+        long[] counters = getCounters(key.getState());
+        boolean[] countersSet = getCountersSet(key.getState());
+        if (key.getIndex() >= counters.length) {
+            int length = Math.max(key.getIndex() + 1, CounterKey.count(key.getState()));
+            long[] newCounters = new long[length];
+            System.arraycopy(counters, 0, newCounters, 0, counters.length);
+            counters = newCounters;
+            boolean[] newCountersSet = new boolean[length];
+            System.arraycopy(countersSet, 0, newCountersSet, 0, countersSet.length);
+            countersSet = newCountersSet;
+            if (key.getState() == State.Connection) {
+                connectionCounters = counters;
+                connectionCountersSet = countersSet;
+            } else {
+                sessionCounters = counters;
+                sessionCountersSet = countersSet;
+            }
+        }
+        countersSet[key.getIndex()] = true;
+        return counters;
+    }
+
+    /**
+     * Reset the counter to <code>0</code> and mark it as not set
+     */
+    private void clearCounter(CounterKey key) {
+        long[] counters = getCounters(key.getState());
+        if (key.getIndex() < counters.length) {
+            counters[key.getIndex()] = 0;
+            getCountersSet(key.getState())[key.getIndex()] = false;
+        }
+    }
+
+    /**
+     * Return the value of the counter as it is exposed via the {@link String} based methods. This is <code>null</code> if the
+     * counter was not set since the start of its {@link State}, like a missing {@link Map} entry, and its value otherwise, 
+     * also if this is <code>0</code>
+     */
+    private Long getCounterValue(CounterKey key) {
+        boolean[] countersSet = getCountersSet(key.getState());
+        if (key.getIndex() < countersSet.length && countersSet[key.getIndex()]) {
+            return Long.valueOf(getCounters(key.getState())[key.getIndex()]);
+        }
+        return null;
+    }
+
+    /**
+     * Move the values which were stored in the {@link Map} before an {@link AttributeKey} or {@link CounterKey} with the 
+     * same name was created to the slot of the key. This is only needed if new keys were created since the last call
+     * 
+     * @param state
+     * @param map
+     * @param registry
+     */
+    private void moveToSlots(State state, Map<String, Object> map, KeyRegistry registry) {
+        int count = registry.size();
+        int moved = state == State.Connection ? connectionKeyCount : sessionKeyCount;
+        if (count == moved) {
+            return;
+        }
+        Iterator<Map.Entry<String, Object>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Object> entry = entries.next();
+            Object key = registry.getKey(entry.getKey());
+            if (key instanceof AttributeKey<?>) {
+                setSlot((AttributeKey<?>) key, entry.getValue());
+                entries.remove();
+            } else if (key != null && entry.getValue() instanceof Number) {
+                CounterKey counterKey = (CounterKey) key;
+                ensureCounter(counterKey)[counterKey.getIndex()] = ((Number) entry.getValue()).longValue();
+                entries.remove();
+            }
+        }
         if (state == State.Connection) {
-            return connectionState.get(key);
+            connectionKeyCount = count;
         } else {
-            return sessionState.get(key);
+            sessionKeyCount = count;
+        }
+    }
+
+    /**
+     * Return the names and values of all attachments of the given {@link State}
+     * 
+     * @param state
+     * @return entries
+     */
+    private List<Map.Entry<String, Object>> entries(State state) {
+        Map<String, Object> map = getMap(state);
+        moveToSlots(state, map, KeyRegistry.get(state));
+        List<Map.Entry<String, Object>> entries = new ArrayList<Map.Entry<String, Object>>();
+        Iterator<Map.Entry<String, Object>> mapEntries = map.entrySet().iterator();
+        while (mapEntries.hasNext()) {
+            Map.Entry<String, Object> entry = mapEntries.next();
+            entries.add(new StateEntry(state, entry.getKey(), entry.getValue()));
+        }
+        Iterator<AttributeKey<?>> keys = AttributeKey.keys(state).iterator();
+        while (keys.hasNext()) {
+            AttributeKey<?> key = keys.next();
+            Object value = getSlot(key);
+            if (value != null) {
+                entries.add(new StateEntry(state, key.getName(), value));
+            }
+        }
+        Iterator<CounterKey> counterKeys = CounterKey.keys(state).iterator();
+        while (counterKeys.hasNext()) {
+            CounterKey key = counterKeys.next();
+            Long value = getCounterValue(key);
+            if (value != null && AttributeKey.get(key.getName(), state) == null) {
+                entries.add(new StateEntry(state, key.getName(), value));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * {@link Map} view of the attachments of a {@link State}. All access goes through 
+     * {@link ProtocolSessionImpl#getAttachment(String, State)} and {@link ProtocolSessionImpl#setAttachment(String, Object, State)},
+     * so an entry can not shadow the value of an {@link AttributeKey} or {@link CounterKey} with the same name
+     */
+    private final class StateMap extends AbstractMap<String, Object> {
+
+        private final State state;
+
+        public StateMap(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (key instanceof String) {
+                return getAttachment((String) key, state);
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return setAttachment(key, value, state);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            if (key instanceof String) {
+                return setAttachment((String) key, null, state);
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    final Iterator<Map.Entry<String, Object>> entries = entries(state).iterator();
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private Map.Entry<String, Object> current;
+
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        public Map.Entry<String, Object> next() {
+                            current = entries.next();
+                            return current;
+                        }
+
+                        public void remove() {
+                            if (current == null) {
+                                throw new IllegalStateException();
+                            }
+                            setAttachment(current.getKey(), null, state);
+                            current = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return entries(state).size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Entry of a {@link StateMap}. Setting its value updates the attachment
+     */
+    private final class StateEntry implements Map.Entry<String, Object> {
+
+        private final State state;
+        private final String key;
+        private Object value;
+
+        public StateEntry(State state, String key, Object value) {
+            this.state = state;
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            this.value = value;
+            return setAttachment(key, value, state);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+            return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
         }
     }
 
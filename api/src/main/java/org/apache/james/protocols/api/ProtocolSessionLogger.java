@@ -24,30 +24,44 @@ package org.apache.james.protocols.api;
  * A {@link Logger} implementation which suffix every log message with the
  * session id Id
  * 
+ * The message is only build if the log level is enabled in the wrapped {@link Logger}.
  * 
  */
 public class ProtocolSessionLogger implements Logger {
     private final Logger logger;
-    private final String id;
+    private volatile String prefix;
 
     public ProtocolSessionLogger(String id, Logger logger) {
         this.logger = logger;
-        this.id = id;
+        setId(id);
+    }
+
+    /**
+     * Set the session id which is used as prefix. This is used if the session is reused for another connection
+     * 
+     * @param id
+     */
+    void setId(String id) {
+        this.prefix = "ID=" + id + " ";
     }
 
     private String getText(String str) {
-        return "ID=" + id + " " + str;
+        return prefix.concat(str);
     }
 
     public void debug(String arg0) {
-        logger.debug(getText(arg0));
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(arg0));
+        }
     }
 
     /**
      * @see org.slf4j.Logger#debug(String, Throwable)
      */
     public void debug(String arg0, Throwable arg1) {
-        logger.debug(getText(arg0), arg1);
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(arg0), arg1);
+        }
 
     }
 
@@ -55,24 +69,32 @@ public class ProtocolSessionLogger implements Logger {
      * @see org.slf4j.Logger#error(java.lang.String)
      */
     public void error(String arg0) {
-        logger.error(getText(arg0));
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(arg0));
+        }
     }
 
     /**
      * @see org.slf4j.Logger#error(java.lang.String, java.lang.Throwable)
      */
     public void error(String arg0, Throwable arg1) {
-        logger.error(getText(arg0), arg1);
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(arg0), arg1);
+        }
 
     }
 
     public void info(String arg0) {
-        logger.info(getText(arg0));
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(arg0));
+        }
 
     }
 
     public void info(String arg0, Throwable arg1) {
-        logger.info(getText(arg0), arg1);
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(arg0), arg1);
+        }
 
     }
 
@@ -97,22 +119,30 @@ public class ProtocolSessionLogger implements Logger {
     }
 
     public void trace(String arg0) {
-        logger.trace(getText(arg0));
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(arg0));
+        }
     }
     
     public void trace(String arg0, Throwable arg1) {
-        logger.trace(getText(arg0), arg1);
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(arg0), arg1);
+        }
 
     }
 
     public void warn(String arg0) {
-        logger.warn(getText(arg0));
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(arg0));
+        }
 
     }
 
 
     public void warn(String arg0, Throwable arg1) {
-        logger.warn(getText(arg0), arg1);
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(arg0), arg1);
+        }
 
     }
 
@@ -121,12 +151,16 @@ public class ProtocolSessionLogger implements Logger {
     }
 
     public void fatal(String message) {
-        logger.fatal(getText(message));
+        if (logger.isFatalEnabled()) {
+            logger.fatal(getText(message));
+        }
         
     }
 
     public void fatal(String message, Throwable t) {
-        logger.fatal(getText(message), t);        
+        if (logger.isFatalEnabled()) {
+            logger.fatal(getText(message), t);
+        }        
     }
 
 }
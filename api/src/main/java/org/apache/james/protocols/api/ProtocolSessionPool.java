@@ -0,0 +1,131 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link ProtocolSession}'s which were created by a {@link Protocol}. Sessions which are returned to the pool
+ * get reused for new connections, so short-lived connections don't need to allocate a new session every time.
+ * 
+ * Only {@link ProtocolSessionImpl} instances are pooled as they know how to reset themselves via 
+ * {@link ProtocolSessionImpl#recycle(ProtocolTransport)}. A session must only be returned once the connection is closed and no
+ * handler holds a reference to it anymore. {@link AbstractProtocolTransport#runWhenResponsesWritten(Runnable)} can be used to 
+ * wait till all {@link FutureResponse}'s of the session were completed.
+ */
+public class ProtocolSessionPool {
+
+    private final Protocol protocol;
+    private final int maxSize;
+    private final Queue<ProtocolSessionImpl> sessions = new ConcurrentLinkedQueue<ProtocolSessionImpl>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong reused = new AtomicLong(0);
+    private final AtomicLong discarded = new AtomicLong(0);
+
+    public ProtocolSessionPool(Protocol protocol, int maxSize) {
+        this.protocol = protocol;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Return a {@link ProtocolSession} for the given {@link ProtocolTransport}. This will be a pooled one if possible and a
+     * new one created via {@link Protocol#newSession(ProtocolTransport)} otherwise.
+     * 
+     * @param transport
+     * @return session
+     */
+    public ProtocolSession borrowSession(ProtocolTransport transport) {
+        ProtocolSessionImpl session = sessions.poll();
+        if (session != null) {
+            size.decrementAndGet();
+            session.recycle(transport);
+            reused.incrementAndGet();
+            return session;
+        }
+        created.incrementAndGet();
+        return protocol.newSession(transport);
+    }
+
+    /**
+     * Return the {@link ProtocolSession} to the pool. If the pool is full or the session can not be reused it is just dropped
+     * 
+     * @param session
+     */
+    public void returnSession(ProtocolSession session) {
+        if (session instanceof ProtocolSessionImpl && size.incrementAndGet() <= maxSize) {
+            sessions.offer((ProtocolSessionImpl) session);
+        } else {
+            if (session instanceof ProtocolSessionImpl) {
+                size.decrementAndGet();
+            }
+            discarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the count of {@link ProtocolSession}'s which are currently pooled
+     * 
+     * @return size
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Return the maximal count of {@link ProtocolSession}'s which are pooled
+     * 
+     * @return maxSize
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Return the count of {@link ProtocolSession}'s which were newly allocated because the pool was empty
+     * 
+     * @return created
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Return the count of connections which were served with a pooled {@link ProtocolSession}
+     * 
+     * @return reused
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    /**
+     * Return the count of {@link ProtocolSession}'s which were dropped because the pool was full
+     * 
+     * @return discarded
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+}
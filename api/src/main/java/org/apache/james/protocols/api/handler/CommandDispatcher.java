@@ -179,7 +179,8 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
     }
 
     /**
-     * Parse the line into a {@link Request}
+     * Parse the line into a {@link Request}. Only the given range of the {@link ByteBuffer} is decoded, as the backing
+     * array may be bigger then the line. The {@link ByteBuffer} is not referenced anymore once this method returns.
      * 
      * @param session
      * @param line
@@ -189,14 +190,15 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
     protected Request parseRequest(Session session, ByteBuffer buffer) throws Exception {
         String curCommandName = null;
         String curCommandArgument = null;
-        byte[] line;
+        String cmdString;
         if (buffer.hasArray()) {
-            line = buffer.array();
+            cmdString = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), getLineDecodingCharset());
         } else {
-            line = new byte[buffer.remaining()];
+            byte[] line = new byte[buffer.remaining()];
             buffer.get(line);
+            cmdString = new String(line, getLineDecodingCharset());
         }
-        String cmdString = new String(line, getLineDecodingCharset()).trim();
+        cmdString = cmdString.trim();
         int spaceIndex = cmdString.indexOf(" ");
         if (spaceIndex > 0) {
             curCommandName = cmdString.substring(0, spaceIndex);
@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.junit.Test;
@@ -42,6 +43,9 @@ public class AbstractProtocolTransportTest {
 
     private final static String US_ASCII = "US-ASCII";
     
+    // the startTLS flag of every write
+    private final List<Boolean> startTLSWrites = new ArrayList<Boolean>();
+    
     @Test
     public void testWriteOrder() throws InterruptedException, UnsupportedEncodingException {
         final List<Response> messages = new ArrayList<Response>();
@@ -103,6 +107,27 @@ public class AbstractProtocolTransportTest {
         checkWrittenResponses(messages);
     }
     
+    @Test
+    public void testWriteOrderChainedResponse() throws InterruptedException, UnsupportedEncodingException {
+        final List<Response> messages = new ArrayList<Response>();
+        final List<Response> written = new ArrayList<Response>();
+        for (int i = 0; i < 200; i++) {
+            messages.add(new TestResponse());
+            written.add(messages.get(messages.size() - 1));
+
+            // build a chain of 10 responses of which only the first one is written via the transport
+            FutureChainedResponseImpl[] chain = new FutureChainedResponseImpl[10];
+            for (int a = chain.length - 1; a >= 0; a--) {
+                chain[a] = new FutureChainedResponseImpl(null, a + 1 < chain.length ? chain[a + 1] : null);
+            }
+            messages.add(chain[0]);
+            written.addAll(Arrays.asList(chain));
+        }
+        notifyFutureResponses(written, true);
+
+        checkWrittenResponses(messages, written);
+    }
+
     private void notifyFutureResponses(final List<Response> messages, final boolean reverse) {
         new Thread(new Runnable() {
             
@@ -128,12 +153,76 @@ public class AbstractProtocolTransportTest {
             }
         }).start();
     }
+
+    @Test
+    public void testRunWhenResponsesWritten() throws InterruptedException {
+        final List<byte[]> writtenMessages = new ArrayList<byte[]>();
+        AbstractProtocolTransport transport = createTransport(writtenMessages, new CountDownLatch(3));
+        final AtomicInteger written = new AtomicInteger(-1);
+        Runnable task = new Runnable() {
+            
+            public void run() {
+                written.set(writtenMessages.size());
+            }
+        };
+        
+        transport.writeResponse(new TestResponse(), null);
+        transport.runWhenResponsesWritten(task);
+        assertEquals(1, written.get());
+        
+        written.set(-1);
+        FutureResponseImpl first = new FutureResponseImpl();
+        FutureResponseImpl second = new FutureResponseImpl();
+        transport.writeResponse(first, null);
+        transport.writeResponse(second, null);
+        transport.runWhenResponsesWritten(task);
+        assertEquals(-1, written.get());
+        
+        second.setResponse(new TestResponse());
+        assertEquals(-1, written.get());
+        first.setResponse(new TestResponse());
+        assertEquals(3, written.get());
+    }
+
+    @Test
+    public void testStartTlsResponseIgnoresShedding() throws InterruptedException {
+        final List<byte[]> writtenMessages = new ArrayList<byte[]>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        
+        // the transport does not support STARTTLS anymore, as if the handshakes got overloaded after the response was built
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch);
+        assertFalse(transport.isStartTLSSupported());
+        transport.writeResponse(new TestStartTlsResponse(), new ProtocolSessionImpl(null, transport, null));
+        latch.await();
+        
+        assertEquals(Arrays.asList(Boolean.TRUE), startTLSWrites);
+    }
+    
     private void checkWrittenResponses(List<Response> messages) throws InterruptedException, UnsupportedEncodingException {
+        checkWrittenResponses(messages, messages);
+    }
+
+    private void checkWrittenResponses(List<Response> messages, List<Response> expected) throws InterruptedException, UnsupportedEncodingException {
         final List<byte[]> writtenMessages = new ArrayList<byte[]>();
 
-        final CountDownLatch latch = new CountDownLatch(messages.size());
+        final CountDownLatch latch = new CountDownLatch(expected.size());
+
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch);
+        for (Response message: messages) {
+            transport.writeResponse(message, null);
+        }
+        latch.await();
+        
+        assertEquals(expected.size(), writtenMessages.size());
+        
+        for (int i = 0; i < expected.size(); i++) {
+            Response response = expected.get(i);
+            checkBytesEquals(response.getLines().get(0).toString().getBytes(US_ASCII), writtenMessages.get(i));
+        }
+    }
 
-        AbstractProtocolTransport transport = new AbstractProtocolTransport() {
+    private AbstractProtocolTransport createTransport(final List<byte[]> writtenMessages, final CountDownLatch latch) {
+        return new AbstractProtocolTransport() {
 
             public void setReadable(boolean readable) {
                 throw new UnsupportedOperationException();
@@ -152,7 +241,12 @@ public class AbstractProtocolTransportTest {
             }
             
             public boolean isStartTLSSupported() {
-                throw new UnsupportedOperationException();
+                return false;
+            }
+            
+            @Override
+            protected boolean canStartTLS() {
+                return true;
             }
             
             public boolean isReadable() {
@@ -172,7 +266,7 @@ public class AbstractProtocolTransportTest {
             }
             
             public String getId() {
-                throw new UnsupportedOperationException();
+                return "test";
             }
             
             protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
@@ -180,6 +274,7 @@ public class AbstractProtocolTransportTest {
             }
             
             protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+                startTLSWrites.add(startTLS);
                 writtenMessages.add(bytes);
                 latch.countDown();
             }
@@ -189,18 +284,8 @@ public class AbstractProtocolTransportTest {
                 throw new UnsupportedOperationException();
             }
         };
-        for (Response message: messages) {
-            transport.writeResponse(message, null);
-        }
-        latch.await();
-        
-        assertEquals(messages.size(), writtenMessages.size());
-        
-        for (int i = 0; i < messages.size(); i++) {
-            Response response = messages.get(i);
-            checkBytesEquals(response.getLines().get(0).toString().getBytes(US_ASCII), writtenMessages.get(i));
-        }
     }
+
     private void checkBytesEquals(byte[] expected, byte[] received) throws UnsupportedEncodingException {
         
         assertEquals("'" + new String(expected, US_ASCII) + "'=>'" + new String(received, US_ASCII) + "'", expected.length, received.length - 2);
@@ -209,7 +294,7 @@ public class AbstractProtocolTransportTest {
         }
     }
     
-    private final static class TestResponse implements Response {
+    private static class TestResponse implements Response {
 
         private String msg;
 
@@ -229,4 +314,7 @@ public class AbstractProtocolTransportTest {
             return false;
         }
     }
+    
+    private final static class TestStartTlsResponse extends TestResponse implements StartTlsResponse {
+    }
 }
@@ -0,0 +1,100 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+public class NetworkMatcherTest {
+
+    @Test
+    public void testIPv4() throws Exception {
+        NetworkMatcher matcher = new NetworkMatcher("127.0.0.1", "192.168.0.0/16", "10.0.0.0/255.0.0.0", "172.16.1.*");
+        assertTrue(matcher.matches("127.0.0.1"));
+        assertFalse(matcher.matches("127.0.0.2"));
+        assertTrue(matcher.matches("192.168.100.1"));
+        assertFalse(matcher.matches("192.169.0.1"));
+        assertTrue(matcher.matches("10.255.255.255"));
+        assertFalse(matcher.matches("11.0.0.0"));
+        assertTrue(matcher.matches("172.16.1.200"));
+        assertFalse(matcher.matches("172.16.2.1"));
+        assertTrue(matcher.matches(InetAddress.getByName("192.168.1.1")));
+        assertTrue(matcher.matches(new byte[] {10, 1, 2, 3}));
+        assertFalse(matcher.matches("::1"));
+    }
+    
+    @Test
+    public void testIPv6() throws Exception {
+        NetworkMatcher matcher = new NetworkMatcher("::1", "2001:db8::/32", "::ffff:1.2.3.0/120");
+        assertTrue(matcher.matches("::1"));
+        assertTrue(matcher.matches("0:0:0:0:0:0:0:1"));
+        assertFalse(matcher.matches("::2"));
+        assertTrue(matcher.matches("2001:db8:1::5"));
+        assertFalse(matcher.matches("2001:db9::1"));
+        assertTrue(matcher.matches(InetAddress.getByName("2001:0db8:ffff::")));
+        
+        // IPv4 mapped addresses are handled as IPv4
+        assertTrue(matcher.matches("1.2.3.4"));
+        assertFalse(matcher.matches("1.2.4.4"));
+        assertFalse(matcher.matches("127.0.0.1"));
+    }
+    
+    @Test
+    public void testOverlapping() {
+        NetworkMatcher matcher = new NetworkMatcher("192.168.1.0/24", "192.168.0.0/16", "192.168.1.1");
+        assertTrue(matcher.matches("192.168.1.1"));
+        assertTrue(matcher.matches("192.168.2.1"));
+        
+        matcher = new NetworkMatcher("0.0.0.0/0");
+        assertTrue(matcher.matches("1.2.3.4"));
+        assertFalse(matcher.matches("::1"));
+    }
+    
+    @Test
+    public void testEmpty() {
+        NetworkMatcher matcher = new NetworkMatcher();
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("127.0.0.1"));
+        assertFalse(matcher.matches("::1"));
+    }
+    
+    @Test
+    public void testNoLiteral() {
+        NetworkMatcher matcher = new NetworkMatcher("127.0.0.1");
+        assertFalse(matcher.matches("localhost"));
+        assertFalse(matcher.matches(""));
+    }
+    
+    @Test
+    public void testInvalid() {
+        String[] invalid = {"localhost", "127.0.0.1/33", "127.0.0.1/a", "10.0.0.0/255.0.255.0", "::1/129", "1.2.*.4", "1.2.3.4.5", ""};
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                new NetworkMatcher(invalid[i]);
+                fail("Network should be invalid: " + invalid[i]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import static junit.framework.Assert.*;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.junit.Test;
+
+public class ProtocolSessionImplTest {
+
+    private final static AttributeKey<String> TRANSACTION_KEY = AttributeKey.create("TRANSACTION_KEY", State.Transaction);
+    private final static AttributeKey<String> CONNECTION_KEY = AttributeKey.create("CONNECTION_KEY", State.Connection);
+    private final static CounterKey COUNTER = CounterKey.create("COUNTER", State.Transaction);
+
+    @Test
+    public void testSameKeyForSameName() {
+        assertSame(TRANSACTION_KEY, AttributeKey.create("TRANSACTION_KEY", State.Transaction));
+        assertNotSame(TRANSACTION_KEY, AttributeKey.create("TRANSACTION_KEY", State.Connection));
+    }
+
+    @Test
+    public void testTypedAndStringAttachment() {
+        ProtocolSession session = createSession();
+        assertNull(session.getAttachment(TRANSACTION_KEY));
+        assertNull(session.setAttachment(TRANSACTION_KEY, "value"));
+        assertEquals("value", session.getAttachment(TRANSACTION_KEY));
+        assertEquals("value", session.getAttachment("TRANSACTION_KEY", State.Transaction));
+        assertNull(session.getAttachment("TRANSACTION_KEY", State.Connection));
+        
+        assertEquals("value", session.setAttachment("TRANSACTION_KEY", "other", State.Transaction));
+        assertEquals("other", session.getAttachment(TRANSACTION_KEY));
+        
+        session.setAttachment(CONNECTION_KEY, "connection");
+        session.resetState();
+        assertNull(session.getAttachment(TRANSACTION_KEY));
+        assertEquals("connection", session.getAttachment(CONNECTION_KEY));
+    }
+
+    @Test
+    public void testKeyCreatedAfterStringAttachment() {
+        ProtocolSession session = createSession();
+        session.setAttachment("LATE_KEY", "value", State.Transaction);
+        
+        AttributeKey<String> key = AttributeKey.create("LATE_KEY", State.Transaction);
+        assertEquals("value", session.getAttachment(key));
+        session.setAttachment(key, null);
+        assertNull(session.getAttachment("LATE_KEY", State.Transaction));
+    }
+
+    @Test
+    public void testCounter() {
+        ProtocolSession session = createSession();
+        assertEquals(0, session.getCounter(COUNTER));
+        assertEquals(10, session.addToCounter(COUNTER, 10));
+        assertEquals(15, session.addToCounter(COUNTER, 5));
+        assertEquals(15, session.getCounter(COUNTER));
+        session.resetState();
+        assertEquals(0, session.getCounter(COUNTER));
+        session.setCounter(COUNTER, 3);
+        assertEquals(3, session.getCounter(COUNTER));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testStateMapUsesKeys() {
+        ProtocolSession session = createSession();
+        Map<String, Object> state = session.getState();
+        
+        session.setAttachment(TRANSACTION_KEY, "value");
+        assertEquals("value", state.get("TRANSACTION_KEY"));
+        assertTrue(state.containsKey("TRANSACTION_KEY"));
+        
+        assertEquals("value", state.put("TRANSACTION_KEY", "other"));
+        assertEquals("other", session.getAttachment(TRANSACTION_KEY));
+        
+        session.addToCounter(COUNTER, 5);
+        assertEquals(Long.valueOf(5), state.get("COUNTER"));
+        state.put("COUNTER", 7L);
+        assertEquals(7, session.getCounter(COUNTER));
+        
+        state.put("PLAIN", "plain");
+        assertEquals("plain", session.getAttachment("PLAIN", State.Transaction));
+        assertEquals(3, state.size());
+        assertEquals(new HashSet<String>(Arrays.asList("TRANSACTION_KEY", "COUNTER", "PLAIN")), state.keySet());
+        
+        session.getConnectionState().put("CONNECTION_KEY", "connection");
+        assertEquals("connection", session.getAttachment(CONNECTION_KEY));
+        assertNull(state.get("CONNECTION_KEY"));
+        
+        assertEquals("other", state.remove("TRANSACTION_KEY"));
+        assertNull(session.getAttachment(TRANSACTION_KEY));
+        
+        state.clear();
+        assertTrue(state.isEmpty());
+        assertEquals(0, session.getCounter(COUNTER));
+        assertNull(session.getAttachment("PLAIN", State.Transaction));
+        assertEquals("connection", session.getAttachment(CONNECTION_KEY));
+    }
+
+    @Test
+    public void testCounterCreatedAfterStringAttachment() {
+        ProtocolSession session = createSession();
+        session.setAttachment("LATE_COUNTER", 10L, State.Transaction);
+        
+        CounterKey key = CounterKey.create("LATE_COUNTER", State.Transaction);
+        assertEquals(10, session.getCounter(key));
+        assertEquals(15, session.addToCounter(key, 5));
+        assertEquals(Long.valueOf(15), session.getAttachment("LATE_COUNTER", State.Transaction));
+    }
+
+    @Test
+    public void testCounterAtZero() {
+        ProtocolSession session = createSession();
+        assertNull(session.getAttachment("COUNTER", State.Transaction));
+        
+        assertEquals(0, session.addToCounter(COUNTER, 0));
+        assertEquals(Long.valueOf(0), session.getAttachment("COUNTER", State.Transaction));
+        session.addToCounter(COUNTER, 5);
+        assertEquals(Long.valueOf(5), session.setAttachment("COUNTER", 0L, State.Transaction));
+        assertEquals(Long.valueOf(0), session.getAttachment("COUNTER", State.Transaction));
+        
+        assertEquals(Long.valueOf(0), session.setAttachment("COUNTER", null, State.Transaction));
+        assertNull(session.getAttachment("COUNTER", State.Transaction));
+        
+        session.setCounter(COUNTER, 0);
+        assertEquals(Long.valueOf(0), session.getAttachment("COUNTER", State.Transaction));
+        session.resetState();
+        assertNull(session.getAttachment("COUNTER", State.Transaction));
+        assertEquals(0, session.getCounter(COUNTER));
+    }
+
+    @Test
+    public void testRecycleKeepsLogger() {
+        ProtocolSessionImpl session = (ProtocolSessionImpl) createSession();
+        Logger logger = session.getLogger();
+        session.setAttachment(CONNECTION_KEY, "connection");
+        
+        session.recycle(session.getProtocolTransport());
+        assertSame(logger, session.getLogger());
+        assertNull(session.getAttachment(CONNECTION_KEY));
+    }
+
+    private ProtocolSession createSession() {
+        ProtocolTransport transport = new AbstractProtocolTransport() {
+
+            public void setReadable(boolean readable) {
+                throw new UnsupportedOperationException();
+            }
+
+            public <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler, T session) {
+                throw new UnsupportedOperationException();
+            }
+
+            public void popLineHandler() {
+                throw new UnsupportedOperationException();
+            }
+
+            public boolean isTLSStarted() {
+                return false;
+            }
+
+            public boolean isStartTLSSupported() {
+                return false;
+            }
+
+            public boolean isReadable() {
+                return true;
+            }
+
+            public InetSocketAddress getRemoteAddress() {
+                throw new UnsupportedOperationException();
+            }
+
+            public int getPushedLineHandlerCount() {
+                return 0;
+            }
+
+            public InetSocketAddress getLocalAddress() {
+                throw new UnsupportedOperationException();
+            }
+
+            public String getId() {
+                return "test";
+            }
+
+            protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
+                throw new UnsupportedOperationException();
+            }
+
+            protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected void close() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return new ProtocolSessionImpl(null, transport, null);
+    }
+}
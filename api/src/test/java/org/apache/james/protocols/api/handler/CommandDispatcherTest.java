@@ -0,0 +1,219 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.MockLogger;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.junit.Test;
+
+public class CommandDispatcherTest {
+
+    @Test
+    public void testLowerCaseCommand() throws Exception {
+        TestCommandHandler handler = new TestCommandHandler("MAIL");
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher(handler, new TestCommandHandler(UnknownCommandHandler.COMMAND_IDENTIFIER));
+
+        assertSame(Response.DISCONNECT, dispatcher.onLine(createSession(), wrap("mail FROM:<test@localhost>\r\n")));
+        assertEquals("MAIL", handler.command);
+        assertEquals("FROM:<test@localhost>", handler.argument);
+
+        dispatcher.onLine(createSession(), wrap("MaIl\r\n"));
+        assertEquals("MAIL", handler.command);
+        assertNull(handler.argument);
+    }
+
+    @Test
+    public void testUnknownCommand() throws Exception {
+        TestCommandHandler unknown = new TestCommandHandler(UnknownCommandHandler.COMMAND_IDENTIFIER);
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher(new TestCommandHandler("MAIL"), unknown);
+
+        dispatcher.onLine(createSession(), wrap("mai\r\n"));
+        assertEquals("MAI", unknown.command);
+
+        dispatcher.onLine(createSession(), wrap("MAILX arg\r\n"));
+        assertEquals("MAILX", unknown.command);
+        assertEquals("arg", unknown.argument);
+    }
+
+    @Test
+    public void testNonAsciiCommand() throws Exception {
+        TestCommandHandler unknown = new TestCommandHandler(UnknownCommandHandler.COMMAND_IDENTIFIER);
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher(new TestCommandHandler("MAIL"), unknown);
+
+        dispatcher.onLine(createSession(), ByteBuffer.wrap(new byte[] {'M', (byte) 0xc4, 'I', 'L', ' ', 'x', '\r', '\n'}));
+        assertNotNull(unknown.command);
+        assertEquals(4, unknown.command.length());
+        assertEquals("x", unknown.argument);
+    }
+
+    @Test
+    public void testArrayOffset() throws Exception {
+        TestCommandHandler handler = new TestCommandHandler("RCPT");
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher(handler, new TestCommandHandler(UnknownCommandHandler.COMMAND_IDENTIFIER));
+
+        byte[] bytes = "XXXXRCPT TO:<test@localhost>\r\nYYYY".getBytes("US-ASCII");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 4, bytes.length - 8).slice();
+        assertEquals(4, buffer.arrayOffset());
+
+        dispatcher.onLine(createSession(), buffer);
+        // the argument must not depend on the buffer anymore, as the caller may reuse it
+        Arrays.fill(bytes, (byte) 'Z');
+        assertEquals("RCPT", handler.command);
+        assertEquals("TO:<test@localhost>", handler.argument);
+        assertEquals("TO:<test@localhost>", handler.request.getArgument());
+    }
+
+    @Test
+    public void testGetCommandHandlersOverride() throws Exception {
+        final TestCommandHandler other = new TestCommandHandler("OTHER");
+        TestCommandHandler handler = new TestCommandHandler("MAIL");
+        CommandDispatcher<ProtocolSession> dispatcher = new CommandDispatcher<ProtocolSession>() {
+
+            @Override
+            protected List<CommandHandler<ProtocolSession>> getCommandHandlers(String command, ProtocolSession session) {
+                if ("MAIL".equals(command)) {
+                    List<CommandHandler<ProtocolSession>> handlers = new ArrayList<CommandHandler<ProtocolSession>>();
+                    handlers.add(other);
+                    return handlers;
+                }
+                return super.getCommandHandlers(command, session);
+            }
+        };
+        dispatcher.wireExtensions(CommandHandler.class, Arrays.asList(handler, new TestCommandHandler(UnknownCommandHandler.COMMAND_IDENTIFIER)));
+
+        dispatcher.onLine(createSession(), wrap("MAIL FROM:<>\r\n"));
+        assertNull(handler.command);
+        assertEquals("MAIL", other.command);
+    }
+
+    private CommandDispatcher<ProtocolSession> createDispatcher(CommandHandler<ProtocolSession>... handlers) throws WiringException {
+        CommandDispatcher<ProtocolSession> dispatcher = new CommandDispatcher<ProtocolSession>();
+        dispatcher.wireExtensions(CommandHandler.class, Arrays.asList(handlers));
+        return dispatcher;
+    }
+
+    private ByteBuffer wrap(String line) throws Exception {
+        return ByteBuffer.wrap(line.getBytes("US-ASCII"));
+    }
+
+    private ProtocolSession createSession() {
+        AbstractProtocolTransport transport = new AbstractProtocolTransport() {
+
+            public void setReadable(boolean readable) {
+                throw new UnsupportedOperationException();
+            }
+
+            public <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler, T session) {
+                throw new UnsupportedOperationException();
+            }
+
+            public void popLineHandler() {
+                throw new UnsupportedOperationException();
+            }
+
+            public boolean isTLSStarted() {
+                return false;
+            }
+
+            public boolean isStartTLSSupported() {
+                return false;
+            }
+
+            public boolean isReadable() {
+                return true;
+            }
+
+            public InetSocketAddress getRemoteAddress() {
+                throw new UnsupportedOperationException();
+            }
+
+            public int getPushedLineHandlerCount() {
+                return 0;
+            }
+
+            public InetSocketAddress getLocalAddress() {
+                throw new UnsupportedOperationException();
+            }
+
+            public String getId() {
+                return "test";
+            }
+
+            protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
+                throw new UnsupportedOperationException();
+            }
+
+            protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected void close() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return new ProtocolSessionImpl(new MockLogger(), transport, null);
+    }
+
+    private final static class TestCommandHandler implements CommandHandler<ProtocolSession> {
+
+        private final Collection<String> commands;
+        private Request request;
+        private String command;
+        private String argument;
+
+        public TestCommandHandler(String command) {
+            this.commands = Arrays.asList(command);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.CommandHandler#onCommand(org.apache.james.protocols.api.ProtocolSession, org.apache.james.protocols.api.Request)
+         */
+        public Response onCommand(ProtocolSession session, Request request) {
+            this.request = request;
+            this.command = request.getCommand();
+            this.argument = request.getArgument();
+            return Response.DISCONNECT;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
+         */
+        public Collection<String> getImplCommands() {
+            return commands;
+        }
+    }
+}
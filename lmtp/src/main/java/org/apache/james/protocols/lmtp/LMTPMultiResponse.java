@@ -20,6 +20,7 @@
 package org.apache.james.protocols.lmtp;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.james.protocols.api.Response;
@@ -32,6 +33,7 @@ import org.apache.james.protocols.api.Response;
 public class LMTPMultiResponse implements Response {
 
     private final List<Response> responses = new ArrayList<Response>();
+    private final List<CharSequence> lines = new ArrayList<CharSequence>();
 
     public LMTPMultiResponse(Response response) {
         addResponse(response);
@@ -39,7 +41,7 @@ public class LMTPMultiResponse implements Response {
     
     public void addResponse(Response response) {
         this.responses.add(response);
-        
+        this.lines.addAll(response.getLines());
     }
     
     /*
@@ -55,11 +57,7 @@ public class LMTPMultiResponse implements Response {
      * @see org.apache.james.protocols.api.Response#getLines()
      */
     public List<CharSequence> getLines() {
-        List<CharSequence> lines = new ArrayList<CharSequence>();
-        for (Response response: responses) {
-            lines.addAll(response.getLines());
-        }
-        return lines;
+        return Collections.unmodifiableList(lines);
     }
 
 
@@ -18,15 +18,21 @@
  ****************************************************************/
 package org.apache.james.protocols.lmtp.core;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.apache.james.protocols.api.FutureChainedResponseImpl;
+import org.apache.james.protocols.api.FutureResponse;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.lmtp.LMTPMultiResponse;
 import org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook;
+import org.apache.james.protocols.lmtp.hook.DeliverToRecipientsHook;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelopeImpl;
 import org.apache.james.protocols.smtp.SMTPResponse;
@@ -34,30 +40,50 @@ import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.HookResult;
 
+/**
+ * {@link org.apache.james.protocols.smtp.core.DataLineMessageHookHandler} which delivers the message to every recipient via the 
+ * {@link DeliverToRecipientHook}'s and returns a {@link LMTPMultiResponse} which holds a response for every recipient.
+ * The {@link DeliverToRecipientsHook}'s are called before, so they can deliver the message to many recipients at once.
+ * 
+ * If a delivery {@link Executor} is set the recipients are processed concurrently and a chain of {@link FutureResponse}'s is 
+ * returned, one for every recipient. The responses are still written in the order of the recipients as required by RFC 2033,
+ * each as soon as it and the ones before it are ready.
+ */
 public class DataLineMessageHookHandler extends org.apache.james.protocols.smtp.core.DataLineMessageHookHandler{
 
     private final List<DeliverToRecipientHook> handlers = new ArrayList<DeliverToRecipientHook>();
+    private final List<DeliverToRecipientsHook> batchHandlers = new ArrayList<DeliverToRecipientsHook>();
+
+    private Executor executor;
+
+    /**
+     * Set the {@link Executor} which is used to deliver the message to the recipients concurrently. Its size should be bounded 
+     * to limit the concurrent deliveries. If the {@link Executor} rejects a delivery it is done by the calling thread. 
+     * 
+     * If an {@link Executor} is set the {@link DeliverToRecipientHook}'s MUST be thread-safe and MUST NOT modify the 
+     * {@link SMTPSession}. The default is <code>null</code>, which means the recipients are processed one after the other.
+     * 
+     * @param executor
+     */
+    public void setDeliveryExecutor(Executor executor) {
+        this.executor = executor;
+    }
 
-    
     @Override
     protected Response processExtensions(SMTPSession session, MailEnvelopeImpl mail) {
+        List<MailAddress> recipients = mail.getRecipients();
+        Response[] batchResponses = deliverBatch(session, recipients, mail);
+        if (executor != null && recipients.size() > 1) {
+            return processConcurrent(session, mail, recipients, batchResponses);
+        }
         LMTPMultiResponse mResponse = null;
 
-        Iterator<MailAddress> recipients = mail.getRecipients().iterator();
-        
-        while (recipients.hasNext()) {
-            MailAddress recipient = recipients.next();
-            Response response = null;
-            for (DeliverToRecipientHook handler: handlers) {
-                response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(handler.deliver(session, recipient, mail));
-                if (response != null) {
-                    break;
-                }
-            }
+        for (int i = 0; i < recipients.size(); i++) {
+            Response response = batchResponses[i];
             if (response == null) {
-                // Add some default response for not handled responses
-                response = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + "Temporary error deliver message to " + recipient);
+                response = deliver(session, recipients.get(i), mail);
             }
             if (mResponse == null) {
                 mResponse = new LMTPMultiResponse(response);
@@ -68,10 +94,120 @@ public class DataLineMessageHookHandler extends org.apache.james.protocols.smtp.
         return mResponse;
     }
 
+    /**
+     * Deliver the message to all recipients via the {@link Executor}. A {@link FutureChainedResponseImpl} is used for every
+     * recipient, so the response of each recipient is written as soon as it and all responses before it are ready. The 
+     * returned {@link Response} is the first one of the chain
+     */
+    private Response processConcurrent(final SMTPSession session, final MailEnvelopeImpl mail, List<MailAddress> recipients, Response[] batchResponses) {
+        int count = recipients.size();
+        FutureChainedResponseImpl[] responses = new FutureChainedResponseImpl[count];
+        for (int i = count - 1; i >= 0; i--) {
+            responses[i] = new FutureChainedResponseImpl(session.getLogger(), i + 1 < count ? responses[i + 1] : null);
+        }
+
+        for (int i = 0; i < count; i++) {
+            final FutureChainedResponseImpl future = responses[i];
+            if (batchResponses[i] != null) {
+                // already delivered via a DeliverToRecipientsHook
+                future.setResponse(batchResponses[i]);
+                continue;
+            }
+            final MailAddress recipient = recipients.get(i);
+            Runnable delivery = new Runnable() {
+
+                public void run() {
+                    Response response;
+                    try {
+                        response = deliver(session, recipient, mail);
+                    } catch (RuntimeException e) {
+                        session.getLogger().error("Unable to deliver message to " + recipient, e);
+                        response = temporaryError(recipient);
+                    }
+                    future.setResponse(response);
+                }
+            };
+            try {
+                executor.execute(delivery);
+            } catch (RejectedExecutionException e) {
+                delivery.run();
+            }
+        }
+        return responses[0];
+    }
+
+    /**
+     * Deliver the message via the {@link DeliverToRecipientsHook}'s. The message is shared with the hooks via a read-only 
+     * {@link ByteBuffer}, so it is not copied. Every hook is called with the recipients which were not handled by the hooks 
+     * before it.
+     * 
+     * @return responses the {@link Response} for every recipient. The element is <code>null</code> if the recipient was not handled
+     */
+    private Response[] deliverBatch(SMTPSession session, List<MailAddress> recipients, MailEnvelopeImpl mail) {
+        Response[] responses = new Response[recipients.size()];
+        if (batchHandlers.isEmpty()) {
+            return responses;
+        }
+        ByteBuffer message = mail.getMessageBuffer();
+
+        List<MailAddress> pending = recipients;
+        List<Integer> pendingIndexes = new ArrayList<Integer>(recipients.size());
+        for (int i = 0; i < recipients.size(); i++) {
+            pendingIndexes.add(i);
+        }
+        for (DeliverToRecipientsHook handler: batchHandlers) {
+            List<HookResult> results = handler.deliver(session, Collections.unmodifiableList(pending), mail, message.duplicate());
+
+            List<MailAddress> notHandled = new ArrayList<MailAddress>();
+            List<Integer> notHandledIndexes = new ArrayList<Integer>();
+            for (int i = 0; i < pending.size(); i++) {
+                Response response = null;
+                if (results != null && i < results.size() && results.get(i) != null) {
+                    response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(results.get(i));
+                }
+                if (response != null) {
+                    responses[pendingIndexes.get(i)] = response;
+                } else {
+                    notHandled.add(pending.get(i));
+                    notHandledIndexes.add(pendingIndexes.get(i));
+                }
+            }
+            if (notHandled.isEmpty()) {
+                break;
+            }
+            pending = notHandled;
+            pendingIndexes = notHandledIndexes;
+        }
+        return responses;
+    }
+
+    /**
+     * Deliver the message to the recipient via the {@link DeliverToRecipientHook}'s and return the {@link Response} for it
+     */
+    private Response deliver(SMTPSession session, MailAddress recipient, MailEnvelopeImpl mail) {
+        Response response = null;
+        for (DeliverToRecipientHook handler: handlers) {
+            response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(handler.deliver(session, recipient, mail));
+            if (response != null) {
+                break;
+            }
+        }
+        if (response == null) {
+            // Add some default response for not handled responses
+            response = temporaryError(recipient);
+        }
+        return response;
+    }
+
+    private Response temporaryError(MailAddress recipient) {
+        return new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + "Temporary error deliver message to " + recipient);
+    }
+
     @Override
     public List<Class<?>> getMarkerInterfaces() {
         List<Class<?>> markers = new ArrayList<Class<?>>();
         markers.add(DeliverToRecipientHook.class);
+        markers.add(DeliverToRecipientsHook.class);
         return markers;
     }
 
@@ -80,6 +216,8 @@ public class DataLineMessageHookHandler extends org.apache.james.protocols.smtp.
     public void wireExtensions(Class interfaceName, List extension) throws WiringException {
         if (interfaceName.equals(DeliverToRecipientHook.class)) {
            handlers.addAll((Collection<? extends DeliverToRecipientHook>) extension);
+        } else if (interfaceName.equals(DeliverToRecipientsHook.class)) {
+           batchHandlers.addAll((Collection<? extends DeliverToRecipientsHook>) extension);
         }
     }
 
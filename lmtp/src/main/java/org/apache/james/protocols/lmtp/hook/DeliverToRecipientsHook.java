@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.lmtp.hook;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+
+/**
+ * Hook which delivers the message to many recipients at once. This allows to
+ * store the message only once and link it to the mailbox of every recipient.
+ * 
+ * These hooks are called before the {@link DeliverToRecipientHook}'s. All
+ * recipients which are not handled by them are delivered via the
+ * {@link DeliverToRecipientHook}'s
+ */
+public interface DeliverToRecipientsHook extends Hook {
+
+    /**
+     * Deliver the message to the recipients
+     * 
+     * @param session
+     * @param recipients
+     *            the recipients which were not handled yet
+     * @param envelope
+     * @param message
+     *            read-only {@link ByteBuffer} which holds the message. It is
+     *            shared and not copied, so use
+     *            {@link ByteBuffer#duplicate()} if it needs to get accessed
+     *            by more then one thread
+     * @return results a {@link List} which holds a {@link HookResult} for
+     *         every recipient in the same order as the recipients. A
+     *         <code>null</code> element or a {@link HookResult} with
+     *         {@link org.apache.james.protocols.smtp.hook.HookReturnCode#DECLINED}
+     *         means the recipient is not handled by this hook
+     */
+    public List<HookResult> deliver(SMTPSession session, List<MailAddress> recipients, MailEnvelope envelope, ByteBuffer message);
+
+}
@@ -22,10 +22,17 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.net.smtp.RelayPath;
 import org.apache.commons.net.smtp.SMTPClient;
@@ -33,7 +40,9 @@ import org.apache.commons.net.smtp.SMTPReply;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.handler.ProtocolHandler;
 import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.lmtp.core.DataLineMessageHookHandler;
 import org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook;
+import org.apache.james.protocols.lmtp.hook.DeliverToRecipientsHook;
 import org.apache.james.protocols.netty.NettyServer;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelope;
@@ -49,9 +58,20 @@ import org.junit.Test;
 
 public class LMTPServerTest extends SMTPServerTest{
 
+    private final static String RCPT3 ="rpct3@domain";
+
     @Override
     protected Protocol createProtocol(ProtocolHandler... handlers) throws WiringException {
+        return createProtocol(null, handlers);
+    }
+
+    protected Protocol createProtocol(Executor deliveryExecutor, ProtocolHandler... handlers) throws WiringException {
         LMTPProtocolHandlerChain chain = new LMTPProtocolHandlerChain();
+        for (ProtocolHandler handler: chain) {
+            if (handler instanceof DataLineMessageHookHandler) {
+                ((DataLineMessageHookHandler) handler).setDeliveryExecutor(deliveryExecutor);
+            }
+        }
         List<ProtocolHandler> hList = new ArrayList<ProtocolHandler>();
         
         for (int i = 0; i < handlers.length; i++) {
@@ -86,6 +106,18 @@ public class LMTPServerTest extends SMTPServerTest{
     }
 
 
+    @Override
+    public void testPipelinedRcptHookTarpit() throws Exception {
+        // Disable as it issues HELO
+    }
+
+
+    @Override
+    public void testSessionPooling() throws Exception {
+        // Disable as the MessageHookAdapter only handles one message
+    }
+
+
     @Override
     public void testMailWithoutBrackets() throws Exception {
         TestMessageHook hook = new TestMessageHook();
@@ -249,6 +281,181 @@ public class LMTPServerTest extends SMTPServerTest{
         
     }
     
+    @Test
+    public void testBatchDeliveryHook() throws Exception {
+        TestDeliverHook deliverHook = new TestDeliverHook();
+        TestBatchDeliverHook batchHook = new TestBatchDeliverHook();
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(batchHook, deliverHook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            LMTPClient client = (LMTPClient) createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.setSender(SENDER);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT1);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT2);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            assertTrue(client.sendShortMessageData(MSG1));
+
+            int[] replies = client.getReplies();
+            
+            assertEquals("Expected two replies",2, replies.length);
+            
+            assertTrue(SMTPReply.isNegativePermanent(replies[0]));
+            assertTrue(SMTPReply.isPositiveCompletion(replies[1]));
+
+            client.quit();
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.disconnect();
+
+            // RCPT2 was delivered via the batch hook, so the other hook only handled RCPT1
+            assertTrue(deliverHook.getDelivered().isEmpty());
+
+            Iterator<MailEnvelope> queued = batchHook.getDelivered().iterator();
+            assertTrue(queued.hasNext());
+            
+            MailEnvelope env = queued.next();
+            checkEnvelope(env, SENDER, Arrays.asList(RCPT1, RCPT2), MSG1);
+            assertFalse(queued.hasNext());
+            assertEquals(env.getSize(), batchHook.getMessageSize());
+
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+        
+    }
+    
+    @Test
+    public void testConcurrentDeliveryHook() throws Exception {
+        TestDeliverHook deliverHook = new TestDeliverHook();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(executor, deliverHook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            LMTPClient client = (LMTPClient) createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.setSender(SENDER);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT1);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT2);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            assertTrue(client.sendShortMessageData(MSG1));
+
+            int[] replies = client.getReplies();
+            
+            assertEquals("Expected two replies",2, replies.length);
+            
+            assertTrue(SMTPReply.isNegativePermanent(replies[0]));
+            assertTrue(SMTPReply.isPositiveCompletion(replies[1]));
+
+            client.quit();
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.disconnect();
+
+            Iterator<MailEnvelope> queued = deliverHook.getDelivered().iterator();
+            assertTrue(queued.hasNext());
+            
+            MailEnvelope env = queued.next();
+            checkEnvelope(env, SENDER, Arrays.asList(RCPT1, RCPT2), MSG1);
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            executor.shutdownNow();
+        }
+        
+    }
+    
+    @Test
+    public void testConcurrentDeliveryRepliesInRecipientOrder() throws Exception {
+        OrderingDeliverHook deliverHook = new OrderingDeliverHook(3);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(executor, deliverHook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            LMTPClient client = (LMTPClient) createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.setSender(SENDER);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT1);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT2);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT3);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            assertTrue(client.sendShortMessageData(MSG1));
+
+            int[] replies = client.getReplies();
+            
+            assertEquals("Expected three replies",3, replies.length);
+            
+            // the replies must be in the order of the recipients, even if the deliveries completed in reverse order
+            assertTrue(SMTPReply.isNegativePermanent(replies[0]));
+            assertTrue(SMTPReply.isPositiveCompletion(replies[1]));
+            assertTrue(SMTPReply.isNegativeTransient(replies[2]));
+            assertEquals(Arrays.asList(RCPT3, RCPT2, RCPT1), deliverHook.getCompleted());
+            assertTrue("Deliveries were not running concurrently", deliverHook.isConcurrent());
+
+            client.quit();
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.disconnect();
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            executor.shutdownNow();
+        }
+    }
+
     protected SMTPClient createClient() {
         return new LMTPClient();
     }
@@ -334,9 +541,41 @@ public class LMTPServerTest extends SMTPServerTest{
         
     }
     
-    private final class TestDeliverHook implements DeliverToRecipientHook {
+    private final class TestBatchDeliverHook implements DeliverToRecipientsHook {
         
         private final List<MailEnvelope> delivered = new ArrayList<MailEnvelope>();
+        private int messageSize = -1;
+        
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.lmtp.hook.DeliverToRecipientsHook#deliver(org.apache.james.protocols.smtp.SMTPSession, java.util.List, org.apache.james.protocols.smtp.MailEnvelope, java.nio.ByteBuffer)
+         */
+        public List<HookResult> deliver(SMTPSession session, List<MailAddress> recipients, MailEnvelope envelope, ByteBuffer message) {
+            List<HookResult> results = new ArrayList<HookResult>();
+            for (MailAddress recipient: recipients) {
+                if (RCPT2.equals(recipient.toString())) {
+                    results.add(new HookResult(HookReturnCode.OK));
+                } else {
+                    results.add(null);
+                }
+            }
+            delivered.add(envelope);
+            messageSize = message.remaining();
+            return results;
+        }
+        
+        public List<MailEnvelope> getDelivered() {
+            return delivered;
+        }
+
+        public int getMessageSize() {
+            return messageSize;
+        }
+    };
+
+    private final class TestDeliverHook implements DeliverToRecipientHook {
+        
+        private final List<MailEnvelope> delivered = Collections.synchronizedList(new ArrayList<MailEnvelope>());
         
         /*
          * (non-Javadoc)
@@ -356,4 +595,59 @@ public class LMTPServerTest extends SMTPServerTest{
         }
     };
 
+    /**
+     * Delivers to {@link #RCPT1}, {@link #RCPT2} and {@link #RCPT3} once all deliveries were started, and completes them in
+     * reverse order
+     */
+    private final class OrderingDeliverHook implements DeliverToRecipientHook {
+
+        private final CountDownLatch started;
+        private final CountDownLatch rcpt2Done = new CountDownLatch(1);
+        private final CountDownLatch rcpt3Done = new CountDownLatch(1);
+        private final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        private volatile boolean concurrent = true;
+
+        public OrderingDeliverHook(int recipients) {
+            started = new CountDownLatch(recipients);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook#deliver(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailEnvelope)
+         */
+        public HookResult deliver(SMTPSession session, MailAddress recipient, MailEnvelope envelope) {
+            String rcpt = recipient.toString();
+            try {
+                started.countDown();
+                if (!started.await(10, TimeUnit.SECONDS)) {
+                    concurrent = false;
+                }
+                if (RCPT1.equals(rcpt)) {
+                    rcpt2Done.await(10, TimeUnit.SECONDS);
+                    completed.add(rcpt);
+                    return new HookResult(HookReturnCode.DENY);
+                } else if (RCPT2.equals(rcpt)) {
+                    rcpt3Done.await(10, TimeUnit.SECONDS);
+                    completed.add(rcpt);
+                    rcpt2Done.countDown();
+                    return new HookResult(HookReturnCode.OK);
+                } else {
+                    completed.add(rcpt);
+                    rcpt3Done.countDown();
+                    return new HookResult(HookReturnCode.DENYSOFT);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public List<String> getCompleted() {
+            return completed;
+        }
+
+        public boolean isConcurrent() {
+            return concurrent;
+        }
+    }
+
 }
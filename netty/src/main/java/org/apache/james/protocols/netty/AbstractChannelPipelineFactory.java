@@ -30,6 +30,7 @@ import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
 import org.jboss.netty.util.ExternalResourceReleasable;
 import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 
 /**
  * Abstract base class for {@link ChannelPipelineFactory} implementations
@@ -45,6 +46,8 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
     private final ChannelGroupHandler groupHandler;
 	private final int timeout;
     private final ExecutionHandler eHandler;
+    private RateLimitUpstreamHandler rateLimitHandler;
+    
     public AbstractChannelPipelineFactory(int timeout, int maxConnections, int maxConnectsPerIp, ChannelGroup channels) {
         this(timeout, maxConnections, maxConnectsPerIp, channels, null);
     }
@@ -57,9 +60,29 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
         this.eHandler = eHandler;
     }
     
+    /**
+     * Set the {@link RateLimitUpstreamHandler} which is added to every {@link ChannelPipeline} or <code>null</code> if
+     * the rate should not be limited
+     * 
+     * @param rateLimitHandler
+     */
+    public void setRateLimitHandler(RateLimitUpstreamHandler rateLimitHandler) {
+        this.rateLimitHandler = rateLimitHandler;
+    }
+    
     
     
     
+    /**
+     * Return the {@link Timer} which is used by the {@link ChannelPipeline}'s of this factory. It is stopped once 
+     * {@link #releaseExternalResources()} is called
+     * 
+     * @return timer
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+    
     /**
      * @see org.jboss.netty.channel.ChannelPipelineFactory#getPipeline()
      */
@@ -75,6 +98,12 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
         
         // Add the text line decoder which limit the max line length, don't strip the delimiter and use CRLF as delimiter
         pipeline.addLast(HandlerConstants.FRAMER, new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, false, Delimiters.lineDelimiter()));
+        
+        // Add the rate limit after the framer so it sees every command line. It needs to be in front of the ExecutionHandler, so
+        // tarpitted peers don't use any worker thread
+        if (rateLimitHandler != null) {
+            pipeline.addLast(HandlerConstants.RATE_LIMIT_HANDLER, rateLimitHandler);
+        }
        
         // Add the ChunkedWriteHandler to be able to write ChunkInput
         pipeline.addLast(HandlerConstants.CHUNK_HANDLER, new ChunkedWriteHandler());
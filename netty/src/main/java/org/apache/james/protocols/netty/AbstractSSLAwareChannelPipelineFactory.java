@@ -35,6 +35,8 @@ public abstract class AbstractSSLAwareChannelPipelineFactory extends AbstractCha
 
     
     private String[] enabledCipherSuites = null;
+    private TLSMetrics tlsMetrics;
+    private HandshakeExecutionHandler handshakeHandler;
 
     public AbstractSSLAwareChannelPipelineFactory(int timeout,
             int maxConnections, int maxConnectsPerIp, ChannelGroup group, ExecutionHandler eHandler) {
@@ -55,6 +57,25 @@ public abstract class AbstractSSLAwareChannelPipelineFactory extends AbstractCha
         }
     }
 
+    /**
+     * Set the {@link TLSMetrics} which are updated when an {@link SSLEngine} is created. If <code>null</code> is given (the 
+     * default) no metrics are collected
+     * 
+     * @param tlsMetrics
+     */
+    public void setTLSMetrics(TLSMetrics tlsMetrics) {
+        this.tlsMetrics = tlsMetrics;
+    }
+    
+    /**
+     * Set the {@link HandshakeExecutionHandler} which runs the TLS handshakes. If <code>null</code> is given (the default) the 
+     * handshakes are done by the I/O worker
+     * 
+     * @param handshakeHandler
+     */
+    public void setHandshakeHandler(HandshakeExecutionHandler handshakeHandler) {
+        this.handshakeHandler = handshakeHandler;
+    }
     
     @Override
     public ChannelPipeline getPipeline() throws Exception {
@@ -69,6 +90,12 @@ public abstract class AbstractSSLAwareChannelPipelineFactory extends AbstractCha
                 engine.setEnabledCipherSuites(enabledCipherSuites);
             }
             pipeline.addFirst(HandlerConstants.SSL_HANDLER, new SslHandler(engine));
+            if (handshakeHandler != null) {
+                pipeline.addFirst(HandlerConstants.HANDSHAKE_HANDLER, handshakeHandler);
+            }
+            if (tlsMetrics != null) {
+                tlsMetrics.engineCreated();
+            }
         }
         return pipeline;
     }
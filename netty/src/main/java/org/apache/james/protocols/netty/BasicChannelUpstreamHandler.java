@@ -21,18 +21,19 @@ package org.apache.james.protocols.netty;
 import java.util.LinkedList;
 import java.util.List;
 
-import javax.net.ssl.SSLEngine;
-
+import org.apache.james.protocols.api.AbstractProtocolTransport;
 import org.apache.james.protocols.api.ProtocolSessionImpl;
 import org.apache.james.protocols.api.FutureResponse;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolSessionPool;
 import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.Encryption;
 import org.apache.james.protocols.api.handler.ConnectHandler;
 import org.apache.james.protocols.api.handler.DisconnectHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.handler.ProtocolHandler;
 import org.apache.james.protocols.api.handler.ProtocolHandlerChain;
 import org.apache.james.protocols.api.handler.ProtocolHandlerResultHandler;
 import org.apache.james.protocols.netty.NettyProtocolTransport;
@@ -46,6 +47,8 @@ import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.Timer;
 
 /**
  * {@link ChannelUpstreamHandler} which is used by the SMTPServer and other line based protocols
@@ -55,6 +58,10 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     protected final Protocol protocol;
     protected final ProtocolHandlerChain chain;
     protected final Encryption secure;
+    private ProtocolSessionPool sessionPool;
+    private Timer timer;
+    private TLSMetrics tlsMetrics;
+    private HandshakeExecutionHandler handshakeHandler;
 
     public BasicChannelUpstreamHandler(Protocol protocol) {
         this(protocol, null);
@@ -66,6 +73,59 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
         this.secure = secure;
     }
 
+    /**
+     * Set the {@link ProtocolSessionPool} which is used to reuse the {@link ProtocolSession}'s of closed connections. If 
+     * <code>null</code> is given (the default) a new {@link ProtocolSession} is created for every connection.
+     * 
+     * A {@link ProtocolSession} is returned to the pool once the connection was closed and all its {@link FutureResponse}'s
+     * were completed. Only use a pool if no {@link ProtocolHandler} keeps a reference to the {@link ProtocolSession} beyond 
+     * that.
+     * 
+     * @param sessionPool
+     */
+    public void setSessionPool(ProtocolSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * Return the {@link ProtocolSessionPool} which is used or <code>null</code> if sessions are not pooled
+     * 
+     * @return sessionPool
+     */
+    public ProtocolSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    /**
+     * Set the {@link Timer} which is used to delay {@link Response}'s without blocking a thread. If <code>null</code> is 
+     * given (the default) {@link Response}'s are never delayed
+     * 
+     * @param timer
+     */
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Set the {@link TLSMetrics} which are updated by the {@link NettyProtocolTransport}'s. If <code>null</code> is given
+     * (the default) no metrics are collected
+     * 
+     * @param tlsMetrics
+     */
+    public void setTLSMetrics(TLSMetrics tlsMetrics) {
+        this.tlsMetrics = tlsMetrics;
+    }
+
+    /**
+     * Set the {@link HandshakeExecutionHandler} which runs the STARTTLS handshakes. If <code>null</code> is given (the default)
+     * the handshakes are done by the I/O worker
+     * 
+     * @param handshakeHandler
+     */
+    public void setHandshakeHandler(HandshakeExecutionHandler handshakeHandler) {
+        this.handshakeHandler = handshakeHandler;
+    }
+
 
     @Override
     public void channelBound(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
@@ -84,7 +144,15 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
         List<ConnectHandler> connectHandlers = chain.getHandlers(ConnectHandler.class);
         List<ProtocolHandlerResultHandler> resultHandlers = chain.getHandlers(ProtocolHandlerResultHandler.class);
         ProtocolSession session = (ProtocolSession) ctx.getAttachment();
-        session.getLogger().info("Connection established from " + session.getRemoteAddress().getAddress().getHostAddress());
+        if (session.getLogger().isInfoEnabled()) {
+            session.getLogger().info("Connection established from " + session.getRemoteAddress().getAddress().getHostAddress());
+        }
+        
+        // implicit TLS
+        SslHandler sslHandler = ctx.getPipeline().get(SslHandler.class);
+        if (sslHandler != null && tlsMetrics != null) {
+            tlsMetrics.handshake(sslHandler);
+        }
         if (connectHandlers != null) {
             for (int i = 0; i < connectHandlers.size(); i++) {
                 ConnectHandler cHandler = connectHandlers.get(i);
@@ -128,20 +196,61 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
 
 
     /**
-     * Call the {@link LineHandler} 
+     * Call the {@link LineHandler}. If a {@link LineHandler} was pushed via {@link ProtocolTransport#pushLineHandler(LineHandler, ProtocolSession)}
+     * only the last pushed one is called.
+     * 
+     * The lines are not dispatched while the {@link ProtocolTransport} is not readable. They are queued and dispatched once it is
+     * readable again.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         ProtocolSession pSession = (ProtocolSession) ctx.getAttachment();
+        if (pSession == null) {
+            // the channel was closed already and the session was released, this happens if a RESUME 
+            // completes after the close
+            return;
+        }
+        ProtocolTransport transport = ((ProtocolSessionImpl)pSession).getProtocolTransport();
+        if (transport instanceof NettyProtocolTransport) {
+            NettyProtocolTransport nTransport = (NettyProtocolTransport) transport;
+            if (e.getMessage() != NettyProtocolTransport.RESUME) {
+                nTransport.queueLine((ChannelBuffer) e.getMessage());
+            }
+            if (nTransport.startDispatching()) {
+                try {
+                    ChannelBuffer line;
+                    while ((line = nTransport.nextLine()) != null) {
+                        onLine(pSession, nTransport, line);
+                    }
+                } finally {
+                    nTransport.stopDispatching();
+                }
+            }
+        } else {
+            onLine(pSession, transport, (ChannelBuffer) e.getMessage());
+        }
+        
+        super.messageReceived(ctx, e);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void onLine(ProtocolSession pSession, ProtocolTransport transport, ChannelBuffer buf) {
+        if (transport instanceof NettyProtocolTransport) {
+            LineHandler<ProtocolSession> pushedHandler = ((NettyProtocolTransport) transport).getPushedLineHandler();
+            if (pushedHandler != null) {
+                Response response = pushedHandler.onLine(pSession, buf.toByteBuffer());
+                if (response != null) {
+                    transport.writeResponse(response, pSession);
+                }
+                return;
+            }
+        }
         LinkedList<LineHandler> lineHandlers = chain.getHandlers(LineHandler.class);
         LinkedList<ProtocolHandlerResultHandler> resultHandlers = chain.getHandlers(ProtocolHandlerResultHandler.class);
 
         
         if (lineHandlers.size() > 0) {
         
-            ChannelBuffer buf = (ChannelBuffer) e.getMessage();      
-            
             LineHandler lHandler=  (LineHandler) lineHandlers.getLast();
             long start = System.currentTimeMillis();            
             Response response = lHandler.onLine(pSession,buf.toByteBuffer());
@@ -157,12 +266,10 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
             }
             if (response != null) {
                 // TODO: This kind of sucks but I was able to come up with something more elegant here
-                ((ProtocolSessionImpl)pSession).getProtocolTransport().writeResponse(response, pSession);
+                transport.writeResponse(response, pSession);
             }
 
         }
-        
-        super.messageReceived(ctx, e);
     }
 
 
@@ -170,11 +277,39 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         ProtocolSession session = (ProtocolSession) ctx.getAttachment();
         if (session != null) {
-            session.getLogger().info("Connection closed for " + session.getRemoteAddress().getAddress().getHostAddress());
+            if (session.getLogger().isInfoEnabled()) {
+                session.getLogger().info("Connection closed for " + session.getRemoteAddress().getAddress().getHostAddress());
+            }
         }
         cleanup(ctx);
 
         super.channelClosed(ctx, e);
+        
+        if (session != null && sessionPool != null) {
+            ctx.setAttachment(null);
+            returnSession(session);
+        }
+    }
+
+    /**
+     * Return the {@link ProtocolSession} to the {@link ProtocolSessionPool} once all its pending {@link Response}'s were 
+     * written. Till then a timer, an executor or an asynchronous {@link ProtocolHandler} may still use it.
+     * 
+     * @param session
+     */
+    private void returnSession(final ProtocolSession session) {
+        Runnable task = new Runnable() {
+            
+            public void run() {
+                sessionPool.returnSession(session);
+            }
+        };
+        ProtocolTransport transport = session instanceof ProtocolSessionImpl ? ((ProtocolSessionImpl) session).getProtocolTransport() : null;
+        if (transport instanceof AbstractProtocolTransport) {
+            ((AbstractProtocolTransport) transport).runWhenResponsesWritten(task);
+        } else {
+            task.run();
+        }
     }
 
     /**
@@ -193,16 +328,13 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     
     
     protected ProtocolSession createSession(ChannelHandlerContext ctx) throws Exception {
-        SSLEngine engine = null;
-        if (secure != null) {
-            engine = secure.getContext().createSSLEngine();
-            String[] enabledCipherSuites = secure.getEnabledCipherSuites();
-            if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
-                engine.setEnabledCipherSuites(enabledCipherSuites);
-            }
+        // the SSLEngine is created by the transport once STARTTLS is used. For implicit TLS the pipeline contains it already
+        NettyProtocolTransport transport = new NettyProtocolTransport(ctx.getChannel(), secure, timer, tlsMetrics);
+        transport.setHandshakeHandler(handshakeHandler);
+        if (sessionPool != null) {
+            return sessionPool.borrowSession(transport);
         }
-        
-        return protocol.newSession(new NettyProtocolTransport(ctx.getChannel(), engine));
+        return protocol.newSession(transport);
     }
 
     @Override
@@ -30,6 +30,8 @@ public interface HandlerConstants {
 
 	public static final String SSL_HANDLER = "sslHandler";
 	
+	public static final String HANDSHAKE_HANDLER = "handshakeHandler";
+	
 	public static final String GROUP_HANDLER ="groupHandler";
 	
 	public static final String CONNECTION_LIMIT_HANDLER =" connectionLimit";
@@ -38,6 +40,8 @@ public interface HandlerConstants {
 	
 	public static final String FRAMER = "framer";
 	
+	public static final String RATE_LIMIT_HANDLER = "rateLimit";
+	
 	public static final String EXECUTION_HANDLER = "executionHandler";
 	
 	public static final String TIMEOUT_HANDLER = "timeoutHandler";
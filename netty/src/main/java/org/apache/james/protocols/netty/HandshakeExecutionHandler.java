@@ -0,0 +1,217 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+/**
+ * {@link ChannelUpstreamHandler} which is placed in front of the {@link SslHandler} and hands the upstream events of a 
+ * channel over to an {@link Executor} until the TLS handshake is complete. So the handshake crypto does not block the 
+ * I/O worker, which serves many other connections. The events of a channel are processed in order, one at a time. Once 
+ * the handshake is complete and all queued events were processed, events are passed on directly again.
+ * 
+ * At most the configured count of handshakes is in progress at the same time. If that count is reached new connections
+ * with implicit TLS are closed and STARTTLS is not offered, so established sessions are not slowed down by a handshake 
+ * storm.
+ * 
+ * If the {@link Executor} rejects a task it is run by the calling thread.
+ */
+@Sharable
+public class HandshakeExecutionHandler implements ChannelUpstreamHandler {
+
+    private final Executor executor;
+    private final int maxHandshakes;
+    private final AtomicInteger handshakes = new AtomicInteger(0);
+    private final AtomicLong shed = new AtomicLong(0);
+    
+    /**
+     * Create a new instance
+     * 
+     * @param executor the {@link Executor} which runs the handshakes. It should be bounded
+     * @param maxHandshakes the maximal count of handshakes which are in progress at the same time
+     */
+    public HandshakeExecutionHandler(Executor executor, int maxHandshakes) {
+        this.executor = executor;
+        this.maxHandshakes = maxHandshakes;
+    }
+    
+    /**
+     * Return <code>true</code> if no new handshake should be started, as to many are in progress
+     * 
+     * @return overloaded
+     */
+    public boolean isOverloaded() {
+        return handshakes.get() >= maxHandshakes;
+    }
+    
+    /**
+     * Return the count of handshakes which are in progress
+     * 
+     * @return handshakes
+     */
+    public int getHandshakeCount() {
+        return handshakes.get();
+    }
+    
+    /**
+     * Return the count of connections with implicit TLS which were closed as to many handshakes were in progress
+     * 
+     * @return shed
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+    
+    /**
+     * Add this handler in front of the {@link SslHandler} which was added to the {@link ChannelPipeline} for STARTTLS and start
+     * the handshake
+     * 
+     * @param pipeline
+     * @param sslHandler
+     */
+    void startTLS(ChannelPipeline pipeline, SslHandler sslHandler) {
+        pipeline.addBefore(HandlerConstants.SSL_HANDLER, HandlerConstants.HANDSHAKE_HANDLER, this);
+        ChannelHandlerContext ctx = pipeline.getContext(this);
+        HandshakeState state = new HandshakeState(ctx);
+        ctx.setAttachment(state);
+        startHandshake(state, sslHandler);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.jboss.netty.channel.ChannelUpstreamHandler#handleUpstream(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelEvent)
+     */
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        HandshakeState state = (HandshakeState) ctx.getAttachment();
+        if (state == null) {
+            // implicit TLS, so this handler was added by the ChannelPipelineFactory
+            state = new HandshakeState(ctx);
+            ctx.setAttachment(state);
+        }
+        
+        if (e instanceof ChannelStateEvent) {
+            ChannelStateEvent se = (ChannelStateEvent) e;
+            if (se.getState() == ChannelState.CONNECTED && se.getValue() != null && !state.started) {
+                if (isOverloaded()) {
+                    // don't start the handshake and don't pass the event on, so no greeting is written
+                    shed.incrementAndGet();
+                    state.release();
+                    e.getChannel().close();
+                    return;
+                }
+                startHandshake(state, ctx.getPipeline().get(SslHandler.class));
+            } else if (se.getState() == ChannelState.OPEN && Boolean.FALSE.equals(se.getValue())) {
+                state.release();
+            }
+        }
+        state.handleUpstream(e);
+    }
+    
+    private void startHandshake(final HandshakeState state, SslHandler sslHandler) {
+        state.started = true;
+        handshakes.incrementAndGet();
+        sslHandler.handshake().addListener(new ChannelFutureListener() {
+            
+            public void operationComplete(ChannelFuture future) throws Exception {
+                state.release();
+            }
+        });
+    }
+    
+    /**
+     * The state of the handshake of a channel and its queued events 
+     */
+    private final class HandshakeState implements Runnable {
+        private final ChannelHandlerContext ctx;
+        private final Queue<ChannelEvent> events = new LinkedList<ChannelEvent>();
+        private boolean scheduled;
+        private boolean done;
+        private volatile boolean started;
+        
+        public HandshakeState(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+        
+        /**
+         * Mark the handshake as done, which means it was completed, failed or not started at all
+         */
+        public void release() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            if (started) {
+                handshakes.decrementAndGet();
+            }
+        }
+        
+        public void handleUpstream(ChannelEvent e) {
+            synchronized (this) {
+                events.add(e);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+                if (!done) {
+                    try {
+                        executor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException ex) {
+                        // process it in the calling thread
+                    }
+                }
+            }
+            // the handshake is done and all events before were processed, so there is no need to hand it over
+            run();
+        }
+        
+        public void run() {
+            while (true) {
+                ChannelEvent e;
+                synchronized (this) {
+                    e = events.poll();
+                    if (e == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                ctx.sendUpstream(e);
+            }
+        }
+    }
+}
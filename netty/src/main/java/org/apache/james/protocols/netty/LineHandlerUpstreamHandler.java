@@ -32,7 +32,10 @@ import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
  * {@link ChannelUpstreamHandler} implementation which will call a given {@link LineHandler} implementation
  *
  * @param <S>
+ * @deprecated the {@link NettyProtocolTransport} does not add this to the pipeline anymore. Pushed {@link LineHandler}'s are
+ *             called by the {@link BasicChannelUpstreamHandler}
  */
+@Deprecated
 public class LineHandlerUpstreamHandler<S extends ProtocolSession> extends SimpleChannelUpstreamHandler {
 
     private final LineHandler<S> handler;
@@ -19,32 +19,124 @@
 
 package org.apache.james.protocols.netty;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLEngine;
 
 import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.ChunkedSource;
+import org.apache.james.protocols.api.ChunkedSource.ChunkListener;
+import org.apache.james.protocols.api.Encryption;
+import org.apache.james.protocols.api.FileRegionResponse;
+import org.apache.james.protocols.api.FutureResponseImpl;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.StartTlsResponse;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.handler.stream.ChunkedInput;
+import org.jboss.netty.handler.stream.ChunkedNioFile;
 import org.jboss.netty.handler.stream.ChunkedStream;
+import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 /**
  * A Netty implementation of a ProtocolTransport
  */
 public class NettyProtocolTransport extends AbstractProtocolTransport {
     
+    private final static int CHUNK_SIZE = 8192;
+    
+    /**
+     * Message which is passed to the {@link BasicChannelUpstreamHandler} to dispatch the queued lines once the transport is 
+     * readable again
+     */
+    final static Object RESUME = new Object();
+
     private final Channel channel;
-    private final SSLEngine engine;
+    private final Encryption secure;
+    private final TLSMetrics metrics;
+    private final Timer timer;
+    private SSLEngine engine;
+    private HandshakeExecutionHandler handshakeHandler;
+    
+    // The pushed LineHandlers are kept here and called by the BasicChannelUpstreamHandler, so the pipeline does not need to be 
+    // modified on every push / pop
+    private LineHandler<?>[] lineHandlers = new LineHandler<?>[2];
     private int lineHandlerCount = 0;
     
+    // The received lines are queued while the transport is not readable, as the channel may have read more than one line at once
+    private final Queue<ChannelBuffer> lines = new ConcurrentLinkedQueue<ChannelBuffer>();
+    private volatile boolean readable = true;
+    private boolean dispatching = false;
+    
     public NettyProtocolTransport(Channel channel, SSLEngine engine) {
+        this(channel, engine, null);
+    }
+    
+    /**
+     * Create a new instance which uses the given {@link Timer} to delay {@link Response}'s. If the {@link Timer} is 
+     * <code>null</code> {@link Response}'s are written without delay
+     * 
+     * @param channel
+     * @param engine
+     * @param timer
+     */
+    public NettyProtocolTransport(Channel channel, SSLEngine engine, Timer timer) {
         this.channel = channel;
         this.engine = engine;
+        this.timer = timer;
+        this.secure = null;
+        this.metrics = null;
+    }
+    
+    /**
+     * Create a new instance which supports STARTTLS if the given {@link Encryption} is not <code>null</code> and is meant to be
+     * used for STARTTLS. The {@link SSLEngine} is only created once STARTTLS is issued, as most clients never use it.
+     * 
+     * @param channel
+     * @param secure the {@link Encryption} or <code>null</code>
+     * @param timer the {@link Timer} to delay {@link Response}'s or <code>null</code>
+     * @param metrics the {@link TLSMetrics} to update or <code>null</code>
+     */
+    public NettyProtocolTransport(Channel channel, Encryption secure, Timer timer, TLSMetrics metrics) {
+        this.channel = channel;
+        this.secure = secure != null && secure.isStartTLS() ? secure : null;
+        this.timer = timer;
+        this.metrics = metrics;
+        if (this.secure != null && metrics != null) {
+            metrics.startTLSConnection();
+        }
+    }
+
+    /**
+     * Set the {@link HandshakeExecutionHandler} which runs the STARTTLS handshake. If <code>null</code> is given (the default)
+     * the handshake is done by the I/O worker
+     * 
+     * @param handshakeHandler
+     */
+    public void setHandshakeHandler(HandshakeExecutionHandler handshakeHandler) {
+        this.handshakeHandler = handshakeHandler;
     }
 
     /**
@@ -72,7 +164,20 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      * @see org.apache.james.protocols.api.ProtocolTransport#isStartTLSSupported()
      */
     public boolean isStartTLSSupported() {
-        return engine != null;
+        if (handshakeHandler != null && handshakeHandler.isOverloaded() && !isTLSStarted()) {
+            // shed new handshakes
+            return false;
+        }
+        return canStartTLS();
+    }
+
+    /**
+     * Start TLS for every {@link StartTlsResponse} even if to many handshakes are in progress now, as the client was told 
+     * already to start the handshake. Handshakes are only shed before the {@link StartTlsResponse} was built
+     */
+    @Override
+    protected boolean canStartTLS() {
+        return engine != null || secure != null;
     }
 
 
@@ -81,8 +186,8 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      */
     public void popLineHandler() {
         if (lineHandlerCount > 0) {
-            channel.getPipeline().remove("lineHandler" + lineHandlerCount);
             lineHandlerCount--;
+            lineHandlers[lineHandlerCount] = null;
         }
     }
 
@@ -91,12 +196,30 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      */
     public <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler,
             T session) {
-        lineHandlerCount++;
-        // Add the linehandler in front of the coreHandler so we can be sure 
+        // The linehandler is called by the coreHandler, so we can be sure 
         // it is executed with the same ExecutorHandler as the coreHandler (if one exist)
         // 
         // See JAMES-1277
-        channel.getPipeline().addBefore("coreHandler", "lineHandler" + lineHandlerCount, new LineHandlerUpstreamHandler<T>(session, overrideCommandHandler));
+        if (lineHandlerCount == lineHandlers.length) {
+            LineHandler<?>[] newLineHandlers = new LineHandler<?>[lineHandlers.length * 2];
+            System.arraycopy(lineHandlers, 0, newLineHandlers, 0, lineHandlers.length);
+            lineHandlers = newLineHandlers;
+        }
+        lineHandlers[lineHandlerCount] = overrideCommandHandler;
+        lineHandlerCount++;
+    }
+
+    /**
+     * Return the {@link LineHandler} which was pushed last or <code>null</code> if none was pushed
+     * 
+     * @return lineHandler
+     */
+    @SuppressWarnings("unchecked")
+    LineHandler<ProtocolSession> getPushedLineHandler() {
+        if (lineHandlerCount == 0) {
+            return null;
+        }
+        return (LineHandler<ProtocolSession>) lineHandlers[lineHandlerCount - 1];
     }
 
     /**
@@ -110,9 +233,22 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      * Add the {@link SslHandler} to the pipeline and start encrypting after the next written message
      */
     private void prepareStartTLS() {
+        if (engine == null) {
+            engine = secure.createSSLEngine();
+            if (metrics != null) {
+                metrics.engineCreated();
+            }
+        }
         SslHandler filter = new SslHandler(engine, true);
         filter.getEngine().setUseClientMode(false);
         channel.getPipeline().addFirst(HandlerConstants.SSL_HANDLER, filter);
+        if (handshakeHandler != null) {
+            handshakeHandler.startTLS(channel.getPipeline(), filter);
+        }
+        if (metrics != null) {
+            metrics.startTLSUpgrade();
+            metrics.handshake(filter);
+        }
     }
 
     @Override
@@ -124,6 +260,44 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
         
     }
 
+    /**
+     * Schedule the {@link Response} via the {@link Timer}, so no thread is blocked while the {@link Response} is delayed. 
+     * 
+     * The transport is not readable till the {@link Response} was written, so the delays of pipelined commands add up instead 
+     * of running in parallel and at most one delayed {@link Response} is queued per channel. 
+     */
+    @Override
+    protected Response delayResponse(final Response response, long delay) {
+        if (timer == null) {
+            return response;
+        }
+        // only resume if it was suspended here, as something else may have suspended the transport already
+        final boolean suspend = isReadable();
+        if (suspend) {
+            setReadable(false);
+        }
+        final FutureResponseImpl futureResponse = new FutureResponseImpl();
+        try {
+            timer.newTimeout(new TimerTask() {
+                
+                public void run(Timeout timeout) throws Exception {
+                    futureResponse.setResponse(response);
+                    if (suspend) {
+                        // the queued lines are dispatched once the response was flushed
+                        setReadable(true);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // the timer was stopped
+            if (suspend) {
+                setReadable(true);
+            }
+            return response;
+        }
+        return futureResponse;
+    }
+
     @Override
     protected void close() {
         channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
@@ -138,12 +312,104 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
         channel.write(new ChunkedStream(in));
     }
 
-    /*
-     * (non-Javadoc)
+    /**
+     * Transfer the region via {@link DefaultFileRegion} which will make use of {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. 
+     * If TLS is active the region needs to get encrypted, so it will get written in chunks via {@link ChunkedNioFile}
+     */
+    @Override
+    protected void writeToClient(FileRegionResponse response, ProtocolSession session, boolean startTLS) {
+        if (startTLS) {
+            prepareStartTLS();
+        }
+        FileChannel fc = response.getFileChannel();
+        if (isTLSStarted()) {
+            try {
+                channel.write(new ChunkedNioFile(fc, response.getPosition(), response.getCount(), CHUNK_SIZE));
+            } catch (IOException e) {
+                session.getLogger().error("Unable to write file region", e);
+                close();
+                return;
+            }
+        } else {
+            // release the region after the transfer, this will also close the FileChannel
+            channel.write(new DefaultFileRegion(fc, response.getPosition(), response.getCount(), true));
+        }
+        byte[] trailer = response.getTrailer();
+        if (trailer != null) {
+            channel.write(ChannelBuffers.wrappedBuffer(trailer));
+        }
+    }
+
+    /**
+     * Write the {@link ChunkedSource} via the {@link ChunkedWriteHandler}. If no chunk is available the transfer is suspended 
+     * and resumed once the {@link ChunkedSource} notifies about new data, so no thread is blocked while waiting for it
+     */
+    @Override
+    protected void writeToClient(ChunkedSource source, ProtocolSession session, boolean startTLS) {
+        if (startTLS) {
+            prepareStartTLS();
+        }
+        channel.write(new ChunkedSourceInput(source));
+    }
+
+    /**
+     * {@link ChunkedInput} which reads from a {@link ChunkedSource} and resumes the transfer of the {@link ChunkedWriteHandler}
+     * once new data is available
+     */
+    private final class ChunkedSourceInput implements ChunkedInput, ChunkListener {
+        private final ChunkedSource source;
+
+        public ChunkedSourceInput(ChunkedSource source) {
+            this.source = source;
+            source.setListener(this);
+        }
+
+        public boolean hasNextChunk() throws Exception {
+            return !source.isEndOfInput();
+        }
+
+        public Object nextChunk() throws Exception {
+            byte[] chunk = source.nextChunk();
+            if (chunk == null) {
+                // this will suspend the transfer till onChunkAvailable is called
+                return null;
+            }
+            return ChannelBuffers.wrappedBuffer(chunk);
+        }
+
+        public boolean isEndOfInput() throws Exception {
+            return source.isEndOfInput();
+        }
+
+        public void close() throws Exception {
+            source.close();
+        }
+
+        public void onChunkAvailable(ChunkedSource source) {
+            ChunkedWriteHandler handler = channel.getPipeline().get(ChunkedWriteHandler.class);
+            if (handler != null) {
+                handler.resumeTransfer();
+            }
+        }
+    }
+
+    /**
+     * Set the transport readable or not. While it is not readable no lines are dispatched, even if they were 
+     * read from the channel already. Once it is readable again the queued lines are dispatched by the I/O worker of the
+     * channel (or the {@link ExecutionHandler} if one is used) after all pending writes were flushed. This method may be
+     * called by any thread.
+     * 
      * @see org.apache.james.protocols.api.ProtocolTransport#setReadable(boolean)
      */
     public void setReadable(boolean readable) {
+        if (this.readable == readable) {
+            return;
+        }
+        this.readable = readable;
         channel.setReadable(readable);
+        if (readable) {
+            resumeDispatching();
+        }
     }
 
     /*
@@ -151,7 +417,76 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      * @see org.apache.james.protocols.api.ProtocolTransport#isReadable()
      */
     public boolean isReadable() {
-        return channel.isReadable();
+        return readable;
+    }
+
+    /**
+     * Queue the given line. It is dispatched after all lines which were queued before and only while the transport is readable
+     * 
+     * @param line
+     */
+    void queueLine(ChannelBuffer line) {
+        lines.add(line);
+    }
+
+    /**
+     * Return the next queued line or <code>null</code> if there is none or the transport is not readable
+     * 
+     * @return line
+     */
+    ChannelBuffer nextLine() {
+        if (!readable) {
+            return null;
+        }
+        return lines.poll();
+    }
+
+    /**
+     * Mark the transport as dispatching lines. Returns <code>false</code> if it is dispatching already, which is the case if the 
+     * transport got readable again while a line was dispatched. The outer call dispatches the queued lines then
+     * 
+     * @return started
+     */
+    boolean startDispatching() {
+        if (dispatching) {
+            return false;
+        }
+        dispatching = true;
+        return true;
+    }
+
+    void stopDispatching() {
+        dispatching = false;
+    }
+
+    /**
+     * Pass the {@link #RESUME} message to the {@link BasicChannelUpstreamHandler} from within the I/O worker. This is done
+     * via an empty write, as its future is completed by the I/O worker once all writes before were flushed. If the channel 
+     * was closed in the meantime nothing is dispatched anymore.
+     */
+    private void resumeDispatching() {
+        // add the listener before writing, so it is never notified by the calling thread
+        ChannelFuture future = Channels.future(channel);
+        future.addListener(new ChannelFutureListener() {
+            
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    return;
+                }
+                ChannelPipeline pipeline = channel.getPipeline();
+                UpstreamMessageEvent event = new UpstreamMessageEvent(channel, RESUME, channel.getRemoteAddress());
+                ChannelHandlerContext eCtx = pipeline.getContext(ExecutionHandler.class);
+                if (eCtx != null) {
+                    ((ExecutionHandler) eCtx.getHandler()).handleUpstream(eCtx, event);
+                } else {
+                    ChannelHandlerContext ctx = pipeline.getContext(BasicChannelUpstreamHandler.class);
+                    if (ctx != null) {
+                        ((BasicChannelUpstreamHandler) ctx.getHandler()).handleUpstream(ctx, event);
+                    }
+                }
+            }
+        });
+        channel.getPipeline().sendDownstream(new DownstreamMessageEvent(channel, future, ChannelBuffers.EMPTY_BUFFER, null));
     }
 
     /*
@@ -19,10 +19,15 @@
 package org.apache.james.protocols.netty;
 
 
+import java.util.concurrent.Executor;
+
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.Encryption;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolSessionPool;
 import org.apache.james.protocols.api.handler.ProtocolHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -47,6 +52,14 @@ public class NettyServer extends AbstractAsyncServer {
     private int maxCurConnections;
 
     private int maxCurConnectionsPerIP;
+
+    private ProtocolSessionPool sessionPool;
+
+    private RateLimitUpstreamHandler rateLimitHandler;
+
+    private final TLSMetrics tlsMetrics = new TLSMetrics();
+
+    private HandshakeExecutionHandler handshakeHandler;
    
     public NettyServer(Protocol protocol) {
         this(protocol, null);
@@ -92,8 +105,89 @@ public class NettyServer extends AbstractAsyncServer {
         this.maxCurConnectionsPerIP = maxCurConnectionsPerIP;
     }
     
+    /**
+     * Set the {@link RateLimitUpstreamHandler} which is used to limit the rate of connects, commands and bytes per IP and subnet. 
+     * The default is <code>null</code>, which means the rate is not limited.
+     * 
+     * @param rateLimitHandler
+     */
+    public void setRateLimitHandler(RateLimitUpstreamHandler rateLimitHandler) {
+        if (isBound()) throw new IllegalStateException("Server running already");
+        this.rateLimitHandler = rateLimitHandler;
+    }
+
+    /**
+     * Set the maximal count of {@link ProtocolSession}'s which are kept after the connection was closed to get reused by new 
+     * connections. Use <code>0</code> (the default) to create a new {@link ProtocolSession} for every connection.
+     * 
+     * A {@link ProtocolSession} is only reused once the connection was closed and all its pending responses were written,
+     * as delayed responses and asynchronous {@link ProtocolHandler}'s use it till then. Only enable this if no 
+     * {@link ProtocolHandler} keeps a reference to the {@link ProtocolSession} beyond that.
+     * 
+     * @param sessionPoolSize
+     */
+    public void setSessionPoolSize(int sessionPoolSize) {
+        if (isBound()) throw new IllegalStateException("Server running already");
+        if (sessionPoolSize > 0) {
+            sessionPool = new ProtocolSessionPool(protocol, sessionPoolSize);
+        } else {
+            sessionPool = null;
+        }
+    }
+
+    /**
+     * Return the {@link ProtocolSessionPool} which is used or <code>null</code> if sessions are not pooled. This can be used
+     * to get the count of created and reused {@link ProtocolSession}'s.
+     * 
+     * @return sessionPool
+     */
+    public ProtocolSessionPool getSessionPool() {
+        return sessionPool;
+    }
+    
+    /**
+     * Set the {@link Executor} which runs the TLS handshakes, so they don't block the I/O workers. If more then 
+     * <code>maxHandshakes</code> handshakes are in progress new connections with implicit TLS are closed and STARTTLS is
+     * not offered. Use <code>null</code> (the default) to do the handshakes in the I/O workers
+     * 
+     * @param executor the {@link Executor} to use, which should be bounded
+     * @param maxHandshakes the maximal count of handshakes which are in progress at the same time
+     */
+    public void setHandshakeExecutor(Executor executor, int maxHandshakes) {
+        if (isBound()) throw new IllegalStateException("Server running already");
+        if (executor != null) {
+            handshakeHandler = new HandshakeExecutionHandler(executor, maxHandshakes);
+        } else {
+            handshakeHandler = null;
+        }
+    }
+
+    /**
+     * Return the {@link HandshakeExecutionHandler} which is used or <code>null</code> if the handshakes are done by the 
+     * I/O workers. This can be used to get the count of handshakes in progress and of shed connections.
+     * 
+     * @return handshakeHandler
+     */
+    public HandshakeExecutionHandler getHandshakeHandler() {
+        return handshakeHandler;
+    }
+    
+    /**
+     * Return the {@link TLSMetrics} of this server, which contain the count of created {@link SSLEngine}'s and of STARTTLS
+     * upgrades
+     * 
+     * @return tlsMetrics
+     */
+    public TLSMetrics getTLSMetrics() {
+        return tlsMetrics;
+    }
+    
     protected ChannelUpstreamHandler createCoreHandler() {
-        return new BasicChannelUpstreamHandler(protocol, secure);
+        BasicChannelUpstreamHandler handler = new BasicChannelUpstreamHandler(protocol, secure);
+        handler.setSessionPool(sessionPool);
+        handler.setTLSMetrics(tlsMetrics);
+        handler.setHandshakeHandler(handshakeHandler);
+        return handler;
     }
     
     @Override
@@ -106,7 +200,7 @@ public class NettyServer extends AbstractAsyncServer {
     @Override
     protected ChannelPipelineFactory createPipelineFactory(ChannelGroup group) {
 
-        return new AbstractSSLAwareChannelPipelineFactory(getTimeout(), maxCurConnections, maxCurConnectionsPerIP, group, eHandler) {
+        AbstractSSLAwareChannelPipelineFactory factory = new AbstractSSLAwareChannelPipelineFactory(getTimeout(), maxCurConnections, maxCurConnectionsPerIP, group, eHandler) {
 
             @Override
             protected ChannelUpstreamHandler createHandler() {
@@ -127,7 +221,15 @@ public class NettyServer extends AbstractAsyncServer {
                 }
             }
         };
-
+        factory.setRateLimitHandler(rateLimitHandler);
+        factory.setTLSMetrics(tlsMetrics);
+        factory.setHandshakeHandler(handshakeHandler);
+        
+        // share the timer of the pipelines, so delayed responses don't need an extra thread
+        if (coreHandler instanceof BasicChannelUpstreamHandler) {
+            ((BasicChannelUpstreamHandler) coreHandler).setTimer(factory.getTimer());
+        }
+        return factory;
     }
 
 }
@@ -0,0 +1,499 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * {@link ChannelUpstreamHandler} which limits the rate of connects, commands and bytes per IP and per subnet via 
+ * {@link TokenBucket}'s. 
+ * 
+ * Peers which exceed a limit are not disconnected but tarpitted. For connects the channelConnected event (and so the greeting)
+ * is delayed, for commands and bytes the reading from the channel is suspended via {@link Channel#setReadable(boolean)}. 
+ * No thread is blocked while a peer is tarpitted. Messages which were already read when the channel was suspended are queued 
+ * and charged once they are sent upstream, so they can tarpit the peer again. The queued events are sent upstream by the
+ * I/O worker of the channel and never after the channel was closed.
+ * 
+ * This handler must be placed after the framer, so every received message is one command line. It must be used as singleton 
+ * when adding it to the {@link ChannelPipeline} to work correctly. 
+ * 
+ * The limits are read when the state for an IP or subnet is created, so changes only affect peers which were not seen within
+ * the expire time. A limit <= 0 disables it.
+ */
+@Sharable
+public class RateLimitUpstreamHandler extends SimpleChannelUpstreamHandler {
+
+    private final ConcurrentMap<String, PeerLimits> ipLimits = new ConcurrentHashMap<String, PeerLimits>();
+    private final ConcurrentMap<String, PeerLimits> subnetLimits = new ConcurrentHashMap<String, PeerLimits>();
+    private final Timer timer;
+    private final AtomicLong tarpitCount = new AtomicLong(0);
+
+    private volatile int connectsPerSecond = -1;
+    private volatile int commandsPerSecond = -1;
+    private volatile int bytesPerSecond = -1;
+    private volatile int subnetConnectsPerSecond = -1;
+    private volatile int subnetCommandsPerSecond = -1;
+    private volatile int subnetBytesPerSecond = -1;
+    private volatile int ipv4PrefixLength = 24;
+    private volatile int ipv6PrefixLength = 64;
+    private volatile int burstSeconds = 2;
+    private volatile long maxDelay = TimeUnit.SECONDS.toNanos(30);
+    private volatile long expireTime = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * Create a new instance which uses the given {@link Timer} to resume tarpitted channels and to expire the state of peers
+     * which were not seen for a while. The {@link Timer} must be stopped by the caller once it is not needed anymore
+     * 
+     * @param timer
+     */
+    public RateLimitUpstreamHandler(Timer timer) {
+        this.timer = timer;
+        scheduleExpire();
+    }
+
+    /**
+     * Set the connects per second which are allowed per IP
+     * 
+     * @param connectsPerSecond
+     */
+    public void setConnectsPerSecond(int connectsPerSecond) {
+        this.connectsPerSecond = connectsPerSecond;
+    }
+
+    /**
+     * Set the commands per second which are allowed per IP
+     * 
+     * @param commandsPerSecond
+     */
+    public void setCommandsPerSecond(int commandsPerSecond) {
+        this.commandsPerSecond = commandsPerSecond;
+    }
+
+    /**
+     * Set the received bytes per second which are allowed per IP
+     * 
+     * @param bytesPerSecond
+     */
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Set the connects per second which are allowed per subnet
+     * 
+     * @param subnetConnectsPerSecond
+     */
+    public void setSubnetConnectsPerSecond(int subnetConnectsPerSecond) {
+        this.subnetConnectsPerSecond = subnetConnectsPerSecond;
+    }
+
+    /**
+     * Set the commands per second which are allowed per subnet
+     * 
+     * @param subnetCommandsPerSecond
+     */
+    public void setSubnetCommandsPerSecond(int subnetCommandsPerSecond) {
+        this.subnetCommandsPerSecond = subnetCommandsPerSecond;
+    }
+
+    /**
+     * Set the received bytes per second which are allowed per subnet
+     * 
+     * @param subnetBytesPerSecond
+     */
+    public void setSubnetBytesPerSecond(int subnetBytesPerSecond) {
+        this.subnetBytesPerSecond = subnetBytesPerSecond;
+    }
+
+    /**
+     * Set the prefix length of the CIDR which is used as subnet for IPv4 addresses. The default is 24
+     * 
+     * @param ipv4PrefixLength
+     */
+    public void setIPv4PrefixLength(int ipv4PrefixLength) {
+        this.ipv4PrefixLength = ipv4PrefixLength;
+    }
+
+    /**
+     * Set the prefix length of the CIDR which is used as subnet for IPv6 addresses. The default is 64
+     * 
+     * @param ipv6PrefixLength
+     */
+    public void setIPv6PrefixLength(int ipv6PrefixLength) {
+        this.ipv6PrefixLength = ipv6PrefixLength;
+    }
+
+    /**
+     * Set for how many seconds a peer can exceed the rate before it gets tarpitted. The default is 2
+     * 
+     * @param burstSeconds
+     */
+    public void setBurstSeconds(int burstSeconds) {
+        this.burstSeconds = burstSeconds;
+    }
+
+    /**
+     * Set the maximal time in milliseconds a peer is tarpitted at once. The default is 30000
+     * 
+     * @param maxDelay
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+    }
+
+    /**
+     * Set the time in milliseconds after which the state of an IP or subnet without connections is dropped. The default is 60000
+     * 
+     * @param expireTime
+     */
+    public void setExpireTime(long expireTime) {
+        this.expireTime = TimeUnit.MILLISECONDS.toNanos(expireTime);
+    }
+
+    /**
+     * Return how often a peer was tarpitted
+     * 
+     * @return tarpitCount
+     */
+    public long getTarpitCount() {
+        return tarpitCount.get();
+    }
+
+    /**
+     * Return the count of IPs for which a state is hold
+     * 
+     * @return count
+     */
+    public int getTrackedIPCount() {
+        return ipLimits.size();
+    }
+
+    /**
+     * Return the count of subnets for which a state is hold
+     * 
+     * @return count
+     */
+    public int getTrackedSubnetCount() {
+        return subnetLimits.size();
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        InetAddress address = ((InetSocketAddress) ctx.getChannel().getRemoteAddress()).getAddress();
+        
+        PeerLimits ip = acquire(ipLimits, address.getHostAddress(), connectsPerSecond, commandsPerSecond, bytesPerSecond);
+        PeerLimits subnet = acquire(subnetLimits, getSubnet(address), subnetConnectsPerSecond, subnetCommandsPerSecond, subnetBytesPerSecond);
+        ChannelLimits limits = new ChannelLimits(ip, subnet);
+        ctx.setAttachment(limits);
+        
+        long now = System.nanoTime();
+        long delay = Math.max(take(ip.connects, 1, now), take(subnet.connects, 1, now));
+        if (delay > 0) {
+            // don't read anything and delay the connect event, so the greeting is not sent till the delay is over
+            tarpit(ctx, limits, e, delay);
+        } else {
+            super.channelConnected(ctx, e);
+        }
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ChannelLimits limits = (ChannelLimits) ctx.getAttachment();
+        if (limits == null) {
+            super.messageReceived(ctx, e);
+            return;
+        }
+        synchronized (limits) {
+            if (limits.suspended) {
+                // the message was read before the channel was suspended, keep the order
+                limits.pending.add(e);
+                return;
+            }
+        }
+        long delay = charge(limits, e);
+        if (delay > 0) {
+            tarpit(ctx, limits, e, delay);
+        } else {
+            super.messageReceived(ctx, e);
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ChannelLimits limits = (ChannelLimits) ctx.getAttachment();
+        if (limits != null) {
+            ctx.setAttachment(null);
+            synchronized (limits) {
+                limits.closed = true;
+                limits.pending.clear();
+            }
+            long now = System.nanoTime();
+            limits.ip.release(now);
+            limits.subnet.release(now);
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Take the tokens for the given message out of the buckets and return the time in nanoseconds till they would have been
+     * available
+     */
+    private long charge(ChannelLimits limits, MessageEvent e) {
+        long now = System.nanoTime();
+        long delay = Math.max(take(limits.ip.commands, 1, now), take(limits.subnet.commands, 1, now));
+        if (e.getMessage() instanceof ChannelBuffer) {
+            int bytes = ((ChannelBuffer) e.getMessage()).readableBytes();
+            delay = Math.max(delay, Math.max(take(limits.ip.bytes, bytes, now), take(limits.subnet.bytes, bytes, now)));
+        }
+        return delay;
+    }
+
+    /**
+     * Suspend reading from the channel and send the given event and all events which are received meanwhile upstream after the
+     * delay. The given event was charged already
+     */
+    private void tarpit(final ChannelHandlerContext ctx, final ChannelLimits limits, ChannelEvent e, long delay) {
+        tarpitCount.incrementAndGet();
+        synchronized (limits) {
+            limits.suspended = true;
+            limits.pending.addFirst(e);
+            limits.charged = e;
+        }
+        ctx.getChannel().setReadable(false);
+        scheduleResume(ctx, limits, delay);
+    }
+
+    /**
+     * Resume the channel after the delay. The timer only issues an empty write, as its future is completed by the I/O worker
+     * once all writes before were flushed. The pending events are then sent upstream by the I/O worker, so no 
+     * {@link ChannelUpstreamHandler} runs in the thread of the shared {@link Timer}. If the channel was closed in the meantime 
+     * the write fails and nothing is sent.
+     */
+    private void scheduleResume(final ChannelHandlerContext ctx, final ChannelLimits limits, long delay) {
+        timer.newTimeout(new TimerTask() {
+            
+            public void run(Timeout timeout) throws Exception {
+                // add the listener before writing, so it is never notified by the timer thread
+                ChannelFuture future = Channels.future(ctx.getChannel());
+                future.addListener(new ChannelFutureListener() {
+                    
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            resume(ctx, limits);
+                        }
+                    }
+                });
+                Channels.write(ctx, future, ChannelBuffers.EMPTY_BUFFER);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send the pending events upstream and start reading from the channel again. Every message which was not charged yet is 
+     * charged now, and if the peer exceeded the rate again it stays tarpitted for the new delay.
+     * 
+     * Every event is sent while holding the lock, so {@link #channelClosed(ChannelHandlerContext, ChannelStateEvent)} can't
+     * pass this handler while an event is sent and no event is sent after it.
+     */
+    private void resume(ChannelHandlerContext ctx, ChannelLimits limits) {
+        while (true) {
+            synchronized (limits) {
+                if (limits.closed) {
+                    return;
+                }
+                ChannelEvent event = limits.pending.poll();
+                if (event == null) {
+                    limits.suspended = false;
+                    break;
+                }
+                if (event != limits.charged && event instanceof MessageEvent) {
+                    long delay = charge(limits, (MessageEvent) event);
+                    if (delay > 0) {
+                        tarpitCount.incrementAndGet();
+                        limits.pending.addFirst(event);
+                        limits.charged = event;
+                        scheduleResume(ctx, limits, delay);
+                        return;
+                    }
+                }
+                limits.charged = null;
+                ctx.sendUpstream(event);
+            }
+        }
+        ctx.getChannel().setReadable(true);
+    }
+
+    private long take(TokenBucket bucket, long tokens, long now) {
+        if (bucket == null) {
+            return 0;
+        }
+        return bucket.take(tokens, now, maxDelay);
+    }
+
+    /**
+     * Return the {@link PeerLimits} for the given key and mark it as used by one more connection
+     */
+    private PeerLimits acquire(ConcurrentMap<String, PeerLimits> map, String key, int connects, int commands, int bytes) {
+        while (true) {
+            PeerLimits limits = map.get(key);
+            if (limits == null) {
+                limits = new PeerLimits(connects, commands, bytes, burstSeconds);
+                PeerLimits oldLimits = map.putIfAbsent(key, limits);
+                // if another thread put the limits for this key, we must use the other one.
+                if (oldLimits != null) {
+                    limits = oldLimits;
+                }
+            }
+            limits.active.incrementAndGet();
+            
+            // check if it was expired meanwhile
+            if (map.get(key) == limits) {
+                return limits;
+            }
+            limits.active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return the CIDR notation of the subnet to which the given address belongs
+     */
+    private String getSubnet(InetAddress address) throws UnknownHostException {
+        byte[] bytes = address.getAddress();
+        int prefixLength = bytes.length == 4 ? ipv4PrefixLength : ipv6PrefixLength;
+        for (int i = 0; i < bytes.length; i++) {
+            int bits = prefixLength - i * 8;
+            if (bits <= 0) {
+                bytes[i] = 0;
+            } else if (bits < 8) {
+                bytes[i] &= 0xff << (8 - bits);
+            }
+        }
+        return InetAddress.getByAddress(bytes).getHostAddress() + "/" + prefixLength;
+    }
+
+    private void scheduleExpire() {
+        try {
+            timer.newTimeout(new TimerTask() {
+                
+                public void run(Timeout timeout) throws Exception {
+                    long now = System.nanoTime();
+                    expire(ipLimits, now);
+                    expire(subnetLimits, now);
+                    scheduleExpire();
+                }
+            }, Math.max(TimeUnit.SECONDS.toNanos(1), expireTime), TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            // the timer was stopped
+        }
+    }
+
+    private void expire(ConcurrentMap<String, PeerLimits> map, long now) {
+        Iterator<Map.Entry<String, PeerLimits>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, PeerLimits> entry = entries.next();
+            PeerLimits limits = entry.getValue();
+            if (limits.active.get() == 0 && now - limits.lastAccess > expireTime && limits.isIdle(now)) {
+                map.remove(entry.getKey(), limits);
+            }
+        }
+    }
+
+    /**
+     * The {@link TokenBucket}'s of an IP or subnet. 
+     */
+    private final static class PeerLimits {
+        private final TokenBucket connects;
+        private final TokenBucket commands;
+        private final TokenBucket bytes;
+        private final AtomicInteger active = new AtomicInteger(0);
+        private volatile long lastAccess = System.nanoTime();
+
+        public PeerLimits(int connects, int commands, int bytes, int burstSeconds) {
+            this.connects = createBucket(connects, burstSeconds);
+            this.commands = createBucket(commands, burstSeconds);
+            this.bytes = createBucket(bytes, burstSeconds);
+        }
+
+        private static TokenBucket createBucket(int rate, int burstSeconds) {
+            if (rate > 0) {
+                return new TokenBucket(rate, (long) rate * Math.max(1, burstSeconds));
+            }
+            return null;
+        }
+
+        public void release(long now) {
+            lastAccess = now;
+            active.decrementAndGet();
+        }
+
+        /**
+         * Return <code>true</code> if all buckets are full, so dropping the state does not reset any limit
+         */
+        public boolean isIdle(long now) {
+            return (connects == null || connects.isFull(now)) && (commands == null || commands.isFull(now)) && (bytes == null || bytes.isFull(now));
+        }
+    }
+
+    /**
+     * The state of one channel
+     */
+    private final static class ChannelLimits {
+        private final PeerLimits ip;
+        private final PeerLimits subnet;
+        private final LinkedList<ChannelEvent> pending = new LinkedList<ChannelEvent>();
+        // the pending event which was charged already
+        private ChannelEvent charged;
+        private boolean suspended;
+        private boolean closed;
+
+        public ChannelLimits(PeerLimits ip, PeerLimits subnet) {
+            this.ip = ip;
+            this.subnet = subnet;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+/**
+ * Counters about the TLS usage of a server. This class is thread-safe.
+ */
+public final class TLSMetrics {
+
+    private final AtomicLong startTLSConnections = new AtomicLong(0);
+    private final AtomicLong startTLSUpgrades = new AtomicLong(0);
+    private final AtomicLong enginesCreated = new AtomicLong(0);
+    private final AtomicLong fullHandshakes = new AtomicLong(0);
+    private final AtomicLong resumedHandshakes = new AtomicLong(0);
+    private final AtomicLong failedHandshakes = new AtomicLong(0);
+    
+    void startTLSConnection() {
+        startTLSConnections.incrementAndGet();
+    }
+    
+    void startTLSUpgrade() {
+        startTLSUpgrades.incrementAndGet();
+    }
+    
+    void engineCreated() {
+        enginesCreated.incrementAndGet();
+    }
+    
+    /**
+     * Start the handshake of the given {@link SslHandler} and count it once it is complete. A handshake is counted as resumed
+     * if the session was created before the handshake was started
+     * 
+     * @param handler
+     */
+    void handshake(final SslHandler handler) {
+        final long start = System.currentTimeMillis();
+        handler.handshake().addListener(new ChannelFutureListener() {
+            
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    failedHandshakes.incrementAndGet();
+                } else if (handler.getEngine().getSession().getCreationTime() < start) {
+                    resumedHandshakes.incrementAndGet();
+                } else {
+                    fullHandshakes.incrementAndGet();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Return the count of connections which could use STARTTLS
+     * 
+     * @return connections
+     */
+    public long getStartTLSConnections() {
+        return startTLSConnections.get();
+    }
+    
+    /**
+     * Return the count of connections which were upgraded via STARTTLS
+     * 
+     * @return upgrades
+     */
+    public long getStartTLSUpgrades() {
+        return startTLSUpgrades.get();
+    }
+    
+    /**
+     * Return the count of {@link SSLEngine}'s which were created, for STARTTLS and for implicit TLS
+     * 
+     * @return engines
+     */
+    public long getEnginesCreated() {
+        return enginesCreated.get();
+    }
+    
+    /**
+     * Return the count of handshakes which created a new session
+     * 
+     * @return handshakes
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+    
+    /**
+     * Return the count of handshakes which resumed a cached session
+     * 
+     * @return handshakes
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+    
+    /**
+     * Return the count of handshakes which failed
+     * 
+     * @return handshakes
+     */
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+}
@@ -0,0 +1,92 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. 
+ * 
+ * Instead of the count of tokens only the time at which the bucket will be full again is stored, so taking tokens is a single
+ * compare-and-set and no refill task is needed. 
+ */
+public final class TokenBucket {
+
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+    // nanos which are needed to refill one token
+    private final long interval;
+    
+    // nanos which are needed to refill the whole bucket
+    private final long capacity;
+    
+    private final AtomicLong fullAt;
+
+    /**
+     * Create a new full {@link TokenBucket}
+     * 
+     * @param ratePerSecond the tokens which are added per second
+     * @param burst the maximal count of tokens the bucket can hold
+     */
+    public TokenBucket(long ratePerSecond, long burst) {
+        if (ratePerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be > 0");
+        }
+        this.interval = Math.max(1, NANOS_PER_SECOND / ratePerSecond);
+        this.capacity = interval * Math.max(1, burst);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take the given count of tokens out of the bucket. If there are not enough tokens they are taken anyway and the returned
+     * value is the time in nanoseconds the caller needs to wait till the tokens would have been available. The debt is never 
+     * bigger then the given maxDelay, so a peer can't lock itself out forever.
+     * 
+     * @param tokens the count of tokens to take
+     * @param now the current time as returned by {@link System#nanoTime()}
+     * @param maxDelay the maximal delay in nanoseconds
+     * @return delay the time to wait in nanoseconds or <code>0</code> if enough tokens were available
+     */
+    public long take(long tokens, long now, long maxDelay) {
+        long increment = tokens * interval;
+        while (true) {
+            long current = fullAt.get();
+            long newFullAt = (current - now > 0 ? current : now) + increment;
+            long delay = newFullAt - now - capacity;
+            if (delay > maxDelay) {
+                newFullAt -= delay - maxDelay;
+                delay = maxDelay;
+            }
+            if (fullAt.compareAndSet(current, newFullAt)) {
+                return delay > 0 ? delay : 0;
+            }
+        }
+    }
+
+    /**
+     * Return <code>true</code> if the bucket is full at the given time
+     * 
+     * @param now the current time as returned by {@link System#nanoTime()}
+     * @return full
+     */
+    public boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
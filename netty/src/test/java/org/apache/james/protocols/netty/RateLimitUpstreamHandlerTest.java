@@ -0,0 +1,221 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimitUpstreamHandlerTest {
+
+    private final static String CLOSED = "CLOSED";
+
+    private final List<Thread> timerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+    private HashedWheelTimer timer;
+    private ServerBootstrap bootstrap;
+    private Channel serverChannel;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer(new ThreadFactory() {
+            
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                timerThreads.add(thread);
+                return thread;
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        if (serverChannel != null) {
+            serverChannel.close().awaitUninterruptibly();
+        }
+        if (bootstrap != null) {
+            bootstrap.releaseExternalResources();
+        }
+        timer.stop();
+    }
+
+    @Test
+    public void testPendingMessagesAreCharged() throws Exception {
+        // 4 commands per second, so every 250ms one more command is allowed after the first 4
+        RateLimitUpstreamHandler handler = new RateLimitUpstreamHandler(timer);
+        handler.setCommandsPerSecond(4);
+        handler.setBurstSeconds(1);
+        RecordingHandler recorder = new RecordingHandler(8);
+        bind(handler, recorder);
+
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        try {
+            long start = System.currentTimeMillis();
+            write(socket, "1\r\n2\r\n3\r\n4\r\n5\r\n6\r\n7\r\n8\r\n");
+            assertTrue(recorder.latch.await(10, TimeUnit.SECONDS));
+            long elapsed = System.currentTimeMillis() - start;
+
+            // the messages which were read together with the first tarpitted one must be charged too
+            assertTrue("Elapsed=" + elapsed, elapsed >= 900);
+            assertTrue(handler.getTarpitCount() >= 4);
+        } finally {
+            socket.close();
+        }
+
+        List<String> messages = recorder.getMessages();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(String.valueOf(i + 1), messages.get(i));
+        }
+        for (Thread thread: recorder.getThreads()) {
+            assertFalse("Message was sent upstream by the timer", timerThreads.contains(thread));
+        }
+    }
+
+    @Test
+    public void testNoMessageAfterClose() throws Exception {
+        RateLimitUpstreamHandler handler = new RateLimitUpstreamHandler(timer);
+        handler.setCommandsPerSecond(2);
+        handler.setBurstSeconds(1);
+        RecordingHandler recorder = new RecordingHandler(2);
+        bind(handler, recorder);
+
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        try {
+            write(socket, "1\r\n2\r\n3\r\n4\r\n5\r\n");
+            assertTrue(recorder.latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            socket.close();
+        }
+
+        for (int i = 0; i < 50 && !recorder.getMessages().contains(CLOSED); i++) {
+            Thread.sleep(100);
+        }
+        // wait till all delays would be over
+        Thread.sleep(2000);
+
+        List<String> messages = recorder.getMessages();
+        assertEquals(CLOSED, messages.get(messages.size() - 1));
+        assertEquals(1, Collections.frequency(messages, CLOSED));
+    }
+
+    private void bind(final RateLimitUpstreamHandler handler, final RecordingHandler recorder) throws IOException {
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("framer", new DelimiterBasedFrameDecoder(512, false, Delimiters.lineDelimiter()));
+                pipeline.addLast("rateLimit", handler);
+                pipeline.addLast("recorder", recorder);
+                return pipeline;
+            }
+        });
+        address = new InetSocketAddress("127.0.0.1", getFreePort());
+        serverChannel = bootstrap.bind(address);
+    }
+
+    private void write(Socket socket, String lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static int getFreePort() {
+        for (int port = 20000; port <= 30000; port++) {
+            try {
+                ServerSocket socket = new ServerSocket(port);
+                socket.setReuseAddress(true);
+                socket.close();
+                return port;
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        throw new RuntimeException("Unable to find a free port....");
+    }
+
+    /**
+     * Records the received lines, the threads which delivered them and the close of the channel
+     */
+    private final static class RecordingHandler extends SimpleChannelUpstreamHandler {
+
+        private final List<String> messages = new ArrayList<String>();
+        private final List<Thread> threads = new ArrayList<Thread>();
+        private final CountDownLatch latch;
+
+        public RecordingHandler(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            String line = ((ChannelBuffer) e.getMessage()).toString("US-ASCII").trim();
+            synchronized (this) {
+                messages.add(line);
+                threads.add(Thread.currentThread());
+            }
+            latch.countDown();
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            synchronized (this) {
+                messages.add(CLOSED);
+            }
+        }
+
+        public synchronized List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+
+        public synchronized List<Thread> getThreads() {
+            return new ArrayList<Thread>(threads);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private final static long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final static long MAX_DELAY = TimeUnit.SECONDS.toNanos(10);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test
+    public void testBurst() {
+        // one token every 100ms, 5 tokens at once
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertTrue(bucket.isFull(now));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.take(1, now, MAX_DELAY));
+        }
+        assertFalse(bucket.isFull(now));
+        assertEquals(100 * MS, bucket.take(1, now, MAX_DELAY));
+        assertEquals(200 * MS, bucket.take(1, now, MAX_DELAY));
+
+        // 7 tokens were taken, so the bucket is full again after 700ms
+        assertFalse(bucket.isFull(now + 700 * MS - 1));
+        assertTrue(bucket.isFull(now + 700 * MS));
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.take(5, now, MAX_DELAY));
+
+        // two tokens were added after 200ms
+        now += 200 * MS;
+        assertEquals(0, bucket.take(2, now, MAX_DELAY));
+        assertEquals(100 * MS, bucket.take(1, now, MAX_DELAY));
+
+        // the bucket never holds more than the burst
+        now += 10000 * MS;
+        assertTrue(bucket.isFull(now));
+        assertEquals(0, bucket.take(5, now, MAX_DELAY));
+        assertEquals(100 * MS, bucket.take(1, now, MAX_DELAY));
+    }
+
+    @Test
+    public void testMultipleTokens() {
+        // one token every 1ms, 1000 tokens at once
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        long now = System.nanoTime();
+        assertEquals(0, bucket.take(600, now, MAX_DELAY));
+        assertEquals(200 * MS, bucket.take(600, now, MAX_DELAY));
+    }
+
+    @Test
+    public void testMaxDelay() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        long maxDelay = 1000 * MS;
+
+        // 100 tokens would need 9.5 seconds more than the burst allows
+        assertEquals(maxDelay, bucket.take(100, now, maxDelay));
+        // the debt was capped too, so the bucket is full after the burst and the max delay
+        assertFalse(bucket.isFull(now + 1500 * MS - 1));
+        assertTrue(bucket.isFull(now + 1500 * MS));
+
+        assertEquals(maxDelay, bucket.take(1, now, maxDelay));
+        assertTrue(bucket.isFull(now + 1500 * MS));
+    }
+}
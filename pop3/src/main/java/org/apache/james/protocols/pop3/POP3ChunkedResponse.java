@@ -0,0 +1,110 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.james.protocols.api.ChunkedResponse;
+import org.apache.james.protocols.api.ChunkedSource;
+import org.apache.james.protocols.api.ChunkedSourceInputStream;
+import org.apache.james.protocols.api.ChunkedSource.ChunkListener;
+
+/**
+ * {@link POP3Response} which content is read from a transfer-encoded
+ * {@link ChunkedSource}. The terminating <code>.\r\n</code> is added after the
+ * content
+ */
+public class POP3ChunkedResponse extends POP3Response implements ChunkedResponse {
+
+    private final static byte[] TRAILER = ".\r\n".getBytes();
+
+    private final ChunkedSource source;
+    private InputStream stream;
+
+    public POP3ChunkedResponse(String code, CharSequence description, ChunkedSource source) {
+        super(code, description);
+        this.source = new TrailerChunkedSource(source);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedResponse#getChunkedSource()
+     */
+    public ChunkedSource getChunkedSource() {
+        return source;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.StreamResponse#getStream()
+     */
+    public synchronized InputStream getStream() {
+        if (stream == null) {
+            stream = new ChunkedSourceInputStream(source);
+        }
+        return stream;
+    }
+
+    /**
+     * {@link ChunkedSource} which returns the trailer once the wrapped {@link ChunkedSource} reached its end
+     */
+    private final static class TrailerChunkedSource implements ChunkedSource, ChunkListener {
+        private final ChunkedSource source;
+        private boolean trailerWritten = false;
+        private volatile ChunkListener listener;
+
+        public TrailerChunkedSource(ChunkedSource source) {
+            this.source = source;
+            source.setListener(this);
+        }
+
+        public synchronized byte[] nextChunk() throws IOException {
+            if (trailerWritten) {
+                return null;
+            }
+            byte[] chunk = source.nextChunk();
+            if (chunk == null && source.isEndOfInput()) {
+                trailerWritten = true;
+                return TRAILER;
+            }
+            return chunk;
+        }
+
+        public synchronized boolean isEndOfInput() {
+            return trailerWritten;
+        }
+
+        public void setListener(ChunkListener listener) {
+            this.listener = listener;
+        }
+
+        public void close() throws IOException {
+            source.close();
+        }
+
+        public void onChunkAvailable(ChunkedSource source) {
+            ChunkListener l = listener;
+            if (l != null) {
+                l.onChunkAvailable(this);
+            }
+        }
+    }
+}
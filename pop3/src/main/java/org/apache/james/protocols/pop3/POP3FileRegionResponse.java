@@ -0,0 +1,134 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.james.protocols.api.FileRegionResponse;
+import org.apache.james.protocols.pop3.mailbox.MessageFileRegion;
+
+/**
+ * {@link POP3Response} which is backed by a {@link MessageFileRegion}
+ */
+public class POP3FileRegionResponse extends POP3Response implements FileRegionResponse {
+
+    private final static byte[] TERMINATOR = ".\r\n".getBytes();
+
+    private final MessageFileRegion region;
+
+    public POP3FileRegionResponse(String code, CharSequence description, MessageFileRegion region) {
+        super(code, description);
+        this.region = region;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.FileRegionResponse#getFileChannel()
+     */
+    public FileChannel getFileChannel() {
+        return region.getChannel();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.FileRegionResponse#getPosition()
+     */
+    public long getPosition() {
+        return region.getPosition();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.FileRegionResponse#getCount()
+     */
+    public long getCount() {
+        return region.getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.FileRegionResponse#getTrailer()
+     */
+    public byte[] getTrailer() {
+        return TERMINATOR;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.StreamResponse#getStream()
+     */
+    public InputStream getStream() {
+        return new SequenceInputStream(new RegionInputStream(region), new ByteArrayInputStream(TERMINATOR));
+    }
+
+    /**
+     * {@link InputStream} which reads the {@link MessageFileRegion}. It uses absolute reads, so the position of the 
+     * {@link FileChannel} is never changed
+     */
+    private final static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        public RegionInputStream(MessageFileRegion region) {
+            this.channel = region.getChannel();
+            this.position = region.getPosition();
+            this.end = region.getPosition() + region.getCount();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            if (read(b, 0, 1) == -1) {
+                return -1;
+            }
+            return b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int r = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (r == -1) {
+                position = end;
+                return -1;
+            }
+            position += r;
+            return r;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
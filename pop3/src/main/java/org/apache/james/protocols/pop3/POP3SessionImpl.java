@@ -58,11 +58,18 @@ public class POP3SessionImpl extends ProtocolSessionImpl implements POP3Session
      * @see org.apache.james.protocols.api.ProtocolSession#resetState()
      */
     public void resetState() {
-        getState().clear();
+        super.resetState();
 
         setHandlerState(AUTHENTICATION_READY);
     }
 
+    @Override
+    protected void recycle(ProtocolTransport transport) {
+        super.recycle(transport);
+        handlerState = 0;
+        mailbox = null;
+    }
+
     /**
      * @see org.apache.james.pop3server.POP3Session#getUserMailbox()
      */
@@ -55,7 +55,9 @@ public class CRLFTerminatedInputStream extends FilterInputStream {
             } else {
                 // Make sure we respect the offset. Otherwise it could let the RETRCmdHandler
                 // hang forever. See JAMES-1222
-                last = b[off + r - 1];
+                if (r > 0) {
+                    last = b[off + r - 1];
+                }
                 return r;
             }
         } else {
@@ -21,43 +21,114 @@ package org.apache.james.protocols.pop3.core;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
 
 
 /**
  * Adds extra dot if dot occurs in message body at beginning of line (according
  * to RFC1939)
+ * 
+ * The wrapped {@link InputStream} is read in blocks, so reading this stream via
+ * {@link #read(byte[], int, int)} does not result in a call per byte
  */
 public class ExtraDotInputStream extends InputStream {
 
+    private final static int BUFFER_SIZE = 8192;
+
     boolean startLine = true;
     private int last;
-    private final PushbackInputStream in;
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int count = 0;
 
     public ExtraDotInputStream(InputStream in) {
-        this.in = new PushbackInputStream(in, 2);
+        this.in = in;
         startLine = true;
     }
 
+    /**
+     * Fill the buffer from the wrapped {@link InputStream}
+     * 
+     * @return false if the end of the stream was reached
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        int r;
+        do {
+            r = in.read(buf, 0, buf.length);
+        } while (r == 0);
+        if (r == -1) {
+            pos = 0;
+            count = 0;
+            return false;
+        }
+        pos = 0;
+        count = r;
+        return true;
+    }
     
     @Override
     public int read() throws IOException {
-       int i = in.read();
-       if (startLine) {
-           startLine = false;
-           if (i == '.') {
-                in.unread(i);
-               return '.';
-           }
-           
-       }
-      
-       if (last == '\r' && i == '\n') {
-           startLine = true;
-       }
-       last = i;
-       return i;
-       
+        if (pos == count && fill() == false) {
+            startLine = false;
+            return -1;
+        }
+        if (startLine) {
+            startLine = false;
+            if (buf[pos] == '.') {
+                // return the extra dot, the original one will be returned on the next read
+                return '.';
+            }
+        }
+        int i = buf[pos++] & 0xff;
+        if (last == '\r' && i == '\n') {
+            startLine = true;
+        }
+        last = i;
+        return i;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int written = 0;
+        while (written < len) {
+            if (pos == count) {
+                // only block if we have nothing to return yet
+                if (written > 0 || fill() == false) {
+                    break;
+                }
+            }
+            if (startLine) {
+                startLine = false;
+                if (buf[pos] == '.') {
+                    b[off + written++] = '.';
+                    continue;
+                }
+            }
+            
+            // copy till the end of the line, the end of the buffer or till the array is full
+            int max = Math.min(count - pos, len - written);
+            int i = 0;
+            while (i < max) {
+                int c = buf[pos + i++];
+                if (c == '\n' && last == '\r') {
+                    startLine = true;
+                    last = c;
+                    break;
+                }
+                last = c;
+            }
+            System.arraycopy(buf, pos, b, off + written, i);
+            pos += i;
+            written += i;
+        }
+        if (written == 0) {
+            return -1;
+        }
+        return written;
     }
 
     @Override
@@ -67,7 +138,7 @@ public class ExtraDotInputStream extends InputStream {
 
     @Override
     public int available() throws IOException {
-        return in.available();
+        return (count - pos) + in.available();
     }
 
     @Override
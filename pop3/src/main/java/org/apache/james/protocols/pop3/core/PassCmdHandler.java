@@ -25,12 +25,17 @@ import java.util.Collection;
 import java.util.Collections;
 
 
+import org.apache.james.protocols.api.FutureResponseImpl;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
+import org.apache.james.protocols.pop3.mailbox.AsyncMailbox;
+import org.apache.james.protocols.pop3.mailbox.AsyncMailboxFactory;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
 import org.apache.james.protocols.pop3.mailbox.MailboxFactory;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture.MailboxFutureListener;
 
 /**
  * Handles PASS command
@@ -55,6 +60,9 @@ public class PassCmdHandler extends RsetCmdHandler {
         POP3Response response = null;
         if (session.getHandlerState() == POP3Session.AUTHENTICATION_USERSET && parameters != null) {
             String passArg = parameters;
+            if (mailboxManager instanceof AsyncMailboxFactory) {
+                return authenticate(session, (AsyncMailboxFactory) mailboxManager, passArg);
+            }
             try {
                 Mailbox mailbox = mailboxManager.getMailbox(session, passArg);
                 if (mailbox != null) {
@@ -81,6 +89,50 @@ public class PassCmdHandler extends RsetCmdHandler {
         return response;
     }
 
+    /**
+     * Lookup the {@link Mailbox} via the {@link AsyncMailboxFactory} without blocking. The returned {@link FutureResponseImpl} is
+     * completed once the {@link Mailbox} was opened and its messages were retrieved. Till then no pipelined commands are processed,
+     * as they would see the session still in the authentication state
+     */
+    private Response authenticate(final POP3Session session, AsyncMailboxFactory factory, String password) {
+        final FutureResponseImpl response = new FutureResponseImpl(session.getLogger());
+        setReadable(session, false);
+        factory.getMailboxAsync(session, password).addListener(new MailboxFutureListener<Mailbox>() {
+
+            public void operationComplete(MailboxFuture<Mailbox> future) {
+                Mailbox mailbox;
+                try {
+                    mailbox = future.get();
+                } catch (IOException e) {
+                    session.getLogger().error("Unexpected error accessing mailbox for " + session.getUser(), e);
+                    session.setHandlerState(POP3Session.AUTHENTICATION_READY);
+                    setReadable(session, true);
+                    response.setResponse(UNEXPECTED_ERROR);
+                    return;
+                }
+                if (mailbox == null) {
+                    session.setHandlerState(POP3Session.AUTHENTICATION_READY);
+                    setReadable(session, true);
+                    response.setResponse(AUTH_FAILED);
+                    return;
+                }
+                session.setUserMailbox(mailbox);
+                session.setHandlerState(POP3Session.TRANSACTION);
+
+                StringBuilder responseBuffer = new StringBuilder(64).append("Welcome ").append(session.getUser());
+                POP3Response welcome = new POP3Response(POP3Response.OK_RESPONSE, responseBuffer.toString());
+                if (mailbox instanceof AsyncMailbox) {
+                    stat(session, (AsyncMailbox) mailbox, response, welcome);
+                } else {
+                    stat(session);
+                    setReadable(session, true);
+                    response.setResponse(welcome);
+                }
+            }
+        });
+        return response;
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
      */
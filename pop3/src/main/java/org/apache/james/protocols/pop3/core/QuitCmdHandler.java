@@ -25,13 +25,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.james.protocols.api.FutureResponseImpl;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
+import org.apache.james.protocols.pop3.mailbox.AsyncMailbox;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture.MailboxFutureListener;
 
 /**
  * Handles QUIT command
@@ -61,12 +65,14 @@ public class QuitCmdHandler implements CommandHandler<POP3Session> {
         }
         List<Long> toBeRemoved = (List<Long>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
         Mailbox mailbox = session.getUserMailbox();
+        long uids[] = new long[toBeRemoved.size()];
+        for (int i = 0;i < toBeRemoved.size(); i++) {
+            uids[i] = toBeRemoved.get(i);
+        }
+        if (mailbox instanceof AsyncMailbox) {
+            return remove(session, (AsyncMailbox) mailbox, uids);
+        }
         try {
-            ;
-            long uids[] = new long[toBeRemoved.size()];
-            for (int i = 0;i < toBeRemoved.size(); i++) {
-                uids[i] = toBeRemoved.get(i);
-            }
             mailbox.remove(uids);
             response = SIGN_OFF;
         } catch (Exception ex) {
@@ -81,6 +87,34 @@ public class QuitCmdHandler implements CommandHandler<POP3Session> {
         return response;
     }
 
+    /**
+     * Remove the messages without blocking. The returned {@link FutureResponseImpl} is completed once the messages were removed
+     * and the {@link AsyncMailbox} was closed
+     */
+    private Response remove(final POP3Session session, final AsyncMailbox mailbox, long[] uids) {
+        final FutureResponseImpl response = new FutureResponseImpl(session.getLogger());
+        mailbox.removeAsync(uids).addListener(new MailboxFutureListener<Void>() {
+
+            public void operationComplete(MailboxFuture<Void> future) {
+                Response r;
+                try {
+                    future.get();
+                    r = SIGN_OFF;
+                } catch (IOException ex) {
+                    r = SIGN_OFF_NOT_CLEAN;
+                    session.getLogger().error("Some deleted messages were not removed", ex);
+                }
+                try {
+                    mailbox.close();
+                } catch (IOException e) {
+                    // ignore on close
+                }
+                response.setResponse(r);
+            }
+        });
+        return response;
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
      */
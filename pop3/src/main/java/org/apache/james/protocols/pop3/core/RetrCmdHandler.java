@@ -26,14 +26,27 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.james.protocols.api.ChunkedSource;
+import org.apache.james.protocols.api.FutureChunkedResponseImpl;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.CommandHandler;
+import org.apache.james.protocols.pop3.POP3ChunkedResponse;
+import org.apache.james.protocols.pop3.POP3FileRegionResponse;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
 import org.apache.james.protocols.pop3.POP3StreamResponse;
+import org.apache.james.protocols.pop3.mailbox.AsyncCachingMailbox;
+import org.apache.james.protocols.pop3.mailbox.AsyncMailbox;
+import org.apache.james.protocols.pop3.mailbox.CachingMailbox;
+import org.apache.james.protocols.pop3.mailbox.FileRegionMailbox;
+import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture.MailboxFutureListener;
+import org.apache.james.protocols.pop3.mailbox.MessageFileRegion;
 import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
+import org.apache.james.protocols.pop3.mailbox.TransferEncodedMessage;
 
 /**
  * Handles RETR command
@@ -63,9 +76,31 @@ public class RetrCmdHandler implements CommandHandler<POP3Session> {
                 List<MessageMetaData> uidList = (List<MessageMetaData>) session.getAttachment(POP3Session.UID_LIST, State.Transaction);
                 List<Long> deletedUidList = (List<Long>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
 
-                Long uid = uidList.get(num - 1).getUid();
+                MessageMetaData data = uidList.get(num - 1);
+                Long uid = data.getUid();
                 if (deletedUidList.contains(uid) == false) {
-                    InputStream content = session.getUserMailbox().getMessage(uid);
+                    Mailbox mailbox = session.getUserMailbox();
+                    if (mailbox instanceof FileRegionMailbox) {
+                        // the message is already transfer-encoded so we can just hand over the region to the transport 
+                        MessageFileRegion region = ((FileRegionMailbox) mailbox).getMessageFileRegion(uid);
+                        if (region != null) {
+                            return new POP3FileRegionResponse(POP3Response.OK_RESPONSE, "Message follows", region);
+                        }
+                    } else if (mailbox instanceof CachingMailbox) {
+                        TransferEncodedMessage message = ((CachingMailbox) mailbox).getTransferEncodedMessage(uid, data.getSize());
+                        if (message != null) {
+                            return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", message.getInputStream());
+                        }
+                    } else if (mailbox instanceof AsyncCachingMailbox) {
+                        TransferEncodedMessage message = ((AsyncCachingMailbox) mailbox).getCachedTransferEncodedMessage(uid);
+                        if (message != null) {
+                            return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", message.getInputStream());
+                        }
+                        return retrieve((AsyncCachingMailbox) mailbox, uid, data.getSize(), num);
+                    } else if (mailbox instanceof AsyncMailbox) {
+                        return retrieve((AsyncMailbox) mailbox, uid, num);
+                    }
+                    InputStream content = mailbox.getMessage(uid);
 
                     if (content != null) {
                         InputStream in = new CRLFTerminatedInputStream(new ExtraDotInputStream(content));
@@ -88,6 +123,59 @@ public class RetrCmdHandler implements CommandHandler<POP3Session> {
         return response;
     }
 
+    /**
+     * Retrieve the message without blocking. The returned {@link FutureChunkedResponseImpl} is completed once the message 
+     * was found and its content is written via a {@link ChunkedSource}, so no thread is blocked while the message is read
+     */
+    private Response retrieve(AsyncMailbox mailbox, long uid, int num) {
+        FutureChunkedResponseImpl response = new FutureChunkedResponseImpl();
+        retrieve(mailbox, uid, num, response);
+        return response;
+    }
+
+    /**
+     * Retrieve the message via the {@link org.apache.james.protocols.pop3.mailbox.MessageCache} without blocking. If 
+     * the message is too big to get cached it is retrieved like any other message of an {@link AsyncMailbox}
+     */
+    private Response retrieve(final AsyncCachingMailbox mailbox, final long uid, long size, final int num) {
+        final FutureChunkedResponseImpl response = new FutureChunkedResponseImpl();
+        mailbox.getTransferEncodedMessageAsync(uid, size).addListener(new MailboxFutureListener<TransferEncodedMessage>() {
+
+            public void operationComplete(MailboxFuture<TransferEncodedMessage> future) {
+                try {
+                    TransferEncodedMessage message = future.get();
+                    if (message != null) {
+                        response.setResponse(new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", message.getInputStream()));
+                    } else {
+                        retrieve(mailbox, uid, num, response);
+                    }
+                } catch (IOException e) {
+                    response.setResponse(ERROR_MESSAGE_RETRIEVE);
+                }
+            }
+        });
+        return response;
+    }
+
+    private void retrieve(AsyncMailbox mailbox, long uid, final int num, final FutureChunkedResponseImpl response) {
+        mailbox.getMessageAsync(uid).addListener(new MailboxFutureListener<ChunkedSource>() {
+
+            public void operationComplete(MailboxFuture<ChunkedSource> future) {
+                try {
+                    ChunkedSource source = future.get();
+                    if (source != null) {
+                        response.setResponse(new POP3ChunkedResponse(POP3Response.OK_RESPONSE, "Message follows", new TransferEncodingChunkedSource(source)));
+                    } else {
+                        StringBuilder responseBuffer = new StringBuilder(64).append("Message (").append(num).append(") does not exist.");
+                        response.setResponse(new POP3Response(POP3Response.ERR_RESPONSE, responseBuffer.toString()));
+                    }
+                } catch (IOException e) {
+                    response.setResponse(ERROR_MESSAGE_RETRIEVE);
+                }
+            }
+        });
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
      */
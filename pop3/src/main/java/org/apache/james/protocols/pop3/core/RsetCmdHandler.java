@@ -27,12 +27,18 @@ import java.util.Collections;
 import java.util.List;
 
 
+import org.apache.james.protocols.api.FutureResponseImpl;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
+import org.apache.james.protocols.pop3.mailbox.AsyncMailbox;
+import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture;
+import org.apache.james.protocols.pop3.mailbox.MailboxFuture.MailboxFutureListener;
 import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
 
 /**
@@ -47,6 +53,13 @@ public class RsetCmdHandler implements CommandHandler<POP3Session> {
      */
     public Response onCommand(POP3Session session, Request request) {
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
+            Mailbox mailbox = session.getUserMailbox();
+            if (mailbox instanceof AsyncMailbox) {
+                FutureResponseImpl response = new FutureResponseImpl(session.getLogger());
+                setReadable(session, false);
+                stat(session, (AsyncMailbox) mailbox, response, POP3Response.OK);
+                return response;
+            }
             stat(session);
             return POP3Response.OK;
         } else {
@@ -63,10 +76,7 @@ public class RsetCmdHandler implements CommandHandler<POP3Session> {
      */
     protected void stat(POP3Session session) {
         try {
-            List<MessageMetaData> messages = session.getUserMailbox().getMessages();
-
-            session.setAttachment(POP3Session.UID_LIST, messages, State.Transaction);
-            session.setAttachment(POP3Session.DELETED_UID_LIST, new ArrayList<Long>(), State.Transaction);
+            setMessages(session, session.getUserMailbox().getMessages());
         } catch (IOException e) {
             // In the event of an exception being thrown there may or may not be
             // anything in userMailbox
@@ -75,6 +85,49 @@ public class RsetCmdHandler implements CommandHandler<POP3Session> {
 
     }
 
+    /**
+     * Asynchronous version of {@link #stat(POP3Session)} which does not block
+     * while the messages are retrieved from the {@link AsyncMailbox}. Once done
+     * the given {@link FutureResponseImpl} is completed with the given
+     * {@link Response} and the session is set readable again.
+     * 
+     * The caller must call {@link #setReadable(POP3Session, boolean)} with <code>false</code> before, so pipelined commands are
+     * not processed before the messages were set.
+     */
+    protected void stat(final POP3Session session, AsyncMailbox mailbox, final FutureResponseImpl future, final Response response) {
+        mailbox.getMessagesAsync().addListener(new MailboxFutureListener<List<MessageMetaData>>() {
+
+            public void operationComplete(MailboxFuture<List<MessageMetaData>> messages) {
+                try {
+                    setMessages(session, messages.get());
+                } catch (IOException e) {
+                    session.getLogger().error("Unable to STAT mail box ", e);
+                }
+                setReadable(session, true);
+                future.setResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Suspend or resume the processing of the next commands of the {@link POP3Session}. This needs to be done while the state
+     * of the session is changed by an asynchronous operation, as the client may have pipelined its next commands.
+     * 
+     * @param session
+     * @param readable
+     * @see org.apache.james.protocols.api.ProtocolTransport#setReadable(boolean)
+     */
+    protected void setReadable(POP3Session session, boolean readable) {
+        if (session instanceof ProtocolSessionImpl) {
+            ((ProtocolSessionImpl) session).getProtocolTransport().setReadable(readable);
+        }
+    }
+
+    private void setMessages(POP3Session session, List<MessageMetaData> messages) {
+        session.setAttachment(POP3Session.UID_LIST, messages, State.Transaction);
+        session.setAttachment(POP3Session.DELETED_UID_LIST, new ArrayList<Long>(), State.Transaction);
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
      */
@@ -25,26 +25,40 @@ import java.io.SequenceInputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.DisconnectHandler;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
 import org.apache.james.protocols.pop3.POP3StreamResponse;
+import org.apache.james.protocols.pop3.mailbox.AsyncCachingMailbox;
+import org.apache.james.protocols.pop3.mailbox.CachingMailbox;
+import org.apache.james.protocols.pop3.mailbox.IndexedMailbox;
+import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MessageCache;
+import org.apache.james.protocols.pop3.mailbox.MessageIndex;
 import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
+import org.apache.james.protocols.pop3.mailbox.TransferEncodedMessage;
 
 /**
  * Handles TOP command
  */
-public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
+public class TopCmdHandler extends RetrCmdHandler implements CapaCapability, DisconnectHandler<POP3Session> {
     private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("TOP"));
     private static final List<String> CAPS = Collections.unmodifiableList(Arrays.asList("TOP"));
     
     private static final Response SYNTAX_ERROR = new POP3Response(POP3Response.ERR_RESPONSE, "Usage: TOP [mail number] [Line number]").immutable();
     private static final Response ERROR_MESSAGE_RETR = new POP3Response(POP3Response.ERR_RESPONSE, "Error while retrieving message.").immutable();
+    private static final String CACHED_HEADERS = "TOP_CACHED_HEADERS";
+
+    private MessageCache headerCache;
 
     /**
      * Handler method called upon receipt of a TOP command. This command
@@ -84,12 +98,28 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
 
                 Long uid = uidList.get(num - 1).getUid();
                 if (deletedUidList.contains(uid) == false) {
+                    Mailbox mailbox = session.getUserMailbox();
+                    // serve the lines directly out of the cached message if it was retrieved before
+                    TransferEncodedMessage message = null;
+                    if (mailbox instanceof CachingMailbox) {
+                        message = ((CachingMailbox) mailbox).getCachedTransferEncodedMessage(uid);
+                    } else if (mailbox instanceof AsyncCachingMailbox) {
+                        message = ((AsyncCachingMailbox) mailbox).getCachedTransferEncodedMessage(uid);
+                    }
+                    if (message != null) {
+                        return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", message.getTopInputStream(lines));
+                    }
 
-                    InputStream body = new CountingBodyInputStream(new ExtraDotInputStream(new CRLFTerminatedInputStream(session.getUserMailbox().getMessageBody(uid))), lines);
-                    InputStream headers = session.getUserMailbox().getMessageHeaders(uid);
-                    if (body != null && headers != null) {
-                        return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", new SequenceInputStream(headers, body));
+                    if (lines == 0 && headerCache != null) {
+                        TransferEncodedMessage headers = getHeaders(session, uidList, mailbox, uid);
+                        if (headers != null) {
+                            return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", headers.getInputStream());
+                        }
+                    }
 
+                    InputStream in = getTopInputStream(mailbox, uid, lines);
+                    if (in != null) {
+                        return new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", in);
                     } else {
                         StringBuilder exceptionBuffer = new StringBuilder(64).append("Message (").append(num).append(") does not exist.");
                         return new POP3Response(POP3Response.ERR_RESPONSE, exceptionBuffer.toString());
@@ -114,6 +144,110 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
 
     }
 
+    /**
+     * Set the {@link MessageCache} which is used to cache the transfer-encoded
+     * headers of messages which are requested with <code>TOP [mail number] 0</code>. 
+     * If none is set the headers are not cached.
+     * 
+     * @param headerCache
+     */
+    public void setHeaderCache(MessageCache headerCache) {
+        this.headerCache = headerCache;
+    }
+
+    /**
+     * Return the transfer-encoded headers of the message from the header
+     * {@link MessageCache}. If they are not cached yet they get loaded and added to it.
+     * 
+     * The uids of the cached headers are remembered for the lifetime of the UID list. Once the UID list was
+     * replaced (RSET) they are invalidated, as the messages may have been changed in the meantime.
+     * 
+     * Returns <code>null</code> if no message can be found or the headers are too big to get cached
+     */
+    private TransferEncodedMessage getHeaders(POP3Session session, List<MessageMetaData> uidList, Mailbox mailbox, long uid) throws IOException {
+        String id = mailbox.getIdentifier();
+        CachedHeaders cached = (CachedHeaders) session.getAttachment(CACHED_HEADERS, State.Transaction);
+        if (cached == null || cached.uidList != uidList) {
+            if (cached != null) {
+                invalidate(cached, cached.uids);
+            }
+            cached = new CachedHeaders(id, uidList);
+            session.setAttachment(CACHED_HEADERS, cached, State.Transaction);
+        }
+        
+        TransferEncodedMessage headers = headerCache.get(id, uid);
+        if (headers == null) {
+            InputStream in = getTopInputStream(mailbox, uid, 0);
+            if (in != null) {
+                headers = headerCache.load(id, uid, in);
+            }
+        }
+        if (headers != null) {
+            cached.uids.add(uid);
+        }
+        return headers;
+    }
+
+    /**
+     * Invalidate the cached headers of the messages which were deleted in the session, as they were removed from the 
+     * {@link Mailbox} on QUIT
+     */
+    @SuppressWarnings("unchecked")
+    public void onDisconnect(POP3Session session) {
+        CachedHeaders cached = (CachedHeaders) session.getAttachment(CACHED_HEADERS, State.Transaction);
+        List<Long> deletedUidList = (List<Long>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
+        if (cached != null && deletedUidList != null) {
+            invalidate(cached, deletedUidList);
+        }
+    }
+
+    private void invalidate(CachedHeaders cached, Collection<Long> uids) {
+        Iterator<Long> it = uids.iterator();
+        while (it.hasNext()) {
+            headerCache.invalidate(cached.mailbox, it.next());
+        }
+    }
+
+    /**
+     * Return the transfer-encoded headers and the given count of body lines.
+     * If the {@link Mailbox} is an {@link IndexedMailbox} only the needed
+     * range of the message is read, otherwise the body is read until the
+     * limit is reached.
+     * 
+     * Returns <code>null</code> if the message can not be found
+     * 
+     * @param mailbox
+     * @param uid
+     * @param lines
+     * @return in
+     * @throws IOException
+     */
+    protected InputStream getTopInputStream(Mailbox mailbox, long uid, int lines) throws IOException {
+        if (mailbox instanceof IndexedMailbox) {
+            IndexedMailbox indexed = (IndexedMailbox) mailbox;
+            MessageIndex index = indexed.getMessageIndex(uid);
+            if (index != null) {
+                InputStream in = indexed.getMessage(uid, 0, index.getTopLength(lines));
+                if (in != null) {
+                    return new CRLFTerminatedInputStream(new ExtraDotInputStream(in));
+                }
+                return null;
+            }
+        }
+        InputStream body = mailbox.getMessageBody(uid);
+        InputStream headers = mailbox.getMessageHeaders(uid);
+        if (body != null && headers != null) {
+            return new SequenceInputStream(headers, new CountingBodyInputStream(new ExtraDotInputStream(new CRLFTerminatedInputStream(body)), lines));
+        }
+        if (body != null) {
+            body.close();
+        }
+        if (headers != null) {
+            headers.close();
+        }
+        return null;
+    }
+
     /**
      * @see org.apache.james.pop3server.core.CapaCapability#getImplementedCapabilities(org.apache.james.pop3server.POP3Session)
      */
@@ -134,6 +268,20 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
         return COMMANDS;
     }
 
+    /**
+     * The uids for which the headers were cached during the lifetime of a UID list
+     */
+    private final static class CachedHeaders {
+        private final String mailbox;
+        private final List<MessageMetaData> uidList;
+        private final Set<Long> uids = new HashSet<Long>();
+
+        public CachedHeaders(String mailbox, List<MessageMetaData> uidList) {
+            this.mailbox = mailbox;
+            this.uidList = uidList;
+        }
+    }
+
     /**
      * This {@link InputStream} implementation can be used to limit the body
      * lines which will be read from the wrapped {@link InputStream}
@@ -178,9 +326,45 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
 
         }
 
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (limit == -1) {
+                return in.read(b, off, len);
+            }
+            if (count > limit) {
+                return -1;
+            }
+            int r = in.read(b, off, len);
+            if (r <= 0) {
+                return r;
+            }
+            
+            // count the lines and cut the block after the last line which should get returned
+            for (int i = 0; i < r; i++) {
+                int a = b[off + i];
+                if (lastChar == '\r' && a == '\n') {
+                    count++;
+                    if (count > limit) {
+                        lastChar = a;
+                        return i + 1;
+                    }
+                }
+                lastChar = a;
+            }
+            return r;
+        }
+
         @Override
         public long skip(long n) throws IOException {
-            return in.skip(n);
+            if (limit == -1) {
+                return in.skip(n);
+            }
+            // read through the stream so the lines are counted
+            long skipped = 0;
+            while (skipped < n && read() != -1) {
+                skipped++;
+            }
+            return skipped;
         }
 
         @Override
@@ -0,0 +1,157 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.core;
+
+import java.io.IOException;
+
+import org.apache.james.protocols.api.ChunkedSource;
+import org.apache.james.protocols.api.ChunkedSource.ChunkListener;
+
+/**
+ * {@link ChunkedSource} which adds an extra dot if a dot occurs at the
+ * beginning of a line and makes sure the content is terminated with \r\n.
+ * 
+ * This is the same as reading the wrapped {@link ChunkedSource} via
+ * {@link ExtraDotInputStream} and {@link CRLFTerminatedInputStream}
+ */
+public class TransferEncodingChunkedSource implements ChunkedSource, ChunkListener {
+
+    private final ChunkedSource source;
+    private boolean startLine = true;
+    private int last;
+    private boolean terminated = false;
+    private volatile ChunkListener listener;
+
+    public TransferEncodingChunkedSource(ChunkedSource source) {
+        this.source = source;
+        source.setListener(this);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#nextChunk()
+     */
+    public synchronized byte[] nextChunk() throws IOException {
+        if (terminated) {
+            return null;
+        }
+        byte[] chunk = source.nextChunk();
+        if (chunk == null) {
+            if (source.isEndOfInput()) {
+                terminated = true;
+                if (last == '\n') {
+                    return null;
+                } else if (last == '\r') {
+                    return new byte[] { '\n' };
+                } else {
+                    return new byte[] { '\r', '\n' };
+                }
+            }
+            return null;
+        }
+        return encode(chunk);
+    }
+
+    /**
+     * Add the extra dots to the chunk. The chunk is only copied if at least one
+     * dot needs to get added
+     */
+    private byte[] encode(byte[] chunk) {
+        int dots = 0;
+        boolean sl = startLine;
+        int previous = last;
+        int l = previous;
+        for (int i = 0; i < chunk.length; i++) {
+            int c = chunk[i];
+            if (sl) {
+                sl = false;
+                if (c == '.') {
+                    dots++;
+                }
+            }
+            if (l == '\r' && c == '\n') {
+                sl = true;
+            }
+            l = c;
+        }
+        if (chunk.length > 0) {
+            last = l;
+        }
+        
+        if (dots == 0) {
+            startLine = sl;
+            return chunk;
+        }
+
+        byte[] encoded = new byte[chunk.length + dots];
+        int pos = 0;
+        l = previous;
+        for (int i = 0; i < chunk.length; i++) {
+            int c = chunk[i];
+            if (startLine) {
+                startLine = false;
+                if (c == '.') {
+                    encoded[pos++] = '.';
+                }
+            }
+            if (l == '\r' && c == '\n') {
+                startLine = true;
+            }
+            encoded[pos++] = (byte) c;
+            l = c;
+        }
+        return encoded;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#isEndOfInput()
+     */
+    public synchronized boolean isEndOfInput() {
+        return terminated;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#setListener(org.apache.james.protocols.api.ChunkedSource.ChunkListener)
+     */
+    public void setListener(ChunkListener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource#close()
+     */
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ChunkedSource.ChunkListener#onChunkAvailable(org.apache.james.protocols.api.ChunkedSource)
+     */
+    public void onChunkAvailable(ChunkedSource source) {
+        ChunkListener l = listener;
+        if (l != null) {
+            l.onChunkAvailable(this);
+        }
+    }
+}
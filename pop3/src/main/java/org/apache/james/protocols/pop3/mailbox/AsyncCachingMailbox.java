@@ -0,0 +1,55 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+
+/**
+ * An {@link AsyncMailbox} which also gives access to the {@link TransferEncodedMessage}'s of a
+ * {@link CachingMailbox}. This is returned by the {@link ExecutorMailboxFactory} if it wraps a
+ * {@link CachingMailboxFactory}, so the cache is still used while no I/O thread is blocked
+ */
+public interface AsyncCachingMailbox extends AsyncMailbox {
+
+    /**
+     * Return the {@link TransferEncodedMessage} for the given <code>uid</code> if it is cached
+     * already or <code>null</code> otherwise. This never blocks
+     * 
+     * @see CachingMailbox#getCachedTransferEncodedMessage(long)
+     * @param uid
+     * @return message
+     * @throws IOException
+     */
+    TransferEncodedMessage getCachedTransferEncodedMessage(long uid) throws IOException;
+
+    /**
+     * Return a {@link MailboxFuture} which will hold the {@link TransferEncodedMessage} for the
+     * given <code>uid</code>. It will hold <code>null</code> if no message can be found or if the
+     * message is too big to get cached
+     * 
+     * @see CachingMailbox#getTransferEncodedMessage(long, long)
+     * @param uid
+     * @param size
+     *            the size as returned by {@link MessageMetaData#getSize()} or <code>-1</code> if
+     *            it is unknown
+     * @return future
+     */
+    MailboxFuture<TransferEncodedMessage> getTransferEncodedMessageAsync(long uid, long size);
+}
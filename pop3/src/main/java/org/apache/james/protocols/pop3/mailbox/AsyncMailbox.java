@@ -0,0 +1,62 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.util.List;
+
+import org.apache.james.protocols.api.ChunkedSource;
+
+/**
+ * A {@link Mailbox} which allows to access its content without blocking the
+ * calling thread. This is useful if the messages are stored remotely, so
+ * the POP3 handlers do not block the I/O threads while waiting for the storage
+ */
+public interface AsyncMailbox extends Mailbox {
+
+    /**
+     * Return a {@link MailboxFuture} which will hold the {@link ChunkedSource}
+     * of the full message (headers + body) or <code>null</code> if no message
+     * can be found for the given <code>uid</code>
+     * 
+     * @see Mailbox#getMessage(long)
+     * @param uid
+     * @return future
+     */
+    MailboxFuture<ChunkedSource> getMessageAsync(long uid);
+
+    /**
+     * Return a {@link MailboxFuture} which will hold the immutable {@link List}
+     * of {@link MessageMetaData} for all messages in the {@link Mailbox}
+     * 
+     * @see Mailbox#getMessages()
+     * @return future
+     */
+    MailboxFuture<List<MessageMetaData>> getMessagesAsync();
+
+    /**
+     * Remove the messages with the given uids. The returned
+     * {@link MailboxFuture} is done once the messages were removed
+     * 
+     * @see Mailbox#remove(long...)
+     * @param uids
+     * @return future
+     */
+    MailboxFuture<Void> removeAsync(long... uids);
+}
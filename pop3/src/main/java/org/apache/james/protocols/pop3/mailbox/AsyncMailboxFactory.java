@@ -0,0 +1,42 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import org.apache.james.protocols.pop3.POP3Session;
+
+/**
+ * A {@link MailboxFactory} which allows to lookup the {@link Mailbox} without
+ * blocking the calling thread
+ */
+public interface AsyncMailboxFactory extends MailboxFactory {
+
+    /**
+     * Return a {@link MailboxFuture} which will hold the {@link Mailbox} for
+     * the {@link POP3Session} or <code>null</code> if the user does not exist
+     * or the password is not valid. If the returned {@link Mailbox} is an
+     * {@link AsyncMailbox} its asynchronous operations will be used
+     * 
+     * @see MailboxFactory#getMailbox(POP3Session, String)
+     * @param session
+     * @param password
+     * @return future
+     */
+    MailboxFuture<Mailbox> getMailboxAsync(POP3Session session, String password);
+}
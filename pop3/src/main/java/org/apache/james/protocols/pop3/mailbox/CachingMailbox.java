@@ -0,0 +1,201 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.james.protocols.pop3.core.CRLFTerminatedInputStream;
+import org.apache.james.protocols.pop3.core.ExtraDotInputStream;
+
+/**
+ * {@link Mailbox} which wraps another {@link Mailbox} and caches the
+ * transfer-encoded messages in a {@link MessageCache}. Removed messages get
+ * invalidated in the {@link MessageCache}.
+ * 
+ * If the wrapped {@link Mailbox} is an {@link IndexedMailbox} its index and range reads
+ * are exposed, otherwise {@link #getMessageIndex(long)} will just return <code>null</code>
+ * 
+ * {@link AsyncMailbox}'s and {@link FileRegionMailbox}'s should not get wrapped, as the
+ * messages would then be read blocking and through the heap. To combine the cache with an
+ * {@link ExecutorMailboxFactory} let the {@link ExecutorMailboxFactory} wrap the
+ * {@link CachingMailboxFactory}, the cache is then accessed via an {@link AsyncCachingMailbox}.
+ */
+public class CachingMailbox implements IndexedMailbox {
+
+    private final Mailbox mailbox;
+    private final MessageCache cache;
+    private String identifier;
+
+    public CachingMailbox(Mailbox mailbox, MessageCache cache) {
+        this.mailbox = mailbox;
+        this.cache = cache;
+    }
+
+    /**
+     * Return the {@link TransferEncodedMessage} for the given <code>uid</code>.
+     * If it is not cached yet it will get encoded and added to the
+     * {@link MessageCache}.
+     * 
+     * This returns <code>null</code> if no message can be found for the given
+     * <code>uid</code> or if the message is too big to get cached.
+     * 
+     * @param uid
+     * @return message
+     * @throws IOException
+     */
+    public TransferEncodedMessage getTransferEncodedMessage(long uid) throws IOException {
+        long size = -1;
+        List<MessageMetaData> messages = mailbox.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            MessageMetaData data = messages.get(i);
+            if (data.getUid() == uid) {
+                size = data.getSize();
+                break;
+            }
+        }
+        return getTransferEncodedMessage(uid, size);
+    }
+
+    /**
+     * Return the {@link TransferEncodedMessage} for the given <code>uid</code> like
+     * {@link #getTransferEncodedMessage(long)}, but use the given size of the message instead
+     * of looking it up. If the message is bigger then {@link MessageCache#getMaxMessageSize()} it
+     * is not read at all.
+     * 
+     * @param uid
+     * @param size
+     *            the size as returned by {@link MessageMetaData#getSize()} or <code>-1</code> if
+     *            it is unknown
+     * @return message
+     * @throws IOException
+     */
+    public TransferEncodedMessage getTransferEncodedMessage(long uid, long size) throws IOException {
+        String id = getIdentifier();
+        TransferEncodedMessage message = cache.get(id, uid);
+        if (message == null && size <= cache.getMaxMessageSize()) {
+            InputStream in = mailbox.getMessage(uid);
+            if (in != null) {
+                message = cache.load(id, uid, size, new CRLFTerminatedInputStream(new ExtraDotInputStream(in)));
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Return the {@link TransferEncodedMessage} for the given <code>uid</code> if it is cached already or <code>null</code> 
+     * otherwise 
+     * 
+     * @param uid
+     * @return message
+     * @throws IOException
+     */
+    public TransferEncodedMessage getCachedTransferEncodedMessage(long uid) throws IOException {
+        return cache.get(getIdentifier(), uid);
+    }
+
+    /**
+     * Return the {@link MessageIndex} of the wrapped {@link Mailbox} if it is an {@link IndexedMailbox}, 
+     * <code>null</code> otherwise
+     */
+    public MessageIndex getMessageIndex(long uid) throws IOException {
+        if (mailbox instanceof IndexedMailbox) {
+            return ((IndexedMailbox) mailbox).getMessageIndex(uid);
+        }
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.IndexedMailbox#getMessage(long, long, long)
+     */
+    public InputStream getMessage(long uid, long offset, long length) throws IOException {
+        if (mailbox instanceof IndexedMailbox) {
+            return ((IndexedMailbox) mailbox).getMessage(uid, offset, length);
+        }
+        throw new IOException("Wrapped mailbox does not support range reads");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#getMessageBody(long)
+     */
+    public InputStream getMessageBody(long uid) throws IOException {
+        return mailbox.getMessageBody(uid);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#getMessageHeaders(long)
+     */
+    public InputStream getMessageHeaders(long uid) throws IOException {
+        return mailbox.getMessageHeaders(uid);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#getMessage(long)
+     */
+    public InputStream getMessage(long uid) throws IOException {
+        return mailbox.getMessage(uid);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#getMessages()
+     */
+    public List<MessageMetaData> getMessages() throws IOException {
+        return mailbox.getMessages();
+    }
+
+    /**
+     * Remove the messages from the wrapped {@link Mailbox} and invalidate them in the {@link MessageCache}
+     */
+    public void remove(long... uids) throws IOException {
+        String id = getIdentifier();
+        try {
+            mailbox.remove(uids);
+        } finally {
+            for (int i = 0; i < uids.length; i++) {
+                cache.invalidate(id, uids[i]);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#getIdentifier()
+     */
+    public synchronized String getIdentifier() throws IOException {
+        if (identifier == null) {
+            identifier = mailbox.getIdentifier();
+        }
+        return identifier;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.Mailbox#close()
+     */
+    public void close() throws IOException {
+        mailbox.close();
+    }
+
+}
@@ -0,0 +1,66 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+
+import org.apache.james.protocols.pop3.POP3Session;
+
+/**
+ * {@link MailboxFactory} which wraps the {@link Mailbox}'s returned by another
+ * {@link MailboxFactory} in a {@link CachingMailbox}, so the transfer-encoded
+ * messages get cached in the given {@link MessageCache}.
+ * 
+ * {@link FileRegionMailbox}'s are returned as they are, as they don't need to get
+ * encoded at all. {@link AsyncMailbox}'s are returned as they are too, as the
+ * {@link CachingMailbox} would read their messages blocking. To cache the messages
+ * of an {@link ExecutorMailboxFactory} wrap this {@link CachingMailboxFactory} in the
+ * {@link ExecutorMailboxFactory} and not the other way round.
+ */
+public class CachingMailboxFactory implements MailboxFactory {
+
+    private final MailboxFactory factory;
+    private final MessageCache cache;
+
+    public CachingMailboxFactory(MailboxFactory factory, MessageCache cache) {
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.MailboxFactory#getMailbox(org.apache.james.protocols.pop3.POP3Session, java.lang.String)
+     */
+    public Mailbox getMailbox(POP3Session session, String password) throws IOException {
+        Mailbox mailbox = factory.getMailbox(session, password);
+        if (mailbox == null || mailbox instanceof FileRegionMailbox || mailbox instanceof AsyncMailbox) {
+            return mailbox;
+        }
+        return new CachingMailbox(mailbox, cache);
+    }
+
+    /**
+     * Return the {@link MessageCache} which is used
+     * 
+     * @return cache
+     */
+    public MessageCache getMessageCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,210 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.james.protocols.api.ChunkedSource;
+import org.apache.james.protocols.api.InputStreamChunkedSource;
+import org.apache.james.protocols.pop3.POP3Session;
+
+/**
+ * {@link AsyncMailboxFactory} which wraps a blocking {@link MailboxFactory} and
+ * executes all blocking operations via the given {@link Executor}. The returned
+ * {@link Mailbox}'s are {@link AsyncMailbox}'s which also use the
+ * {@link Executor} and read the messages via an
+ * {@link InputStreamChunkedSource}.
+ * 
+ * This allows to move the blocking calls to a remote storage out of the I/O
+ * threads. If the wrapped {@link MailboxFactory} returns {@link CachingMailbox}'s
+ * the returned {@link Mailbox}'s are {@link AsyncCachingMailbox}'s, so the
+ * {@link MessageCache} is still used.
+ */
+public class ExecutorMailboxFactory implements AsyncMailboxFactory {
+
+    private final MailboxFactory factory;
+    private final Executor executor;
+
+    public ExecutorMailboxFactory(MailboxFactory factory, Executor executor) {
+        this.factory = factory;
+        this.executor = executor;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.MailboxFactory#getMailbox(org.apache.james.protocols.pop3.POP3Session, java.lang.String)
+     */
+    public Mailbox getMailbox(POP3Session session, String password) throws IOException {
+        Mailbox mailbox = factory.getMailbox(session, password);
+        if (mailbox == null) {
+            return null;
+        }
+        if (mailbox instanceof CachingMailbox) {
+            return new ExecutorCachingMailbox((CachingMailbox) mailbox);
+        }
+        return new ExecutorMailbox(mailbox);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.AsyncMailboxFactory#getMailboxAsync(org.apache.james.protocols.pop3.POP3Session, java.lang.String)
+     */
+    public MailboxFuture<Mailbox> getMailboxAsync(final POP3Session session, final String password) {
+        return execute(new Callable<Mailbox>() {
+
+            public Mailbox call() throws Exception {
+                return getMailbox(session, password);
+            }
+        });
+    }
+
+    /**
+     * Execute the given {@link Callable} via the {@link Executor} and return a {@link MailboxFuture} for its result
+     */
+    private <T> MailboxFuture<T> execute(final Callable<T> task) {
+        final MailboxFutureImpl<T> future = new MailboxFutureImpl<T>();
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        future.setResult(task.call());
+                    } catch (IOException e) {
+                        future.setException(e);
+                    } catch (Exception e) {
+                        future.setException(toIOException(e));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.setException(toIOException(e));
+        }
+        return future;
+    }
+
+    private static IOException toIOException(Exception e) {
+        IOException ioe = new IOException(e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+
+    /**
+     * {@link AsyncMailbox} which delegates to a blocking {@link Mailbox}
+     */
+    private class ExecutorMailbox implements AsyncMailbox {
+
+        private final Mailbox mailbox;
+
+        public ExecutorMailbox(Mailbox mailbox) {
+            this.mailbox = mailbox;
+        }
+
+        public MailboxFuture<ChunkedSource> getMessageAsync(final long uid) {
+            return execute(new Callable<ChunkedSource>() {
+
+                public ChunkedSource call() throws Exception {
+                    InputStream in = mailbox.getMessage(uid);
+                    if (in == null) {
+                        return null;
+                    }
+                    return new InputStreamChunkedSource(in, executor);
+                }
+            });
+        }
+
+        public MailboxFuture<List<MessageMetaData>> getMessagesAsync() {
+            return execute(new Callable<List<MessageMetaData>>() {
+
+                public List<MessageMetaData> call() throws Exception {
+                    return mailbox.getMessages();
+                }
+            });
+        }
+
+        public MailboxFuture<Void> removeAsync(final long... uids) {
+            return execute(new Callable<Void>() {
+
+                public Void call() throws Exception {
+                    mailbox.remove(uids);
+                    return null;
+                }
+            });
+        }
+
+        public InputStream getMessageBody(long uid) throws IOException {
+            return mailbox.getMessageBody(uid);
+        }
+
+        public InputStream getMessageHeaders(long uid) throws IOException {
+            return mailbox.getMessageHeaders(uid);
+        }
+
+        public InputStream getMessage(long uid) throws IOException {
+            return mailbox.getMessage(uid);
+        }
+
+        public List<MessageMetaData> getMessages() throws IOException {
+            return mailbox.getMessages();
+        }
+
+        public void remove(long... uids) throws IOException {
+            mailbox.remove(uids);
+        }
+
+        public String getIdentifier() throws IOException {
+            return mailbox.getIdentifier();
+        }
+
+        public void close() throws IOException {
+            mailbox.close();
+        }
+    }
+
+    /**
+     * {@link AsyncCachingMailbox} which delegates to a blocking {@link CachingMailbox}
+     */
+    private final class ExecutorCachingMailbox extends ExecutorMailbox implements AsyncCachingMailbox {
+
+        private final CachingMailbox mailbox;
+
+        public ExecutorCachingMailbox(CachingMailbox mailbox) {
+            super(mailbox);
+            this.mailbox = mailbox;
+        }
+
+        public TransferEncodedMessage getCachedTransferEncodedMessage(long uid) throws IOException {
+            return mailbox.getCachedTransferEncodedMessage(uid);
+        }
+
+        public MailboxFuture<TransferEncodedMessage> getTransferEncodedMessageAsync(final long uid, final long size) {
+            return execute(new Callable<TransferEncodedMessage>() {
+
+                public TransferEncodedMessage call() throws Exception {
+                    return mailbox.getTransferEncodedMessage(uid, size);
+                }
+            });
+        }
+    }
+}
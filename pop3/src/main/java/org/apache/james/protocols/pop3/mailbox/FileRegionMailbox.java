@@ -0,0 +1,44 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+
+/**
+ * A {@link Mailbox} which stores its messages in files which are already
+ * transfer-encoded. This allows to write the message to the client without
+ * copying it through the heap if the transport supports it
+ * 
+ * 
+ */
+public interface FileRegionMailbox extends Mailbox {
+
+    /**
+     * Return the {@link MessageFileRegion} for the full message (headers +
+     * body) or <code>null</code> if the message can not be served as
+     * {@link MessageFileRegion}. In this case {@link #getMessage(long)} will
+     * be used
+     * 
+     * @param uid
+     * @return region
+     * @throws IOException
+     */
+    MessageFileRegion getMessageFileRegion(long uid) throws IOException;
+
+}
@@ -0,0 +1,59 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link Mailbox} which keeps a {@link MessageIndex} for its messages and
+ * allows to read only a range of the raw message. This allows to serve the TOP
+ * command without reading the whole message body
+ */
+public interface IndexedMailbox extends Mailbox {
+
+    /**
+     * Return the {@link MessageIndex} for the message with the given
+     * <code>uid</code> or <code>null</code> if no index is available. In this
+     * case {@link #getMessageHeaders(long)} and {@link #getMessageBody(long)}
+     * will be used
+     * 
+     * @param uid
+     * @return index
+     * @throws IOException
+     */
+    MessageIndex getMessageIndex(long uid) throws IOException;
+
+    /**
+     * Return the given range of the raw (not transfer-encoded) message or
+     * <code>null</code> if no message can be found for the given
+     * <code>uid</code>
+     * 
+     * @param uid
+     * @param offset
+     *            the offset in the message to start reading from
+     * @param length
+     *            the count of bytes to read
+     * @return range
+     * @throws IOException
+     */
+    InputStream getMessage(long uid, long offset, long length) throws IOException;
+
+}
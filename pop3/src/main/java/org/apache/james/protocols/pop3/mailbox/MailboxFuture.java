@@ -0,0 +1,75 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+
+/**
+ * The result of an asynchronous {@link AsyncMailbox} or
+ * {@link AsyncMailboxFactory} operation. It allows to register listeners
+ * which will get notified once the operation is done
+ * 
+ * @param <T>
+ *            the type of the result
+ */
+public interface MailboxFuture<T> {
+
+    /**
+     * Add a {@link MailboxFutureListener} which will get notified once
+     * {@link #isDone()} is true. If the operation is done already it will get
+     * notified directly
+     * 
+     * @param listener
+     */
+    void addListener(MailboxFutureListener<T> listener);
+
+    /**
+     * Return <code>true</code> once the operation is done and calling
+     * {@link #get()} will not block any more
+     * 
+     * @return done
+     */
+    boolean isDone();
+
+    /**
+     * Return the result of the operation. This will block until the operation
+     * is done
+     * 
+     * @return result
+     * @throws IOException
+     *             if the operation failed
+     */
+    T get() throws IOException;
+
+    /**
+     * Listener which will get notified once the {@link MailboxFuture} is done
+     * 
+     * @param <T>
+     */
+    public interface MailboxFutureListener<T> {
+
+        /**
+         * The operation is done
+         * 
+         * @param future
+         */
+        public void operationComplete(MailboxFuture<T> future);
+    }
+}
@@ -0,0 +1,120 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MailboxFuture} implementation which is completed via
+ * {@link #setResult(Object)} or {@link #setException(IOException)}
+ * 
+ * @param <T>
+ */
+public class MailboxFutureImpl<T> implements MailboxFuture<T> {
+
+    private T result;
+    private IOException exception;
+    private boolean done = false;
+    private List<MailboxFutureListener<T>> listeners;
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.MailboxFuture#addListener(org.apache.james.protocols.pop3.mailbox.MailboxFuture.MailboxFutureListener)
+     */
+    public void addListener(MailboxFutureListener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<MailboxFutureListener<T>>();
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.operationComplete(this);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.MailboxFuture#isDone()
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.pop3.mailbox.MailboxFuture#get()
+     */
+    public synchronized T get() throws IOException {
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the result");
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return result;
+    }
+
+    /**
+     * Complete the {@link MailboxFuture} with the given result
+     * 
+     * @param result
+     */
+    public void setResult(T result) {
+        complete(result, null);
+    }
+
+    /**
+     * Complete the {@link MailboxFuture} with the given {@link IOException}
+     * 
+     * @param exception
+     */
+    public void setException(IOException exception) {
+        complete(null, exception);
+    }
+
+    private void complete(T result, IOException exception) {
+        List<MailboxFutureListener<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.result = result;
+            this.exception = exception;
+            this.done = true;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        if (toNotify != null) {
+            for (MailboxFutureListener<T> listener : toNotify) {
+                listener.operationComplete(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache which holds {@link TransferEncodedMessage}'s. The
+ * messages are keyed by the identifier of the {@link Mailbox} and the uid of
+ * the message. 
+ * 
+ * By default the content is stored off-heap via direct {@link ByteBuffer}'s,
+ * sub-classes may override {@link #allocate(int)} to change this.
+ * 
+ * This class is thread-safe and so should be shared across sessions.
+ */
+public class MessageCache {
+
+    /**
+     * Default size of the cache in bytes (64 MB)
+     */
+    public final static long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default maximal size of a message which will get cached in bytes (1 MB)
+     */
+    public final static int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private final long maxSize;
+    private final int maxMessageSize;
+    private final LinkedHashMap<Key, TransferEncodedMessage> messages = new LinkedHashMap<Key, TransferEncodedMessage>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public MessageCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Create a new {@link MessageCache}
+     * 
+     * @param maxSize
+     *            the maximal size of all cached messages in bytes
+     * @param maxMessageSize
+     *            the maximal size of a message which will get cached in bytes
+     */
+    public MessageCache(long maxSize, int maxMessageSize) {
+        if (maxSize < 1 || maxMessageSize < 1) {
+            throw new IllegalArgumentException("Sizes must be > 0");
+        }
+        this.maxSize = maxSize;
+        this.maxMessageSize = (int) Math.min(maxSize, maxMessageSize);
+    }
+
+    /**
+     * Return the cached {@link TransferEncodedMessage} or <code>null</code> if
+     * it is not cached
+     * 
+     * @param mailbox
+     *            the identifier of the {@link Mailbox}
+     * @param uid
+     * @return message
+     */
+    public synchronized TransferEncodedMessage get(String mailbox, long uid) {
+        TransferEncodedMessage message = messages.get(new Key(mailbox, uid));
+        if (message == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return message;
+    }
+
+    /**
+     * Add the {@link TransferEncodedMessage} to the cache. If its bigger then
+     * {@link #getMaxMessageSize()} it will not get cached. Least recently
+     * used messages get evicted until the cache fits into
+     * {@link #getMaxSize()}
+     * 
+     * @param mailbox
+     *            the identifier of the {@link Mailbox}
+     * @param uid
+     * @param message
+     */
+    public synchronized void put(String mailbox, long uid, TransferEncodedMessage message) {
+        if (message.getSize() > maxMessageSize) {
+            return;
+        }
+        TransferEncodedMessage old = messages.put(new Key(mailbox, uid), message);
+        if (old != null) {
+            size -= old.getSize();
+        }
+        size += message.getSize();
+
+        Iterator<Map.Entry<Key, TransferEncodedMessage>> it = messages.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            TransferEncodedMessage eldest = it.next().getValue();
+            it.remove();
+            size -= eldest.getSize();
+            evictions++;
+        }
+    }
+
+    /**
+     * Read the given transfer-encoded {@link InputStream} into a buffer which is allocated via {@link #allocate(int)} and add 
+     * it to the cache. The {@link InputStream} will get closed. 
+     * 
+     * Returns <code>null</code> if the message is bigger then {@link #getMaxMessageSize()}. In this case nothing is added to 
+     * the cache.
+     * 
+     * @param mailbox
+     *            the identifier of the {@link Mailbox}
+     * @param uid
+     * @param in
+     *            the transfer-encoded message
+     * @return message
+     * @throws IOException
+     */
+    public TransferEncodedMessage load(String mailbox, long uid, InputStream in) throws IOException {
+        return load(mailbox, uid, -1, in);
+    }
+
+    /**
+     * Read the given transfer-encoded {@link InputStream} like {@link #load(String, long, InputStream)}, but use the
+     * known size of the message to skip the read if the message can not get cached anyway. The size is the one of
+     * the raw message as returned by {@link MessageMetaData#getSize()}, the transfer-encoded message is never smaller.
+     * 
+     * Returns <code>null</code> if the message is bigger then {@link #getMaxMessageSize()}. In this case the
+     * {@link InputStream} is closed without reading it and nothing is added to the cache.
+     * 
+     * @param mailbox
+     *            the identifier of the {@link Mailbox}
+     * @param uid
+     * @param size
+     *            the size of the raw message or <code>-1</code> if it is unknown
+     * @param in
+     *            the transfer-encoded message
+     * @return message
+     * @throws IOException
+     */
+    public TransferEncodedMessage load(String mailbox, long uid, long size, InputStream in) throws IOException {
+        if (size > maxMessageSize) {
+            in.close();
+            return null;
+        }
+        byte[] data = new byte[size < 0 ? Math.min(maxMessageSize + 1, 8192) : (int) size + 1];
+        int len = 0;
+        try {
+            int r;
+            while ((r = in.read(data, len, data.length - len)) != -1) {
+                len += r;
+                if (len > maxMessageSize) {
+                    return null;
+                }
+                if (len == data.length) {
+                    byte[] newData = new byte[Math.min(maxMessageSize + 1, data.length * 2)];
+                    System.arraycopy(data, 0, newData, 0, len);
+                    data = newData;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        ByteBuffer buf = allocate(len);
+        buf.put(data, 0, len);
+        buf.flip();
+        TransferEncodedMessage message = new TransferEncodedMessage(buf, TransferEncodedMessage.findBodyOffset(buf));
+        put(mailbox, uid, message);
+        return message;
+    }
+
+    /**
+     * Remove the message from the cache
+     * 
+     * @param mailbox
+     *            the identifier of the {@link Mailbox}
+     * @param uid
+     */
+    public synchronized void invalidate(String mailbox, long uid) {
+        TransferEncodedMessage old = messages.remove(new Key(mailbox, uid));
+        if (old != null) {
+            size -= old.getSize();
+            invalidations++;
+        }
+    }
+
+    /**
+     * Remove all messages from the cache
+     */
+    public synchronized void clear() {
+        messages.clear();
+        size = 0;
+    }
+
+    /**
+     * Allocate the {@link ByteBuffer} which will hold a message with the given
+     * size. This implementation allocates a direct {@link ByteBuffer}
+     * 
+     * @param size
+     * @return buffer
+     */
+    protected ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Return the maximal size of all cached messages in bytes
+     * 
+     * @return maxSize
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Return the maximal size of a message which will get cached in bytes
+     * 
+     * @return maxMessageSize
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Return the size of all cached messages in bytes
+     * 
+     * @return size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Return the count of cached messages
+     * 
+     * @return count
+     */
+    public synchronized int getCount() {
+        return messages.size();
+    }
+
+    /**
+     * Return the count of lookups which were served by the cache
+     * 
+     * @return hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Return the count of lookups which were not served by the cache
+     * 
+     * @return misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Return the count of messages which were evicted because the cache was
+     * full
+     * 
+     * @return evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Return the count of messages which were removed from the cache because
+     * they were removed from the {@link Mailbox}
+     * 
+     * @return invalidations
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    private final static class Key {
+        private final String mailbox;
+        private final long uid;
+
+        public Key(String mailbox, long uid) {
+            this.mailbox = mailbox;
+            this.uid = uid;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mailbox.hashCode() + (int) (uid ^ (uid >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return uid == other.uid && mailbox.equals(other.mailbox);
+            }
+            return false;
+        }
+    }
+}
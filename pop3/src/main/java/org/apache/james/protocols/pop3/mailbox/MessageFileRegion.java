@@ -0,0 +1,67 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Region of a {@link FileChannel} which holds a message. The content of the region MUST be
+ * already transfer-encoded as required by RFC1939, which means every line is terminated by CRLF
+ * and lines which start with a dot are dot-stuffed. 
+ */
+public final class MessageFileRegion {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+
+    public MessageFileRegion(FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Return the {@link FileChannel} which holds the message. It will get closed
+     * once the message was written
+     * 
+     * @return channel
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Return the position of the message in the {@link FileChannel}
+     * 
+     * @return position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Return the count of bytes of the message
+     * 
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+}
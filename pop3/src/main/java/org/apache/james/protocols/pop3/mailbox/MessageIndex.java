@@ -0,0 +1,153 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Index of a raw message which holds the length of the headers and the offsets
+ * of the body lines. All offsets are relative to the start of the message
+ */
+public final class MessageIndex {
+
+    private final long size;
+    private final long headerLength;
+    private final long[] lineEnds;
+
+    /**
+     * 
+     * @param size
+     *            the size of the message
+     * @param headerLength
+     *            the length of the headers including the empty line which
+     *            separates them from the body
+     * @param lineEnds
+     *            the offsets directly after each body line
+     */
+    public MessageIndex(long size, long headerLength, long[] lineEnds) {
+        this.size = size;
+        this.headerLength = headerLength;
+        this.lineEnds = lineEnds;
+    }
+
+    /**
+     * Return the size of the message
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Return the length of the headers including the empty line which
+     * separates them from the body
+     */
+    public long getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * Return the count of body lines
+     */
+    public int getBodyLineCount() {
+        return lineEnds.length;
+    }
+
+    /**
+     * Return the count of bytes which need to get read to return the headers,
+     * the empty line and the given count of body lines. If <code>lines</code>
+     * is negative the size of the whole message is returned
+     * 
+     * @param lines
+     * @return length
+     */
+    public long getTopLength(int lines) {
+        if (lines < 0 || lines >= lineEnds.length) {
+            return size;
+        } else if (lines == 0) {
+            return headerLength;
+        }
+        return lineEnds[lines - 1];
+    }
+
+    /**
+     * Build the {@link MessageIndex} by reading the given raw message. Lines
+     * are terminated by LF, an optional CR before it is part of the line.
+     * The {@link InputStream} will get closed.
+     * 
+     * @param in
+     * @return index
+     * @throws IOException
+     */
+    public static MessageIndex parse(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        long[] lineEnds = new long[64];
+        int lineCount = 0;
+        long headerLength = -1;
+        long offset = 0;
+        long lineStart = 0;
+        int last = -1;
+        try {
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                for (int i = 0; i < r; i++) {
+                    int b = buf[i];
+                    offset++;
+                    if (b != '\n') {
+                        last = b;
+                        continue;
+                    }
+                    if (headerLength == -1) {
+                        long lineLength = offset - lineStart;
+                        if (lineLength == 1 || (lineLength == 2 && last == '\r')) {
+                            headerLength = offset;
+                        }
+                    } else {
+                        if (lineCount == lineEnds.length) {
+                            long[] newLineEnds = new long[lineEnds.length * 2];
+                            System.arraycopy(lineEnds, 0, newLineEnds, 0, lineCount);
+                            lineEnds = newLineEnds;
+                        }
+                        lineEnds[lineCount++] = offset;
+                    }
+                    lineStart = offset;
+                    last = b;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (headerLength == -1) {
+            // no body at all
+            headerLength = offset;
+        } else if (lineStart < offset) {
+            // last line which is not terminated
+            if (lineCount == lineEnds.length) {
+                long[] newLineEnds = new long[lineCount + 1];
+                System.arraycopy(lineEnds, 0, newLineEnds, 0, lineCount);
+                lineEnds = newLineEnds;
+            }
+            lineEnds[lineCount++] = offset;
+        }
+        long[] ends = new long[lineCount];
+        System.arraycopy(lineEnds, 0, ends, 0, lineCount);
+        return new MessageIndex(offset, headerLength, ends);
+    }
+}
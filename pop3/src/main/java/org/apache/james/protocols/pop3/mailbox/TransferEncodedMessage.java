@@ -0,0 +1,175 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A message which is already transfer-encoded as required by RFC1939. This
+ * means every line is terminated by CRLF and lines which start with a dot are
+ * dot-stuffed.
+ * 
+ * The content is immutable and so can be shared between sessions.
+ */
+public final class TransferEncodedMessage {
+
+    private final ByteBuffer content;
+    private final int bodyOffset;
+
+    /**
+     * Create a new {@link TransferEncodedMessage}
+     * 
+     * @param content
+     *            the transfer-encoded message. The {@link ByteBuffer} MUST NOT
+     *            get modified after it was passed in
+     * @param bodyOffset
+     *            the offset of the empty line which separates the headers
+     *            from the body
+     */
+    public TransferEncodedMessage(ByteBuffer content, int bodyOffset) {
+        this.content = content.slice().asReadOnlyBuffer();
+        this.bodyOffset = bodyOffset;
+    }
+
+    /**
+     * Return the size of the transfer-encoded message in bytes
+     * 
+     * @return size
+     */
+    public int getSize() {
+        return content.remaining();
+    }
+
+    /**
+     * Return the offset of the empty line which separates the headers from the
+     * body
+     * 
+     * @return bodyOffset
+     */
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /**
+     * Return an {@link InputStream} which reads the whole message
+     * 
+     * @return in
+     */
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    /**
+     * Return an {@link InputStream} which reads the headers, the empty line
+     * which separates them from the body and the given count of body lines.
+     * This is what is needed to answer a TOP command.
+     * 
+     * @param lines
+     *            the count of body lines or a negative value for all lines
+     * @return in
+     */
+    public InputStream getTopInputStream(int lines) {
+        ByteBuffer buf = content.duplicate();
+        if (lines >= 0) {
+            buf.limit(findLineEnd(buf, bodyOffset, lines + 1));
+        }
+        return new ByteBufferInputStream(buf);
+    }
+
+    /**
+     * Return the position after the given count of lines which start at the
+     * given offset or the end of the buffer if there are not enough lines
+     */
+    private static int findLineEnd(ByteBuffer buf, int offset, int lines) {
+        int end = buf.limit();
+        int pos = offset;
+        int found = 0;
+        while (found < lines && pos < end) {
+            if (buf.get(pos++) == '\n' && pos > 1 && buf.get(pos - 2) == '\r') {
+                found++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Return the offset of the empty line which separates the headers from the
+     * body in the given transfer-encoded content or the size of the content if
+     * there is no body
+     * 
+     * @param content
+     * @return bodyOffset
+     */
+    public static int findBodyOffset(ByteBuffer content) {
+        int start = content.position();
+        int end = content.limit();
+        for (int i = start; i + 3 < end; i++) {
+            if (content.get(i) == '\r' && content.get(i + 1) == '\n' && content.get(i + 2) == '\r' && content.get(i + 3) == '\n') {
+                return i + 2 - start;
+            }
+        }
+        return end - start;
+    }
+
+    /**
+     * {@link InputStream} which reads from a {@link ByteBuffer}
+     */
+    private final static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        public ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (buf.hasRemaining() == false) {
+                return -1;
+            }
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int r = Math.min(len, buf.remaining());
+            if (r == 0) {
+                return -1;
+            }
+            buf.get(b, off, r);
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int s = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + s);
+            return s;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buf.remaining();
+        }
+    }
+}
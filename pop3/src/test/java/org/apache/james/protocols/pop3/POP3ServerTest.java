@@ -0,0 +1,524 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.apache.james.protocols.api.Encryption;
+import org.apache.james.protocols.api.Protocol;
+import org.apache.james.protocols.api.handler.CommandDispatcher;
+import org.apache.james.protocols.api.handler.ProtocolHandlerChainImpl;
+import org.apache.james.protocols.netty.NettyServer;
+import org.apache.james.protocols.pop3.core.CapaCmdHandler;
+import org.apache.james.protocols.pop3.core.DeleCmdHandler;
+import org.apache.james.protocols.pop3.core.ListCmdHandler;
+import org.apache.james.protocols.pop3.core.NoopCmdHandler;
+import org.apache.james.protocols.pop3.core.PassCmdHandler;
+import org.apache.james.protocols.pop3.core.QuitCmdHandler;
+import org.apache.james.protocols.pop3.core.RetrCmdHandler;
+import org.apache.james.protocols.pop3.core.RsetCmdHandler;
+import org.apache.james.protocols.pop3.core.StatCmdHandler;
+import org.apache.james.protocols.pop3.core.TopCmdHandler;
+import org.apache.james.protocols.pop3.core.UidlCmdHandler;
+import org.apache.james.protocols.pop3.core.UnknownCmdHandler;
+import org.apache.james.protocols.pop3.core.UserCmdHandler;
+import org.apache.james.protocols.pop3.core.WelcomeMessageHandler;
+import org.apache.james.protocols.pop3.mailbox.AbstractMailbox;
+import org.apache.james.protocols.pop3.mailbox.ExecutorMailboxFactory;
+import org.apache.james.protocols.pop3.mailbox.FileRegionMailbox;
+import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MailboxFactory;
+import org.apache.james.protocols.pop3.mailbox.MessageCache;
+import org.apache.james.protocols.pop3.mailbox.MessageFileRegion;
+import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
+
+public class POP3ServerTest extends TestCase {
+
+    private final static String[] MESSAGES = new String[] {"Subject: first\r\n\r\nBody of the first message\r\n", "Subject: second\r\n\r\nBody of the second message\r\n"};
+
+    /**
+     * Time the {@link Mailbox} needs to open or to list its messages, to give pipelined commands a chance to overtake it
+     */
+    private final static long DELAY = 200;
+
+    private ExecutorService executor;
+    private MockMailbox mailbox;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        mailbox = new MockMailbox();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testPipelinedPassAndStat() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", getFreePort());
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(null));
+            server.setListenAddresses(address);
+            server.bind();
+
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("USER user\r\nPASS pass\r\nSTAT\r\n".getBytes("US-ASCII"));
+                out.flush();
+
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertEquals("+OK " + MESSAGES.length + " " + (MESSAGES[0].length() + MESSAGES[1].length()), in.readLine());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    public void testPipelinedRsetAndRetr() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", getFreePort());
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(null));
+            server.setListenAddresses(address);
+            server.bind();
+
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("USER user\r\nPASS pass\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("DELE 1\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("RSET\r\nRETR 1\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                String reply = in.readLine();
+                assertTrue("Reply=" + reply, reply.startsWith("+OK"));
+                assertEquals("Subject: first", in.readLine());
+                assertEquals("", in.readLine());
+                assertEquals("Body of the first message", in.readLine());
+                assertEquals(".", in.readLine());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    public void testTopHeaderCacheInvalidatedOnRset() throws Exception {
+        MessageCache headerCache = new MessageCache();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", getFreePort());
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(headerCache));
+            server.setListenAddresses(address);
+            server.bind();
+
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("USER user\r\nPASS pass\r\nTOP 1 0\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertEquals("Subject: first", in.readLine());
+                assertEquals("", in.readLine());
+                assertEquals(".", in.readLine());
+                assertEquals(1, headerCache.getCount());
+
+                mailbox.messages[0] = "Subject: changed\r\n\r\nBody of the changed message\r\n";
+
+                out.write("RSET\r\nTOP 1 0\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertEquals("Subject: changed", in.readLine());
+                assertEquals("", in.readLine());
+                assertEquals(".", in.readLine());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    public void testTopHeaderCacheInvalidatedOnQuit() throws Exception {
+        MessageCache headerCache = new MessageCache();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", getFreePort());
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(headerCache));
+            server.setListenAddresses(address);
+            server.bind();
+
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                assertTrue(in.readLine().startsWith("+OK"));
+
+                out.write("USER user\r\nPASS pass\r\nTOP 1 0\r\nTOP 2 0\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                for (int i = 0; i < 2; i++) {
+                    assertTrue(in.readLine().startsWith("+OK"));
+                    in.readLine();
+                    assertEquals("", in.readLine());
+                    assertEquals(".", in.readLine());
+                }
+                assertEquals(2, headerCache.getCount());
+
+                out.write("DELE 1\r\nQUIT\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertTrue(in.readLine().startsWith("+OK"));
+                assertNull(in.readLine());
+            } finally {
+                socket.close();
+            }
+
+            // the disconnect is handled asynchronously
+            for (int i = 0; i < 50 && headerCache.getCount() != 1; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, headerCache.getCount());
+            assertNull(headerCache.get("mock", 1));
+            assertNotNull(headerCache.get("mock", 2));
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    public void testRetrFileRegion() throws Exception {
+        checkRetrFileRegion(null);
+    }
+
+    public void testRetrFileRegionTls() throws Exception {
+        // the region needs to get encrypted, so it is written via a ChunkedNioFile
+        checkRetrFileRegion(Encryption.createTls(createServerSSLContext()));
+    }
+
+    /**
+     * Retrieve the messages of a {@link FileRegionMailbox} and check that the transfer-encoded content of the file is written 
+     * as it is, followed by the terminating line
+     */
+    private void checkRetrFileRegion(Encryption encryption) throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("..line ").append(i).append(" starts with a dot\r\n");
+            body.append("line ").append(i).append("\r\n");
+        }
+        String[] messages = new String[] {"Subject: first\r\n\r\n..\r\nBody of the first message\r\n", "Subject: second\r\n\r\n" + body};
+        
+        File file = File.createTempFile("pop3", ".mbox");
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", getFreePort());
+        NettyServer server = null;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(file);
+            try {
+                for (int i = 0; i < messages.length; i++) {
+                    fileOut.write(messages[i].getBytes("US-ASCII"));
+                }
+            } finally {
+                fileOut.close();
+            }
+
+            server = new NettyServer(createProtocol(new MockMailboxFactory(new MockFileRegionMailbox(file, messages)), null), encryption);
+            server.setListenAddresses(address);
+            server.bind();
+
+            Socket socket;
+            if (encryption == null) {
+                socket = new Socket(address.getAddress(), address.getPort());
+            } else {
+                socket = createClientSSLContext().getSocketFactory().createSocket(address.getAddress(), address.getPort());
+            }
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                assertTrue(readLine(in).startsWith("+OK"));
+
+                out.write("USER user\r\nPASS pass\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(readLine(in).startsWith("+OK"));
+                assertTrue(readLine(in).startsWith("+OK"));
+
+                for (int i = messages.length; i > 0; i--) {
+                    out.write(("RETR " + i + "\r\n").getBytes("US-ASCII"));
+                    out.flush();
+                    assertEquals("+OK Message follows", readLine(in));
+
+                    byte[] expected = (messages[i - 1] + ".\r\n").getBytes("US-ASCII");
+                    byte[] content = new byte[expected.length];
+                    in.readFully(content);
+                    assertEquals(new String(expected, "US-ASCII"), new String(content, "US-ASCII"));
+                }
+
+                // nothing was written after the terminating line
+                out.write("QUIT\r\n".getBytes("US-ASCII"));
+                out.flush();
+                assertTrue(readLine(in).startsWith("+OK"));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            file.delete();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed");
+            }
+            line.write(b);
+        }
+        String result = new String(line.toByteArray(), "US-ASCII");
+        assertTrue("Line is not terminated by CRLF: " + result, result.endsWith("\r"));
+        return result.substring(0, result.length() - 1);
+    }
+
+    private SSLContext createServerSSLContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(getClass().getResourceAsStream("/test.keystore"), "secret".toCharArray());
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "secret".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private SSLContext createClientSSLContext() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] {new X509TrustManager() {
+
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // trust all
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // trust all
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+
+    private Protocol createProtocol(MessageCache headerCache) throws Exception {
+        return createProtocol(new ExecutorMailboxFactory(new MockMailboxFactory(mailbox), executor), headerCache);
+    }
+
+    private Protocol createProtocol(MailboxFactory mailboxFactory, MessageCache headerCache) throws Exception {
+        PassCmdHandler pass = new PassCmdHandler();
+        pass.setMailboxFactory(mailboxFactory);
+        TopCmdHandler top = new TopCmdHandler();
+        top.setHeaderCache(headerCache);
+
+        ProtocolHandlerChainImpl chain = new ProtocolHandlerChainImpl();
+        chain.addAll(Arrays.asList(new WelcomeMessageHandler(), new CommandDispatcher<POP3Session>(), new CapaCmdHandler(), new UserCmdHandler(), pass,
+                new ListCmdHandler(), new UidlCmdHandler(), new RsetCmdHandler(), new DeleCmdHandler(), new NoopCmdHandler(), new RetrCmdHandler(),
+                top, new StatCmdHandler(), new QuitCmdHandler(), new UnknownCmdHandler()));
+        chain.wireExtensibleHandlers();
+        return new POP3Protocol(chain, new POP3Configuration(), new MockLogger());
+    }
+
+    private static int getFreePort() {
+        for (int port = 20000; port <= 30000; port++) {
+            try {
+                ServerSocket socket = new ServerSocket(port);
+                socket.setReuseAddress(true);
+                socket.close();
+                return port;
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        throw new RuntimeException("Unable to find a free port....");
+    }
+
+    private static void pause() throws IOException {
+        try {
+            Thread.sleep(DELAY);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+        }
+    }
+
+    private final static class MockMailboxFactory implements MailboxFactory {
+        private final Mailbox mailbox;
+
+        public MockMailboxFactory(Mailbox mailbox) {
+            this.mailbox = mailbox;
+        }
+
+        public Mailbox getMailbox(POP3Session session, String password) throws IOException {
+            pause();
+            if ("pass".equals(password)) {
+                return mailbox;
+            }
+            return null;
+        }
+    }
+
+    private final static class MockMailbox extends AbstractMailbox {
+        private final String[] messages = MESSAGES.clone();
+
+        public InputStream getMessageBody(long uid) throws IOException {
+            String message = messages[(int) uid - 1];
+            return new ByteArrayInputStream(message.substring(message.indexOf("\r\n\r\n") + 2).getBytes("US-ASCII"));
+        }
+
+        public InputStream getMessageHeaders(long uid) throws IOException {
+            String message = messages[(int) uid - 1];
+            return new ByteArrayInputStream(message.substring(0, message.indexOf("\r\n\r\n") + 2).getBytes("US-ASCII"));
+        }
+
+        public List<MessageMetaData> getMessages() throws IOException {
+            pause();
+            List<MessageMetaData> metaData = new ArrayList<MessageMetaData>();
+            for (int i = 0; i < messages.length; i++) {
+                metaData.add(new MessageMetaData(i + 1, messages[i].length()));
+            }
+            return metaData;
+        }
+
+        public void remove(long... uids) throws IOException {
+            // not needed
+        }
+
+        public String getIdentifier() throws IOException {
+            return "mock";
+        }
+    }
+
+    /**
+     * {@link FileRegionMailbox} which holds the already transfer-encoded messages one after the other in a file
+     */
+    private final static class MockFileRegionMailbox extends AbstractMailbox implements FileRegionMailbox {
+        private final File file;
+        private final String[] messages;
+
+        public MockFileRegionMailbox(File file, String[] messages) {
+            this.file = file;
+            this.messages = messages;
+        }
+
+        public MessageFileRegion getMessageFileRegion(long uid) throws IOException {
+            long position = 0;
+            for (int i = 0; i < uid - 1; i++) {
+                position += messages[i].length();
+            }
+            // the channel is closed once the region was written
+            return new MessageFileRegion(new RandomAccessFile(file, "r").getChannel(), position, messages[(int) uid - 1].length());
+        }
+
+        public InputStream getMessageBody(long uid) throws IOException {
+            throw new IOException("Only the file region should be used");
+        }
+
+        public InputStream getMessageHeaders(long uid) throws IOException {
+            throw new IOException("Only the file region should be used");
+        }
+
+        public List<MessageMetaData> getMessages() throws IOException {
+            List<MessageMetaData> metaData = new ArrayList<MessageMetaData>();
+            for (int i = 0; i < messages.length; i++) {
+                metaData.add(new MessageMetaData(i + 1, messages[i].length()));
+            }
+            return metaData;
+        }
+
+        public void remove(long... uids) throws IOException {
+            // not needed
+        }
+
+        public String getIdentifier() throws IOException {
+            return "file";
+        }
+    }
+}
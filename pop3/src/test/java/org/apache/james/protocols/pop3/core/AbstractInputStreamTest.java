@@ -41,9 +41,13 @@ public abstract class AbstractInputStreamTest extends TestCase{
     }
     
     protected void checkReadViaArray(InputStream in, String expected) throws IOException {
+        checkReadViaArray(in, expected, 3);
+    }
+    
+    protected void checkReadViaArray(InputStream in, String expected, int bufferSize) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-        byte[] buf = new byte[3];
+        byte[] buf = new byte[bufferSize];
         int i = 0;
         while ((i = in.read(buf)) != -1) {
             out.write(buf, 0, i);
@@ -64,6 +64,31 @@ public class ExtraDotInputStreamTest extends AbstractInputStreamTest {
         checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.getBytes())), data);
     }
 
+    public void testExtraDotViaLargeArray() throws IOException {
+        String data = ".Start\r\nThis\r\n.\r\n..\r\nThis.\r\n.";
+        String expected = "..Start\r\nThis\r\n..\r\n...\r\nThis.\r\n..";
+
+        checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.getBytes())), expected, 1);
+        checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.getBytes())), expected, 8192);
+    }
+
+    public void testExtraDotOnBufferBoundary() throws IOException {
+        // make sure the CRLF and the dot are spread across the internal buffer
+        StringBuilder data = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 8190; i++) {
+            data.append('a');
+            expected.append('a');
+        }
+        data.append("\r\n.\r\n");
+        expected.append("\r\n..\r\n");
+        
+        checkRead(new ExtraDotInputStream(new ByteArrayInputStream(data.toString().getBytes())), expected.toString());
+        checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.toString().getBytes())), expected.toString());
+        checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.toString().getBytes())), expected.toString(), 8191);
+        checkReadViaArray(new ExtraDotInputStream(new ByteArrayInputStream(data.toString().getBytes())), expected.toString(), 8192);
+    }
+
     // Proof of BUG JAMES-1152
     public void testNoDotHeaderBody() throws IOException {
         String data = "Subject: test\r\n\r\nABCD\r\n";
@@ -0,0 +1,78 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.james.protocols.api.ChunkedSourceInputStream;
+import org.apache.james.protocols.api.InputStreamChunkedSource;
+
+public class TransferEncodingChunkedSourceTest extends AbstractInputStreamTest {
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private InputStream encode(String data, int chunkSize) {
+        InputStreamChunkedSource source = new InputStreamChunkedSource(new ByteArrayInputStream(data.getBytes()), executor, chunkSize);
+        return new ChunkedSourceInputStream(new TransferEncodingChunkedSource(source));
+    }
+
+    private String expected(String data) throws IOException {
+        InputStream in = new CRLFTerminatedInputStream(new ExtraDotInputStream(new ByteArrayInputStream(data.getBytes())));
+        StringBuilder sb = new StringBuilder();
+        int i;
+        while ((i = in.read()) != -1) {
+            sb.append((char) i);
+        }
+        return sb.toString();
+    }
+
+    private void check(String data) throws IOException {
+        for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+            checkReadViaArray(encode(data, chunkSize), expected(data));
+            checkRead(encode(data, chunkSize), expected(data));
+        }
+    }
+
+    public void testExtraDot() throws IOException {
+        check(".\r\n.test\r\nline.\r\n..\r\n");
+        check("test\r\n.");
+    }
+
+    public void testTerminate() throws IOException {
+        check("");
+        check("test");
+        check("test\r");
+        check("test\r\n");
+    }
+}
@@ -0,0 +1,137 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import org.apache.james.protocols.pop3.POP3Session;
+
+public class CachingMailboxTest extends TestCase {
+
+    private final static String MESSAGE = "Subject: test\r\n\r\nline1\r\n.line2\r\n";
+    private final static String ENCODED_MESSAGE = "Subject: test\r\n\r\nline1\r\n..line2\r\n";
+
+    private final static Executor DIRECT = new Executor() {
+
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public void testMessageIsCached() throws IOException {
+        CountingMailbox mailbox = new CountingMailbox();
+        MessageCache cache = new MessageCache();
+        CachingMailbox cachingMailbox = new CachingMailbox(mailbox, cache);
+
+        assertNull(cachingMailbox.getCachedTransferEncodedMessage(1));
+        assertEquals(ENCODED_MESSAGE, read(cachingMailbox.getTransferEncodedMessage(1).getInputStream()));
+        assertEquals(ENCODED_MESSAGE, read(cachingMailbox.getTransferEncodedMessage(1).getInputStream()));
+        assertNotNull(cachingMailbox.getCachedTransferEncodedMessage(1));
+        assertEquals(1, mailbox.reads);
+        assertEquals(1, cache.getCount());
+    }
+
+    public void testTooBigMessageIsNotRead() throws IOException {
+        CountingMailbox mailbox = new CountingMailbox();
+        MessageCache cache = new MessageCache(1024, MESSAGE.length() - 1);
+        CachingMailbox cachingMailbox = new CachingMailbox(mailbox, cache);
+
+        // the size is looked up via the MessageMetaData
+        assertNull(cachingMailbox.getTransferEncodedMessage(1));
+        assertNull(cachingMailbox.getTransferEncodedMessage(1, MESSAGE.length()));
+        assertEquals(0, mailbox.reads);
+        assertEquals(0, cache.getCount());
+    }
+
+    public void testCachingFactoryDoesNotWrapAsyncMailbox() throws IOException {
+        MailboxFactory factory = new ExecutorMailboxFactory(new CountingMailboxFactory(), DIRECT);
+        Mailbox mailbox = new CachingMailboxFactory(factory, new MessageCache()).getMailbox(null, "pass");
+        assertTrue(mailbox instanceof AsyncMailbox);
+        assertFalse(mailbox instanceof CachingMailbox);
+    }
+
+    public void testExecutorFactoryKeepsCache() throws IOException {
+        MessageCache cache = new MessageCache();
+        MailboxFactory factory = new ExecutorMailboxFactory(new CachingMailboxFactory(new CountingMailboxFactory(), cache), DIRECT);
+        Mailbox mailbox = factory.getMailbox(null, "pass");
+        assertTrue(mailbox instanceof AsyncCachingMailbox);
+
+        AsyncCachingMailbox cachingMailbox = (AsyncCachingMailbox) mailbox;
+        assertNull(cachingMailbox.getCachedTransferEncodedMessage(1));
+        MailboxFuture<TransferEncodedMessage> future = cachingMailbox.getTransferEncodedMessageAsync(1, MESSAGE.length());
+        assertTrue(future.isDone());
+        assertEquals(ENCODED_MESSAGE, read(future.get().getInputStream()));
+        assertNotNull(cachingMailbox.getCachedTransferEncodedMessage(1));
+        assertEquals(1, cache.getCount());
+    }
+
+    private String read(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int i;
+        while ((i = in.read()) != -1) {
+            sb.append((char) i);
+        }
+        return sb.toString();
+    }
+
+    private final static class CountingMailboxFactory implements MailboxFactory {
+
+        public Mailbox getMailbox(POP3Session session, String password) throws IOException {
+            return new CountingMailbox();
+        }
+    }
+
+    private final static class CountingMailbox extends AbstractMailbox {
+        private int reads;
+
+        @Override
+        public InputStream getMessage(long uid) throws IOException {
+            reads++;
+            return super.getMessage(uid);
+        }
+
+        public InputStream getMessageBody(long uid) throws IOException {
+            return new ByteArrayInputStream(MESSAGE.substring(MESSAGE.indexOf("\r\n\r\n") + 2).getBytes("US-ASCII"));
+        }
+
+        public InputStream getMessageHeaders(long uid) throws IOException {
+            return new ByteArrayInputStream(MESSAGE.substring(0, MESSAGE.indexOf("\r\n\r\n") + 2).getBytes("US-ASCII"));
+        }
+
+        public List<MessageMetaData> getMessages() throws IOException {
+            return Collections.singletonList(new MessageMetaData(1, MESSAGE.length()));
+        }
+
+        public void remove(long... uids) throws IOException {
+            // not needed
+        }
+
+        public String getIdentifier() throws IOException {
+            return "counting";
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class MessageCacheTest extends TestCase {
+
+    private final static String MESSAGE = "Subject: test\r\n\r\nline1\r\n..line2\r\nline3\r\n";
+
+    private TransferEncodedMessage create(String content) {
+        ByteBuffer buf = ByteBuffer.wrap(content.getBytes());
+        return new TransferEncodedMessage(buf, TransferEncodedMessage.findBodyOffset(buf));
+    }
+
+    private String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[3];
+        int i;
+        while ((i = in.read(buf)) != -1) {
+            out.write(buf, 0, i);
+        }
+        return new String(out.toByteArray());
+    }
+
+    public void testTop() throws IOException {
+        TransferEncodedMessage message = create(MESSAGE);
+        assertEquals(MESSAGE, read(message.getInputStream()));
+        assertEquals("Subject: test\r\n\r\n", read(message.getTopInputStream(0)));
+        assertEquals("Subject: test\r\n\r\nline1\r\n..line2\r\n", read(message.getTopInputStream(2)));
+        assertEquals(MESSAGE, read(message.getTopInputStream(10)));
+        assertEquals(MESSAGE, read(message.getTopInputStream(-1)));
+    }
+
+    public void testEviction() {
+        TransferEncodedMessage message = create(MESSAGE);
+        MessageCache cache = new MessageCache(message.getSize() * 2, message.getSize());
+        cache.put("mailbox", 1, message);
+        cache.put("mailbox", 2, message);
+        assertNotNull(cache.get("mailbox", 1));
+        
+        // 2 is the least recently used one now
+        cache.put("mailbox", 3, message);
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("mailbox", 2));
+        assertNotNull(cache.get("mailbox", 1));
+        assertNotNull(cache.get("mailbox", 3));
+        assertEquals(message.getSize() * 2, cache.getSize());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testMessageTooBig() {
+        TransferEncodedMessage message = create(MESSAGE);
+        MessageCache cache = new MessageCache(1024, message.getSize() - 1);
+        cache.put("mailbox", 1, message);
+        assertNull(cache.get("mailbox", 1));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testLoadSkipsTooBigMessage() throws IOException {
+        final boolean[] closed = new boolean[1];
+        InputStream in = new ByteArrayInputStream(MESSAGE.getBytes()) {
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                fail("Message was read");
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        MessageCache cache = new MessageCache(1024, MESSAGE.length() - 1);
+        assertNull(cache.load("mailbox", 1, MESSAGE.length(), in));
+        assertTrue(closed[0]);
+        assertEquals(0, cache.getCount());
+    }
+
+    public void testLoadWithSize() throws IOException {
+        MessageCache cache = new MessageCache();
+        TransferEncodedMessage message = cache.load("mailbox", 1, MESSAGE.length(), new ByteArrayInputStream(MESSAGE.getBytes()));
+        assertEquals(MESSAGE, read(message.getInputStream()));
+        assertSame(message, cache.get("mailbox", 1));
+    }
+
+    public void testInvalidate() {
+        MessageCache cache = new MessageCache();
+        cache.put("mailbox", 1, create(MESSAGE));
+        cache.put("mailbox2", 1, create(MESSAGE));
+        cache.invalidate("mailbox", 1);
+        assertNull(cache.get("mailbox", 1));
+        assertNotNull(cache.get("mailbox2", 1));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.getCount());
+    }
+}
@@ -0,0 +1,62 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.pop3.mailbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class MessageIndexTest extends TestCase {
+
+    private MessageIndex parse(String message) throws IOException {
+        return MessageIndex.parse(new ByteArrayInputStream(message.getBytes()));
+    }
+
+    public void testParse() throws IOException {
+        String message = "Subject: test\r\nFrom: a@b\r\n\r\nline1\r\nline2\r\nline3";
+        MessageIndex index = parse(message);
+        assertEquals(message.length(), index.getSize());
+        assertEquals("Subject: test\r\nFrom: a@b\r\n\r\n".length(), index.getHeaderLength());
+        assertEquals(3, index.getBodyLineCount());
+        assertEquals(index.getHeaderLength(), index.getTopLength(0));
+        assertEquals(message.indexOf("line2"), index.getTopLength(1));
+        assertEquals(message.indexOf("line3"), index.getTopLength(2));
+        assertEquals(message.length(), index.getTopLength(3));
+        assertEquals(message.length(), index.getTopLength(10));
+        assertEquals(message.length(), index.getTopLength(-1));
+    }
+
+    public void testParseLF() throws IOException {
+        String message = "Subject: test\n\nline1\n";
+        MessageIndex index = parse(message);
+        assertEquals("Subject: test\n\n".length(), index.getHeaderLength());
+        assertEquals(1, index.getBodyLineCount());
+        assertEquals(message.length(), index.getTopLength(1));
+    }
+
+    public void testParseNoBody() throws IOException {
+        String message = "Subject: test\r\n";
+        MessageIndex index = parse(message);
+        assertEquals(message.length(), index.getHeaderLength());
+        assertEquals(0, index.getBodyLineCount());
+        assertEquals(message.length(), index.getTopLength(0));
+    }
+}
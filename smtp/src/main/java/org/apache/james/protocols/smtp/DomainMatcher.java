@@ -0,0 +1,228 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable matcher for domains. The domains are compiled into a trie of their labels, starting with the top level
+ * domain, so a lookup only depends on the count of labels of the domain and not on the count of configured domains. Labels
+ * are shared between all domains, which keeps the trie small even for hundreds of thousands of domains.
+ * 
+ * A domain can be given as <code>example.com</code>, which only matches the domain itself, or as 
+ * <code>*.example.com</code>, which matches all subdomains of it. Matching is case-insensitive and does not allocate any
+ * memory.
+ */
+public final class DomainMatcher {
+
+    private final static Node[] NO_CHILDREN = new Node[0];
+    private final static String[] NO_LABELS = new String[0];
+    
+    private final Node root;
+    private final int size;
+    
+    /**
+     * Compile the given domains
+     * 
+     * @param domains
+     * @throws IllegalArgumentException if one of the domains is not valid
+     */
+    public DomainMatcher(Collection<String> domains) {
+        Builder builder = new Builder();
+        int count = 0;
+        for (String domain: domains) {
+            if (builder.add(domain)) {
+                count++;
+            }
+        }
+        this.root = builder.build();
+        this.size = count;
+    }
+    
+    /**
+     * Compile the given domains
+     * 
+     * @param domains
+     * @throws IllegalArgumentException if one of the domains is not valid
+     */
+    public DomainMatcher(String... domains) {
+        this(Arrays.asList(domains));
+    }
+    
+    /**
+     * Return <code>true</code> if the given domain matches one of the configured domains
+     * 
+     * @param domain
+     * @return matches
+     */
+    public boolean matches(String domain) {
+        if (domain == null) {
+            return false;
+        }
+        int end = domain.length();
+        if (end > 0 && domain.charAt(end - 1) == '.') {
+            // fully qualified
+            end--;
+        }
+        Node node = root;
+        while (true) {
+            int start = domain.lastIndexOf('.', end - 1) + 1;
+            node = node.getChild(domain, start, end);
+            if (node == null) {
+                return false;
+            } else if (start == 0) {
+                return node.exact;
+            } else if (node.wildcard) {
+                // there are labels left, so this is a subdomain
+                return true;
+            }
+            end = start - 1;
+        }
+    }
+    
+    /**
+     * Return the count of domains
+     * 
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+    
+    private final static class Node {
+        // sorted
+        private final String[] labels;
+        private final Node[] children;
+        private final boolean exact;
+        private final boolean wildcard;
+        
+        public Node(String[] labels, Node[] children, boolean exact, boolean wildcard) {
+            this.labels = labels;
+            this.children = children;
+            this.exact = exact;
+            this.wildcard = wildcard;
+        }
+        
+        /**
+         * Return the child for the label which is stored in the given region of the domain or <code>null</code> if there is none 
+         */
+        public Node getChild(String domain, int start, int end) {
+            int low = 0;
+            int high = labels.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(labels[mid], domain, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+        
+        private static int compare(String label, String domain, int start, int end) {
+            int length = end - start;
+            int min = Math.min(label.length(), length);
+            for (int i = 0; i < min; i++) {
+                char c = domain.charAt(start + i);
+                if (c >= 'A' && c <= 'Z') {
+                    c = (char) (c + ('a' - 'A'));
+                }
+                int cmp = label.charAt(i) - c;
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return label.length() - length;
+        }
+    }
+    
+    /**
+     * Mutable trie which is only used to build the {@link Node}'s 
+     */
+    private final static class Builder {
+        private final Map<String, Builder> children = new TreeMap<String, Builder>();
+        private boolean exact;
+        private boolean wildcard;
+        
+        /**
+         * Add the domain and return <code>true</code> if it was not added before
+         */
+        public boolean add(String domain) {
+            String name = domain.trim().toLowerCase(Locale.US);
+            if (name.endsWith(".")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            boolean wildcard = false;
+            if (name.startsWith("*.")) {
+                wildcard = true;
+                name = name.substring(2);
+            }
+            String[] labels = name.split("\\.", -1);
+            Builder node = this;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                String label = labels[i];
+                if (label.length() == 0 || label.indexOf('*') != -1) {
+                    throw new IllegalArgumentException("Invalid domain " + domain);
+                }
+                Builder child = node.children.get(label);
+                if (child == null) {
+                    child = new Builder();
+                    node.children.put(label.intern(), child);
+                }
+                node = child;
+            }
+            if (wildcard) {
+                if (node.wildcard) {
+                    return false;
+                }
+                node.wildcard = true;
+            } else {
+                if (node.exact) {
+                    return false;
+                }
+                node.exact = true;
+            }
+            return true;
+        }
+        
+        public Node build() {
+            if (children.isEmpty()) {
+                return new Node(NO_LABELS, NO_CHILDREN, exact, wildcard);
+            }
+            String[] labels = new String[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<String, Builder> entry: children.entrySet()) {
+                labels[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+                i++;
+            }
+            return new Node(labels, nodes, exact, wildcard);
+        }
+    }
+}
@@ -21,6 +21,8 @@
 package org.apache.james.protocols.smtp;
 
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A representation of an email address.
@@ -56,6 +58,10 @@ import java.util.Locale;
  * from RFC 821 on page 30 and 31, section 4.1.2. COMMAND SYNTAX.
  * http://www.freesoft.org/CIE/RFC/821/15.htm</p>
  *
+ * <p>The address is parsed in a single pass. Its canonical (lower case) form is
+ * only computed once and domains are shared between instances, so instances are
+ * cheap to use as keys in hash based collections.</p>
+ *
  * <strong>This version is copied from mailet-api with a few changes to not make it depend on javamail</strong>
  */
 public class MailAddress {
@@ -63,8 +69,19 @@ public class MailAddress {
     private final static char[] SPECIAL =
     {'<', '>', '(', ')', '[', ']', '\\', '.', ',', ';', ':', '@', '\"'};
 
+    /** Maximal count of domains which get interned, so an attacker can't fill the heap with them */
+    private final static int MAX_INTERNED_DOMAINS = 10000;
+    private final static ConcurrentMap<String, String> DOMAINS = new ConcurrentHashMap<String, String>();
+    
     private String localPart = null;
     private String domain = null;
+    
+    // the domain without the braces of a domain-literal
+    private String plainDomain = null;
+    
+    // Computed on first use. As Strings are immutable it's safe to do this without synchronization
+    private String address = null;
+    private String canonical = null;
 
     private static final MailAddress NULL_SENDER = new MailAddress() {
 
@@ -98,12 +115,13 @@ public class MailAddress {
      * @param pos current position
      * @return new pos
      */
-    private int stripSourceRoute(String address, int pos) {
+    private int stripSourceRoute(CharSequence address, int pos) {
         if (pos < address.length()) {
             if (address.charAt(pos)=='@') { 
-                int i = address.indexOf(':');
-                if (i != -1) {
-                    pos = i+1;
+                for (int i = pos; i < address.length(); i++) {
+                    if (address.charAt(i) == ':') {
+                        return i + 1;
+                    }
                 }
             }
         }
@@ -117,6 +135,7 @@ public class MailAddress {
     private MailAddress() {
         
     }
+    
     /**
      * Constructs a MailAddress by parsing the provided address.
      *
@@ -124,15 +143,39 @@ public class MailAddress {
      * @throws MailAddressException if the parse failed
      */
     public MailAddress(String address) throws MailAddressException {
-        address = address.trim();
+        this((CharSequence) address);
+    }
+    
+    /**
+     * Constructs a MailAddress by parsing the provided US-ASCII encoded address. This allows to parse an address 
+     * directly out of a received line without the need to decode it first.
+     *
+     * @param bytes the email address, compliant to the RFC2822 3.4.1. addr-spec specification
+     * @param offset the offset of the address in the array
+     * @param length the length of the address
+     * @throws MailAddressException if the parse failed
+     */
+    public MailAddress(byte[] bytes, int offset, int length) throws MailAddressException {
+        this(new AsciiSequence(bytes, offset, length));
+    }
+    
+    /**
+     * Constructs a MailAddress by parsing the provided address.
+     *
+     * @param address the email address, compliant to the RFC2822 3.4.1. addr-spec specification
+     * @throws MailAddressException if the parse failed
+     */
+    public MailAddress(CharSequence address) throws MailAddressException {
+        address = trim(address);
         int pos = 0;
         
         // Test if mail address has source routing information (RFC-821) and get rid of it!!
         //must be called first!! (or at least prior to updating pos)
         stripSourceRoute(address, pos);
 
-        StringBuffer localPartSB = new StringBuffer();
-        StringBuffer domainSB = new StringBuffer();
+        // the same builder is used for the local-part and the domain, so the address is parsed in one pass with 
+        // only one temporary buffer
+        StringBuilder sb = new StringBuilder(address.length());
         //Begin parsing
         //<mailbox> ::= <local-part> "@" <domain>
 
@@ -140,20 +183,22 @@ public class MailAddress {
             //parse local-part
             //<local-part> ::= <dot-string> | <quoted-string>
             if (address.charAt(pos) == '\"') {
-                pos = parseQuotedLocalPart(localPartSB, address, pos);
-                if (localPartSB.toString().length() == 2) {
-                    throw new MailAddressException("No quoted local-part (user account) found at position " + (pos + 2) + " in '" + address + "'",address,pos+2);
+                pos = parseQuotedLocalPart(sb, address, pos);
+                if (sb.length() == 2) {
+                    throw new MailAddressException("No quoted local-part (user account) found at position " + (pos + 2) + " in '" + address + "'",address.toString(),pos+2);
                 }
             } else {
-                pos = parseUnquotedLocalPart(localPartSB, address, pos);
-                if (localPartSB.toString().length() == 0) {
-                    throw new MailAddressException("No local-part (user account) found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                pos = parseUnquotedLocalPart(sb, address, pos);
+                if (sb.length() == 0) {
+                    throw new MailAddressException("No local-part (user account) found at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 }
             }
+            localPart = sb.toString();
+            sb.setLength(0);
 
             //find @
             if (pos >= address.length() || address.charAt(pos) != '@') {
-                throw new MailAddressException("Did not find @ between local-part and domain at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                throw new MailAddressException("Did not find @ between local-part and domain at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
             }
             pos++;
 
@@ -162,32 +207,36 @@ public class MailAddress {
             //<element> ::= <name> | "#" <number> | "[" <dotnum> "]"
             while (true) {
                 if (address.charAt(pos) == '#') {
-                    pos = parseNumber(domainSB, address, pos);
+                    pos = parseNumber(sb, address, pos);
                 } else if (address.charAt(pos) == '[') {
-                    pos = parseDomainLiteral(domainSB, address, pos);
+                    pos = parseDomainLiteral(sb, address, pos);
                 } else {
-                    pos = parseDomain(domainSB, address, pos);
+                    pos = parseDomain(sb, address, pos);
                 }
                 if (pos >= address.length()) {
                     break;
                 }
                 if (address.charAt(pos) == '.') {
-                    domainSB.append('.');
+                    sb.append('.');
                     pos++;
                     continue;
                 }
                 break;
             }
 
-            if (domainSB.toString().length() == 0) {
-                throw new MailAddressException("No domain found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (sb.length() == 0) {
+                throw new MailAddressException("No domain found at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
             }
         } catch (IndexOutOfBoundsException ioobe) {
-            throw new MailAddressException("Out of data at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            throw new MailAddressException("Out of data at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
         }
 
-        localPart = localPartSB.toString();
-        domain = domainSB.toString();
+        domain = intern(sb.toString());
+        if (domain.startsWith("[") && domain.endsWith("]")) {
+            plainDomain = domain.substring(1, domain.length() -1);
+        } else {
+            plainDomain = domain;
+        }
     }
 
     /**
@@ -215,10 +264,7 @@ public class MailAddress {
      * 
      */
     public String getDomain() {
-        if (!(domain.startsWith("[") && domain.endsWith("]"))) {
-            return domain;
-        } 
-        return domain.substring(1, domain.length() -1);
+        return plainDomain;
     }
 
 
@@ -241,14 +287,40 @@ public class MailAddress {
 
     @Override
     public String toString() {
-        StringBuffer addressBuffer =
-            new StringBuffer(128)
+        String address = this.address;
+        if (address == null) {
+            address = new StringBuilder(localPart.length() + domain.length() + 1)
                     .append(localPart)
-                    .append("@")
-                    .append(domain);
-        return addressBuffer.toString();
+                    .append('@')
+                    .append(domain).toString();
+            this.address = address;
+        }
+        return address;
     }
     
+    /**
+     * Return the canonical form of this address, which is the lower case form of {@link #toString()}. All instances 
+     * which are equal return the same canonical form. It is only computed once, so it is cheap to use it as key.
+     * 
+     * @return canonical
+     */
+    public String toCanonicalString() {
+        String canonical = this.canonical;
+        if (canonical == null) {
+            String address = toString();
+            canonical = address;
+            for (int i = 0; i < address.length(); i++) {
+                char c = address.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    // only create a new String if needed
+                    canonical = address.toLowerCase(Locale.US);
+                    break;
+                }
+            }
+            this.canonical = canonical;
+        }
+        return canonical;
+    }
     
     /**
      * Indicates whether some other object is "equal to" this one.
@@ -262,14 +334,16 @@ public class MailAddress {
      */
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
+        if (obj == this) {
+            return true;
+        } else if (obj == null) {
             return false;
         } else if (obj instanceof String) {
             String theString = (String)obj;
             return toString().equalsIgnoreCase(theString);
         } else if (obj instanceof MailAddress) {
             MailAddress addr = (MailAddress)obj;
-            return getLocalPart().equalsIgnoreCase(addr.getLocalPart()) && getDomain().equalsIgnoreCase(addr.getDomain());
+            return toCanonicalString().equals(addr.toCanonicalString());
         }
         return false;
     }
@@ -279,76 +353,118 @@ public class MailAddress {
      * <p>
      * This method is implemented by returning the hash code of the canonical
      * string representation of this address, so that all instances representing
-     * the same address will return an identical hash code.
+     * the same address will return an identical hash code. The hash code is 
+     * cached by the canonical string.
      *
      * @return the hashcode.
      */
     @Override
     public int hashCode() {
-        return toString().toLowerCase(Locale.US).hashCode();
+        return toCanonicalString().hashCode();
     }
 
-    private int parseQuotedLocalPart(StringBuffer lpSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
-        resultSB.append('\"');
+    /**
+     * Return a shared instance of the given domain, so all addresses which use the same spelling of a domain use the same 
+     * String. Once {@value #MAX_INTERNED_DOMAINS} spellings are interned the map is cleared and filled again, so it stays 
+     * bounded but new domains are still interned
+     * 
+     * @param domain
+     * @return interned
+     */
+    private static String intern(String domain) {
+        String interned = DOMAINS.get(domain);
+        if (interned == null) {
+            if (DOMAINS.size() >= MAX_INTERNED_DOMAINS) {
+                DOMAINS.clear();
+            }
+            interned = DOMAINS.putIfAbsent(domain, domain);
+            if (interned == null) {
+                interned = domain;
+            }
+        }
+        return interned;
+    }
+    
+    /**
+     * Remove leading and trailing whitespaces without copying if there are none
+     * 
+     * @param address
+     * @return trimmed
+     */
+    private static CharSequence trim(CharSequence address) {
+        int begin = 0;
+        int end = address.length();
+        while (begin < end && address.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && address.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (begin == 0 && end == address.length()) {
+            return address;
+        }
+        return address.subSequence(begin, end);
+    }
+    
+    private int parseQuotedLocalPart(StringBuilder lpSB, CharSequence address, int pos) throws MailAddressException {
+        lpSB.append('\"');
         pos++;
         //<quoted-string> ::=  """ <qtext> """
         //<qtext> ::=  "\" <x> | "\" <x> <qtext> | <q> | <q> <qtext>
         while (true) {
             if (address.charAt(pos) == '\"') {
-                resultSB.append('\"');
+                lpSB.append('\"');
                 //end of quoted string... move forward
                 pos++;
                 break;
             }
             if (address.charAt(pos) == '\\') {
-                resultSB.append('\\');
+                lpSB.append('\\');
                 pos++;
                 //<x> ::= any one of the 128 ASCII characters (no exceptions)
                 char x = address.charAt(pos);
                 if (x < 0 || x > 127) {
-                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 }
-                resultSB.append(x);
+                lpSB.append(x);
                 pos++;
             } else {
                 //<q> ::= any one of the 128 ASCII characters except <CR>,
                 //<LF>, quote ("), or backslash (\)
                 char q = address.charAt(pos);
                 if (q <= 0 || q == '\n' || q == '\r' || q == '\"' || q == '\\') {
-                    throw new MailAddressException("Unquoted local-part (user account) must be one of the 128 ASCI characters exception <CR>, <LF>, quote (\"), or backslash (\\) at position " + (pos + 1) + " in '" + address + "'", address, pos+1);
+                    throw new MailAddressException("Unquoted local-part (user account) must be one of the 128 ASCI characters exception <CR>, <LF>, quote (\"), or backslash (\\) at position " + (pos + 1) + " in '" + address + "'", address.toString(), pos+1);
                 }
-                resultSB.append(q);
+                lpSB.append(q);
                 pos++;
             }
         }
-        lpSB.append(resultSB);
         return pos;
     }
 
-    private int parseUnquotedLocalPart(StringBuffer lpSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
+    private int parseUnquotedLocalPart(StringBuilder lpSB, CharSequence address, int pos) throws MailAddressException {
         //<dot-string> ::= <string> | <string> "." <dot-string>
         boolean lastCharDot = false;
         while (true) {
             //<string> ::= <char> | <char> <string>
             //<char> ::= <c> | "\" <x>
-            if (address.charAt(pos) == '\\') {
-                resultSB.append('\\');
+            char c = address.charAt(pos);
+            if (c == '\\') {
+                lpSB.append('\\');
                 pos++;
                 //<x> ::= any one of the 128 ASCII characters (no exceptions)
                 char x = address.charAt(pos);
                 if (x < 0 || x > 127) {
-                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 }
-                resultSB.append(x);
+                lpSB.append(x);
                 pos++;
                 lastCharDot = false;
-            } else if (address.charAt(pos) == '.') {
-                resultSB.append('.');
+            } else if (c == '.') {
+                lpSB.append('.');
                 pos++;
                 lastCharDot = true;
-            } else if (address.charAt(pos) == '@') {
+            } else if (c == '@') {
                 //End of local-part
                 break;
             } else {
@@ -359,31 +475,28 @@ public class MailAddress {
                 //    characters (ASCII codes 0 through 31 inclusive and
                 //    127)
                 //<SP> ::= the space character (ASCII code 32)
-                char c = address.charAt(pos);
                 if (c <= 31 || c >= 127 || c == ' ') {
-                    throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 }
                 for (int i = 0; i < SPECIAL.length; i++) {
                     if (c == SPECIAL[i]) {
-                        throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                        throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                     }
                 }
-                resultSB.append(c);
+                lpSB.append(c);
                 pos++;
                 lastCharDot = false;
             }
         }
         if (lastCharDot) {
-            throw new MailAddressException("local-part (user account) ended with a \".\", which is invalid in address '" + address + "'",address,pos);
+            throw new MailAddressException("local-part (user account) ended with a \".\", which is invalid in address '" + address + "'",address.toString(),pos);
         }
-        lpSB.append(resultSB);
         return pos;
     }
 
-    private int parseNumber(StringBuffer dSB, String address, int pos) throws MailAddressException {
+    private int parseNumber(StringBuilder dSB, CharSequence address, int pos) throws MailAddressException {
         //<number> ::= <d> | <d> <number>
 
-        StringBuffer resultSB = new StringBuffer();
         //We keep the position from the class level pos field
         while (true) {
             if (pos >= address.length()) {
@@ -395,24 +508,28 @@ public class MailAddress {
                 break;
             }
             if (d < '0' || d > '9') {
-                throw new MailAddressException("In domain, did not find a number in # address at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                throw new MailAddressException("In domain, did not find a number in # address at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
             }
-            resultSB.append(d);
+            dSB.append(d);
             pos++;
         }
-        dSB.append(resultSB);
         return pos;
     }
 
-    private int parseDomainLiteral(StringBuffer dSB, String address, int pos) throws MailAddressException {
-        //throw away all irrelevant '\' they're not necessary for escaping of '.' or digits, and are illegal as part of the domain-literal
-        while(address.indexOf("\\")>-1){
-             address= address.substring(0,address.indexOf("\\")) + address.substring(address.indexOf("\\")+1);
+    /**
+     * Skip all irrelevant '\', they're not necessary for escaping of '.' or digits, and are illegal as part of the domain-literal
+     */
+    private static int skipBackslashes(CharSequence address, int pos) {
+        while (address.charAt(pos) == '\\') {
+            pos++;
         }
-        StringBuffer resultSB = new StringBuffer();
+        return pos;
+    }
+    
+    private int parseDomainLiteral(StringBuilder dSB, CharSequence address, int pos) throws MailAddressException {
         //we were passed the string with pos pointing the the [ char.
         // take the first char ([), put it in the result buffer and increment pos
-        resultSB.append(address.charAt(pos));
+        dSB.append(address.charAt(pos));
         pos++;
 
         //<dotnum> ::= <snum> "." <snum> "." <snum> "." <snum>
@@ -420,8 +537,10 @@ public class MailAddress {
             //<snum> ::= one, two, or three digits representing a decimal
             //                      integer value in the range 0 through 255
             //<d> ::= any one of the ten digits 0 through 9
-            StringBuffer snumSB = new StringBuffer();
-            for (int digits = 0; digits < 3; digits++) {
+            int snum = 0;
+            int digits = 0;
+            for (; digits < 3; digits++) {
+                pos = skipBackslashes(address, pos);
                 char d = address.charAt(pos);
                 if (d == '.') {
                     break;
@@ -430,45 +549,41 @@ public class MailAddress {
                     break;
                 }
                 if (d < '0' || d > '9') {
-                    throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 }
-                snumSB.append(d);
+                snum = snum * 10 + (d - '0');
+                dSB.append(d);
                 pos++;
             }
-            if (snumSB.toString().length() == 0) {
-                throw new MailAddressException("Number not found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (digits == 0) {
+                throw new MailAddressException("Number not found at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
             }
-            try {
-                int snum = Integer.parseInt(snumSB.toString());
-                if (snum > 255) {
-                    throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
-                }
-            } catch (NumberFormatException nfe) {
-                throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (snum > 255) {
+                throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
             }
-            resultSB.append(snumSB.toString());
+            pos = skipBackslashes(address, pos);
             if (address.charAt(pos) == ']') {
                 if (octet < 3) {
-                    throw new MailAddressException("End of number reached too quickly at " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw new MailAddressException("End of number reached too quickly at " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
                 } 
                 break;
             }
             if (address.charAt(pos) == '.') {
-                resultSB.append('.');
+                dSB.append('.');
                 pos++;
             }
         }
+        pos = skipBackslashes(address, pos);
         if (address.charAt(pos) != ']') {
-            throw new MailAddressException("Did not find closing bracket \"]\" in domain at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            throw new MailAddressException("Did not find closing bracket \"]\" in domain at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
         }
-        resultSB.append(']');
+        dSB.append(']');
         pos++;
-        dSB.append(resultSB);
         return pos;
     }
 
-    private int parseDomain(StringBuffer dSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
+    private int parseDomain(StringBuilder dSB, CharSequence address, int pos) throws MailAddressException {
+        int start = dSB.length();
         //<name> ::= <a> <ldh-str> <let-dig>
         //<ldh-str> ::= <let-dig-hyp> | <let-dig-hyp> <ldh-str>
         //<let-dig> ::= <a> | <d>
@@ -493,20 +608,19 @@ public class MailAddress {
                 (ch >= 'a' && ch <= 'z') ||
                 (ch >= 'A' && ch <= 'Z') ||
                 (ch == '-')) {
-                resultSB.append(ch);
+                dSB.append(ch);
                 pos++;
                 continue;
             }
             if (ch == '.') {
                 break;
             }
-            throw new MailAddressException("Invalid character at " + pos + " in '" + address + "'",address,pos);
+            throw new MailAddressException("Invalid character at " + pos + " in '" + address + "'",address.toString(),pos);
         }
-        String result = resultSB.toString();
-        if (result.startsWith("-") || result.endsWith("-")) {
-            throw new MailAddressException("Domain name cannot begin or end with a hyphen \"-\" at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+        int end = dSB.length();
+        if (end > start && (dSB.charAt(start) == '-' || dSB.charAt(end - 1) == '-')) {
+            throw new MailAddressException("Domain name cannot begin or end with a hyphen \"-\" at position " + (pos + 1) + " in '" + address + "'",address.toString(),pos+1);
         }
-        dSB.append(result);
         return pos;
     }
     
@@ -518,4 +632,49 @@ public class MailAddress {
     public boolean isNullSender() {
         return false;
     }
+    
+    /**
+     * {@link CharSequence} view of US-ASCII encoded bytes, which does not copy them
+     */
+    private final static class AsciiSequence implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        
+        public AsciiSequence(byte[] bytes, int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > bytes.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (bytes[offset + i] & 0xff);
+            }
+            return new String(chars);
+        }
+    }
 }
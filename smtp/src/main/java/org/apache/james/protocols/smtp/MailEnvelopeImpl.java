@@ -24,6 +24,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -37,7 +38,7 @@ public class MailEnvelopeImpl implements MailEnvelope{
 
     private MailAddress sender;
 
-    private ByteArrayOutputStream outputStream;
+    private MessageOutputStream outputStream;
 
     /**
      * @see org.apache.james.protocols.smtp.MailEnvelope#getSize()
@@ -86,16 +87,45 @@ public class MailEnvelopeImpl implements MailEnvelope{
     public OutputStream getMessageOutputStream() {
         if (outputStream == null) {
             // use 100kb as default which should be enough for most emails
-            this.outputStream = new ByteArrayOutputStream(100 * 1024);
+            this.outputStream = new MessageOutputStream(100 * 1024);
         }
         return outputStream;
     }
 
     /**
+     * Return an {@link InputStream} which reads the message directly from the buffer. The buffer is not copied, so this MUST only
+     * be called once the message was written completely.
+     * 
      * @see org.apache.james.protocols.smtp.MailEnvelope#getMessageInputStream()
      */
     public InputStream getMessageInputStream() {
-        return new ByteArrayInputStream(outputStream.toByteArray());
+        return new ByteArrayInputStream(outputStream.getBuffer(), 0, outputStream.size());
+    }
+
+    /**
+     * Return a read-only {@link ByteBuffer} which shares the content of the message with this {@link MailEnvelopeImpl}, so the 
+     * message is not copied. Every caller should use its own {@link ByteBuffer#duplicate()} if it changes the position. 
+     * 
+     * This MUST only be called once the message was written completely.
+     * 
+     * @return message
+     */
+    public ByteBuffer getMessageBuffer() {
+        return ByteBuffer.wrap(outputStream.getBuffer(), 0, outputStream.size()).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * {@link ByteArrayOutputStream} which allows to access its buffer without copying it
+     */
+    private final static class MessageOutputStream extends ByteArrayOutputStream {
+
+        public MessageOutputStream(int size) {
+            super(size);
+        }
+
+        public synchronized byte[] getBuffer() {
+            return buf;
+        }
     }
 }
 
@@ -0,0 +1,102 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+/**
+ * Holds the local domains and the valid recipients of a server. Both can be replaced at runtime via 
+ * {@link #update(DomainMatcher, RecipientIndex)} without blocking the sessions which use them, as every lookup
+ * sees either the old or the new pair, but never a mix of both.
+ */
+public class RecipientDirectory {
+
+    private volatile Entry entry;
+    
+    /**
+     * Create a new directory
+     * 
+     * @param domains the local domains
+     * @param recipients the valid recipients, or <code>null</code> if every recipient of a local domain is valid
+     */
+    public RecipientDirectory(DomainMatcher domains, RecipientIndex recipients) {
+        update(domains, recipients);
+    }
+    
+    /**
+     * Replace the local domains and the valid recipients
+     * 
+     * @param domains the local domains
+     * @param recipients the valid recipients, or <code>null</code> if every recipient of a local domain is valid
+     */
+    public void update(DomainMatcher domains, RecipientIndex recipients) {
+        if (domains == null) {
+            throw new IllegalArgumentException("Domains must not be null");
+        }
+        this.entry = new Entry(domains, recipients);
+    }
+    
+    /**
+     * Return <code>true</code> if the given domain is local
+     * 
+     * @param domain
+     * @return local
+     */
+    public boolean isLocalDomain(String domain) {
+        return entry.domains.matches(domain);
+    }
+    
+    /**
+     * Return <code>true</code> if the given recipient is valid. This does not check if the domain of the recipient is local
+     * 
+     * @param recipient
+     * @return valid
+     */
+    public boolean isValidRecipient(MailAddress recipient) {
+        RecipientIndex recipients = entry.recipients;
+        return recipients == null || recipients.contains(recipient);
+    }
+    
+    /**
+     * Return the local domains
+     * 
+     * @return domains
+     */
+    public DomainMatcher getDomains() {
+        return entry.domains;
+    }
+    
+    /**
+     * Return the valid recipients, or <code>null</code> if every recipient of a local domain is valid
+     * 
+     * @return recipients
+     */
+    public RecipientIndex getRecipients() {
+        return entry.recipients;
+    }
+    
+    private final static class Entry {
+        private final DomainMatcher domains;
+        private final RecipientIndex recipients;
+        
+        public Entry(DomainMatcher domains, RecipientIndex recipients) {
+            this.domains = domains;
+            this.recipients = recipients;
+        }
+    }
+}
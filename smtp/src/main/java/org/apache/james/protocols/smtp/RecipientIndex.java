@@ -0,0 +1,248 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Read-only index of recipient addresses which is stored in a file and memory-mapped, so even millions of addresses 
+ * don't use any heap and the operating system takes care of caching it.
+ * 
+ * The file starts with a header (magic, version, count), followed by a table of <code>(64-bit hash, offset)</code> entries 
+ * which is sorted by the hash of the canonical (lower case) address, followed by the addresses itself. A lookup is a binary 
+ * search in the table and a compare of the address, which does not allocate any memory.
+ * 
+ * Use {@link #write(Collection, File)} to create the file and {@link #open(File)} to use it. Instances are immutable and
+ * can be used by many threads at the same time.
+ */
+public final class RecipientIndex {
+
+    private final static int MAGIC = 0x52494458; // RIDX
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 12;
+    private final static int ENTRY_SIZE = 12;
+    
+    private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+    
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int dataStart;
+    
+    private RecipientIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a recipient index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of recipient index");
+        }
+        this.count = buffer.getInt(8);
+        this.dataStart = HEADER_SIZE + count * ENTRY_SIZE;
+        if (count < 0 || dataStart > buffer.capacity()) {
+            throw new IOException("Recipient index is truncated");
+        }
+    }
+    
+    /**
+     * Open the given index file. The file is memory-mapped, so it must not be modified while it is in use. To update the 
+     * index write a new file and open it.
+     * 
+     * @param file
+     * @return index
+     * @throws IOException
+     */
+    public static RecipientIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel was closed
+            return new RecipientIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Write an index of the given addresses to the given file
+     * 
+     * @param addresses
+     * @param file
+     * @throws IOException
+     * @throws IllegalArgumentException if an address contains a character which can not be stored in one byte
+     */
+    public static void write(Collection<String> addresses, File file) throws IOException {
+        Entry[] entries = new Entry[addresses.size()];
+        int i = 0;
+        for (String address: addresses) {
+            String canonical = address.trim().toLowerCase(Locale.US);
+            if (canonical.length() > 0xFFFF) {
+                throw new IllegalArgumentException("Unable to index address " + address);
+            }
+            for (int a = 0; a < canonical.length(); a++) {
+                if (canonical.charAt(a) > 0xFF) {
+                    throw new IllegalArgumentException("Unable to index address " + address);
+                }
+            }
+            entries[i++] = new Entry(hash(canonical), canonical);
+        }
+        Arrays.sort(entries);
+        
+        // remove duplicates
+        int count = 0;
+        for (i = 0; i < entries.length; i++) {
+            if (count == 0 || !entries[count - 1].address.equals(entries[i].address)) {
+                entries[count++] = entries[i];
+            }
+        }
+        
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            int offset = 0;
+            for (i = 0; i < count; i++) {
+                out.writeLong(entries[i].hash);
+                out.writeInt(offset);
+                offset += 2 + entries[i].address.length();
+            }
+            for (i = 0; i < count; i++) {
+                String address = entries[i].address;
+                out.writeShort(address.length());
+                for (int a = 0; a < address.length(); a++) {
+                    out.write(address.charAt(a));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * Return <code>true</code> if the given address is part of the index
+     * 
+     * @param address
+     * @return contains
+     */
+    public boolean contains(MailAddress address) {
+        return containsCanonical(address.toCanonicalString());
+    }
+    
+    /**
+     * Return <code>true</code> if the given address is part of the index. The address is compared case-insensitive
+     * 
+     * @param address
+     * @return contains
+     */
+    public boolean contains(String address) {
+        return containsCanonical(address.trim().toLowerCase(Locale.US));
+    }
+    
+    private boolean containsCanonical(String canonical) {
+        long hash = hash(canonical);
+        
+        // find the first entry with the hash. Only absolute gets are used, so the buffer can be shared between threads
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(HEADER_SIZE + mid * ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count; i++) {
+            int pos = HEADER_SIZE + i * ENTRY_SIZE;
+            if (buffer.getLong(pos) != hash) {
+                return false;
+            }
+            if (equals(dataStart + buffer.getInt(pos + 8), canonical)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean equals(int pos, String canonical) {
+        int length = buffer.getShort(pos) & 0xFFFF;
+        if (length != canonical.length()) {
+            return false;
+        }
+        pos += 2;
+        for (int i = 0; i < length; i++) {
+            if ((buffer.get(pos + i) & 0xFF) != canonical.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Return the count of addresses in the index
+     * 
+     * @return size
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of the given {@link String}
+     */
+    private static long hash(String value) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+    
+    private final static class Entry implements Comparable<Entry> {
+        private final long hash;
+        private final String address;
+        
+        public Entry(long hash, String address) {
+            this.hash = hash;
+            this.address = address;
+        }
+
+        public int compareTo(Entry o) {
+            if (hash < o.hash) {
+                return -1;
+            } else if (hash > o.hash) {
+                return 1;
+            }
+            return address.compareTo(o.address);
+        }
+    }
+}
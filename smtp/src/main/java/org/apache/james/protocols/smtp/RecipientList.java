@@ -0,0 +1,126 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * {@link List} of the recipients of a transaction. The recipients are kept in the order they were added, but 
+ * {@link #contains(Object)} is backed by a hash index, so checking for duplicates does not need to scan the whole
+ * {@link List}. This makes a difference for transactions with thousands of recipients.
+ * 
+ * This implementation is not thread-safe. 
+ */
+public class RecipientList extends AbstractList<MailAddress> implements RandomAccess {
+
+    private final ArrayList<MailAddress> recipients;
+    
+    // count per recipient, as the same recipient may be added more then once 
+    private final Map<MailAddress, Integer> index;
+    
+    public RecipientList() {
+        this(16);
+    }
+    
+    public RecipientList(int initialCapacity) {
+        recipients = new ArrayList<MailAddress>(initialCapacity);
+        index = new HashMap<MailAddress, Integer>(initialCapacity * 4 / 3 + 1);
+    }
+    
+    public RecipientList(Collection<MailAddress> recipients) {
+        this(recipients.size());
+        addAll(recipients);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#get(int)
+     */
+    public MailAddress get(int i) {
+        return recipients.get(i);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractCollection#size()
+     */
+    public int size() {
+        return recipients.size();
+    }
+
+    /**
+     * Return <code>true</code> if the given recipient is part of the {@link List}. This does not depend on the 
+     * size of the {@link List}
+     */
+    @Override
+    public boolean contains(Object o) {
+        return index.containsKey(o);
+    }
+    
+    @Override
+    public void add(int i, MailAddress recipient) {
+        recipients.add(i, recipient);
+        addToIndex(recipient);
+        modCount++;
+    }
+
+    @Override
+    public MailAddress set(int i, MailAddress recipient) {
+        MailAddress old = recipients.set(i, recipient);
+        removeFromIndex(old);
+        addToIndex(recipient);
+        return old;
+    }
+
+    @Override
+    public MailAddress remove(int i) {
+        MailAddress old = recipients.remove(i);
+        removeFromIndex(old);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        recipients.clear();
+        index.clear();
+        modCount++;
+    }
+
+    private void addToIndex(MailAddress recipient) {
+        Integer count = index.put(recipient, 1);
+        if (count != null) {
+            index.put(recipient, count + 1);
+        }
+    }
+    
+    private void removeFromIndex(MailAddress recipient) {
+        Integer count = index.remove(recipient);
+        if (count != null && count > 1) {
+            index.put(recipient, count - 1);
+        }
+    }
+}
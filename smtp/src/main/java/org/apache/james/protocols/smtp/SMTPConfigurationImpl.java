@@ -20,6 +20,9 @@
 
 package org.apache.james.protocols.smtp;
 
+import java.net.InetAddress;
+
+import org.apache.james.protocols.api.NetworkMatcher;
 import org.apache.james.protocols.api.ProtocolConfigurationImpl;
 
 
@@ -29,6 +32,8 @@ public class SMTPConfigurationImpl extends ProtocolConfigurationImpl implements
     private long maxMessageSize = 0;
     private boolean bracketsEnforcement = true;
     private boolean enforceHeloEhlo = true;
+    private boolean authRequired = false;
+    private NetworkMatcher authorizedNetworks = new NetworkMatcher();
 
     public SMTPConfigurationImpl() {
         setSoftwareName("JAMES SMTP Protocols Server");
@@ -38,12 +43,53 @@ public class SMTPConfigurationImpl extends ProtocolConfigurationImpl implements
         return maxMessageSize;
     }
 
+    /**
+     * Set the networks which are allowed to relay without authentication. The default is to not allow relaying for any 
+     * network
+     * 
+     * @param authorizedNetworks
+     */
+    public void setAuthorizedNetworks(NetworkMatcher authorizedNetworks) {
+        this.authorizedNetworks = authorizedNetworks;
+    }
+    
+    /**
+     * Set to <code>true</code> if clients which are not part of the authorized networks need to use SMTP AUTH to relay
+     * 
+     * @param authRequired
+     */
+    public void setAuthRequired(boolean authRequired) {
+        this.authRequired = authRequired;
+    }
+
     public boolean isRelayingAllowed(String remoteIP) {
-        return false;
+        return authorizedNetworks.matches(remoteIP);
+    }
+
+    /**
+     * Returns whether relaying is allowed for the given {@link InetAddress}. This is the same as 
+     * {@link #isRelayingAllowed(String)} but does not need to parse the address.
+     * 
+     * @param remoteAddress
+     * @return whether relaying is allowed
+     */
+    public boolean isRelayingAllowed(InetAddress remoteAddress) {
+        return authorizedNetworks.matches(remoteAddress);
     }
 
     public boolean isAuthRequired(String remoteIP) {
-        return false;
+        return authRequired && !authorizedNetworks.matches(remoteIP);
+    }
+
+    /**
+     * Returns whether SMTP AUTH is necessary for the given {@link InetAddress}. This is the same as 
+     * {@link #isAuthRequired(String)} but does not need to parse the address.
+     * 
+     * @param remoteAddress
+     * @return whether SMTP authentication is on
+     */
+    public boolean isAuthRequired(InetAddress remoteAddress) {
+        return authRequired && !authorizedNetworks.matches(remoteAddress);
     }
 
     public void setHeloEhloEnforcement(boolean enforceHeloEhlo) {
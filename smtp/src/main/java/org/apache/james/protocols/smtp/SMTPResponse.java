@@ -23,12 +23,15 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.james.protocols.api.AbstractResponse;
+import org.apache.james.protocols.api.DelayedResponse;
 
 /**
  * Contains an SMTP result
  */
-public class SMTPResponse extends AbstractResponse {
+public class SMTPResponse extends AbstractResponse implements DelayedResponse {
 
+    private long delay = 0;
+    
     protected SMTPResponse() {
         
     }
@@ -80,6 +83,24 @@ public class SMTPResponse extends AbstractResponse {
         }
     }
 
+    /**
+     * Set the delay in milliseconds after which the response should be written to the client. Use this to slow down
+     * abusive clients
+     * 
+     * @param delay
+     */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.DelayedResponse#getDelay()
+     */
+    public long getDelay() {
+        return delay;
+    }
+    
     /**
      * @see org.apache.james.protocols.api.Response#getLines()
      */
@@ -19,6 +19,9 @@
 
 package org.apache.james.protocols.smtp;
 
+import java.util.Collection;
+
+import org.apache.james.protocols.api.AttributeKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.handler.LineHandler;
 
@@ -34,6 +37,10 @@ public interface SMTPSession extends ProtocolSession{
     final static String SENDER = "SENDER_ADDRESS";
     /** The message recipients */
     final static String RCPT_LIST = "RCPT_LIST";  
+    /** Sender's email address, stored under the name {@link #SENDER} */
+    final static AttributeKey<MailAddress> SENDER_KEY = AttributeKey.create(SENDER, State.Transaction);
+    /** The message recipients, stored under the name {@link #RCPT_LIST} */
+    final static AttributeKey<Collection<MailAddress>> RCPT_LIST_KEY = AttributeKey.create(RCPT_LIST, State.Transaction);
     /** HELO or EHLO */
     final static String CURRENT_HELO_MODE = "CURRENT_HELO_MODE";
     final static String CURRENT_HELO_NAME = "CURRENT_HELO_NAME";
@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.protocols.smtp;
 
+import java.net.InetAddress;
 import java.util.Collection;
 
 import org.apache.james.protocols.api.Logger;
@@ -37,10 +38,29 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
     private static final Response FATAL_ERROR = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, "Unable to process request").immutable();
     
     private boolean relayingAllowed;
+    private boolean authSupported;
     
     public SMTPSessionImpl(Logger logger, ProtocolTransport transport, SMTPConfiguration config) {
         super(logger, transport, config);
-        relayingAllowed = config.isRelayingAllowed(getRemoteAddress().getAddress().getHostAddress());
+        checkRemoteAddress();
+    }
+
+    /**
+     * Decide once per connection if the remote address is allowed to relay and if it needs to authenticate, as this 
+     * will not change while the connection is open. The {@link InetAddress} is only used directly for a plain
+     * {@link SMTPConfigurationImpl}, as a subclass may override the methods which take the address as {@link String}
+     */
+    private void checkRemoteAddress() {
+        InetAddress remoteAddress = getRemoteAddress().getAddress();
+        SMTPConfiguration config = getConfiguration();
+        if (config.getClass() == SMTPConfigurationImpl.class) {
+            relayingAllowed = ((SMTPConfigurationImpl) config).isRelayingAllowed(remoteAddress);
+            authSupported = ((SMTPConfigurationImpl) config).isAuthRequired(remoteAddress);
+        } else {
+            String remoteIP = remoteAddress.getHostAddress();
+            relayingAllowed = config.isRelayingAllowed(remoteIP);
+            authSupported = config.isAuthRequired(remoteIP);
+        }
     }
 
 
@@ -56,16 +76,22 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
      */
     public void resetState() {
         // remember the ehlo mode between resets
-        Object currentHeloMode = getState().get(CURRENT_HELO_MODE);
+        Object currentHeloMode = getAttachment(CURRENT_HELO_MODE, State.Transaction);
 
-        getState().clear();
+        super.resetState();
 
         // start again with the old helo mode
         if (currentHeloMode != null) {
-            getState().put(CURRENT_HELO_MODE, currentHeloMode);
+            setAttachment(CURRENT_HELO_MODE, currentHeloMode, State.Transaction);
         }
     }
 
+    @Override
+    protected void recycle(ProtocolTransport transport) {
+        super.recycle(transport);
+        checkRemoteAddress();
+    }
+
     /**
      * @see org.apache.james.protocols.smtp.SMTPSession#popLineHandler()
      */
@@ -83,13 +109,13 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
     /**
      * @see org.apache.james.protocols.smtp.SMTPSession#getRcptCount()
      */
-    @SuppressWarnings("unchecked")
     public int getRcptCount() {
         int count = 0;
 
         // check if the key exists
-        if (getState().get(SMTPSession.RCPT_LIST) != null) {
-            count = ((Collection<MailAddress>) getState().get(SMTPSession.RCPT_LIST)).size();
+        Collection<MailAddress> rcpts = getAttachment(RCPT_LIST_KEY);
+        if (rcpts != null) {
+            count = rcpts.size();
         }
 
         return count;
@@ -99,7 +125,7 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
      * @see org.apache.james.protocols.smtp.SMTPSession#isAuthSupported()
      */
     public boolean isAuthSupported() {
-        return getConfiguration().isAuthRequired(getRemoteAddress().getAddress().getHostAddress());
+        return authSupported;
     }
 
     /**
@@ -22,6 +22,7 @@ package org.apache.james.protocols.smtp.core;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.james.protocols.api.DelayedResponse;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.CommandHandler;
@@ -86,7 +87,9 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
             int count = hooks.size();
             for (int i = 0; i < count; i++) {
                 Hook rawHook = hooks.get(i);
-                session.getLogger().debug("executing hook " + rawHook.getClass().getName());
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("executing hook " + rawHook.getClass().getName());
+                }
                 long start = System.currentTimeMillis();
                 
                 HookResult hRes = callHook(rawHook, session, parameters);
@@ -95,7 +98,9 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                 if (rHooks != null) {
                     for (int i2 = 0; i2 < rHooks.size(); i2++) {
                         Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing hook " + rHook);
+                        if (session.getLogger().isDebugEnabled()) {
+                            session.getLogger().debug("executing hook " + rHook);
+                        }
                         hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHook);
                     }
                 }
@@ -103,15 +108,17 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                 // call the core cmd if we receive a ok return code of the hook so no other hooks are executed
                 if ((hRes.getResult() & HookReturnCode.OK) == HookReturnCode.OK) {
                     final Response response = doCoreCmd(session, command, parameters);
-                    if ((hRes.getResult() & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
-                        return new Response() {
+                    final boolean disconnect = (hRes.getResult() & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT;
+                    final long delay = hRes.getDelay();
+                    if (disconnect || delay > 0) {
+                        return new DelayedResponse() {
                             
                             /*
                              * (non-Javadoc)
                              * @see org.apache.james.protocols.api.Response#isEndSession()
                              */
                             public boolean isEndSession() {
-                                return true;
+                                return disconnect || response.isEndSession();
                             }
                             
                             /*
@@ -129,6 +136,14 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                             public List<CharSequence> getLines() {
                                 return response.getLines();
                             }
+
+                            /*
+                             * (non-Javadoc)
+                             * @see org.apache.james.protocols.api.DelayedResponse#getDelay()
+                             */
+                            public long getDelay() {
+                                return delay;
+                            }
                         };
                     }
                     return response;
@@ -156,6 +171,10 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
     /**
      * Convert the HookResult to SMTPResponse using default values. Should be override for using own values
      * 
+     * {@link HookReturnCode#DENY} and {@link HookReturnCode#DENYSOFT} may be combined with the other flags. So 
+     * <code>DENYSOFT | DISCONNECT</code> gives the 4xx response and ends the session, just like 
+     * <code>DENY | DISCONNECT</code> does with the 5xx response. 
+     * 
      * @param result HookResult
      * @return SMTPResponse
      */
@@ -175,8 +194,9 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
-            } else if (rCode == HookReturnCode.DENYSOFT) {
+            } else if ((rCode & HookReturnCode.DENYSOFT) == HookReturnCode.DENYSOFT) {
                 if (smtpRetCode == null)
                     smtpRetCode = SMTPRetCode.LOCAL_ERROR;
                 if (smtpDesc == null)
@@ -186,6 +206,7 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
             } else if ((rCode & HookReturnCode.OK) == HookReturnCode.OK) {
                 if (smtpRetCode == null)
@@ -197,10 +218,12 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
             } else if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                 SMTPResponse response = new SMTPResponse("");
                 response.setEndSession(true);
+                response.setDelay(result.getDelay());
                 return response;
             } else {
                 // Return null as default
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.james.protocols.api.AttributeKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
@@ -88,6 +89,7 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
     }
    
     public final static String MAILENV = "MAILENV";
+    public final static AttributeKey<MailEnvelope> MAILENV_KEY = AttributeKey.create(MAILENV, ProtocolSession.State.Transaction);
     
     private LineHandler<SMTPSession> lineHandler;
     
@@ -115,10 +117,17 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
      * @param session SMTP session object
      * @param argument the argument passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doDATA(SMTPSession session, String argument) {
-        MailEnvelope env = createEnvelope(session, (MailAddress) session.getAttachment(SMTPSession.SENDER,ProtocolSession.State.Transaction), new ArrayList<MailAddress>((Collection<MailAddress>)session.getAttachment(SMTPSession.RCPT_LIST,ProtocolSession.State.Transaction)));
-        session.setAttachment(MAILENV, env,ProtocolSession.State.Transaction);
+        Collection<MailAddress> rcpts = session.getAttachment(SMTPSession.RCPT_LIST_KEY);
+        List<MailAddress> recipients;
+        if (rcpts instanceof List) {
+            // the list is not used by the transaction anymore, so there is no need to copy it
+            recipients = (List<MailAddress>) rcpts;
+        } else {
+            recipients = new ArrayList<MailAddress>(rcpts);
+        }
+        MailEnvelope env = createEnvelope(session, session.getAttachment(SMTPSession.SENDER_KEY), recipients);
+        session.setAttachment(MAILENV_KEY, env);
         session.pushLineHandler(lineHandler);
         
         return DATA_READY;
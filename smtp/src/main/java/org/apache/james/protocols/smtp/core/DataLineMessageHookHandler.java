@@ -27,7 +27,6 @@ import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.ExtensibleHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
@@ -63,7 +62,7 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
      * @see org.apache.james.protocols.smtp.core.DataLineFilter#onLine(org.apache.james.protocols.smtp.SMTPSession, java.nio.ByteBuffer, org.apache.james.protocols.api.handler.LineHandler)
      */
     public Response onLine(final SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
-        MailEnvelopeImpl env = (MailEnvelopeImpl) session.getAttachment(DataCmdHandler.MAILENV, ProtocolSession.State.Transaction);
+        MailEnvelopeImpl env = (MailEnvelopeImpl) session.getAttachment(DataCmdHandler.MAILENV_KEY);
         OutputStream out = env.getMessageOutputStream();
         try {
             // 46 is "."
@@ -122,7 +121,9 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
             int count = messageHandlers.size();
             for (int i = 0; i < count; i++) {
                 MessageHook rawHandler = (MessageHook) messageHandlers.get(i);
-                session.getLogger().debug("executing message handler " + rawHandler);
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("executing message handler " + rawHandler);
+                }
 
                 long start = System.currentTimeMillis();
                 HookResult hRes = rawHandler.onMessage(session, mail);
@@ -131,7 +132,9 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
                 if (rHooks != null) {
                     for (int i2 = 0; i2 < rHooks.size(); i2++) {
                         Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing hook " + rHook);
+                        if (session.getLogger().isDebugEnabled()) {
+                            session.getLogger().debug("executing hook " + rHook);
+                        }
 
                         hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHandler);
                     }
@@ -19,7 +19,6 @@
 
 package org.apache.james.protocols.smtp.core;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -30,6 +29,7 @@ import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.RecipientList;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -62,18 +62,16 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
      * @param parameters
      *            parameters passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doCoreCmd(SMTPSession session, String command,
             String parameters) {
-        Collection<MailAddress> rcptColl = (Collection<MailAddress>) session.getAttachment(
-                SMTPSession.RCPT_LIST, State.Transaction);
+        Collection<MailAddress> rcptColl = session.getAttachment(SMTPSession.RCPT_LIST_KEY);
         if (rcptColl == null) {
-            rcptColl = new ArrayList<MailAddress>();
+            rcptColl = new RecipientList();
+            session.setAttachment(SMTPSession.RCPT_LIST_KEY, rcptColl);
         }
         MailAddress recipientAddress = (MailAddress) session.getAttachment(
                 CURRENT_RECIPIENT, State.Transaction);
         rcptColl.add(recipientAddress);
-        session.setAttachment(SMTPSession.RCPT_LIST, rcptColl, State.Transaction);
         StringBuilder response = new StringBuilder();
         response
                 .append(
@@ -22,15 +22,13 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Collection;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
+import org.apache.james.protocols.api.AttributeKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.LineHandler;
-import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPSession;
 
 public class ReceivedDataLineFilter implements DataLineFilter {
@@ -47,7 +45,7 @@ public class ReceivedDataLineFilter implements DataLineFilter {
         
     };
 
-    private final static String HEADERS_WRITTEN = "HEADERS_WRITTEN";
+    private final static AttributeKey<Boolean> HEADERS_WRITTEN = AttributeKey.create("HEADERS_WRITTEN", State.Transaction);
 
 
 
@@ -56,10 +54,10 @@ public class ReceivedDataLineFilter implements DataLineFilter {
      * @see org.apache.james.protocols.smtp.core.DataLineFilter#onLine(org.apache.james.protocols.smtp.SMTPSession, java.nio.ByteBuffer, org.apache.james.protocols.api.handler.LineHandler)
      */
     public Response onLine(SMTPSession session,  ByteBuffer line, LineHandler<SMTPSession> next) {
-        if (session.getAttachment(HEADERS_WRITTEN, State.Transaction) == null) {
+        if (session.getAttachment(HEADERS_WRITTEN) == null) {
             Response response = addNewReceivedMailHeaders(session, next);
 
-            session.setAttachment(HEADERS_WRITTEN, true, State.Transaction);
+            session.setAttachment(HEADERS_WRITTEN, Boolean.TRUE);
             
             if (response != null) {
                 return response;
@@ -69,7 +67,6 @@ public class ReceivedDataLineFilter implements DataLineFilter {
         return resp;
     }
 
-    @SuppressWarnings("unchecked")
     private Response addNewReceivedMailHeaders(SMTPSession session, LineHandler<SMTPSession> next) {
         try {
             StringBuilder headerLineBuffer = new StringBuilder();
@@ -97,7 +94,7 @@ public class ReceivedDataLineFilter implements DataLineFilter {
            
             headerLineBuffer.append(" ID ").append(session.getSessionID());
 
-            if (((Collection<?>) session.getAttachment(SMTPSession.RCPT_LIST, State.Transaction)).size() == 1) {
+            if (session.getAttachment(SMTPSession.RCPT_LIST_KEY).size() == 1) {
                 // Only indicate a recipient if they're the only recipient
                 // (prevents email address harvesting and large headers in
                 // bulk email)
@@ -106,7 +103,7 @@ public class ReceivedDataLineFilter implements DataLineFilter {
                 headerLineBuffer.delete(0, headerLineBuffer.length());
 
                 headerLineBuffer.delete(0, headerLineBuffer.length());
-                headerLineBuffer.append("          for <").append(((List<MailAddress>) session.getAttachment(SMTPSession.RCPT_LIST, State.Transaction)).get(0).toString()).append(">;").append("\r\n");
+                headerLineBuffer.append("          for <").append(session.getAttachment(SMTPSession.RCPT_LIST_KEY).iterator().next().toString()).append(">;").append("\r\n");
                 response = next.onLine(session, ByteBuffer.wrap(headerLineBuffer.toString().getBytes(CHARSET)));
 
                 if (response != null) {
@@ -343,7 +343,9 @@ public class AuthCmdHandler
             int count = hooks.size();
             for (int i = 0; i < count; i++) {
                 AuthHook rawHook = hooks.get(i);
-                session.getLogger().debug("executing  hook " + rawHook);
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("executing  hook " + rawHook);
+                }
                 
 
                 long start = System.currentTimeMillis();
@@ -353,7 +355,9 @@ public class AuthCmdHandler
                 if (rHooks != null) {
                     for (int i2 = 0; i2 < rHooks.size(); i2++) {
                         Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing  hook " + rHook);
+                        if (session.getLogger().isDebugEnabled()) {
+                            session.getLogger().debug("executing  hook " + rHook);
+                        }
                     
                         hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHook);
                     }
@@ -404,6 +408,7 @@ public class AuthCmdHandler
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
             } else if ((rCode & HookReturnCode.DENYSOFT) == HookReturnCode.DENYSOFT) {
                 if (smtpRetCode == null)
@@ -416,6 +421,7 @@ public class AuthCmdHandler
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
             } else if ((rCode & HookReturnCode.OK) == HookReturnCode.OK) {
                 if (smtpRetCode == null)
@@ -428,10 +434,12 @@ public class AuthCmdHandler
                 if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                     response.setEndSession(true);
                 }
+                response.setDelay(result.getDelay());
                 return response;
             } else if ((rCode & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
                 SMTPResponse response =  new SMTPResponse("");
                 response.setEndSession(true);
+                response.setDelay(result.getDelay());
             
                 return response;
             } else {
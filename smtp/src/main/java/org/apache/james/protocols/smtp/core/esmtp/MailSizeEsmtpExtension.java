@@ -24,9 +24,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.james.protocols.api.AttributeKey;
+import org.apache.james.protocols.api.CounterKey;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelope;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -42,8 +45,9 @@ import org.apache.james.protocols.smtp.hook.MessageHook;
  */
 public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension, DataLineFilter, MessageHook {
 
-    private final static String MESG_SIZE = "MESG_SIZE"; // The size of the
-    private final static String MESG_FAILED = "MESG_FAILED";   // Message failed flag
+    private final static AttributeKey<Integer> MESG_SIZE = AttributeKey.create("MESG_SIZE", State.Transaction); // The size of the
+    private final static AttributeKey<Boolean> MESG_FAILED = AttributeKey.create("MESG_FAILED", State.Transaction);   // Message failed flag
+    private final static CounterKey CURRENT_SIZE = CounterKey.create("CURRENT_SIZE", State.Transaction); // The size of the data received so far
     private final static String[] MAIL_PARAMS = { "SIZE" };
     
     private static final HookResult SYNTAX_ERROR = new HookResult(HookReturnCode.DENY, SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Syntactically incorrect value for SIZE parameter");
@@ -56,8 +60,9 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
      */
     public HookResult doMailParameter(SMTPSession session, String paramName,
             String paramValue) {
+        MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY);
         HookResult res = doMailSize(session, paramValue,
-                (String) session.getAttachment(SMTPSession.SENDER, State.Transaction));
+                sender != null ? sender.toString() : null);
         return res;
     }
 
@@ -129,7 +134,7 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
         } else {
             // put the message size in the message state so it can be used
             // later to restrict messages for user quotas, etc.
-            session.setAttachment(MESG_SIZE, Integer.valueOf(size), State.Transaction);
+            session.setAttachment(MESG_SIZE, Integer.valueOf(size));
         }
         return null;
     }
@@ -140,7 +145,7 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
      */
     public Response onLine(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
         Response response = null;
-    	Boolean failed = (Boolean) session.getAttachment(MESG_FAILED, State.Transaction);
+        Boolean failed = session.getAttachment(MESG_FAILED);
         // If we already defined we failed and sent a reply we should simply
         // wait for a CRLF.CRLF to be sent by the client.
         if (failed != null && failed.booleanValue()) {
@@ -151,20 +156,14 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
                 response = next.onLine(session, line);
             } else {
                 line.rewind();
-                Long currentSize = (Long) session.getAttachment("CURRENT_SIZE", State.Transaction);
-                Long newSize;
-                if (currentSize == null) {
-                    newSize = Long.valueOf(line.remaining());
-                } else {
-                    newSize = Long.valueOf(currentSize.intValue()+line.remaining());
-                }
+                long newSize = session.addToCounter(CURRENT_SIZE, line.remaining());
                 
-                if (session.getConfiguration().getMaxMessageSize() > 0 && newSize.intValue() > session.getConfiguration().getMaxMessageSize()) {
+                if (session.getConfiguration().getMaxMessageSize() > 0 && newSize > session.getConfiguration().getMaxMessageSize()) {
                     // Add an item to the state to suppress
                     // logging of extra lines of data
                     // that are sent after the size limit has
                     // been hit.
-                    session.setAttachment(MESG_FAILED, Boolean.TRUE, State.Transaction);
+                    session.setAttachment(MESG_FAILED, Boolean.TRUE);
                     // then let the client know that the size
                     // limit has been hit.
                     response = next.onLine(session, ByteBuffer.wrap(".\r\n".getBytes()));
@@ -172,8 +171,6 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
                     line.rewind();
                     response = next.onLine(session, line);
                 }
-                
-                session.setAttachment("CURRENT_SIZE", newSize, State.Transaction);
             }
         }
         return response;
@@ -183,12 +180,12 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
      * @see org.apache.james.protocols.smtp.hook.MessageHook#onMessage(SMTPSession, MailEnvelope)
      */
     public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
-        Boolean failed = (Boolean) session.getAttachment(MESG_FAILED, State.Transaction);
+        Boolean failed = session.getAttachment(MESG_FAILED);
         if (failed != null && failed.booleanValue()) {
             
             StringBuilder errorBuffer = new StringBuilder(256).append(
                     "Rejected message from ").append(
-                    session.getAttachment(SMTPSession.SENDER, State.Transaction).toString())
+                    session.getAttachment(SMTPSession.SENDER_KEY).toString())
                     .append(" from ").append(session.getRemoteAddress().getAddress().getHostAddress())
                     .append(" exceeding system maximum message size of ")
                     .append(
@@ -47,9 +47,9 @@ public abstract class AbstractGreylistHandler implements RcptHook {
     private long unseenLifeTime = 14400000;
 
 
-    private static final HookResult TO_FAST = new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_DIR_SERVER) 
+    protected static final HookResult TO_FAST = new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_DIR_SERVER) 
             + " Temporary rejected: Reconnect to fast. Please try again later");
-    private static final HookResult TEMPORARY_REJECT = new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_DIR_SERVER) 
+    protected static final HookResult TEMPORARY_REJECT = new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_DIR_SERVER) 
             + " Temporary rejected: Please try again later");
     public void setUnseenLifeTime(long unseenLifeTime) {
         this.unseenLifeTime = unseenLifeTime;
@@ -63,8 +63,29 @@ public abstract class AbstractGreylistHandler implements RcptHook {
         this.tempBlockTime = tempBlockTime;
     }
 
+    public long getUnseenLifeTime() {
+        return unseenLifeTime;
+    }
+    
+    public long getAutoWhiteListLifeTime() {
+        return autoWhiteListLifeTime;
+    }
+    
+    public long getTempBlockTime() {
+        return tempBlockTime;
+    }
 
-    private HookResult doGreyListCheck(SMTPSession session, MailAddress senderAddress, MailAddress recipAddress) {
+
+    /**
+     * Check the triplet and return the {@link HookResult} for it. Subclasses which don't need the string based 
+     * methods may override this to access their store directly
+     * 
+     * @param session
+     * @param senderAddress
+     * @param recipAddress
+     * @return result
+     */
+    protected HookResult doGreyListCheck(SMTPSession session, MailAddress senderAddress, MailAddress recipAddress) {
         String recip = "";
         String sender = "";
 
@@ -22,6 +22,12 @@
 
 package org.apache.james.protocols.smtp.core.fastfail;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -34,9 +40,84 @@ import org.apache.james.protocols.smtp.hook.RcptHook;
 /**
  * Handler which want todo an recipient check should extend this
  *
+ * The results of {@link #isValidRecipient(SMTPSession, MailAddress)} can be cached for a limited time via 
+ * {@link #setCacheSize(int)}. This should only be used if the result does not depend on the {@link SMTPSession}.
+ * 
+ * Directory harvest attacks can be detected via {@link #setMaxUnknownRecipients(int)}. If an IP which is not allowed to 
+ * relay sends to many unknown recipients within the configured time window, all its recipients are rejected and the 
+ * connection is closed without calling {@link #isValidRecipient(SMTPSession, MailAddress)}, until the window is over.
+ * At most {@value #MAX_TRACKED_IPS} IPs are tracked, if more send unknown recipients the least recently seen is dropped.
  */
 public abstract class AbstractValidRcptHandler implements RcptHook {
 
+    private final static int MAX_TRACKED_IPS = 10000;
+    
+    // access ordered, so the least recently seen IP is dropped first. All access must be synchronized on the instance
+    private final Map<String, UnknownRecipients> unknownRecipients = new LinkedHashMap<String, UnknownRecipients>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UnknownRecipients> eldest) {
+            return size() > MAX_TRACKED_IPS;
+        }
+    };
+    private final AtomicLong blocked = new AtomicLong(0);
+    private volatile ValidationCache cache;
+    
+    private volatile long validTTL = TimeUnit.MINUTES.toNanos(5);
+    private volatile long invalidTTL = TimeUnit.MINUTES.toNanos(1);
+    private volatile int maxUnknown = -1;
+    private volatile long unknownWindow = TimeUnit.MINUTES.toNanos(5);
+    
+    /**
+     * Set the maximal count of recipients for which the result of {@link #isValidRecipient(SMTPSession, MailAddress)} 
+     * is cached. The default is <code>0</code>, which disables the cache
+     * 
+     * @param cacheSize
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cache = cacheSize > 0 ? new ValidationCache(cacheSize) : null;
+    }
+    
+    /**
+     * Set the time in milliseconds for which a valid recipient is cached. The default is 300000
+     * 
+     * @param validTTL
+     */
+    public void setValidTTL(long validTTL) {
+        this.validTTL = TimeUnit.MILLISECONDS.toNanos(validTTL);
+    }
+    
+    /**
+     * Set the time in milliseconds for which an unknown recipient is cached. The default is 60000
+     * 
+     * @param invalidTTL
+     */
+    public void setInvalidTTL(long invalidTTL) {
+        this.invalidTTL = TimeUnit.MILLISECONDS.toNanos(invalidTTL);
+    }
+    
+    /**
+     * Set the count of unknown recipients within the window after which an IP gets blocked. The default is 
+     * <code>-1</code>, which disables the blocking
+     * 
+     * @param maxUnknown
+     */
+    public void setMaxUnknownRecipients(int maxUnknown) {
+        this.maxUnknown = maxUnknown;
+        synchronized (unknownRecipients) {
+            unknownRecipients.clear();
+        }
+    }
+    
+    /**
+     * Set the window in milliseconds in which the unknown recipients of an IP are counted. The default is 300000
+     * 
+     * @param unknownWindow
+     */
+    public void setUnknownRecipientsWindow(long unknownWindow) {
+        this.unknownWindow = TimeUnit.MILLISECONDS.toNanos(unknownWindow);
+    }
     
     /**
      * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.mailet.MailAddress, org.apache.mailet.MailAddress)
@@ -47,16 +128,45 @@ public abstract class AbstractValidRcptHandler implements RcptHook {
         if (session.isRelayingAllowed()) {
             // check if the domain is local, if so we still want to check if the recipient is valid or not as we want to fail fast in such cases
             if (isLocalDomain(session, rcpt.getDomain())) {
-                if (isValidRecipient(session, rcpt) == false) {
+                if (isValid(session, rcpt) == false) {
                     reject = true;
                 }
             }
         } else {
             if (isLocalDomain(session, rcpt.getDomain()) == false) {
-                session.getLogger().debug("Unknown domain " + rcpt.getDomain() + " so reject it");
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("Unknown domain " + rcpt.getDomain() + " so reject it");
+                }
 
             } else {
-                if (isValidRecipient(session, rcpt) == false) {
+                int maxUnknown = this.maxUnknown;
+                if (maxUnknown > 0) {
+                    String ip = session.getRemoteAddress().getAddress().getHostAddress();
+                    long now = System.nanoTime();
+                    UnknownRecipients unknown;
+                    synchronized (unknownRecipients) {
+                        unknown = unknownRecipients.get(ip);
+                    }
+                    if (unknown != null && unknown.isBlocked(now, unknownWindow)) {
+                        return harvestDetected(session, ip);
+                    }
+                    if (isValid(session, rcpt) == false) {
+                        session.getLogger().info("Rejected message. Unknown user: " + rcpt.toString());
+                        if (unknown == null) {
+                            synchronized (unknownRecipients) {
+                                unknown = unknownRecipients.get(ip);
+                                if (unknown == null) {
+                                    unknown = new UnknownRecipients(maxUnknown);
+                                    unknownRecipients.put(ip, unknown);
+                                }
+                            }
+                        }
+                        if (unknown.add(now, unknownWindow)) {
+                            return harvestDetected(session, ip);
+                        }
+                        return unknownUser(rcpt);
+                    }
+                } else if (isValid(session, rcpt) == false) {
                     reject= true;
                 }
             }
@@ -65,13 +175,91 @@ public abstract class AbstractValidRcptHandler implements RcptHook {
         if (reject) {
           //user not exist
             session.getLogger().info("Rejected message. Unknown user: " + rcpt.toString());
-            return new HookResult(HookReturnCode.DENY,SMTPRetCode.MAILBOX_PERM_UNAVAILABLE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.ADDRESS_MAILBOX) + " Unknown user: " + rcpt.toString());
+            return unknownUser(rcpt);
         } else {
             return HookResult.declined();
         }
     }
     
-  
+    private HookResult unknownUser(MailAddress rcpt) {
+        return new HookResult(HookReturnCode.DENY,SMTPRetCode.MAILBOX_PERM_UNAVAILABLE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.ADDRESS_MAILBOX) + " Unknown user: " + rcpt.toString());
+    }
+    
+    private HookResult harvestDetected(SMTPSession session, String ip) {
+        blocked.incrementAndGet();
+        session.getLogger().info("Rejected message. To many unknown users from " + ip);
+        return new HookResult(HookReturnCode.DENY | HookReturnCode.DISCONNECT, SMTPRetCode.SERVICE_NOT_AVAILABLE, 
+                DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.SECURITY_OTHER) + " To many unknown users. Closing connection");
+    }
+    
+    /**
+     * Lookup the recipient in the cache and call {@link #isValidRecipient(SMTPSession, MailAddress)} if it is not cached
+     */
+    private boolean isValid(SMTPSession session, MailAddress rcpt) {
+        ValidationCache cache = this.cache;
+        if (cache == null) {
+            return isValidRecipient(session, rcpt);
+        }
+        String key = rcpt.toCanonicalString();
+        long now = System.nanoTime();
+        Boolean valid = cache.get(key, now);
+        if (valid == null) {
+            valid = isValidRecipient(session, rcpt);
+            cache.put(key, valid, now + (valid ? validTTL : invalidTTL));
+        }
+        return valid;
+    }
+    
+    /**
+     * Remove all recipients from the cache
+     */
+    public void clearCache() {
+        ValidationCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * Return the count of lookups which were served by the cache
+     * 
+     * @return hits
+     */
+    public long getCacheHitCount() {
+        ValidationCache cache = this.cache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+    
+    /**
+     * Return the count of lookups which were not served by the cache
+     * 
+     * @return misses
+     */
+    public long getCacheMissCount() {
+        ValidationCache cache = this.cache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+    
+    /**
+     * Return the count of recipients which were rejected because the IP sent to many unknown recipients
+     * 
+     * @return blocked
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+    
+    /**
+     * Return the count of IPs for which unknown recipients are tracked
+     * 
+     * @return count
+     */
+    public int getTrackedIPCount() {
+        synchronized (unknownRecipients) {
+            return unknownRecipients.size();
+        }
+    }
+    
     /**
      * Return true if email for the given recipient should get accepted
      * 
@@ -88,4 +276,95 @@ public abstract class AbstractValidRcptHandler implements RcptHook {
      * @return local
      */
     protected abstract boolean isLocalDomain(SMTPSession session, String domain);
+    
+    /**
+     * Least recently used cache of validation results which expire after their TTL
+     */
+    private final static class ValidationCache {
+        private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        private final int maxSize;
+        private long hits;
+        private long misses;
+        
+        public ValidationCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+        
+        public synchronized Boolean get(String key, long now) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.expires - now <= 0) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.valid;
+        }
+        
+        public synchronized void put(String key, boolean valid, long expires) {
+            entries.put(key, new CacheEntry(valid, expires));
+            if (entries.size() > maxSize) {
+                Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        
+        public synchronized void clear() {
+            entries.clear();
+        }
+        
+        public synchronized long getHitCount() {
+            return hits;
+        }
+        
+        public synchronized long getMissCount() {
+            return misses;
+        }
+    }
+    
+    private final static class CacheEntry {
+        private final boolean valid;
+        private final long expires;
+        
+        public CacheEntry(boolean valid, long expires) {
+            this.valid = valid;
+            this.expires = expires;
+        }
+    }
+    
+    /**
+     * Sliding window of the times at which the last unknown recipients of an IP were seen. The IP is blocked if the oldest
+     * of them is still within the window
+     */
+    private final static class UnknownRecipients {
+        private final long[] times;
+        private int next;
+        private int count;
+        
+        public UnknownRecipients(int maxUnknown) {
+            this.times = new long[maxUnknown];
+        }
+        
+        /**
+         * Add an unknown recipient and return <code>true</code> if the IP is blocked now
+         */
+        public synchronized boolean add(long now, long window) {
+            times[next] = now;
+            next = (next + 1) % times.length;
+            if (count < times.length) {
+                count++;
+            }
+            return isBlocked(now, window);
+        }
+        
+        public synchronized boolean isBlocked(long now, long window) {
+            // next points to the oldest time if all slots are used
+            return count == times.length && now - times[next] < window;
+        }
+
+    }
 }
@@ -51,6 +51,8 @@ public class DNSRBLHandler implements  RcptHook{
     
     private String blocklistedDetail = null;
     
+    private long tarpitTime = 0;
+    
     public static final String RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME = "org.apache.james.smtpserver.rbl.blocklisted";
     
     public static final String RBL_DETAIL_MAIL_ATTRIBUTE_NAME = "org.apache.james.smtpserver.rbl.detail";
@@ -64,6 +66,15 @@ public class DNSRBLHandler implements  RcptHook{
         this.dnsService = dnsService;
     }
 
+    /**
+     * Set the time in milliseconds by which the response to a blocklisted client is delayed. Use <code>0</code> (the default) to
+     * answer without delay
+     * 
+     * @param tarpitTime
+     */
+    public void setTarpitTime(long tarpitTime) {
+        this.tarpitTime = tarpitTime;
+    }
    
     
     /**
@@ -194,12 +205,16 @@ public class DNSRBLHandler implements  RcptHook{
             String blocklisted = (String) session.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection);
     
             if (blocklisted != null) { // was found in the RBL
+                int rCode = HookReturnCode.DENY;
+                if (tarpitTime > 0) {
+                    rCode |= HookReturnCode.TARPIT;
+                }
                 if (blocklistedDetail == null) {
-                    return new HookResult(HookReturnCode.DENY,DSNStatus.getStatus(DSNStatus.PERMANENT,
+                    return new HookResult(rCode, null, DSNStatus.getStatus(DSNStatus.PERMANENT,
                             DSNStatus.SECURITY_AUTH)  + " Rejected: unauthenticated e-mail from " + session.getRemoteAddress().getAddress() 
-                            + " is restricted.  Contact the postmaster for details.");
+                            + " is restricted.  Contact the postmaster for details.", tarpitTime);
                 } else {
-                    return new HookResult(HookReturnCode.DENY,DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.SECURITY_AUTH) + " " + blocklistedDetail);
+                    return new HookResult(rCode, null, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.SECURITY_AUTH) + " " + blocklistedDetail, tarpitTime);
                 }
                
             }
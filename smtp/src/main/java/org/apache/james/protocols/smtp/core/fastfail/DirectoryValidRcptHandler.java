@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.RecipientDirectory;
+import org.apache.james.protocols.smtp.SMTPSession;
+
+/**
+ * {@link AbstractValidRcptHandler} which use a {@link RecipientDirectory} to lookup the local domains and the valid
+ * recipients
+ */
+public class DirectoryValidRcptHandler extends AbstractValidRcptHandler {
+
+    private RecipientDirectory directory;
+    
+    public void setRecipientDirectory(RecipientDirectory directory) {
+        this.directory = directory;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractValidRcptHandler#isValidRecipient(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress)
+     */
+    @Override
+    protected boolean isValidRecipient(SMTPSession session, MailAddress recipient) {
+        return directory.isValidRecipient(recipient);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractValidRcptHandler#isLocalDomain(org.apache.james.protocols.smtp.SMTPSession, java.lang.String)
+     */
+    @Override
+    protected boolean isLocalDomain(SMTPSession session, String domain) {
+        return directory.isLocalDomain(domain);
+    }
+
+}
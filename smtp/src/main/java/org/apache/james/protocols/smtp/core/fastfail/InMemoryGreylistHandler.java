@@ -0,0 +1,476 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+
+/**
+ * {@link AbstractGreylistHandler} which keeps the triplets in memory. 
+ * 
+ * A triplet is stored as 64-bit hash of the network of the client (/24 for IPv4 and /64 for IPv6, as big senders retry
+ * from other hosts of the same network), the sender and the recipient, together with the timestamp and the count. The
+ * table is split into stripes which are locked independently, so concurrent sessions rarely wait for each other.
+ * 
+ * Expired triplets are removed by {@link #expire()}, which is called periodically if a {@link ScheduledExecutorService} is 
+ * set via {@link #setExpireExecutor(ScheduledExecutorService)}. Every run expires one stripe, so the work is spread over
+ * the expire interval. Till then an expired triplet is treated like an unknown one on lookup.
+ * 
+ * The triplets can be written to a snapshot file via {@link #writeSnapshot(File)} and loaded from it via 
+ * {@link #loadSnapshot(File)}, so already whitelisted clients are not greylisted again after a restart.
+ */
+public class InMemoryGreylistHandler extends AbstractGreylistHandler {
+
+    private final static int STRIPES = 16;
+    private final static int INITIAL_CAPACITY = 64;
+    
+    private final static int SNAPSHOT_MAGIC = 0x47524c53; // GRLS
+    private final static int SNAPSHOT_VERSION = 1;
+    private final static int SNAPSHOT_HEADER_SIZE = 12;
+    private final static int SNAPSHOT_ENTRY_SIZE = 20;
+
+    private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private long expireInterval = 60000;
+    private ScheduledFuture<?> expireFuture;
+    private int nextExpire;
+    
+    public InMemoryGreylistHandler() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    /**
+     * Set the time in milliseconds in which all triplets are checked for expiration once. The default is 60000. This must
+     * be set before {@link #setExpireExecutor(ScheduledExecutorService)}
+     * 
+     * @param expireInterval
+     */
+    public synchronized void setExpireInterval(long expireInterval) {
+        this.expireInterval = expireInterval;
+    }
+    
+    /**
+     * Set the {@link ScheduledExecutorService} which is used to expire the triplets in the background. Use <code>null</code>
+     * to stop the expiration
+     * 
+     * @param executor
+     */
+    public synchronized void setExpireExecutor(ScheduledExecutorService executor) {
+        if (expireFuture != null) {
+            expireFuture.cancel(false);
+            expireFuture = null;
+        }
+        if (executor != null) {
+            long period = Math.max(1, expireInterval / STRIPES);
+            expireFuture = executor.scheduleWithFixedDelay(new Runnable() {
+                
+                public void run() {
+                    expireNext();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Expire the next stripe
+     */
+    private void expireNext() {
+        int stripe;
+        synchronized (this) {
+            stripe = nextExpire;
+            nextExpire = (nextExpire + 1) % STRIPES;
+        }
+        long now = System.currentTimeMillis();
+        stripes[stripe].remove(now - getUnseenLifeTime(), now - getAutoWhiteListLifeTime());
+    }
+    
+    /**
+     * Remove all expired triplets
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        long unseen = now - getUnseenLifeTime();
+        long autoWhiteList = now - getAutoWhiteListLifeTime();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].remove(unseen, autoWhiteList);
+        }
+    }
+    
+    /**
+     * Return the count of stored triplets
+     * 
+     * @return size
+     */
+    public int getSize() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            size += stripes[i].getSize();
+        }
+        return size;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#doGreyListCheck(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    @Override
+    protected HookResult doGreyListCheck(SMTPSession session, MailAddress senderAddress, MailAddress recipAddress) {
+        long key = key(session.getRemoteAddress().getAddress().getAddress(), 
+                senderAddress == null ? "" : senderAddress.toCanonicalString(), 
+                recipAddress == null ? "" : recipAddress.toCanonicalString());
+        long time = System.currentTimeMillis();
+        
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0 || isExpired(stripe.times[slot], stripe.counts[slot], time)) {
+                stripe.put(key, time, 0);
+                return TEMPORARY_REJECT;
+            }
+            int count = stripe.counts[slot];
+            if (count == 0 && time < stripe.times[slot] + getTempBlockTime()) {
+                return TO_FAST;
+            }
+            stripe.times[slot] = time;
+            if (count < Integer.MAX_VALUE) {
+                stripe.counts[slot] = count + 1;
+            }
+        }
+        return HookResult.declined();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#getGreyListData(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    protected Iterator<String> getGreyListData(String ipAddress, String sender, String recip) throws Exception {
+        long key = key(ipAddress, sender, recip);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0) {
+                return Collections.<String>emptyList().iterator();
+            }
+            return Arrays.asList(String.valueOf(stripe.times[slot]), String.valueOf(stripe.counts[slot])).iterator();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#insertTriplet(java.lang.String, java.lang.String, java.lang.String, int, long)
+     */
+    @Override
+    protected void insertTriplet(String ipAddress, String sender, String recip, int count, long createTime) throws Exception {
+        long key = key(ipAddress, sender, recip);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, createTime, count);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#updateTriplet(java.lang.String, java.lang.String, java.lang.String, int, long)
+     */
+    @Override
+    protected void updateTriplet(String ipAddress, String sender, String recip, int count, long time) throws Exception {
+        long key = key(ipAddress, sender, recip);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, time, count + 1);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#cleanupAutoWhiteListGreyList(long)
+     */
+    @Override
+    protected void cleanupAutoWhiteListGreyList(long time) throws Exception {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].remove(Long.MIN_VALUE, time);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#cleanupGreyList(long)
+     */
+    @Override
+    protected void cleanupGreyList(long time) throws Exception {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].remove(time, Long.MIN_VALUE);
+        }
+    }
+    
+    /**
+     * Write all triplets to the given file. The file is replaced atomically if the platform supports it
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void writeSnapshot(File file) throws IOException {
+        // copy the stripes first, so the count is known and no lock is hold while writing
+        long[][] keys = new long[STRIPES][];
+        long[][] times = new long[STRIPES][];
+        int[][] counts = new int[STRIPES][];
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            synchronized (stripe) {
+                keys[i] = stripe.keys.clone();
+                times[i] = stripe.times.clone();
+                counts[i] = stripe.counts.clone();
+                size += stripe.size;
+            }
+        }
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < STRIPES; i++) {
+                for (int a = 0; a < keys[i].length; a++) {
+                    if (keys[i][a] != 0) {
+                        out.writeLong(keys[i][a]);
+                        out.writeLong(times[i][a]);
+                        out.writeInt(counts[i][a]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+    
+    /**
+     * Load the triplets from the given snapshot file. Expired triplets are skipped and triplets which are already stored
+     * are only replaced if the one of the snapshot was seen later
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void loadSnapshot(File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        if (buffer.capacity() < SNAPSHOT_HEADER_SIZE || buffer.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a greylist snapshot");
+        }
+        if (buffer.getInt(4) != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of greylist snapshot");
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || SNAPSHOT_HEADER_SIZE + (long) count * SNAPSHOT_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Greylist snapshot is truncated");
+        }
+        
+        long now = System.currentTimeMillis();
+        long unseen = now - getUnseenLifeTime();
+        long autoWhiteList = now - getAutoWhiteListLifeTime();
+        for (int i = 0; i < count; i++) {
+            int pos = SNAPSHOT_HEADER_SIZE + i * SNAPSHOT_ENTRY_SIZE;
+            long key = buffer.getLong(pos);
+            long time = buffer.getLong(pos + 8);
+            int c = buffer.getInt(pos + 16);
+            if (key == 0 || time < (c == 0 ? unseen : autoWhiteList)) {
+                continue;
+            }
+            Stripe stripe = stripe(key);
+            synchronized (stripe) {
+                int slot = stripe.find(key);
+                if (slot < 0 || stripe.times[slot] < time) {
+                    stripe.put(key, time, c);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Return <code>true</code> if the triplet with the given timestamp and count is expired, even if it was not removed yet 
+     */
+    private boolean isExpired(long time, int count, long now) {
+        return time < now - (count == 0 ? getUnseenLifeTime() : getAutoWhiteListLifeTime());
+    }
+    
+    private Stripe stripe(long key) {
+        return stripes[(int) (key >>> 60)];
+    }
+    
+    private static long key(String ipAddress, String sender, String recip) throws IOException {
+        // only literals are used, so this will not do a lookup
+        byte[] ip = InetAddress.getByName(ipAddress).getAddress();
+        return key(ip, sender.toLowerCase(Locale.US), recip.toLowerCase(Locale.US));
+    }
+
+    private static long key(byte[] ip, String sender, String recip) {
+        long hash = FNV_OFFSET;
+        // only use the network of the client 
+        int length = ip.length == 4 ? 3 : 8;
+        for (int i = 0; i < length; i++) {
+            hash ^= ip[i] & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        hash = hash(hash, sender);
+        hash = hash(hash, recip);
+        
+        // 0 marks a free slot
+        return hash == 0 ? 1 : hash;
+    }
+    
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // separator, so "ab" + "c" and "a" + "bc" differ
+        hash ^= 0xFFFF;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+    
+    /**
+     * Open addressing hash table with linear probing. All access must be synchronized on the instance
+     */
+    private final static class Stripe {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] times = new long[INITIAL_CAPACITY];
+        private int[] counts = new int[INITIAL_CAPACITY];
+        private int size;
+        
+        public int find(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (true) {
+                long k = keys[slot];
+                if (k == key) {
+                    return slot;
+                } else if (k == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        
+        public void put(long key, long time, int count) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            times[slot] = time;
+            counts[slot] = count;
+        }
+        
+        /**
+         * Remove all unseen triplets which are older then <code>unseen</code> and all whitelisted triplets which are older
+         * then <code>autoWhiteList</code>
+         */
+        public synchronized void remove(long unseen, long autoWhiteList) {
+            long[] oldKeys = keys;
+            long[] oldTimes = times;
+            int[] oldCounts = counts;
+            int capacity = INITIAL_CAPACITY;
+            int remaining = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && oldTimes[i] >= (oldCounts[i] == 0 ? unseen : autoWhiteList)) {
+                    remaining++;
+                }
+            }
+            if (remaining == size) {
+                return;
+            }
+            while (remaining * 4 > capacity * 3) {
+                capacity *= 2;
+            }
+            keys = new long[capacity];
+            times = new long[capacity];
+            counts = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && oldTimes[i] >= (oldCounts[i] == 0 ? unseen : autoWhiteList)) {
+                    put(oldKeys[i], oldTimes[i], oldCounts[i]);
+                }
+            }
+        }
+        
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldTimes = times;
+            int[] oldCounts = counts;
+            keys = new long[capacity];
+            times = new long[capacity];
+            counts = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldTimes[i], oldCounts[i]);
+                }
+            }
+        }
+        
+        public synchronized int getSize() {
+            return size;
+        }
+    }
+}
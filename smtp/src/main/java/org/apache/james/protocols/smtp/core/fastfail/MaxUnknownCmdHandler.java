@@ -37,11 +37,22 @@ public class MaxUnknownCmdHandler implements UnknownHook{
     
     private final static String UNKOWN_COMMAND_COUNT = "UNKNOWN_COMMAND_COUNT";
     private int maxUnknown;
+    private long tarpitTime = 0;
     
     public void setMaxUnknownCmdCount(int maxUnknown) {
         this.maxUnknown = maxUnknown;
     }
     
+    /**
+     * Set the time in milliseconds by which the response is delayed before the connection is closed. Use <code>0</code> 
+     * (the default) to close it without delay
+     * 
+     * @param tarpitTime
+     */
+    public void setTarpitTime(long tarpitTime) {
+        this.tarpitTime = tarpitTime;
+    }
+    
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.smtp.hook.UnknownHook#doUnknown(org.apache.james.protocols.smtp.SMTPSession, java.lang.String)
@@ -55,7 +66,11 @@ public class MaxUnknownCmdHandler implements UnknownHook{
         }
         session.setAttachment(UNKOWN_COMMAND_COUNT, count, State.Transaction);
         if (count > maxUnknown) {
-            return new HookResult(HookReturnCode.DENY | HookReturnCode.DISCONNECT, "521", "Closing connection as to many unknown commands received");
+            int rCode = HookReturnCode.DENY | HookReturnCode.DISCONNECT;
+            if (tarpitTime > 0) {
+                rCode |= HookReturnCode.TARPIT;
+            }
+            return new HookResult(rCode, "521", "Closing connection as to many unknown commands received", tarpitTime);
 
         } else {
             
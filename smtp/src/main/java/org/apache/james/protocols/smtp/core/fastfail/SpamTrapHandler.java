@@ -20,81 +20,151 @@
 
 package org.apache.james.protocols.smtp.core.fastfail;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.hook.RcptHook;
 
 /**
  * This handler can be used for providing a spam trap. IPAddresses which send emails to the configured
  * recipients will get blacklisted for the configured time.
+ * 
+ * The blocked IPs are kept in a concurrent table which is keyed by the binary address. They are also kept in a queue
+ * which is ordered by the time at which they expire and drained on every call. So IPs which never return don't stay in
+ * memory, and at most {@link #setMaxBlockedIps(int)} IPs are hold. The queue is ordered by the expire time and not by
+ * the time the IPs were added, as the block time may be changed via {@link #setBlockTime(long)} at any time.
  */
 public class SpamTrapHandler implements RcptHook {
 
+    /** Default maximal count of blocked IPs */
+    public final static int DEFAULT_MAX_BLOCKED_IPS = 100000;
+    
     /** Map which hold blockedIps and blockTime in memory */
-    private Map<String,Long> blockedIps = new HashMap<String,Long>();
+    private final ConcurrentMap<IpKey, Long> blockedIps = new ConcurrentHashMap<IpKey, Long>();
+    
+    /** The blocked IPs in the order in which they expire */
+    private final PriorityBlockingQueue<BlockedIp> expireQueue = new PriorityBlockingQueue<BlockedIp>();
+    private final ReentrantLock expireLock = new ReentrantLock();
     
-    private Collection<String> spamTrapRecips = new ArrayList<String>();
+    private volatile Set<String> spamTrapRecips = Collections.emptySet();
     
     /** Default blocktime 12 hours */
-    protected long blockTime = 4320000; 
+    protected volatile long blockTime = 4320000; 
     
+    /** Default is to answer without delay */
+    protected long tarpitTime = 0;
+    
+    private int maxBlockedIps = DEFAULT_MAX_BLOCKED_IPS;
    
     public void setSpamTrapRecipients(Collection<String> spamTrapRecips) {
-        this.spamTrapRecips = spamTrapRecips;
+        Set<String> recips = new HashSet<String>(spamTrapRecips.size() * 2);
+        for (String recip: spamTrapRecips) {
+            recips.add(recip.trim().toLowerCase(Locale.US));
+        }
+        this.spamTrapRecips = recips;
     }
     
     public void setBlockTime(long blockTime) {
         this.blockTime = blockTime;
     }
     
+    /**
+     * Set the maximal count of blocked IPs. If more IPs get blocked the ones which would expire first are removed. The 
+     * default is {@link #DEFAULT_MAX_BLOCKED_IPS}
+     * 
+     * @param maxBlockedIps
+     */
+    public void setMaxBlockedIps(int maxBlockedIps) {
+        this.maxBlockedIps = maxBlockedIps;
+    }
+    
+    /**
+     * Set the time in milliseconds by which the response to a blocked client is delayed
+     * 
+     * @param tarpitTime
+     */
+    public void setTarpitTime(long tarpitTime) {
+        this.tarpitTime = tarpitTime;
+    }
+    
+    /**
+     * Return the count of IPs which are blocked at the moment
+     * 
+     * @return count
+     */
+    public int getBlockedIpCount() {
+        return blockedIps.size();
+    }
+    
     /**
      * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.mailet.MailAddress, org.apache.mailet.MailAddress)
      */
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
-        String address = session.getRemoteAddress().getAddress().getHostAddress();
-        if (isBlocked(address, session)) {
-            return HookResult.deny();
+        long now = System.currentTimeMillis();
+        expire(now);
+        
+        IpKey address = new IpKey(session.getRemoteAddress().getAddress().getAddress());
+        if (isBlocked(address, session, now)) {
+            return deny();
         } else {
          
-            if (spamTrapRecips.contains(rcpt.toString().toLowerCase())){
+            if (spamTrapRecips.contains(rcpt.toCanonicalString())){
         
-                addIp(address, session);
+                addIp(address, session, now);
             
-                return HookResult.deny();
+                return deny();
             }
         }
         return HookResult.declined();
     }
     
     
+    /**
+     * Return the {@link HookResult} for a blocked client, which is delayed if a tarpit time was configured
+     * 
+     * @return result
+     */
+    private HookResult deny() {
+        if (tarpitTime > 0) {
+            return new HookResult(HookReturnCode.DENY | HookReturnCode.TARPIT, null, null, tarpitTime);
+        }
+        return HookResult.deny();
+    }
+    
     /**
      * Check if ipAddress is in the blockList.
      * 
      * @param ip ipAddress to check
      * @param session not null
+     * @param now the current time
      * @return true or false
      */
-    private boolean isBlocked(String ip, SMTPSession session) {
+    private boolean isBlocked(IpKey ip, SMTPSession session, long now) {
         Long rawTime = blockedIps.get(ip);
     
         if (rawTime != null) {
-            long blockTime = rawTime.longValue();
-           
-            if (blockTime > System.currentTimeMillis()) {
-                session.getLogger().debug("BlockList contain Ip " + ip);
+            if (rawTime.longValue() > now) {
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("BlockList contain Ip " + ip);
+                }
                 return true;
             } else {
-                session.getLogger().debug("Remove ip " + ip + " from blockList");
-               
-                synchronized(blockedIps) {
-                    blockedIps.remove(ip);
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("Remove ip " + ip + " from blockList");
                 }
+                blockedIps.remove(ip, rawTime);
             }
         }
         return false;
@@ -105,15 +175,101 @@ public class SpamTrapHandler implements RcptHook {
      * 
      * @param ip IpAddress to add
      * @param session not null
+     * @param now the current time
      */
-    private void addIp(String ip, SMTPSession session) {
-        long bTime = System.currentTimeMillis() + blockTime;
+    private void addIp(IpKey ip, SMTPSession session, long now) {
+        Long bTime = Long.valueOf(now + blockTime);
         
-        session.getLogger().debug("Add ip " + ip + " for " + bTime + " to blockList");
+        if (session.getLogger().isDebugEnabled()) {
+            session.getLogger().debug("Add ip " + ip + " for " + bTime + " to blockList");
+        }
     
-        synchronized(blockedIps) {
-            blockedIps.put(ip, Long.valueOf(bTime));
+        blockedIps.put(ip, bTime);
+        expireQueue.add(new BlockedIp(ip, bTime));
+    }
+    
+    /**
+     * Remove the IPs which are expired, and the ones which expire first if to many IPs are blocked. If an other thread 
+     * does this already, it is skipped
+     * 
+     * @param now the current time
+     */
+    private void expire(long now) {
+        if (!expireLock.tryLock()) {
+            return;
+        }
+        try {
+            BlockedIp blocked;
+            while ((blocked = expireQueue.peek()) != null && (blocked.time.longValue() <= now || blockedIps.size() > maxBlockedIps)) {
+                expireQueue.poll();
+                
+                // only remove it if it was not blocked again in the meantime
+                blockedIps.remove(blocked.ip, blocked.time);
+            }
+        } finally {
+            expireLock.unlock();
+        }
+    }
+    
+    /**
+     * Binary IP address which can be used as key
+     */
+    private final static class IpKey {
+        private final byte[] address;
+        private final int hashCode;
+        
+        public IpKey(byte[] address) {
+            this.address = address;
+            this.hashCode = Arrays.hashCode(address);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IpKey && Arrays.equals(address, ((IpKey) obj).address);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (address.length == 4) {
+                for (int i = 0; i < address.length; i++) {
+                    if (i > 0) {
+                        sb.append('.');
+                    }
+                    sb.append(address[i] & 0xFF);
+                }
+            } else {
+                for (int i = 0; i < address.length; i += 2) {
+                    if (i > 0) {
+                        sb.append(':');
+                    }
+                    sb.append(Integer.toHexString(((address[i] & 0xFF) << 8) | (address[i + 1] & 0xFF)));
+                }
+            }
+            return sb.toString();
         }
+    }
     
+    private final static class BlockedIp implements Comparable<BlockedIp> {
+        private final IpKey ip;
+        private final Long time;
+        
+        public BlockedIp(IpKey ip, Long time) {
+            this.ip = ip;
+            this.time = time;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        public int compareTo(BlockedIp other) {
+            return time.compareTo(other.time);
+        }
     }
 }
@@ -24,7 +24,6 @@ package org.apache.james.protocols.smtp.core.fastfail;
 
 import java.util.Collection;
 
-import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -42,11 +41,10 @@ public class SupressDuplicateRcptHandler implements RcptHook {
     /**
      * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.mailet.MailAddress, org.apache.mailet.MailAddress)
      */
-    @SuppressWarnings("unchecked")
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
-        Collection<MailAddress> rcptList = (Collection<MailAddress>) session.getAttachment(SMTPSession.RCPT_LIST, State.Transaction);
+        Collection<MailAddress> rcptList = session.getAttachment(SMTPSession.RCPT_LIST_KEY);
     
-        // Check if the recipient is already in the rcpt list
+        // Check if the recipient is already in the rcpt list. This is cheap as the list is a RecipientList
         if(rcptList != null && rcptList.contains(rcpt)) {
             StringBuilder responseBuffer = new StringBuilder();
         
@@ -54,7 +52,9 @@ public class SupressDuplicateRcptHandler implements RcptHook {
                           .append(" Recipient <")
                           .append(rcpt.toString())
                           .append("> OK");
-            session.getLogger().debug("Duplicate recipient not add to recipient list: " + rcpt.toString());
+            if (session.getLogger().isDebugEnabled()) {
+                session.getLogger().debug("Duplicate recipient not add to recipient list: " + rcpt.toString());
+            }
             return new HookResult(HookReturnCode.OK,SMTPRetCode.MAIL_OK, responseBuffer.toString());
         }
         return HookResult.declined();
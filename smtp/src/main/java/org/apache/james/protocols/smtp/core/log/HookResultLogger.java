@@ -26,8 +26,8 @@ import org.apache.james.protocols.smtp.hook.HookReturnCode;
 
 /**
  * 
- * Log the {@link HookResult}. If {@link HookReturnCode#DENY}, {@link HookReturnCode#DENYSOFT} or {@link HookReturnCode#DISCONNECT} was used it will get 
- * logged to INFO. If not to DEBUG
+ * Log the {@link HookResult}. If {@link HookReturnCode#DENY}, {@link HookReturnCode#DENYSOFT}, {@link HookReturnCode#DISCONNECT} or {@link HookReturnCode#TARPIT} 
+ * was used it will get logged to INFO. If not to DEBUG
  *
  */
 public class HookResultLogger implements HookResultHook{
@@ -64,6 +64,16 @@ public class HookResultLogger implements HookResultHook{
                 sb.append("|");
             }
             sb.append("DISCONNECT");
+            match = true;
+            info = true;
+        }
+        if ((result & HookReturnCode.TARPIT) == HookReturnCode.TARPIT) {
+            if(match) {
+                sb.append("|");
+            }
+            sb.append("TARPIT ");
+            sb.append(hResult.getDelay());
+            sb.append("ms");
             info = true;
         }
         sb.append(")");
@@ -34,6 +34,7 @@ public final class HookResult {
     private int result;
     private String smtpRetCode;
     private String smtpDescription;
+    private long delay;
     
     /**
      * Construct new HookResult
@@ -43,6 +44,19 @@ public final class HookResult {
      * @param smtpDescription
      */
     public HookResult(int result, String smtpRetCode, CharSequence smtpDescription) {
+        this(result, smtpRetCode, smtpDescription, 0);
+    }
+    
+    /**
+     * Construct new HookResult which will delay the response by the given milliseconds if {@link HookReturnCode#TARPIT} is
+     * part of the result
+     * 
+     * @param result
+     * @param smtpRetCode
+     * @param smtpDescription
+     * @param delay the delay in milliseconds
+     */
+    public HookResult(int result, String smtpRetCode, CharSequence smtpDescription, long delay) {
         boolean match = false;
 
         if ((result & HookReturnCode.DECLINED) == HookReturnCode.DECLINED) {
@@ -64,6 +78,7 @@ public final class HookResult {
         this.result = result;
         this.smtpRetCode = smtpRetCode;
         this.smtpDescription = (smtpDescription == null) ? null : smtpDescription.toString();
+        this.delay = delay;
     }
     
     /**
@@ -113,6 +128,19 @@ public final class HookResult {
         return smtpDescription;
     }
     
+    /**
+     * Return the delay in milliseconds by which the response should be delayed. This is always <code>0</code> if 
+     * {@link HookReturnCode#TARPIT} is not part of the result
+     * 
+     * @return delay
+     */
+    public long getDelay() {
+        if ((result & HookReturnCode.TARPIT) == HookReturnCode.TARPIT) {
+            return delay;
+        }
+        return 0;
+    }
+    
     public static HookResult declined() {
         return DECLINED;
     }
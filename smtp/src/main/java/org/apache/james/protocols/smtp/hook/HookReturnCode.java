@@ -28,4 +28,10 @@ public class HookReturnCode {
     public final static int DENYSOFT = 0x1 << 2;
     public final static int DECLINED = 0x1 << 3;
     public final static int DISCONNECT = 0x1 << 4;
+    
+    /**
+     * Can be combined with the other return codes to delay the response to the client by {@link HookResult#getDelay()} 
+     * milliseconds. This is useful to slow down abusive clients
+     */
+    public final static int TARPIT = 0x1 << 5;
 }
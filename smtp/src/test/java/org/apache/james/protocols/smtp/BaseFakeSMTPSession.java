@@ -25,6 +25,8 @@ import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.Map;
 
+import org.apache.james.protocols.api.AttributeKey;
+import org.apache.james.protocols.api.CounterKey;
 import org.apache.james.protocols.api.Logger;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.LineHandler;
@@ -207,4 +209,32 @@ public class BaseFakeSMTPSession implements SMTPSession {
         throw new UnsupportedOperationException("Unimplemented Stub Method");
     }
 
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment(AttributeKey<T> key) {
+        return (T) getAttachment(key.getName(), key.getState());
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T setAttachment(AttributeKey<T> key, T value) {
+        return (T) setAttachment(key.getName(), value, key.getState());
+    }
+
+    public long getCounter(CounterKey key) {
+        Long value = (Long) getAttachment(key.getName(), key.getState());
+        if (value == null) {
+            return 0;
+        }
+        return value;
+    }
+
+    public long addToCounter(CounterKey key, long delta) {
+        long value = getCounter(key) + delta;
+        setCounter(key, value);
+        return value;
+    }
+
+    public void setCounter(CounterKey key, long value) {
+        setAttachment(key.getName(), value, key.getState());
+    }
+
 }
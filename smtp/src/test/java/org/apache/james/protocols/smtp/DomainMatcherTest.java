@@ -0,0 +1,80 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DomainMatcherTest {
+
+    @Test
+    public void testExact() {
+        DomainMatcher matcher = new DomainMatcher("example.com", "Example.org.", "localhost");
+        assertEquals(3, matcher.size());
+        assertTrue(matcher.matches("example.com"));
+        assertTrue(matcher.matches("EXAMPLE.COM"));
+        assertTrue(matcher.matches("example.com."));
+        assertTrue(matcher.matches("example.org"));
+        assertTrue(matcher.matches("localhost"));
+        assertFalse(matcher.matches("sub.example.com"));
+        assertFalse(matcher.matches("com"));
+        assertFalse(matcher.matches("example.net"));
+        assertFalse(matcher.matches("xexample.com"));
+        assertFalse(matcher.matches(""));
+        assertFalse(matcher.matches(null));
+    }
+    
+    @Test
+    public void testWildcard() {
+        DomainMatcher matcher = new DomainMatcher("*.example.com", "mail.example.org");
+        assertTrue(matcher.matches("sub.example.com"));
+        assertTrue(matcher.matches("a.b.Example.com"));
+        assertFalse(matcher.matches("example.com"));
+        assertFalse(matcher.matches("example.org"));
+        assertTrue(matcher.matches("mail.example.org"));
+        assertFalse(matcher.matches("sub.mail.example.org"));
+    }
+    
+    @Test
+    public void testWildcardAndExact() {
+        DomainMatcher matcher = new DomainMatcher("*.example.com", "example.com");
+        assertTrue(matcher.matches("example.com"));
+        assertTrue(matcher.matches("sub.example.com"));
+    }
+    
+    @Test
+    public void testMany() {
+        String[] domains = new String[10000];
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = "domain" + i + ".example" + (i % 7) + ".com";
+        }
+        DomainMatcher matcher = new DomainMatcher(domains);
+        for (int i = 0; i < domains.length; i++) {
+            assertTrue(matcher.matches(domains[i]));
+            assertFalse(matcher.matches("domain" + i + ".example" + ((i + 1) % 7) + ".com"));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalid() {
+        new DomainMatcher("example..com");
+    }
+}
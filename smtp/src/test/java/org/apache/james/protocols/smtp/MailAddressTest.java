@@ -0,0 +1,154 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MailAddressTest {
+
+    private final static String[] GOOD_ADDRESSES = {
+        "server-dev@james.apache.org",
+        "Server-Dev@James.Apache.Org",
+        "serge@home.lokitech.com",
+        "\"serge@home\"@lokitech.com",
+        "user@[192.168.0.1]",
+        "a.b-c_d+e@sub.domain-name.org",
+        "  trimmed@localhost  "
+    };
+    
+    private final static String[] BAD_ADDRESSES = {
+        "",
+        "@localhost",
+        "user@",
+        "user",
+        "user.@localhost",
+        "us er@localhost",
+        "user@-localhost",
+        "user@localhost-",
+        "user@[192.168.0.256]",
+        "user@[192.168.0]",
+        "user@local_host",
+        "\"\"@localhost"
+    };
+    
+    @Test
+    public void testGoodAddresses() throws MailAddressException {
+        for (int i = 0; i < GOOD_ADDRESSES.length; i++) {
+            MailAddress address = new MailAddress(GOOD_ADDRESSES[i]);
+            assertEquals(GOOD_ADDRESSES[i].trim(), address.toString());
+        }
+    }
+    
+    @Test
+    public void testBadAddresses() {
+        for (int i = 0; i < BAD_ADDRESSES.length; i++) {
+            try {
+                new MailAddress(BAD_ADDRESSES[i]);
+                fail("Address should be invalid: " + BAD_ADDRESSES[i]);
+            } catch (MailAddressException e) {
+                // expected
+            }
+        }
+    }
+    
+    @Test
+    public void testParts() throws MailAddressException {
+        MailAddress address = new MailAddress("\"serge@home\"@lokitech.com");
+        assertEquals("\"serge@home\"", address.getLocalPart());
+        assertEquals("lokitech.com", address.getDomain());
+        
+        address = new MailAddress("user@[192.168.0.1]");
+        assertEquals("user", address.getLocalPart());
+        assertEquals("192.168.0.1", address.getDomain());
+        assertEquals("user@[192.168.0.1]", address.toString());
+    }
+    
+    @Test
+    public void testEqualsIgnoreCase() throws MailAddressException {
+        MailAddress address = new MailAddress("Server-Dev@James.Apache.Org");
+        MailAddress address2 = new MailAddress("server-dev@james.apache.org");
+        assertEquals(address, address2);
+        assertEquals(address.hashCode(), address2.hashCode());
+        assertEquals("server-dev@james.apache.org", address.toCanonicalString());
+        assertSame(address2.toString(), address2.toCanonicalString());
+        assertTrue(address.equals("SERVER-DEV@james.apache.org"));
+        
+        Set<MailAddress> set = new HashSet<MailAddress>();
+        set.add(address);
+        assertTrue(set.contains(address2));
+        assertFalse(set.contains(new MailAddress("server-dev2@james.apache.org")));
+    }
+    
+    @Test
+    public void testDomainIsShared() throws MailAddressException {
+        MailAddress address = new MailAddress("user1@james.apache.org");
+        MailAddress address2 = new MailAddress("user2@james.apache.org");
+        assertSame(address.getDomain(), address2.getDomain());
+    }
+    
+    @Test
+    public void testDomainCaseIsKept() throws MailAddressException {
+        MailAddress address = new MailAddress("user1@Case.Apache.org");
+        MailAddress address2 = new MailAddress("user2@case.apache.org");
+        assertEquals("Case.Apache.org", address.getDomain());
+        assertEquals("case.apache.org", address2.getDomain());
+        // every spelling is interned on its own
+        assertSame(address.getDomain(), new MailAddress("user3@Case.Apache.org").getDomain());
+        assertSame(address2.getDomain(), new MailAddress("user4@case.apache.org").getDomain());
+    }
+    
+    @Test
+    public void testInternedDomainsAreEvicted() throws MailAddressException {
+        for (int i = 0; i < 20000; i++) {
+            new MailAddress("user@domain" + i + ".apache.org");
+        }
+        // new domains are still interned once the map was full
+        MailAddress address = new MailAddress("user1@new.apache.org");
+        MailAddress address2 = new MailAddress("user2@new.apache.org");
+        assertSame(address.getDomain(), address2.getDomain());
+    }
+    
+    @Test
+    public void testParseBytes() throws Exception {
+        byte[] line = "RCPT TO:<user@james.apache.org>\r\n".getBytes("US-ASCII");
+        MailAddress address = new MailAddress(line, 9, 21);
+        assertEquals("user@james.apache.org", address.toString());
+        
+        try {
+            new MailAddress(line, 9, 5);
+            fail();
+        } catch (MailAddressException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testNullSender() {
+        MailAddress sender = MailAddress.nullSender();
+        assertTrue(sender.isNullSender());
+        assertEquals("", sender.toCanonicalString());
+        assertEquals("".hashCode(), sender.hashCode());
+    }
+}
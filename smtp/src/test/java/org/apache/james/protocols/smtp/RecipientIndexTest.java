@@ -0,0 +1,98 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RecipientIndexTest {
+
+    @Test
+    public void testContains() throws IOException, MailAddressException {
+        List<String> addresses = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            addresses.add("user" + i + "@example" + (i % 3) + ".com");
+        }
+        addresses.add("User0@Example0.com");
+        
+        File file = File.createTempFile("rcpt", ".idx");
+        try {
+            RecipientIndex.write(addresses, file);
+            RecipientIndex index = RecipientIndex.open(file);
+            assertEquals(5000, index.size());
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(index.contains(new MailAddress("user" + i + "@example" + (i % 3) + ".com")));
+                assertFalse(index.contains(new MailAddress("user" + i + "@example" + ((i + 1) % 3) + ".com")));
+            }
+            assertTrue(index.contains("USER42@example0.com"));
+            assertFalse(index.contains("user5000@example2.com"));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testEmpty() throws IOException {
+        File file = File.createTempFile("rcpt", ".idx");
+        try {
+            RecipientIndex.write(new ArrayList<String>(), file);
+            RecipientIndex index = RecipientIndex.open(file);
+            assertEquals(0, index.size());
+            assertFalse(index.contains("user@example.com"));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test(expected = IOException.class)
+    public void testInvalidFile() throws IOException {
+        File file = File.createTempFile("rcpt", ".idx");
+        try {
+            RecipientIndex.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testDirectory() throws IOException, MailAddressException {
+        File file = File.createTempFile("rcpt", ".idx");
+        try {
+            RecipientIndex.write(Arrays.asList("user@example.com"), file);
+            RecipientDirectory directory = new RecipientDirectory(new DomainMatcher("example.com"), RecipientIndex.open(file));
+            assertTrue(directory.isLocalDomain("example.com"));
+            assertTrue(directory.isValidRecipient(new MailAddress("user@example.com")));
+            assertFalse(directory.isValidRecipient(new MailAddress("other@example.com")));
+            
+            directory.update(new DomainMatcher("example.org"), null);
+            assertFalse(directory.isLocalDomain("example.com"));
+            assertTrue(directory.isValidRecipient(new MailAddress("other@example.org")));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+public class RecipientListTest {
+
+    @Test
+    public void testOrderAndContains() throws MailAddressException {
+        RecipientList list = new RecipientList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new MailAddress("user" + i + "@localhost"));
+        }
+        assertEquals(1000, list.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("user" + i + "@localhost", list.get(i).toString());
+        }
+        assertTrue(list.contains(new MailAddress("USER500@localhost")));
+        assertFalse(list.contains(new MailAddress("user1000@localhost")));
+        assertFalse(list.contains(null));
+    }
+    
+    @Test
+    public void testRemoveDuplicate() throws MailAddressException {
+        MailAddress rcpt = new MailAddress("user@localhost");
+        RecipientList list = new RecipientList();
+        list.add(rcpt);
+        list.add(new MailAddress("user2@localhost"));
+        list.add(new MailAddress("User@localhost"));
+        assertEquals(3, list.size());
+        
+        assertTrue(list.remove(rcpt));
+        assertTrue(list.contains(rcpt));
+        assertEquals("User@localhost", list.get(1).toString());
+        
+        Iterator<MailAddress> it = list.iterator();
+        while (it.hasNext()) {
+            if (it.next().equals(rcpt)) {
+                it.remove();
+            }
+        }
+        assertFalse(list.contains(rcpt));
+        assertEquals(1, list.size());
+        
+        list.set(0, rcpt);
+        assertTrue(list.contains(rcpt));
+        assertFalse(list.contains(new MailAddress("user2@localhost")));
+        
+        list.clear();
+        assertFalse(list.contains(rcpt));
+        assertTrue(list.isEmpty());
+    }
+}
@@ -21,15 +21,29 @@ package org.apache.james.protocols.smtp;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
 import org.apache.commons.net.smtp.SMTPClient;
 import org.apache.commons.net.smtp.SMTPReply;
+import org.apache.commons.net.util.TrustManagerUtils;
+import org.apache.james.protocols.api.Encryption;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.ConnectHandler;
@@ -102,6 +116,338 @@ public class SMTPServerTest {
         
     }
     
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testStateMapSeesSenderAndRecipients() throws Exception {
+        final List<Object> state = new ArrayList<Object>();
+        MessageHook hook = new MessageHook() {
+            
+            public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+                state.add(session.getState().get(SMTPSession.SENDER));
+                state.add(session.getState().get(SMTPSession.RCPT_LIST));
+                return new HookResult(HookReturnCode.OK);
+            }
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(hook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SMTPClient client = createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.setSender(SENDER);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.addRecipient(RCPT1);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            assertTrue(client.sendShortMessageData(MSG1));
+
+            client.quit();
+            client.disconnect();
+
+            assertEquals(2, state.size());
+            assertEquals(SENDER, state.get(0).toString());
+            assertEquals("[" + RCPT1 + "]", state.get(1).toString());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+        
+    }
+    
+    @Test
+    public void testStartTLSCreatesEngineOnDemand() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createStartTls(SSLContext.getDefault()));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SMTPClient client = createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.quit();
+            client.disconnect();
+            
+            assertEquals(1, server.getTLSMetrics().getStartTLSConnections());
+            assertEquals(0, server.getTLSMetrics().getEnginesCreated());
+            
+            client = createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.helo("localhost");
+            assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            assertEquals(220, client.sendCommand("STARTTLS"));
+            client.disconnect();
+            
+            assertEquals(2, server.getTLSMetrics().getStartTLSConnections());
+            assertEquals(1, server.getTLSMetrics().getEnginesCreated());
+            assertEquals(1, server.getTLSMetrics().getStartTLSUpgrades());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testTLSSessionResumption() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createTls(createServerSSLContext(), null, 100, 3600));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SSLContext clientContext = createClientSSLContext();
+            for (int i = 0; i < 2; i++) {
+                SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getAddress(), address.getPort());
+                socket.startHandshake();
+                quit(socket);
+            }
+            waitForHandshakes(server, 2);
+            
+            assertEquals(1, server.getTLSMetrics().getFullHandshakes());
+            assertEquals(1, server.getTLSMetrics().getResumedHandshakes());
+            assertEquals(2, server.getTLSMetrics().getEnginesCreated());
+            assertEquals(0, server.getTLSMetrics().getStartTLSConnections());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testStartTLSSessionResumption() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createStartTls(createServerSSLContext(), null, 100, 3600));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SSLContext clientContext = createClientSSLContext();
+            for (int i = 0; i < 2; i++) {
+                Socket socket = new Socket(address.getAddress(), address.getPort());
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                assertTrue(in.readLine().startsWith("220"));
+                socket.getOutputStream().write("STARTTLS\r\n".getBytes());
+                assertTrue(in.readLine().startsWith("220"));
+                
+                SSLSocket sslSocket = (SSLSocket) clientContext.getSocketFactory().createSocket(socket, address.getHostName(), address.getPort(), true);
+                sslSocket.startHandshake();
+                OutputStream out = sslSocket.getOutputStream();
+                out.write("QUIT\r\n".getBytes());
+                out.flush();
+                assertTrue(new BufferedReader(new InputStreamReader(sslSocket.getInputStream())).readLine().startsWith("221"));
+                sslSocket.close();
+            }
+            waitForHandshakes(server, 2);
+            
+            assertEquals(1, server.getTLSMetrics().getFullHandshakes());
+            assertEquals(1, server.getTLSMetrics().getResumedHandshakes());
+            assertEquals(2, server.getTLSMetrics().getStartTLSUpgrades());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
+    @Test
+    public void testHandshakeExecutor() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final AtomicInteger executed = new AtomicInteger(0);
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createTls(createServerSSLContext()));
+            server.setHandshakeExecutor(new Executor() {
+                
+                public void execute(Runnable command) {
+                    executed.incrementAndGet();
+                    executor.execute(command);
+                }
+            }, 10);
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SSLSocket socket = (SSLSocket) createClientSSLContext().getSocketFactory().createSocket(address.getAddress(), address.getPort());
+            socket.startHandshake();
+            quit(socket);
+            waitForHandshakes(server, 1);
+            
+            assertEquals(1, server.getTLSMetrics().getFullHandshakes());
+            assertTrue(executed.get() > 0);
+            assertEquals(0, server.getHandshakeHandler().getHandshakeCount());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testHandshakeShedding() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createStartTls(createServerSSLContext()));
+            server.setHandshakeExecutor(executor, 0);
+            server.setListenAddresses(address);
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("220"));
+            socket.getOutputStream().write("STARTTLS\r\n".getBytes());
+            assertFalse(in.readLine().startsWith("220"));
+            socket.close();
+            
+            assertEquals(0, server.getTLSMetrics().getEnginesCreated());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            executor.shutdownNow();
+        }
+        
+        executor = Executors.newFixedThreadPool(2);
+        try {
+            server = new NettyServer(createProtocol(new TestMessageHook()), Encryption.createTls(createServerSSLContext()));
+            server.setHandshakeExecutor(executor, 0);
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SSLSocket socket = (SSLSocket) createClientSSLContext().getSocketFactory().createSocket(address.getAddress(), address.getPort());
+            try {
+                socket.startHandshake();
+                assertEquals("Connection should be closed", -1, socket.getInputStream().read());
+            } catch (IOException e) {
+                // expected
+            } finally {
+                socket.close();
+            }
+            assertEquals(1, server.getHandshakeHandler().getShedCount());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+            executor.shutdownNow();
+        }
+    }
+    
+    private SSLContext createServerSSLContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(getClass().getResourceAsStream("/test.keystore"), "secret".toCharArray());
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "secret".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+    
+    private SSLContext createClientSSLContext() throws Exception {
+        // TLSv1.2 resumes sessions via the session id
+        SSLContext context = SSLContext.getInstance("TLSv1.2");
+        context.init(null, new TrustManager[] {TrustManagerUtils.getAcceptAllTrustManager()}, null);
+        return context;
+    }
+    
+    private void quit(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        assertTrue(in.readLine().startsWith("220"));
+        OutputStream out = socket.getOutputStream();
+        out.write("QUIT\r\n".getBytes());
+        out.flush();
+        assertTrue(in.readLine().startsWith("221"));
+        socket.close();
+    }
+    
+    private void waitForHandshakes(NettyServer server, int count) throws InterruptedException {
+        for (int i = 0; i < 50 && server.getTLSMetrics().getFullHandshakes() + server.getTLSMetrics().getResumedHandshakes() < count; i++) {
+            Thread.sleep(100);
+        }
+    }
+    
+    @Test
+    public void testSessionPooling() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(hook));
+            server.setSessionPoolSize(1);
+            server.setListenAddresses(address);
+            server.bind();
+            
+            for (int i = 0; i < 2; i++) {
+                SMTPClient client = createClient();
+                client.connect(address.getAddress().getHostAddress(), address.getPort());
+                assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+                
+                client.helo("localhost");
+                assertTrue(SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+                client.setSender(SENDER);
+                assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+                client.addRecipient(RCPT1);
+                assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+                assertTrue(client.sendShortMessageData(MSG1));
+                assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+                
+                client.quit();
+                assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+                client.disconnect();
+                
+                // wait until the session was returned to the pool
+                for (int a = 0; a < 50 && server.getSessionPool().getSize() == 0; a++) {
+                    Thread.sleep(100);
+                }
+                assertEquals(1, server.getSessionPool().getSize());
+            }
+            assertEquals(1, server.getSessionPool().getCreatedCount());
+            assertEquals(1, server.getSessionPool().getReusedCount());
+
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            for (int i = 0; i < 2; i++) {
+                assertTrue(queued.hasNext());
+                checkEnvelope(queued.next(), SENDER, Arrays.asList(RCPT1), MSG1);
+            }
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+        
+    }
+    
     @Test
     public void testUnknownCommand() throws Exception {
         TestMessageHook hook = new TestMessageHook();
@@ -673,6 +1019,113 @@ public class SMTPServerTest {
         
     }
     
+    @Test
+    public void testRcptHookTarpit() throws Exception {
+        RcptHook hook = new RcptHook() {
+
+            public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                if (RCPT1.equals(rcpt.toString())) {
+                    return new HookResult(HookReturnCode.DENY | HookReturnCode.TARPIT, null, null, 1000);
+                } else {
+                    return new HookResult(HookReturnCode.DECLINED);
+                }
+            }
+
+        };
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(hook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            SMTPClient client = createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            
+           
+            client.helo("localhost");
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            client.setSender(SENDER);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            long start = System.currentTimeMillis();
+            client.addRecipient(RCPT1);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isNegativePermanent(client.getReplyCode()));
+            assertTrue("Response was not delayed", System.currentTimeMillis() - start >= 900);
+
+         
+            client.addRecipient(RCPT2);
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+
+            
+            client.quit();
+            assertTrue("Reply="+ client.getReplyString(), SMTPReply.isPositiveCompletion(client.getReplyCode()));
+            client.disconnect();
+
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+        
+    }
+    
+    @Test
+    public void testPipelinedRcptHookTarpit() throws Exception {
+        RcptHook hook = new RcptHook() {
+
+            public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                return new HookResult(HookReturnCode.DENY | HookReturnCode.TARPIT, null, null, 300);
+            }
+
+        };
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(createProtocol(hook));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+            out.write(("HELO localhost\r\nMAIL FROM:<" + SENDER + ">\r\n").getBytes());
+            out.flush();
+            assertTrue(in.readLine().startsWith("250"));
+            assertTrue(in.readLine().startsWith("250"));
+
+            // all commands are written at once, so the delays must add up
+            long start = System.currentTimeMillis();
+            StringBuilder commands = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                commands.append("RCPT TO:<").append(RCPT1).append(">\r\n");
+            }
+            out.write(commands.toString().getBytes());
+            out.flush();
+            for (int i = 0; i < 4; i++) {
+                assertTrue(in.readLine().startsWith("5"));
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Delays were not added up: " + elapsed, elapsed >= 1100);
+            
+            out.write("QUIT\r\n".getBytes());
+            out.flush();
+            assertTrue(in.readLine().startsWith("221"));
+            socket.close();
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
     @Test
     public void testNullSender() throws Exception {
 
@@ -823,6 +1276,44 @@ public class SMTPServerTest {
     
   
     
+    @Test
+    public void testConfigurationSubclassDecidesRelaying() throws Exception {
+        final AtomicBoolean relayingAllowed = new AtomicBoolean();
+        ConnectHandler<SMTPSession> connectHandler = new ConnectHandler<SMTPSession>() {
+
+            public Response onConnect(SMTPSession session) {
+                relayingAllowed.set(session.isRelayingAllowed());
+                return null;
+            }
+        };
+        SMTPConfigurationImpl config = new SMTPConfigurationImpl() {
+
+            @Override
+            public boolean isRelayingAllowed(String remoteIP) {
+                return "127.0.0.1".equals(remoteIP);
+            }
+        };
+        SMTPProtocolHandlerChain chain = new SMTPProtocolHandlerChain();
+        chain.add(0, connectHandler);
+        chain.wireExtensibleHandlers();
+        
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        NettyServer server = null;
+        try {
+            server = new NettyServer(new SMTPProtocol(chain, config, new MockLogger()));
+            server.setListenAddresses(address);
+            server.bind();
+            
+            quit(new Socket(address.getAddress(), address.getPort()));
+            assertTrue(relayingAllowed.get());
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+    
     @Test
     public void testConnectHandlerPermananet() throws Exception {
         ConnectHandler<SMTPSession> connectHandler = new ConnectHandler<SMTPSession>() {
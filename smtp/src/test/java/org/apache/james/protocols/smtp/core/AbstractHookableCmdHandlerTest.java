@@ -0,0 +1,70 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.Test;
+
+public class AbstractHookableCmdHandlerTest {
+
+    @Test
+    public void testDenySoft() {
+        SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(new HookResult(HookReturnCode.DENYSOFT));
+        assertEquals(SMTPRetCode.LOCAL_ERROR, response.getRetCode());
+        assertFalse(response.isEndSession());
+    }
+
+    @Test
+    public void testDenySoftTarpit() {
+        SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(new HookResult(HookReturnCode.DENYSOFT | HookReturnCode.TARPIT, null, null, 1000));
+        assertEquals(SMTPRetCode.LOCAL_ERROR, response.getRetCode());
+        assertEquals(1000, response.getDelay());
+        assertFalse(response.isEndSession());
+    }
+
+    @Test
+    public void testDenySoftDisconnect() {
+        SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(new HookResult(HookReturnCode.DENYSOFT | HookReturnCode.DISCONNECT));
+        assertEquals(SMTPRetCode.LOCAL_ERROR, response.getRetCode());
+        assertTrue(response.isEndSession());
+    }
+
+    @Test
+    public void testDenySoftTarpitDisconnect() {
+        SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(new HookResult(HookReturnCode.DENYSOFT | HookReturnCode.TARPIT | HookReturnCode.DISCONNECT, null, null, 1000));
+        assertEquals(SMTPRetCode.LOCAL_ERROR, response.getRetCode());
+        assertEquals(1000, response.getDelay());
+        assertTrue(response.isEndSession());
+    }
+
+    @Test
+    public void testDenyDisconnect() {
+        SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(new HookResult(HookReturnCode.DENY | HookReturnCode.DISCONNECT));
+        assertEquals(SMTPRetCode.TRANSACTION_FAILED, response.getRetCode());
+        assertTrue(response.isEndSession());
+    }
+}
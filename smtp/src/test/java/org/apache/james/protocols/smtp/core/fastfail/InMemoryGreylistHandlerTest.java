@@ -0,0 +1,153 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+
+import org.apache.james.protocols.smtp.BaseFakeSMTPSession;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailAddressException;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.Test;
+
+public class InMemoryGreylistHandlerTest {
+
+    private SMTPSession setUpSMTPSession(final String ip) {
+        return new BaseFakeSMTPSession() {
+            @Override
+            public InetSocketAddress getRemoteAddress() {
+                return new InetSocketAddress(ip, 10000);
+            }
+            
+            @Override
+            public boolean isRelayingAllowed() {
+                return false;
+            }
+        };
+    }
+    
+    private int doRcpt(InMemoryGreylistHandler handler, String ip, String sender, String rcpt) throws MailAddressException {
+        return handler.doRcpt(setUpSMTPSession(ip), new MailAddress(sender), new MailAddress(rcpt)).getResult();
+    }
+    
+    @Test
+    public void testGreylisting() throws MailAddressException, InterruptedException {
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        handler.setTempBlockTime(100);
+        
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        assertEquals(1, handler.getSize());
+        
+        Thread.sleep(200);
+        // the retry can come from an other host of the same network
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.2", "Sender@remote", "rcpt@localhost"));
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.1.1", "sender@remote", "rcpt@localhost"));
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt2@localhost"));
+        assertEquals(3, handler.getSize());
+    }
+    
+    @Test
+    public void testStringMethods() throws Exception {
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        assertFalse(handler.getGreyListData("192.168.0.1", "sender@remote", "rcpt@localhost").hasNext());
+        handler.insertTriplet("192.168.0.1", "sender@remote", "rcpt@localhost", 0, 1000);
+        handler.updateTriplet("192.168.0.1", "sender@remote", "rcpt@localhost", 0, 2000);
+        handler.insertTriplet("192.168.0.1", "sender@remote", "rcpt2@localhost", 0, 1000);
+        
+        Iterator<String> data = handler.getGreyListData("192.168.0.5", "sender@remote", "rcpt@localhost");
+        assertEquals("2000", data.next());
+        assertEquals("1", data.next());
+        
+        handler.cleanupGreyList(1500);
+        assertEquals(1, handler.getSize());
+        handler.cleanupAutoWhiteListGreyList(1500);
+        assertEquals(1, handler.getSize());
+        handler.cleanupAutoWhiteListGreyList(2500);
+        assertEquals(0, handler.getSize());
+    }
+    
+    @Test
+    public void testExpire() throws MailAddressException, InterruptedException {
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        handler.setTempBlockTime(0);
+        handler.setUnseenLifeTime(500);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt" + i + "@localhost"));
+        }
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt0@localhost"));
+        assertEquals(1000, handler.getSize());
+        
+        Thread.sleep(600);
+        handler.expire();
+        assertEquals(1, handler.getSize());
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt0@localhost"));
+    }
+    
+    @Test
+    public void testExpiredOnLookup() throws MailAddressException, InterruptedException {
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        handler.setTempBlockTime(0);
+        handler.setUnseenLifeTime(50);
+        handler.setAutoWhiteListLifeTime(50);
+        
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        Thread.sleep(100);
+        // the unseen triplet expired, so it is greylisted again
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        Thread.sleep(100);
+        // the whitelisted triplet expired too
+        assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt@localhost"));
+        assertEquals(1, handler.getSize());
+    }
+    
+    @Test
+    public void testSnapshot() throws MailAddressException, IOException {
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        handler.setTempBlockTime(0);
+        for (int i = 0; i < 100; i++) {
+            doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt" + i + "@localhost");
+        }
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, "192.168.0.1", "sender@remote", "rcpt0@localhost"));
+        
+        File file = File.createTempFile("greylist", ".snapshot");
+        try {
+            handler.writeSnapshot(file);
+            
+            InMemoryGreylistHandler handler2 = new InMemoryGreylistHandler();
+            handler2.setTempBlockTime(60000);
+            handler2.loadSnapshot(file);
+            assertEquals(100, handler2.getSize());
+            assertEquals(HookReturnCode.DECLINED, doRcpt(handler2, "192.168.0.1", "sender@remote", "rcpt0@localhost"));
+            assertEquals(HookReturnCode.DENYSOFT, doRcpt(handler2, "192.168.0.1", "sender@remote", "rcpt1@localhost"));
+        } finally {
+            file.delete();
+        }
+    }
+}
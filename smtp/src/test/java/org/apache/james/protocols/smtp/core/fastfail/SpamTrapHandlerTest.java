@@ -22,6 +22,7 @@ package org.apache.james.protocols.smtp.core.fastfail;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.james.protocols.smtp.BaseFakeSMTPSession;
 import org.apache.james.protocols.smtp.MailAddress;
@@ -90,4 +91,46 @@ public class SpamTrapHandlerTest {
     
         assertEquals("Not blocked. BlockTime exceeded", HookReturnCode.DECLINED,result); 
     }
+    
+    @Test
+    public void testExpireAndMaxBlockedIps() throws MailAddressException, InterruptedException {
+        SpamTrapHandler handler = new SpamTrapHandler();
+        handler.setBlockTime(100);
+        handler.setMaxBlockedIps(10);
+        handler.setSpamTrapRecipients(Arrays.asList(SPAM_TRAP_RECIP1));
+        
+        for (int i = 0; i < 20; i++) {
+            int result = handler.doRcpt(setUpSMTPSession("192.168.100." + i), null, new MailAddress("SpamTrap1@localhost")).getResult();
+            assertEquals("Blocked", HookReturnCode.DENY, result);
+        }
+        // the oldest ones were removed on the next call
+        handler.doRcpt(setUpSMTPSession("192.168.200.1"), null, new MailAddress(RECIP1));
+        assertEquals(10, handler.getBlockedIpCount());
+        assertEquals("Still blocked", HookReturnCode.DENY, handler.doRcpt(setUpSMTPSession("192.168.100.19"), null, new MailAddress(RECIP1)).getResult());
+        
+        Thread.sleep(200);
+        
+        // expired, even if the IPs never returned
+        handler.doRcpt(setUpSMTPSession("192.168.200.1"), null, new MailAddress(RECIP1));
+        assertEquals(0, handler.getBlockedIpCount());
+    }
+
+    @Test
+    public void testExpireAfterBlockTimeChanged() throws MailAddressException, InterruptedException {
+        SpamTrapHandler handler = new SpamTrapHandler();
+        handler.setBlockTime(60000);
+        handler.setSpamTrapRecipients(Arrays.asList(SPAM_TRAP_RECIP1));
+        handler.doRcpt(setUpSMTPSession("192.168.100.1"), null, new MailAddress(SPAM_TRAP_RECIP1));
+
+        // the IP which is added later expires first now
+        handler.setBlockTime(100);
+        handler.doRcpt(setUpSMTPSession("192.168.100.2"), null, new MailAddress(SPAM_TRAP_RECIP1));
+        assertEquals(2, handler.getBlockedIpCount());
+
+        Thread.sleep(200);
+
+        handler.doRcpt(setUpSMTPSession("192.168.200.1"), null, new MailAddress(RECIP1));
+        assertEquals(1, handler.getBlockedIpCount());
+        assertEquals("Still blocked", HookReturnCode.DENY, handler.doRcpt(setUpSMTPSession("192.168.100.1"), null, new MailAddress(RECIP1)).getResult());
+    }
 }
@@ -0,0 +1,176 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.protocols.smtp.BaseFakeSMTPSession;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailAddressException;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.Test;
+
+public class ValidRcptHandlerTest {
+
+    private final static String VALID_USER = "valid@localhost";
+    
+    private SMTPSession setUpSMTPSession(final String ip) {
+        return new BaseFakeSMTPSession() {
+            @Override
+            public InetSocketAddress getRemoteAddress() {
+                return new InetSocketAddress(ip, 10000);
+            }
+            
+            @Override
+            public boolean isRelayingAllowed() {
+                return false;
+            }
+        };
+    }
+    
+    private final static class CountingValidRcptHandler extends AbstractValidRcptHandler {
+        private final AtomicInteger lookups = new AtomicInteger(0);
+        
+        @Override
+        protected boolean isValidRecipient(SMTPSession session, MailAddress recipient) {
+            lookups.incrementAndGet();
+            return recipient.toString().equals(VALID_USER);
+        }
+
+        @Override
+        protected boolean isLocalDomain(SMTPSession session, String domain) {
+            return domain.equals("localhost");
+        }
+    }
+    
+    @Test
+    public void testValidAndUnknown() throws MailAddressException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        SMTPSession session = setUpSMTPSession("127.0.0.1");
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("unknown@localhost")).getResult());
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress("user@remote")).getResult());
+        assertEquals(2, handler.lookups.get());
+    }
+    
+    @Test
+    public void testCache() throws MailAddressException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setCacheSize(10);
+        SMTPSession session = setUpSMTPSession("127.0.0.1");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+            assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("Unknown@localhost")).getResult());
+        }
+        assertEquals(2, handler.lookups.get());
+        assertEquals(4, handler.getCacheHitCount());
+        assertEquals(2, handler.getCacheMissCount());
+        
+        handler.clearCache();
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(3, handler.lookups.get());
+    }
+    
+    @Test
+    public void testCacheExpire() throws MailAddressException, InterruptedException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setCacheSize(10);
+        handler.setInvalidTTL(1);
+        SMTPSession session = setUpSMTPSession("127.0.0.1");
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("unknown@localhost")).getResult());
+        Thread.sleep(10);
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("unknown@localhost")).getResult());
+        assertEquals(3, handler.lookups.get());
+    }
+    
+    @Test
+    public void testCacheSize() throws MailAddressException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setCacheSize(2);
+        SMTPSession session = setUpSMTPSession("127.0.0.1");
+        handler.doRcpt(session, null, new MailAddress("user1@localhost"));
+        handler.doRcpt(session, null, new MailAddress("user2@localhost"));
+        handler.doRcpt(session, null, new MailAddress("user3@localhost"));
+        handler.doRcpt(session, null, new MailAddress("user3@localhost"));
+        handler.doRcpt(session, null, new MailAddress("user1@localhost"));
+        assertEquals(4, handler.lookups.get());
+    }
+    
+    @Test
+    public void testHarvestDetection() throws MailAddressException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setMaxUnknownRecipients(3);
+        SMTPSession session = setUpSMTPSession("192.168.0.1");
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("user1@localhost")).getResult());
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("user2@localhost")).getResult());
+        assertEquals(HookReturnCode.DENY | HookReturnCode.DISCONNECT, handler.doRcpt(session, null, new MailAddress("user3@localhost")).getResult());
+        assertEquals(4, handler.lookups.get());
+        
+        // blocked without a lookup, even for a new connection and a valid recipient
+        SMTPSession session2 = setUpSMTPSession("192.168.0.1");
+        assertEquals(HookReturnCode.DENY | HookReturnCode.DISCONNECT, handler.doRcpt(session2, null, new MailAddress(VALID_USER)).getResult());
+        assertEquals(4, handler.lookups.get());
+        assertEquals(2, handler.getBlockedCount());
+        assertEquals(1, handler.getTrackedIPCount());
+        
+        // other IPs are not affected
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(setUpSMTPSession("192.168.0.2"), null, new MailAddress(VALID_USER)).getResult());
+    }
+    
+    @Test
+    public void testTrackedIPsAreBounded() throws MailAddressException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setMaxUnknownRecipients(2);
+        SMTPSession session = setUpSMTPSession("10.0.0.1");
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("user1@localhost")).getResult());
+        for (int i = 0; i < 20000; i++) {
+            handler.doRcpt(setUpSMTPSession("10.1." + (i >> 8) + "." + (i & 0xFF)), null, new MailAddress("user1@localhost"));
+            if (i % 1000 == 0) {
+                // keep the first IP recently seen
+                assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+            }
+        }
+        assertEquals(10000, handler.getTrackedIPCount());
+        
+        // the first IP is still tracked, so its second unknown recipient blocks it
+        assertEquals(HookReturnCode.DENY | HookReturnCode.DISCONNECT, handler.doRcpt(session, null, new MailAddress("user2@localhost")).getResult());
+    }
+    
+    @Test
+    public void testHarvestWindow() throws MailAddressException, InterruptedException {
+        CountingValidRcptHandler handler = new CountingValidRcptHandler();
+        handler.setMaxUnknownRecipients(2);
+        handler.setUnknownRecipientsWindow(50);
+        SMTPSession session = setUpSMTPSession("192.168.0.1");
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("user1@localhost")).getResult());
+        Thread.sleep(100);
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress("user2@localhost")).getResult());
+        assertEquals(HookReturnCode.DENY | HookReturnCode.DISCONNECT, handler.doRcpt(session, null, new MailAddress("user3@localhost")).getResult());
+        Thread.sleep(100);
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER)).getResult());
+    }
+}